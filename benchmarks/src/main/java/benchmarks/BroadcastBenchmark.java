@@ -0,0 +1,93 @@
+package benchmarks;
+
+import common.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.broadcast.BroadcastService;
+import server.broadcast.MulticastPublisher;
+import server.managers.GroupManager;
+import server.managers.OnlineUserManager;
+import server.ratelimit.BandwidthScheduler;
+import server.session.ClientSession;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BroadcastService 全员广播的扇出耗时（每次广播一条新消息）
+ * 广播只把消息放入各会话的下行队列，由会话写线程写入丢弃输出的对象流；
+ * 每次广播后等待队列清空，测得的是入队加写出的完整开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+    @Param({"10", "100", "1000"})
+    public int sessions;
+
+    private BroadcastService broadcastService;
+    private final List<ClientSession> attached = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        OnlineUserManager onlineUserManager = new OnlineUserManager();
+        BandwidthScheduler bandwidth = new BandwidthScheduler(0, 0);
+        broadcastService = new BroadcastService(onlineUserManager, new GroupManager(),
+                new MulticastPublisher(null, 0, null, 1, 0));
+        for (int i = 0; i < sessions; i++) {
+            String username = "user" + i;
+            ClientSession session = new ClientSession(username, "token" + i, 64, bandwidth);
+            ObjectOutputStream out = new ObjectOutputStream(new DiscardOutputStream());
+            session.attach(out, null, new Message(Message.Type.LOGIN, "服务器", username, "登录成功！"), 0);
+            onlineUserManager.addUserIfAbsent(username, session);
+            attached.add(session);
+        }
+    }
+
+    @Benchmark
+    public void broadcastToAll() {
+        broadcastService.broadcastOnlineNotify("bench");
+        for (ClientSession session : attached) {
+            while (session.getQueuedFrames() > 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ClientSession session : attached) {
+            session.close();
+        }
+    }
+
+    /**
+     * 丢弃所有写入的输出流
+     */
+    static final class DiscardOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import common.Group;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group 成员变更（写时复制）与成员快照遍历在不同群规模下的耗时
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GroupBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int members;
+
+    private Group group;
+    private String lastMember;
+
+    @Setup
+    public void setup() {
+        group = new Group("g", "bench");
+        for (int i = 0; i < members; i++) {
+            group.addMember("user" + i);
+        }
+        lastMember = "user" + (members - 1);
+    }
+
+    /**
+     * 重复加入已有成员（如重新登录时加入默认群）
+     */
+    @Benchmark
+    public Group addExistingMember() {
+        group.addMember(lastMember);
+        return group;
+    }
+
+    /**
+     * 新成员加入再离开，群规模保持不变
+     */
+    @Benchmark
+    public Group addAndRemoveNewMember() {
+        group.addMember("newcomer");
+        group.removeMember("newcomer");
+        return group;
+    }
+
+    /**
+     * 扇出时遍历成员快照
+     */
+    @Benchmark
+    public int iterateMembers() {
+        int length = 0;
+        for (String member : group.memberSnapshot()) {
+            length += member.length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import common.Group;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.managers.GroupManager;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupManager 按名称查找与关键字搜索
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GroupManagerBenchmark {
+    @Param({"100", "10000"})
+    public int groups;
+
+    private GroupManager groupManager;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setup() {
+        groupManager = new GroupManager();
+        names = new String[groups];
+        for (int i = 0; i < groups; i++) {
+            names[i] = "group" + i;
+            groupManager.createGroup(names[i]);
+        }
+    }
+
+    @Benchmark
+    public Group getGroupByName() {
+        next = (next + 1) % groups;
+        return groupManager.getGroupByName(names[next]);
+    }
+
+    @Benchmark
+    public List<Group> searchGroups() {
+        return groupManager.searchGroups("group4");
+    }
+}
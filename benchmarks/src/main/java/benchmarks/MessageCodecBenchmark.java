@@ -0,0 +1,105 @@
+package benchmarks;
+
+import common.Message;
+import common.RoutedEnvelope;
+import common.SymbolOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message 序列化/反序列化耗时
+ * fresh* 每帧新建对象流（含流头和类描述），steady* 复用一条长连接上的对象流（类描述只写一次，
+ * 与实际连接一样使用带名称字典的 SymbolOutputStream）
+ * envelope 为同一条聊天消息的路由信封编码（RoutedEnvelope）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCodecBenchmark {
+    private static final int RESET_INTERVAL = 1024;
+
+    @Param({"chat", "envelope", "file64k"})
+    public String kind;
+
+    private Message message;
+    private byte[] encoded;
+    private ByteArrayOutputStream steadyBuffer;
+    private ObjectOutputStream steadyStream;
+    private int written;
+
+    @Setup
+    public void setup() throws IOException {
+        message = newMessage();
+        encoded = encodeFresh();
+        steadyBuffer = new ByteArrayOutputStream(128 * 1024);
+        steadyStream = new SymbolOutputStream(steadyBuffer);
+    }
+
+    @Benchmark
+    public byte[] freshEncode() throws IOException {
+        return encodeFresh();
+    }
+
+    @Benchmark
+    public Object freshDecode() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(encoded))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * 长连接上逐帧写出新消息；定期 reset 防止句柄表无限增长
+     */
+    @Benchmark
+    public int steadyEncode() throws IOException {
+        Message next = newMessage();
+        steadyBuffer.reset();
+        steadyStream.writeObject(next);
+        steadyStream.flush();
+        if (++written % RESET_INTERVAL == 0) {
+            steadyStream.reset();
+        }
+        return steadyBuffer.size();
+    }
+
+    private byte[] encodeFresh() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(message);
+        }
+        return buffer.toByteArray();
+    }
+
+    private Message newMessage() {
+        if ("file64k".equals(kind)) {
+            byte[] data = new byte[64 * 1024];
+            return new Message(Message.Type.FILE_PRIVATE, "alice", "bob", "report.pdf", data.length, data);
+        }
+        String content = "晚上一起吃饭吗？七点老地方见";
+        Message chat = "envelope".equals(kind)
+                ? new RoutedEnvelope(Message.Type.PRIVATE_CHAT, "alice", "bob", content)
+                : new Message(Message.Type.PRIVATE_CHAT, "alice", "bob", content);
+        chat.setConversationId("p:alice|bob@node-8888");
+        chat.setSeq(42);
+        return chat;
+    }
+}
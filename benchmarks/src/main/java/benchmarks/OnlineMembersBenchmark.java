@@ -0,0 +1,79 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.managers.IdBitmap;
+import server.managers.SymbolTable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 求“群里哪些成员在线”：逐个成员查询在线表 与 成员位图和在线位图求交集
+ * onlinePercent 为在线成员比例，大群少量在线时差距最明显
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OnlineMembersBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int members;
+
+    @Param({"1", "50"})
+    public int onlinePercent;
+
+    private String[] memberSnapshot;
+    private final Map<String, Object> onlineMap = new ConcurrentHashMap<>();
+    private IdBitmap memberIds;
+    private IdBitmap onlineIds;
+
+    @Setup
+    public void setup() {
+        SymbolTable symbols = new SymbolTable();
+        memberSnapshot = new String[members];
+        int[] ids = new int[members];
+        int[] online = new int[members * onlinePercent / 100];
+        for (int i = 0; i < members; i++) {
+            memberSnapshot[i] = symbols.intern("user" + i);
+            ids[i] = symbols.idOf(memberSnapshot[i]);
+        }
+        int step = 100 / onlinePercent;
+        for (int i = 0; i < online.length; i++) {
+            onlineMap.put(memberSnapshot[i * step], Boolean.TRUE);
+            online[i] = ids[i * step];
+        }
+        Arrays.sort(memberSnapshot);
+        memberIds = IdBitmap.EMPTY.update(ids, new int[0]);
+        onlineIds = IdBitmap.EMPTY.update(online, new int[0]);
+    }
+
+    @Benchmark
+    public int probeOnlineMap() {
+        int count = 0;
+        for (String member : memberSnapshot) {
+            if (onlineMap.containsKey(member)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int intersectBitmaps() {
+        return memberIds.intersect(onlineIds).length;
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.managers.OnlineUserManager;
+import server.ratelimit.BandwidthScheduler;
+import server.session.ClientSession;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OnlineUserManager 在上下线并发时的查询耗时
+ * 6个线程查询，2个线程模拟上下线
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class OnlineUserManagerBenchmark {
+    @Param({"1000", "10000"})
+    public int users;
+
+    private OnlineUserManager onlineUserManager;
+    private String[] names;
+    private ClientSession[] sessions;
+
+    @Setup
+    public void setup() {
+        onlineUserManager = new OnlineUserManager();
+        BandwidthScheduler bandwidth = new BandwidthScheduler(0, 0);
+        names = new String[users];
+        sessions = new ClientSession[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = "user" + i;
+            sessions[i] = new ClientSession(names[i], "token" + i, 16, bandwidth);
+            onlineUserManager.addUserIfAbsent(names[i], sessions[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("lookup")
+    @GroupThreads(6)
+    public ClientSession getSession() {
+        return onlineUserManager.getSession(names[ThreadLocalRandom.current().nextInt(users)]);
+    }
+
+    @Benchmark
+    @Group("lookup")
+    @GroupThreads(2)
+    public boolean churn() {
+        int i = ThreadLocalRandom.current().nextInt(users);
+        onlineUserManager.removeUser(names[i], sessions[i]);
+        return onlineUserManager.addUserIfAbsent(names[i], sessions[i]);
+    }
+
+    @Benchmark
+    @Group("onlineList")
+    @GroupThreads(6)
+    public List<String> getClusterOnlineUsers() {
+        return onlineUserManager.getClusterOnlineUsers();
+    }
+
+    @Benchmark
+    @Group("onlineList")
+    @GroupThreads(2)
+    public boolean churnWhileListing() {
+        return churn();
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import server.auth.PasswordHasher;
+import server.managers.UserManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录校验的开销：单次 PBKDF2 校验，以及认证线程池满载时的登录吞吐（每秒次数）
+ * 迭代次数与服务端 chat.auth.iterations 对应，用于估算给定登录洪峰需要的认证线程数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordHasherBenchmark {
+    @Param({"20000"})
+    public int iterations;
+
+    private PasswordHasher hasher;
+    private UserManager userManager;
+    private String stored;
+
+    @Setup
+    public void setup() {
+        hasher = new PasswordHasher(iterations);
+        userManager = new UserManager(hasher);
+        userManager.registerUser("bench", "password");
+        stored = hasher.hash("password");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return hasher.verify("password", stored);
+    }
+
+    @Benchmark
+    public String hash() {
+        return hasher.hash("password");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean loginContended() {
+        return userManager.accountExists("bench") && userManager.verifyPassword("bench", "password");
+    }
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import common.ListSnapshot;
+import common.Message;
+import common.SymbolOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向一个连接下发在线用户列表：每次新建列表消息并序列化 与 写出缓存的预编码快照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int users;
+
+    private final List<String> online = new ArrayList<>();
+    private ListSnapshot cached;
+    private ByteArrayOutputStream buffer;
+    private ObjectOutputStream stream;
+
+    @Setup
+    public void setup() throws IOException {
+        for (int i = 0; i < users; i++) {
+            online.add("user" + i);
+        }
+        cached = ListSnapshot.ofOnlineUsers(1, online);
+        buffer = new ByteArrayOutputStream(users * 16 + 1024);
+        stream = new SymbolOutputStream(buffer);
+    }
+
+    @Benchmark
+    public int rebuildAndSerialize() throws IOException {
+        Message message = new Message(Message.Type.ONLINE_USERS, "服务器");
+        message.setOnlineUsers(new ArrayList<>(online));
+        return write(message);
+    }
+
+    @Benchmark
+    public int writeCachedSnapshot() throws IOException {
+        return write(cached.copy());
+    }
+
+    /**
+     * 每次写出后 reset，与会话写线程定期 reset 后的情形一致，不让句柄表替后续写出省掉字符串
+     */
+    private int write(Message message) throws IOException {
+        buffer.reset();
+        stream.writeObject(message);
+        stream.reset();
+        stream.flush();
+        return buffer.size();
+    }
+}
@@ -7,6 +7,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 import java.util.Map;
 
@@ -542,6 +544,13 @@ public class ChatClient extends JFrame {
         }
     }
 
+    /**
+     * 查看群成员（按页向服务器请求）
+     */
+    public void requestGroupMembers(String groupId, int offset) {
+        chatManager.sendGroupMembersRequest(groupId, offset);
+    }
+
     private ChatMainUI chatMainUI;
     private MessageHandler messageHandler;
 
@@ -570,6 +579,13 @@ public class ChatClient extends JFrame {
         setSize(800, 500);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                // 主动下线，服务器立即广播下线而不是等待会话恢复超时
+                networkManager.logout();
+            }
+        });
     }
 
     /**
@@ -590,8 +606,12 @@ public class ChatClient extends JFrame {
 
             // 接收登录响应
             Message response = networkManager.receiveMessage();
+            if (response == null) {
+                return; // 接收失败时已提示，停留在登录界面
+            }
             if (response.getContent().contains("成功")) {
                 username = account;
+                networkManager.onLoginSuccess(account, password, response);
                 // 关闭登录注册窗口，显示聊天界面
                 loginRegisterFrame.dispose();
                 initChatUI();
@@ -611,9 +631,8 @@ public class ChatClient extends JFrame {
         } catch (Exception e) {
             JOptionPane.showMessageDialog(loginRegisterFrame, "登录失败：" + e.getMessage());
             e.printStackTrace();
-            // 异常时重置Socket（避免残留失效连接）
+            // 异常时重置Socket（避免残留失效连接），停留在登录界面重试
             resetSocket();
-            System.exit(1);
         }
     }
 
@@ -624,6 +643,7 @@ public class ChatClient extends JFrame {
     }
 
     public void startMessageListener() {
+        networkManager.startMulticast(messageHandler::handleMessage);
         MessageListener listener = new MessageListener(networkManager, messageHandler, chatArea);
         listener.start();
     }
@@ -1,6 +1,7 @@
 package client;
 
 import client.handler.MessageHandler;
+import client.network.MulticastReceiver;
 import client.network.NetworkManager;
 import common.Message;
 
@@ -21,12 +22,17 @@ public class MessageListener extends Thread {
     public void run() {
         try {
             Message message;
-            while (true) {
-                message = networkManager.receiveMessage();
-                if (message != null) {
+            // 断线时 receiveSessionMessage 会自动重连，只有用户退出或重新登录被拒绝时才返回null
+            while ((message = networkManager.receiveSessionMessage()) != null) {
+                // 带组播序号的帧与组播收到的帧合并去重后再处理
+                MulticastReceiver multicast = networkManager.getMulticastReceiver();
+                if (multicast == null || !multicast.onUnicast(message)) {
                     messageHandler.handleMessage(message);
                 }
             }
+            SwingUtilities.invokeLater(() -> {
+                chatArea.append("【系统消息】与服务器断开连接！\n");
+            });
         } catch (Exception e) {
             SwingUtilities.invokeLater(() -> {
                 chatArea.append("【系统消息】与服务器断开连接！\n");
@@ -4,9 +4,13 @@ import client.ChatClient;
 import client.ui.ChatMainUI;
 import client.utils.FileUtils;
 import client.managers.DataManager;
+import client.managers.DeliveryTracker;
+import client.managers.FileChunkAssembler;
+import client.network.PeerFileTransfer;
 import common.Message;
 
 import javax.swing.*;
+import java.io.IOException;
 
 /**
  * 消息处理器类
@@ -16,6 +20,8 @@ public class MessageHandler {
     private ChatClient chatClient;
     private ChatMainUI chatMainUI;
     private DataManager dataManager;
+    private final DeliveryTracker deliveryTracker = new DeliveryTracker();
+    private final FileChunkAssembler chunkAssembler = new FileChunkAssembler();
 
     public MessageHandler(ChatClient chatClient, ChatMainUI chatMainUI) {
         this.chatClient = chatClient;
@@ -24,9 +30,18 @@ public class MessageHandler {
     }
 
     /**
-     * 处理接收到的消息
+     * 处理接收到的消息（消息监听线程与组播接收线程都会调用，逐条串行处理）
      */
-    public void handleMessage(Message message) {
+    public synchronized void handleMessage(Message message) {
+        if (message.getType() == Message.Type.FILE_CHUNK) {
+            message = chunkAssembler.accept(message);
+            if (message == null) {
+                return; // 文件切片尚未收齐
+            }
+        }
+        if (!deliveryTracker.accept(message)) {
+            return; // 重复投递的消息
+        }
         switch (message.getType()) {
             case PRIVATE_CHAT:
                 handlePrivateChat(message);
@@ -45,6 +60,12 @@ public class MessageHandler {
             case FILE_PRIVATE:
                 handlePrivateFile(message);
                 break;
+            case FILE_OFFER:
+                handleFileOffer(message);
+                break;
+            case FILE_FALLBACK:
+                handleFileFallback(message);
+                break;
             // 新增：处理群聊文件接收
             case FILE_GROUP:
                 handleGroupFile(message);
@@ -67,6 +88,9 @@ public class MessageHandler {
             case GROUP_LIST:
                 handleGroupList(message);
                 break;
+            case GROUP_MEMBERS:
+                handleGroupMembers(message);
+                break;
             case FIND_PASSWORD_RESPONSE:
             case RESET_PASSWORD_RESPONSE:
             case REGISTER_RESPONSE:
@@ -85,6 +109,7 @@ public class MessageHandler {
      * 处理私聊消息
      */
     private void handlePrivateChat(Message message) {
+        chatClient.getNetworkManager().getPresence().notePeer(message.getSender());
         SwingUtilities.invokeLater(() -> {
             chatClient.getChatArea().append("【私聊-" + message.getSender() + "】" + message.getContent() + "\n");
         });
@@ -124,6 +149,7 @@ public class MessageHandler {
      * 处理私聊文件接收
      */
     private void handlePrivateFile(Message message) {
+        chatClient.getNetworkManager().getPresence().notePeer(message.getSender());
         SwingUtilities.invokeLater(() -> {
             chatClient.getChatArea().append("【系统消息】" + message.getSender() + " 发送私聊文件：" + 
                 message.getFileName() + "（大小：" + FileUtils.formatFileSize(message.getFileSize()) + "）\n");
@@ -131,6 +157,53 @@ public class MessageHandler {
         });
     }
 
+    /**
+     * 处理私聊文件直连约定：在后台线程中直接向发送方拉取，失败时请求对方改经服务器转发
+     */
+    private void handleFileOffer(Message offer) {
+        Thread puller = new Thread(() -> {
+            byte[] data = PeerFileTransfer.download(offer.getPeerAddress(), offer.getTransferToken(), offer.getFileSize());
+            if (data != null) {
+                handlePrivateFile(new Message(Message.Type.FILE_PRIVATE, offer.getSender(), offer.getReceiver(),
+                        offer.getFileName(), data.length, data));
+                return;
+            }
+            Message fallback = new Message(Message.Type.FILE_FALLBACK, chatClient.getUsername(), offer.getSender(),
+                    offer.getFileName(), offer.getFileSize(), null);
+            fallback.setTransferToken(offer.getTransferToken());
+            chatClient.getNetworkManager().sendMessage(fallback);
+            SwingUtilities.invokeLater(() -> chatClient.getChatArea().append("【系统消息】无法直连 " + offer.getSender()
+                    + " 接收文件[" + offer.getFileName() + "]，已请求经服务器转发\n"));
+        }, "p2p-download");
+        puller.setDaemon(true);
+        puller.start();
+    }
+
+    /**
+     * 对方无法直连拉取：把登记的文件改经服务器转发
+     */
+    private void handleFileFallback(Message message) {
+        PeerFileTransfer peerFiles = chatClient.getNetworkManager().getPeerFileTransfer();
+        PeerFileTransfer.Offer offer = peerFiles != null ? peerFiles.take(message.getTransferToken()) : null;
+        if (offer == null || !offer.getReceiver().equals(message.getSender())) {
+            SwingUtilities.invokeLater(() -> chatClient.getChatArea().append("【系统消息】文件[" + message.getFileName()
+                    + "]已过期，无法转发给 " + message.getSender() + "，请重新发送\n"));
+            return;
+        }
+        byte[] data;
+        try {
+            data = offer.readData();
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> chatClient.getChatArea().append("【系统消息】文件[" + offer.getFileName()
+                    + "]读取失败，无法转发给 " + offer.getReceiver() + "：" + e.getMessage() + "\n"));
+            return;
+        }
+        chatClient.getNetworkManager().sendMessage(new Message(Message.Type.FILE_PRIVATE, chatClient.getUsername(),
+                offer.getReceiver(), offer.getFileName(), data.length, data));
+        SwingUtilities.invokeLater(() -> chatClient.getChatArea().append("【系统消息】" + offer.getReceiver()
+                + " 无法直连，文件[" + offer.getFileName() + "]已改经服务器发送\n"));
+    }
+
     /**
      * 处理群聊文件接收
      */
@@ -188,6 +261,26 @@ public class MessageHandler {
         chatMainUI.updateGroupList(message.getGroupList());
     }
 
+    /**
+     * 处理群成员分页结果：显示本页成员，还有剩余时询问是否继续查看下一页
+     */
+    private void handleGroupMembers(Message message) {
+        int from = message.getPageOffset();
+        int to = from + message.getGroupMembers().size();
+        int total = message.getMemberTotal();
+        SwingUtilities.invokeLater(() -> {
+            chatClient.getChatArea().append("【群成员-" + message.getGroupName() + "】第 " + (from + 1) + "~" + to
+                    + " 人（共 " + total + " 人）：" + String.join("、", message.getGroupMembers()) + "\n");
+            if (to < total && to > from) {
+                int choice = JOptionPane.showConfirmDialog(chatClient, "还有 " + (total - to) + " 位成员，查看下一页？",
+                        "群成员", JOptionPane.YES_NO_OPTION);
+                if (choice == JOptionPane.YES_OPTION) {
+                    chatClient.requestGroupMembers(message.getGroupId(), to);
+                }
+            }
+        });
+    }
+
     /**
      * 处理一般响应消息（注册、找回密码、重置密码等）
      */
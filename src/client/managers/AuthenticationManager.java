@@ -30,8 +30,12 @@ public class AuthenticationManager {
             chatClient.getNetworkManager().sendMessage(loginMsg);
 
             Message response = chatClient.getNetworkManager().receiveMessage();
+            if (response == null) {
+                return;
+            }
             if (response.getContent().contains("成功")) {
                 chatClient.setUsername(account);
+                chatClient.getNetworkManager().onLoginSuccess(account, password, response);
                 chatClient.getLoginRegisterFrame().dispose();
                 chatClient.initChatUI();
                 chatClient.setVisible(true);
@@ -49,7 +53,6 @@ public class AuthenticationManager {
             JOptionPane.showMessageDialog(chatClient.getLoginRegisterFrame(), "登录失败：" + e.getMessage());
             e.printStackTrace();
             chatClient.resetSocket();
-            System.exit(1);
         }
     }
 
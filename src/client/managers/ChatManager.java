@@ -2,14 +2,18 @@ package client.managers;
 
 import client.ChatClient;
 import common.Message;
+import common.RoutedEnvelope;
 
 import javax.swing.*;
 
 /**
  * 聊天管理类
  * 负责处理聊天消息的发送逻辑
+ * 聊天消息默认以路由信封发送，服务器只解析路由头、原样转发正文；chat.routing.opaque=false 时按普通消息发送
  */
 public class ChatManager {
+    private static final boolean OPAQUE_ROUTING = Boolean.parseBoolean(System.getProperty("chat.routing.opaque", "true"));
+
     private final ChatClient chatClient;
 
     public ChatManager(ChatClient chatClient) {
@@ -43,9 +47,12 @@ public class ChatManager {
             } else {
                 type = Message.Type.PRIVATE_CHAT;
                 target = targetName;
+                chatClient.getNetworkManager().getPresence().notePeer(target);
             }
 
-            Message chatMsg = new Message(type, chatClient.getUsername(), target, content);
+            Message chatMsg = OPAQUE_ROUTING
+                    ? new RoutedEnvelope(type, chatClient.getUsername(), target, content)
+                    : new Message(type, chatClient.getUsername(), target, content);
             chatClient.getNetworkManager().sendMessage(chatMsg);
             chatClient.getInputField().setText("");
         } catch (Exception e) {
@@ -122,4 +129,19 @@ public class ChatManager {
             e.printStackTrace();
         }
     }
+
+    /**
+     * 发送群成员查询请求（按页获取，从 offset 开始）
+     */
+    public void sendGroupMembersRequest(String groupId, int offset) {
+        try {
+            Message membersMsg = new Message(Message.Type.GROUP_MEMBERS, chatClient.getUsername(), "", "");
+            membersMsg.setGroupId(groupId);
+            membersMsg.setPageOffset(offset);
+            chatClient.getNetworkManager().sendMessage(membersMsg);
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(chatClient, "发送群成员查询请求失败：" + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package client.managers;
+
+import common.Message;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 投递去重类
+ * 服务器按会话序号分配消息，但文件与聊天消息分道写出，同一会话内文件可能晚于其后的聊天消息到达；
+ * 因此每个会话记录已处理的最大序号及其之前一段窗口内各序号是否已处理（滑动窗口），
+ * 窗口内已处理过或早于窗口的消息即为重复投递，直接丢弃
+ */
+public class DeliveryTracker {
+    private static final int WINDOW_SIZE = 1024;
+
+    private final Map<String, Window> windows = new HashMap<>();
+
+    /**
+     * 判断消息是否应当处理（由 MessageHandler 串行调用）
+     * @return 首次到达返回true，重复返回false
+     */
+    public boolean accept(Message message) {
+        String conversationId = message.getConversationId();
+        if (conversationId == null || message.getSeq() <= 0) {
+            return true; // 系统消息不带序号
+        }
+        return windows.computeIfAbsent(conversationId, id -> new Window()).accept(message.getSeq());
+    }
+
+    /**
+     * 单个会话的去重窗口：bits 的第 i 位表示序号 highest - i 是否已处理
+     */
+    private static final class Window {
+        private final long[] bits = new long[WINDOW_SIZE / 64];
+        private long highest;
+
+        boolean accept(long seq) {
+            if (seq > highest) {
+                shift(seq - highest);
+                highest = seq;
+                set(0);
+                return true;
+            }
+            long offset = highest - seq;
+            if (offset >= WINDOW_SIZE || isSet((int) offset)) {
+                return false;
+            }
+            set((int) offset);
+            return true;
+        }
+
+        private void shift(long distance) {
+            if (distance >= WINDOW_SIZE) {
+                Arrays.fill(bits, 0L);
+                return;
+            }
+            int words = (int) (distance / 64);
+            int rest = (int) (distance % 64);
+            for (int i = bits.length - 1; i >= 0; i--) {
+                int from = i - words;
+                long value = from >= 0 ? bits[from] << rest : 0L;
+                if (rest > 0 && from - 1 >= 0) {
+                    value |= bits[from - 1] >>> (64 - rest);
+                }
+                bits[i] = value;
+            }
+        }
+
+        private boolean isSet(int offset) {
+            return (bits[offset / 64] & (1L << (offset % 64))) != 0;
+        }
+
+        private void set(int offset) {
+            bits[offset / 64] |= 1L << (offset % 64);
+        }
+    }
+}
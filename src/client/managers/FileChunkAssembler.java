@@ -0,0 +1,68 @@
+package client.managers;
+
+import common.Message;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 文件切片重组类
+ * 服务器将大文件切片后与聊天消息交错下发，收齐全部切片后还原为原来的文件消息
+ * 断线期间大文件的切片只补发不含数据的占位，此时改为返回一条重发提示
+ */
+public class FileChunkAssembler {
+    private final Map<String, Partial> partials = new HashMap<>();
+
+    /**
+     * 处理一个切片（由 MessageHandler 串行调用）
+     * @return 最后一个切片到达时返回还原后的消息（或提示），否则返回null
+     */
+    public Message accept(Message chunk) {
+        String transferId = chunk.getTransferId();
+        Partial partial = partials.get(transferId);
+        if (chunk.getChunkIndex() == 0 || partial == null) {
+            partial = new Partial(chunk.getFileSize());
+            partials.put(transferId, partial);
+        }
+        byte[] data = chunk.getFileData();
+        if (data == null || chunk.getChunkIndex() != partial.nextIndex
+                || partial.length + data.length > partial.data.length) {
+            partial.broken = true;
+        } else {
+            System.arraycopy(data, 0, partial.data, partial.length, data.length);
+            partial.length += data.length;
+        }
+        partial.nextIndex = chunk.getChunkIndex() + 1;
+
+        if (partial.nextIndex < chunk.getChunkCount()) {
+            return null;
+        }
+        partials.remove(transferId);
+        if (partial.broken || partial.length != partial.data.length) {
+            Message notice = new Message(Message.Type.PRIVATE_CHAT, "服务器", chunk.getReceiver(),
+                    chunk.getSender() + " 发送的文件[" + chunk.getFileName() + "]在断线期间未能送达，请让对方重新发送");
+            notice.setConversationId(chunk.getConversationId());
+            notice.setSeq(chunk.getSeq());
+            return notice;
+        }
+        Message file = new Message(chunk.getChunkOf(), chunk.getSender(), chunk.getReceiver(),
+                chunk.getFileName(), chunk.getFileSize(), partial.data);
+        file.setContent(chunk.getContent());
+        file.setGroupId(chunk.getGroupId());
+        file.setGroupName(chunk.getGroupName());
+        file.setConversationId(chunk.getConversationId());
+        file.setSeq(chunk.getSeq());
+        return file;
+    }
+
+    private static final class Partial {
+        final byte[] data;
+        int length;
+        int nextIndex;
+        boolean broken;
+
+        Partial(long fileSize) {
+            this.data = new byte[(int) fileSize];
+        }
+    }
+}
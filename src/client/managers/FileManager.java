@@ -1,6 +1,7 @@
 package client.managers;
 
 import client.ChatClient;
+import client.network.PeerFileTransfer;
 import client.utils.FileUtils;
 import common.Message;
 
@@ -50,11 +51,12 @@ public class FileManager {
 
     /**
      * 发送文件
+     * @return 文件已登记为待对方直连拉取时返回true，此时文件需保留到拉取完成或过期
      */
-    public void sendFile() {
+    public boolean sendFile() {
         if (selectedFile == null || !selectedFile.exists()) {
             JOptionPane.showMessageDialog(chatClient, "请先选择文件！");
-            return;
+            return false;
         }
 
         String targetName = (String) chatClient.getTargetBox().getSelectedItem();
@@ -74,24 +76,39 @@ public class FileManager {
 
         if (target == null || target.isEmpty()) {
             JOptionPane.showMessageDialog(chatClient, "请先选择聊天对象！");
-            return;
+            return false;
         }
 
         try {
-            FileInputStream fis = new FileInputStream(selectedFile);
-            byte[] fileData = new byte[(int) selectedFile.length()];
-            fis.read(fileData);
-            fis.close();
-
-            Message fileMsg = new Message(type, chatClient.getUsername(), target,
-                    selectedFile.getName(), selectedFile.length(), fileData);
-            chatClient.getNetworkManager().sendMessage(fileMsg);
-
-            chatClient.getChatArea().append("【系统消息】文件[" + selectedFile.getName() + "]发送成功\n");
+            PeerFileTransfer peerFiles = type == Message.Type.FILE_PRIVATE
+                    ? chatClient.getNetworkManager().getPeerFileTransfer() : null;
+            String token = peerFiles != null ? peerFiles.offer(target, selectedFile) : null;
+            boolean offered = token != null;
+            if (offered) {
+                // 私聊文件只经服务器发送约定信息，由对方直接拉取
+                Message offer = new Message(Message.Type.FILE_OFFER, chatClient.getUsername(), target,
+                        selectedFile.getName(), selectedFile.length(), null);
+                offer.setPeerAddress(peerFiles.getAddress());
+                offer.setTransferToken(token);
+                chatClient.getNetworkManager().sendMessage(offer);
+                chatClient.getChatArea().append("【系统消息】文件[" + selectedFile.getName() + "]已发出，等待对方直连接收\n");
+            } else {
+                FileInputStream fis = new FileInputStream(selectedFile);
+                byte[] fileData = new byte[(int) selectedFile.length()];
+                fis.read(fileData);
+                fis.close();
+
+                Message fileMsg = new Message(type, chatClient.getUsername(), target,
+                        selectedFile.getName(), selectedFile.length(), fileData);
+                chatClient.getNetworkManager().sendMessage(fileMsg);
+                chatClient.getChatArea().append("【系统消息】文件[" + selectedFile.getName() + "]发送成功\n");
+            }
             selectedFile = null;
+            return offered;
         } catch (IOException e) {
             JOptionPane.showMessageDialog(chatClient, "发送文件失败：" + e.getMessage());
             e.printStackTrace();
+            return false;
         }
     }
 
@@ -121,7 +138,10 @@ public class FileManager {
             }
 
             selectedFile = screenshotFile;
-            sendFile();
+            if (sendFile()) {
+                screenshotFile.deleteOnExit(); // 对方直连拉取时才读取，不能立即删除
+                return;
+            }
 
             new Thread(() -> {
                 try {
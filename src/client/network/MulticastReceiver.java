@@ -0,0 +1,289 @@
+package client.network;
+
+import common.DecodeFilter;
+import common.Group;
+import common.ListSnapshot;
+import common.Message;
+import common.MulticastSeal;
+import common.RoutedEnvelope;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * 组播接收器
+ * 加入服务器告知的组播组，收到第一个组播帧（或心跳）后经TCP订阅，此后服务器不再经TCP下发广播帧；
+ * 从未收到组播（如不在同一局域网）时不订阅，广播帧照常经TCP到达
+ *
+ * 组播帧与TCP补发的帧按组播序号合并：重复的丢弃，乱序的暂存，按序交给处理器；
+ * 缺号（或心跳显示末尾有帧未到）持续一小段时间后经TCP请求补发（NACK），服务器已无法补发时跳过缺口
+ * 订阅之前经TCP到达的帧直接处理，订阅起点之前的组播帧丢弃，两条路径上的同一帧只处理一次
+ *
+ * 数据报先用登录时下发的本纪元密钥校验（见 MulticastSeal），通过后才解码，解码只允许广播帧会用到的类
+ */
+public class MulticastReceiver {
+    private static final int MAX_DATAGRAM_BYTES = 65_535;
+    private static final int POLL_MILLIS = 20;
+    private static final long NACK_DELAY_NANOS = 40_000_000L;   // 缺号持续多久后请求补发（等待乱序到达的帧）
+    private static final long NACK_RETRY_NANOS = 500_000_000L;  // 补发未到时再次请求的间隔
+    private static final DecodeFilter FRAME_TYPES = new DecodeFilter(
+            Message.class, Message.Type.class, ListSnapshot.class, RoutedEnvelope.class, Group.class);
+
+    private final MulticastSocket socket;
+    private final NetworkManager networkManager;
+    private final String account;
+    private final Consumer<Message> sink;
+    private volatile boolean closed;
+
+    // 以下字段由 this 锁保护
+    private long epoch;
+    private MulticastSeal seal;
+    private long base;        // 订阅起点，0 表示尚未订阅
+    private long next;        // 下一个应处理的组播序号
+    private long tcpHigh;     // 订阅前经TCP处理过的最大组播序号
+    private long announced;   // 心跳告知的最新序号
+    private final TreeMap<Long, Message> pending = new TreeMap<>(); // 序号超前、暂存的帧
+    private long gapSince;    // 当前缺口首次发现的时间，0 表示没有缺口
+    private long lastNackAt;
+
+    private MulticastReceiver(MulticastSocket socket, NetworkManager networkManager, String account,
+                              long epoch, byte[] key, Consumer<Message> sink) {
+        this.socket = socket;
+        this.networkManager = networkManager;
+        this.account = account;
+        this.epoch = epoch;
+        this.seal = new MulticastSeal(key);
+        this.sink = sink;
+    }
+
+    /**
+     * 加入组播组，失败时返回null（广播帧继续经TCP到达）
+     * 接收所用网卡可通过系统属性 chat.multicast.interface 指定
+     * @param address 服务器告知的组播地址（host:port）
+     * @param key     服务器告知的本纪元校验密钥，缺失时不加入组播组
+     */
+    public static MulticastReceiver open(String address, long epoch, byte[] key, NetworkManager networkManager,
+                                         String account, Consumer<Message> sink) {
+        if (key == null || key.length == 0) {
+            return null;
+        }
+        int colon = address.lastIndexOf(':');
+        MulticastSocket socket = null;
+        try {
+            InetAddress group = InetAddress.getByName(address.substring(0, colon));
+            int port = Integer.parseInt(address.substring(colon + 1));
+            socket = new MulticastSocket(port);
+            socket.setSoTimeout(POLL_MILLIS);
+            String interfaceName = System.getProperty("chat.multicast.interface");
+            NetworkInterface nif = interfaceName != null ? NetworkInterface.getByName(interfaceName) : null;
+            socket.joinGroup(new InetSocketAddress(group, port), nif); // nif 为null时由系统选择网卡
+        } catch (IOException | RuntimeException e) {
+            System.out.println("加入组播组失败，广播经TCP接收：" + e.getMessage());
+            if (socket != null) socket.close();
+            return null;
+        }
+        MulticastReceiver receiver = new MulticastReceiver(socket, networkManager, account, epoch, key, sink);
+        Thread thread = new Thread(receiver::receiveLoop, "multicast-receiver");
+        thread.setDaemon(true);
+        thread.start();
+        return receiver;
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[MAX_DATAGRAM_BYTES];
+        while (!closed) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                Message message = decode(packet);
+                if (message != null) {
+                    onDatagram(message);
+                }
+            } catch (SocketTimeoutException e) {
+                // 定期检查缺口
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+            }
+            checkGap(System.nanoTime());
+        }
+    }
+
+    /**
+     * 校验并解码数据报；校验失败、含有白名单以外的类或无法解码时返回null
+     */
+    private Message decode(DatagramPacket packet) {
+        synchronized (this) {
+            if (!seal.verify(packet.getData(), packet.getOffset(), packet.getLength())) {
+                return null; // 伪造、残缺、其他服务端或旧纪元的数据报
+            }
+        }
+        int length = packet.getLength() - MulticastSeal.MAC_BYTES;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(packet.getData(), packet.getOffset() + MulticastSeal.MAC_BYTES, length))) {
+            if (!DecodeFilter.install(in, (serialClass, depth, arrayLength) ->
+                    depth <= DecodeFilter.MAX_DEPTH && DecodeFilter.arrayBytes(serialClass, arrayLength) <= length
+                            && FRAME_TYPES.allows(serialClass))) {
+                return null; // 运行环境不支持反序列化过滤：不解码组播帧，从不订阅，广播帧继续经TCP到达
+            }
+            return (Message) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    private synchronized void onDatagram(Message message) {
+        if (message.getMulticastEpoch() != epoch) {
+            return; // 其他服务端（或旧纪元）的帧
+        }
+        long seq = message.getMulticastSeq();
+        if (message.getType() == Message.Type.MCAST_HEARTBEAT) {
+            if (base == 0) {
+                subscribe(Math.max(seq, tcpHigh) + 1);
+            }
+            announced = Math.max(announced, seq);
+            return;
+        }
+        if (base == 0) {
+            subscribe(Math.max(seq, tcpHigh + 1));
+        }
+        announced = Math.max(announced, seq);
+        accept(message);
+    }
+
+    /**
+     * 经TCP到达的帧：带有本纪元组播序号的帧或跳过通知由接收器合并后交给处理器
+     * @return 已由接收器处理返回true，否则调用方直接处理
+     */
+    public synchronized boolean onUnicast(Message message) {
+        if (message.getMulticastEpoch() != epoch || epoch == 0) {
+            return false;
+        }
+        long seq = message.getMulticastSeq();
+        if (message.getType() == Message.Type.MCAST_SKIP) {
+            skipTo(seq);
+            return true;
+        }
+        if (seq <= 0) {
+            return false;
+        }
+        if (base == 0) {
+            tcpHigh = Math.max(tcpHigh, seq);
+            deliver(message);
+        } else if (seq < base) {
+            deliver(message); // 订阅前经TCP下发的帧，组播路径上的同一帧已丢弃
+        } else {
+            accept(message);
+        }
+        return true;
+    }
+
+    /**
+     * 重新登录后服务器创建了新会话，需要重新订阅
+     */
+    public synchronized void reset(long newEpoch, byte[] newKey) {
+        epoch = newEpoch;
+        if (newKey != null && newKey.length > 0) {
+            seal = new MulticastSeal(newKey);
+        }
+        base = 0;
+        next = 0;
+        tcpHigh = 0;
+        announced = 0;
+        pending.clear();
+        gapSince = 0;
+    }
+
+    public void close() {
+        closed = true;
+        socket.close();
+    }
+
+    private void subscribe(long from) {
+        base = from;
+        next = from;
+        pending.clear();
+        Message subscribe = new Message(Message.Type.MCAST_SUBSCRIBE, account, "");
+        subscribe.setMulticastEpoch(epoch);
+        subscribe.setMulticastSeq(from);
+        networkManager.sendMessage(subscribe);
+    }
+
+    private void accept(Message message) {
+        long seq = message.getMulticastSeq();
+        if (seq < next || pending.containsKey(seq)) {
+            return; // 重复
+        }
+        if (seq > next) {
+            pending.put(seq, message);
+            return;
+        }
+        deliver(message);
+        next++;
+        drainPending();
+    }
+
+    private void skipTo(long seq) {
+        if (base == 0 || seq <= next) {
+            return;
+        }
+        pending.headMap(seq).clear();
+        next = seq;
+        drainPending();
+    }
+
+    private void drainPending() {
+        Map.Entry<Long, Message> head;
+        while ((head = pending.firstEntry()) != null && head.getKey() == next) {
+            pending.pollFirstEntry();
+            deliver(head.getValue());
+            next++;
+        }
+        gapSince = 0;
+    }
+
+    private void deliver(Message message) {
+        if (message.getType() == Message.Type.GROUP_CHAT && account.equals(message.getSender())) {
+            return; // 默认群消息的组播包含自己发出的消息，本地已显示
+        }
+        sink.accept(message);
+    }
+
+    /**
+     * 缺口持续超过等待时间后请求补发；补发未到时按间隔重试
+     */
+    private synchronized void checkGap(long now) {
+        if (base == 0 || !networkManager.isConnected()) {
+            return; // 断线期间不请求，重连后缺口仍在时再请求
+        }
+        long gapEnd = pending.isEmpty() ? announced : pending.firstKey() - 1;
+        if (gapEnd < next) {
+            gapSince = 0;
+            return;
+        }
+        if (gapSince == 0) {
+            gapSince = now;
+            return;
+        }
+        if (now - gapSince < NACK_DELAY_NANOS || now - lastNackAt < NACK_RETRY_NANOS) {
+            return;
+        }
+        lastNackAt = now;
+        Message nack = new Message(Message.Type.MCAST_NACK, account, "");
+        nack.setMulticastEpoch(epoch);
+        nack.setMulticastSeq(next);
+        nack.setMulticastCount((int) Math.min(Integer.MAX_VALUE, gapEnd - next + 1));
+        networkManager.sendMessage(nack);
+    }
+}
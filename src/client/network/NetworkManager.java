@@ -1,27 +1,80 @@
 package client.network;
 
 import client.ChatClient;
+import common.FileChunks;
+import common.FrameOutputStream;
 import common.Message;
+import common.SymbolInputStream;
+import common.SymbolOutputStream;
 
 import javax.swing.*;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * 网络通信管理类
  * 负责处理客户端与服务器之间的网络通信
+ *
+ * 登录后连接意外断开时自动重连：优先凭恢复令牌恢复会话（服务器只补发缺失的帧），
+ * 令牌失效时再用登录凭据重新登录；断线和重连握手期间发送的消息暂存在本地发件箱，
+ * 握手成功（收到恢复/登录响应）后依次发出，握手完成前不向新连接写出任何会话消息
+ *
+ * 累计确认：每条上行消息都捎带已收到的帧数（ackSeq），没有上行流量时由定时任务批量补发一条ACK，
+ * 而不是每收到一条消息就确认一次；上行消息带有客户端序号（clientSeq），服务器据此对重发去重。
+ * 已写出的消息留在已发送缓冲中，直到服务器回应的 ACK 帧确认了其序号；重连后未确认的消息重新发送
+ *
+ * 服务器启用组播时，登录响应带有组播地址，广播帧改由 MulticastReceiver 接收，缺失的帧经TCP补发
+ * 私聊文件优先由接收方经 PeerFileTransfer 直接向发送方拉取，服务器只转发约定信息
+ * 上下线通知只推送给订阅者，关注集合由 PresenceTracker 维护
+ *
+ * 发往服务器的消息经 FrameOutputStream 分帧，每条消息一帧；超过一个切片的文件先切成 FILE_CHUNK 逐片发送，
+ * 单帧不超过服务器的帧上限
  */
 public class NetworkManager {
     private ChatClient chatClient;
     private String serverIp;
     private static final int SERVER_PORT = 8888;
+    private static final int OUTBOX_CAPACITY = 500;
+    private static final int SENT_BUFFER_CAPACITY = 200;
+    private static final int MAX_RESEND_FILE_BYTES = 1024 * 1024;
+    private static final long ACK_INTERVAL_MILLIS = 1000;
+    private static final ReconnectBackoff BACKOFF = new ReconnectBackoff(500, 30_000);
 
     // Socket相关
     private Socket socket;
     private ObjectOutputStream oos;
     private ObjectInputStream ois;
+    private final Object writeLock = new Object();
+    private boolean handshaken;        // 当前连接已完成登录/恢复握手，会话消息可以直接写出（受 writeLock 保护）
+
+    // 会话相关（登录成功后有效）
+    private volatile boolean loggedIn;
+    private volatile boolean closed;
+    private String account;
+    private String password;
+    private String resumeToken;
+    private volatile long receivedSeq; // 本会话已收到的帧数，重连时作为补发起点（仅接收线程写入）
+    private long lastAckedSeq;         // 已告知服务器的帧数（受 writeLock 保护）
+    private long nextClientSeq;        // 上行消息序号（受 writeLock 保护）
+    private final Deque<Message> outbox = new ArrayDeque<>(); // 断线期间待发送的消息（受 writeLock 保护）
+    private final Deque<Message> sentBuffer = new ArrayDeque<>(); // 已写出、服务器尚未确认的消息，重连后补发（受 writeLock 保护）
+    private ScheduledExecutorService ackTimer;
+    private String multicastAddress;                    // 服务器告知的组播地址，未启用时为null
+    private long multicastEpoch;
+    private byte[] multicastKey;
+    private volatile MulticastReceiver multicastReceiver;
+    private PeerFileTransfer peerFiles;                 // 首次发送私聊文件时启动
+    private boolean peerFilesStarted;
+    private volatile PresenceTracker presence;          // 登录成功后创建
 
     public NetworkManager(ChatClient chatClient, String serverIp) {
         this.chatClient = chatClient;
@@ -34,9 +87,7 @@ public class NetworkManager {
     public boolean connectToServer() {
         try {
             if (socket == null || socket.isClosed() || !socket.isConnected()) {
-                socket = new Socket(serverIp, SERVER_PORT);
-                oos = new ObjectOutputStream(socket.getOutputStream());
-                ois = new ObjectInputStream(socket.getInputStream());
+                openSocket();
                 return true;
             }
         } catch (IOException e) {
@@ -47,20 +98,155 @@ public class NetworkManager {
         return true;
     }
 
+    /**
+     * 登录成功后调用，记录凭据和恢复令牌，开始会话帧计数
+     */
+    public void onLoginSuccess(String account, String password, Message response) {
+        this.account = account;
+        this.password = password;
+        this.resumeToken = response.getResumeToken();
+        this.multicastAddress = response.getMulticastAddress();
+        this.multicastEpoch = response.getMulticastEpoch();
+        this.multicastKey = response.getMulticastKey();
+        this.receivedSeq = 0;
+        synchronized (writeLock) {
+            this.lastAckedSeq = 0;
+            this.handshaken = true;
+        }
+        this.loggedIn = true;
+        this.presence = new PresenceTracker(this, account);
+        startAckTimer();
+    }
+
+    /**
+     * 在线状态订阅，登录成功前为null
+     */
+    public PresenceTracker getPresence() {
+        return presence;
+    }
+
+    /**
+     * 服务器启用组播时加入组播组，组播帧交给 sink 处理（登录成功后、启动消息监听前调用）
+     */
+    public void startMulticast(Consumer<Message> sink) {
+        if (multicastAddress != null && multicastReceiver == null) {
+            multicastReceiver = MulticastReceiver.open(multicastAddress, multicastEpoch, multicastKey, this, account, sink);
+        }
+    }
+
+    /**
+     * 组播接收器，未启用组播或加入失败时为null
+     */
+    public MulticastReceiver getMulticastReceiver() {
+        return multicastReceiver;
+    }
+
+    /**
+     * 文件直连服务（首次调用时启动，监听地址取连接服务器所用的本地地址），未启用或启动失败时返回null
+     */
+    public synchronized PeerFileTransfer getPeerFileTransfer() {
+        if (!peerFilesStarted) {
+            Socket current = socket;
+            if (current == null || !current.isConnected()) {
+                return null; // 未连接时无法确定本机地址，下次再试
+            }
+            peerFilesStarted = true;
+            peerFiles = PeerFileTransfer.start(current.getLocalAddress().getHostAddress());
+        }
+        return peerFiles;
+    }
+
+    /**
+     * 定时批量确认：收到新帧且期间没有上行消息捎带确认，或有已发送的消息尚未得到服务器确认时才发送ACK
+     */
+    private synchronized void startAckTimer() {
+        if (ackTimer != null) {
+            return;
+        }
+        ackTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ack-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        ackTimer.scheduleWithFixedDelay(() -> {
+            synchronized (writeLock) {
+                if (!loggedIn || !handshaken || (receivedSeq <= lastAckedSeq && sentBuffer.isEmpty())) {
+                    return;
+                }
+            }
+            sendMessage(new Message(Message.Type.ACK, account, ""));
+        }, ACK_INTERVAL_MILLIS, ACK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * 发送消息到服务器
+     * 登录后若连接不可用或重连握手尚未完成，消息进入发件箱，握手成功后发送
      */
     public void sendMessage(Message message) {
-        try {
-            if (oos != null) {
-                oos.writeObject(message);
-                oos.flush();
+        List<Message> frames = FileChunks.forUpload(message);
+        if (frames.size() > 1) {
+            for (Message chunk : frames) {
+                sendMessage(chunk); // 超过一个切片的文件逐片发送，每片一帧
             }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(chatClient, "发送消息失败：" + e.getMessage());
-            e.printStackTrace();
-            resetSocket();
+            return;
+        }
+        synchronized (writeLock) {
+            if (loggedIn && (oos == null || !handshaken)) {
+                enqueueOutbox(message);
+                return;
+            }
+            if (loggedIn) {
+                stampSessionFields(message);
+            }
+            try {
+                if (oos != null) {
+                    oos.writeObject(message);
+                    oos.flush();
+                    if (loggedIn) {
+                        onWritten(message);
+                    }
+                }
+            } catch (IOException e) {
+                if (loggedIn) {
+                    // 关闭连接，接收线程会感知断线并负责重连
+                    enqueueOutbox(message);
+                    resetSocket();
+                    return;
+                }
+                JOptionPane.showMessageDialog(chatClient, "发送消息失败：" + e.getMessage());
+                e.printStackTrace();
+                resetSocket();
+            }
+        }
+    }
+
+    /**
+     * 填写捎带确认和上行序号（调用方持有 writeLock）
+     * 重发的消息保留原有序号，服务器据此识别重复
+     */
+    private void stampSessionFields(Message message) {
+        message.setAckSeq(receivedSeq);
+        if (message.getClientSeq() == 0 && message.getType() != Message.Type.ACK) {
+            message.setClientSeq(++nextClientSeq);
+        }
+    }
+
+    /**
+     * 消息写出后记录确认进度，并保留在已发送缓冲中直到服务器确认（调用方持有 writeLock）
+     */
+    private void onWritten(Message message) {
+        lastAckedSeq = Math.max(lastAckedSeq, message.getAckSeq());
+        if (message.getClientSeq() == 0) {
+            return;
+        }
+        byte[] fileData = message.getFileData();
+        if (fileData != null && Math.max(fileData.length, message.getFileSize()) > MAX_RESEND_FILE_BYTES) {
+            return; // 大文件（及其切片）不缓存，避免占用过多内存
+        }
+        if (sentBuffer.size() >= SENT_BUFFER_CAPACITY) {
+            sentBuffer.pollFirst();
         }
+        sentBuffer.addLast(message);
     }
 
     /**
@@ -79,6 +265,229 @@ public class NetworkManager {
         return null;
     }
 
+    /**
+     * 接收会话内的下一条消息（消息监听线程调用）
+     * 连接断开时在当前线程内退避重连，重连成功后继续接收；用户退出或凭据失效时返回null
+     */
+    public Message receiveSessionMessage() {
+        while (!closed) {
+            ObjectInputStream in = ois;
+            if (in != null) {
+                try {
+                    Message message = (Message) in.readObject();
+                    receivedSeq++;
+                    if (message.getType() == Message.Type.ACK) {
+                        confirmSent(message.getAckSeq()); // 服务器对上行消息的确认，不交给界面
+                        continue;
+                    }
+                    return message;
+                } catch (IOException | ClassNotFoundException e) {
+                    if (closed) {
+                        return null;
+                    }
+                }
+            }
+            resetSocket();
+            if (!reconnectWithBackoff()) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 退避重连，直到恢复会话/重新登录成功，或凭据被拒绝
+     */
+    private boolean reconnectWithBackoff() {
+        for (int attempt = 0; !closed; attempt++) {
+            long delay = BACKOFF.nextDelay(attempt);
+            appendSystemMessage("与服务器断开连接，" + delay + "ms 后进行第" + (attempt + 1) + "次重连…");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            try {
+                openSocket();
+                if (tryResume()) {
+                    flushOutbox();
+                    appendSystemMessage("已重新连接，会话已恢复");
+                    return true;
+                }
+                ReloginResult result = tryRelogin();
+                if (result == ReloginResult.SUCCESS) {
+                    flushOutbox();
+                    sendMessage(new Message(Message.Type.GET_ONLINE_USERS, account, "", ""));
+                    presence.resubscribe();
+                    appendSystemMessage("已重新登录，断线期间收到的部分消息可能未能送达");
+                    return true;
+                }
+                resetSocket();
+                if (result == ReloginResult.REJECTED) {
+                    loggedIn = false;
+                    appendSystemMessage("重新登录失败，请重新启动客户端登录");
+                    return false;
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                resetSocket();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 凭恢复令牌接管原会话，成功后服务器紧接着补发缺失的帧
+     */
+    private boolean tryResume() throws IOException, ClassNotFoundException {
+        if (resumeToken == null) {
+            return false;
+        }
+        Message resumeMsg = new Message(Message.Type.RESUME, account, "");
+        resumeMsg.setResumeToken(resumeToken);
+        resumeMsg.setAckSeq(receivedSeq);
+        writeHandshake(resumeMsg);
+
+        Message response = (Message) ois.readObject();
+        if (response.getType() == Message.Type.RESUME && response.getContent().contains("成功")) {
+            resumeToken = response.getResumeToken();
+            requeueUnconfirmed(response.getAckSeq());
+            return true;
+        }
+        return false;
+    }
+
+    private enum ReloginResult { SUCCESS, RETRY, REJECTED }
+
+    /**
+     * 恢复失败时使用登录凭据重新登录（新会话，帧计数归零）
+     */
+    private ReloginResult tryRelogin() throws IOException, ClassNotFoundException {
+        Message loginMsg = new Message(Message.Type.LOGIN, account, "");
+        loginMsg.setPassword(password);
+        writeHandshake(loginMsg);
+
+        Message response = (Message) ois.readObject();
+        String content = response.getContent();
+        if (content.contains("成功")) {
+            resumeToken = response.getResumeToken();
+            receivedSeq = 0;
+            synchronized (writeLock) {
+                lastAckedSeq = 0;
+            }
+            // 接管原会话时响应带有原会话已接受的上行序号；新会话为0，未确认的消息全部重发，对方可能收到重复消息
+            int resent = requeueUnconfirmed(response.getAckSeq());
+            if (resent > 0) {
+                appendSystemMessage(resent + " 条消息在断线前未得到服务器确认，将重新发送");
+            }
+            MulticastReceiver receiver = multicastReceiver;
+            if (receiver != null) {
+                receiver.reset(response.getMulticastEpoch(), response.getMulticastKey()); // 新会话需重新订阅
+            }
+            return ReloginResult.SUCCESS;
+        }
+        // 服务器尚未察觉旧连接断开或暂时繁忙时继续重试，密码错误等情况不再重试
+        if (content.contains("已登录") || content.contains("繁忙")) {
+            return ReloginResult.RETRY;
+        }
+        return ReloginResult.REJECTED;
+    }
+
+    private void writeHandshake(Message message) throws IOException {
+        synchronized (writeLock) {
+            oos.writeObject(message);
+            oos.flush();
+        }
+    }
+
+    /**
+     * 断线期间的消息放入发件箱，超出容量时丢弃最早的一条
+     */
+    private void enqueueOutbox(Message message) {
+        if (outbox.size() >= OUTBOX_CAPACITY) {
+            outbox.pollFirst();
+        }
+        outbox.addLast(message);
+        appendSystemMessage("当前未连接服务器，消息将在重连后发送");
+    }
+
+    /**
+     * 重连握手成功后，把服务器尚未确认（序号大于服务器确认值）的已发送消息放回发件箱最前面
+     * @return 放回发件箱的消息数
+     */
+    private int requeueUnconfirmed(long serverClientSeq) {
+        int requeued = 0;
+        synchronized (writeLock) {
+            while (!sentBuffer.isEmpty()) {
+                Message message = sentBuffer.pollLast();
+                if (message.getClientSeq() > serverClientSeq) {
+                    outbox.addFirst(message);
+                    requeued++;
+                }
+            }
+        }
+        return requeued;
+    }
+
+    /**
+     * 服务器确认已接受到 clientSeq 为止的上行消息，从已发送缓冲中移除
+     */
+    private void confirmSent(long clientSeq) {
+        synchronized (writeLock) {
+            while (!sentBuffer.isEmpty() && sentBuffer.peekFirst().getClientSeq() <= clientSeq) {
+                sentBuffer.pollFirst();
+            }
+        }
+    }
+
+    /**
+     * 握手成功后按顺序发出发件箱中的消息，之后的消息直接写出
+     * 在同一次加锁内完成，握手期间进入发件箱的消息不会被之后直接写出的消息插队
+     */
+    private void flushOutbox() throws IOException {
+        synchronized (writeLock) {
+            while (!outbox.isEmpty()) {
+                Message message = outbox.peekFirst();
+                stampSessionFields(message);
+                oos.writeObject(message);
+                oos.flush(); // 每条消息单独成帧
+                onWritten(message);
+                outbox.pollFirst();
+            }
+            handshaken = true;
+        }
+    }
+
+    private void openSocket() throws IOException {
+        // 支持 “IP:端口” 格式，便于连接集群中的不同节点
+        String host = serverIp;
+        int port = SERVER_PORT;
+        int colon = serverIp.lastIndexOf(':');
+        if (colon > 0 && serverIp.indexOf(':') == colon) {
+            host = serverIp.substring(0, colon);
+            port = Integer.parseInt(serverIp.substring(colon + 1).trim());
+        }
+        Socket newSocket = new Socket(host, port);
+        ObjectOutputStream newOos = new SymbolOutputStream(new FrameOutputStream(newSocket.getOutputStream()));
+        newOos.flush(); // 流头单独成帧发出，服务器才能构造输入流
+        ObjectInputStream newOis = new SymbolInputStream(newSocket.getInputStream());
+        synchronized (writeLock) {
+            socket = newSocket;
+            oos = newOos;
+            ois = newOis;
+            handshaken = false; // 登录/恢复响应到达前只允许写出握手消息
+        }
+    }
+
+    private void appendSystemMessage(String text) {
+        SwingUtilities.invokeLater(() -> {
+            if (chatClient.getChatArea() != null) {
+                chatClient.getChatArea().append("【系统消息】" + text + "\n");
+            }
+        });
+    }
+
     /**
      * 获取输出流
      */
@@ -93,6 +502,26 @@ public class NetworkManager {
         return ois;
     }
 
+    /**
+     * 主动下线：通知服务器立即结束会话，不再自动重连
+     */
+    public void logout() {
+        if (loggedIn) {
+            sendMessage(new Message(Message.Type.LOGOUT, account, ""));
+        }
+        closed = true;
+        loggedIn = false;
+        if (multicastReceiver != null) {
+            multicastReceiver.close();
+        }
+        synchronized (this) {
+            if (peerFiles != null) {
+                peerFiles.close();
+            }
+        }
+        closeConnection();
+    }
+
     /**
      * 关闭网络连接
      */
@@ -110,16 +539,19 @@ public class NetworkManager {
      * 重置Socket连接
      */
     public void resetSocket() {
-        try {
-            if (ois != null) ois.close();
-            if (oos != null) oos.close();
-            if (socket != null && !socket.isClosed()) socket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        synchronized (writeLock) {
+            try {
+                if (ois != null) ois.close();
+                if (oos != null) oos.close();
+                if (socket != null && !socket.isClosed()) socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            socket = null;
+            oos = null;
+            ois = null;
+            handshaken = false;
         }
-        socket = null;
-        oos = null;
-        ois = null;
     }
 
     /**
@@ -136,4 +568,4 @@ public class NetworkManager {
     public void setServerIp(String serverIp) {
         this.serverIp = serverIp;
     }
-}
\ No newline at end of file
+}
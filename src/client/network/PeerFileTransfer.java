@@ -0,0 +1,267 @@
+package client.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 点对点文件传输
+ * 发送私聊文件时只经服务器转发约定信息（本机监听地址 + 一次性令牌），接收方凭令牌直接连接发送方拉取文件，
+ * 文件数据不经过服务器；直连失败时接收方请求回退，发送方再把文件经服务器转发
+ *
+ * 拉取协议（DataInput/DataOutput，不使用对象序列化）：
+ * 接收方写出令牌（UTF）；发送方回复 int 状态（1 成功，0 令牌无效或已使用），成功时随后是 long 长度和文件字节
+ *
+ * 监听只绑定在连接服务器所用的本地地址上；待拉取的文件只登记路径，被拉取时才从磁盘边读边写，不在内存中保留。
+ * 同时写出的连接数有上限，超出时直接关闭连接，对方按直连失败处理、请求改经服务器转发
+ *
+ * 通过系统属性配置：
+ * chat.p2p.enabled     是否启用，默认 true
+ * chat.p2p.port        监听端口，默认 0（随机）
+ * chat.p2p.ttlSeconds  待拉取文件的保留时间，默认 600
+ * chat.p2p.maxOffers   同时登记的待拉取文件数上限，默认 64，超出时新文件经服务器转发
+ * chat.p2p.maxServes   同时写出的连接数上限，默认 4
+ */
+public class PeerFileTransfer {
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final int READ_TIMEOUT_MILLIS = 10_000;
+    private static final int STATUS_OK = 1;
+    private static final int STATUS_MISSING = 0;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * 一个待拉取的文件
+     */
+    public static final class Offer {
+        private final String receiver;
+        private final File file;
+        private final long size;
+        private final long expiresAt;
+
+        Offer(String receiver, File file, long size, long expiresAt) {
+            this.receiver = receiver;
+            this.file = file;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getReceiver() { return receiver; }
+        public String getFileName() { return file.getName(); }
+        public long getSize() { return size; }
+
+        /**
+         * 读出文件内容（改经服务器转发时调用），文件已被改动时抛出异常
+         */
+        public byte[] readData() throws IOException {
+            byte[] data = Files.readAllBytes(file.toPath());
+            if (data.length != size) {
+                throw new IOException("文件已被修改");
+            }
+            return data;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final String advertisedHost;
+    private final long ttlMillis = TimeUnit.SECONDS.toMillis(Long.getLong("chat.p2p.ttlSeconds", 600L));
+    private final int maxOffers = Integer.getInteger("chat.p2p.maxOffers", 64);
+    private final Map<String, Offer> offers = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor servers;
+
+    private PeerFileTransfer(ServerSocket serverSocket, String advertisedHost) {
+        this.serverSocket = serverSocket;
+        this.advertisedHost = advertisedHost;
+        AtomicInteger counter = new AtomicInteger();
+        int maxServes = Math.max(1, Integer.getInteger("chat.p2p.maxServes", 4));
+        // 不排队：写出线程都忙时直接拒绝，拉取方很快得知失败并回退，而不是等到读超时
+        this.servers = new ThreadPoolExecutor(0, maxServes, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "p2p-serve-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 开始监听，失败或未启用时返回null（私聊文件仍经服务器转发）
+     * @param advertisedHost 告知对方的本机地址，取连接服务器所用的本地地址
+     */
+    public static PeerFileTransfer start(String advertisedHost) {
+        if (!Boolean.parseBoolean(System.getProperty("chat.p2p.enabled", "true")) || advertisedHost == null) {
+            return null;
+        }
+        try {
+            ServerSocket serverSocket = new ServerSocket(Integer.getInteger("chat.p2p.port", 0), 50,
+                    InetAddress.getByName(advertisedHost));
+            PeerFileTransfer transfer = new PeerFileTransfer(serverSocket, advertisedHost);
+            Thread acceptor = new Thread(transfer::acceptLoop, "p2p-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            return transfer;
+        } catch (IOException e) {
+            System.out.println("文件直连监听失败，私聊文件经服务器转发：" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 本机的文件监听地址（host:port）
+     */
+    public String getAddress() {
+        return advertisedHost + ":" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * 登记待拉取的文件（只记路径，拉取时再读）
+     * @return 一次性令牌，待拉取的文件已达上限时返回null（改经服务器转发）
+     */
+    public String offer(String receiver, File file) {
+        long now = System.currentTimeMillis();
+        offers.values().removeIf(offer -> offer.expiresAt < now);
+        if (offers.size() >= maxOffers) {
+            return null;
+        }
+        byte[] random = new byte[16];
+        RANDOM.nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) {
+            token.append(String.format("%02x", b));
+        }
+        offers.put(token.toString(), new Offer(receiver, file, file.length(), now + ttlMillis));
+        return token.toString();
+    }
+
+    /**
+     * 取走待拉取的文件（直连失败回退为服务器转发时调用），不存在或已过期时返回null
+     */
+    public Offer take(String token) {
+        Offer offer = token != null ? offers.remove(token) : null;
+        return offer != null && offer.expiresAt >= System.currentTimeMillis() ? offer : null;
+    }
+
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        servers.shutdownNow();
+        offers.clear();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    servers.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    socket.close(); // 写出线程都忙，对方按直连失败处理
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 向拉取方写出文件，令牌只能使用一次；中途失败时放回，对方仍可请求经服务器转发
+     */
+    private void serve(Socket socket) {
+        String token = null;
+        Offer offer = null;
+        try (Socket s = socket) {
+            s.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            token = in.readUTF();
+            offer = take(token);
+            if (offer == null) {
+                out.writeInt(STATUS_MISSING);
+                out.flush();
+                return;
+            }
+            out.writeInt(STATUS_OK);
+            out.writeLong(offer.size);
+            copy(offer, out);
+            out.flush();
+            s.shutdownOutput();
+            if (in.read() != -1) { // 对方读完后关闭连接
+                throw new IOException("对方未正常结束");
+            }
+        } catch (IOException e) {
+            if (offer != null) {
+                offers.putIfAbsent(token, offer);
+            }
+            System.out.println("文件直连发送失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 从磁盘读出登记时长度的文件内容写出，文件变短时失败
+     */
+    private static void copy(Offer offer, DataOutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_BYTES];
+        try (InputStream file = new FileInputStream(offer.file)) {
+            long remaining = offer.size;
+            while (remaining > 0) {
+                int n = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("文件已被修改");
+                }
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    /**
+     * 直接向发送方拉取文件
+     * @param expectedSize 约定的文件大小，实际长度不符时视为失败
+     * @return 文件数据，连接失败、令牌无效或数据不完整时返回null
+     */
+    public static byte[] download(String peerAddress, String token, long expectedSize) {
+        int colon = peerAddress != null ? peerAddress.lastIndexOf(':') : -1;
+        if (colon <= 0 || token == null || expectedSize < 0 || expectedSize > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(peerAddress.substring(0, colon),
+                    Integer.parseInt(peerAddress.substring(colon + 1))), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(token);
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readInt() != STATUS_OK || in.readLong() != expectedSize) {
+                return null;
+            }
+            byte[] data = new byte[(int) expectedSize];
+            in.readFully(data);
+            return data;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
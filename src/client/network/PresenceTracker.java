@@ -0,0 +1,86 @@
+package client.network;
+
+import common.Message;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 在线状态订阅
+ * 服务器只向订阅者推送上下线通知，客户端需要告知关注谁：最近私聊过的用户（按最近使用保留 MAX_PEERS 个）和正在查看的群。
+ * 关注集合变化时发送一条 PRESENCE_SUBSCRIBE，携带完整集合，由服务器整体替换；集合不变时不发送
+ */
+public class PresenceTracker {
+    private static final int MAX_PEERS = 64;
+
+    private final NetworkManager networkManager;
+    private final String account;
+    private final LinkedHashSet<String> peers = new LinkedHashSet<>(); // 按最近使用排序，最旧的在前
+    private String viewedGroupId;
+
+    public PresenceTracker(NetworkManager networkManager, String account) {
+        this.networkManager = networkManager;
+        this.account = account;
+    }
+
+    /**
+     * 与某用户有私聊往来（发送或收到私聊消息、文件）
+     */
+    public void notePeer(String user) {
+        if (user == null || user.isEmpty() || user.equals(account)) {
+            return;
+        }
+        Message subscribe;
+        synchronized (this) {
+            boolean known = peers.remove(user);
+            peers.add(user);
+            if (known) {
+                return; // 只调整了顺序，关注集合未变
+            }
+            if (peers.size() > MAX_PEERS) {
+                Iterator<String> oldest = peers.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            subscribe = buildSubscribe();
+        }
+        networkManager.sendMessage(subscribe);
+    }
+
+    /**
+     * 切换到查看某个群
+     */
+    public void viewGroup(String groupId) {
+        Message subscribe;
+        synchronized (this) {
+            if (groupId == null || groupId.equals(viewedGroupId)) {
+                return;
+            }
+            viewedGroupId = groupId;
+            subscribe = buildSubscribe();
+        }
+        networkManager.sendMessage(subscribe);
+    }
+
+    /**
+     * 重新登录后服务器上的订阅已清除，重新发送一次
+     */
+    public void resubscribe() {
+        Message subscribe;
+        synchronized (this) {
+            if (peers.isEmpty() && viewedGroupId == null) {
+                return;
+            }
+            subscribe = buildSubscribe();
+        }
+        networkManager.sendMessage(subscribe);
+    }
+
+    private Message buildSubscribe() {
+        Message subscribe = new Message(Message.Type.PRESENCE_SUBSCRIBE, account, "", "");
+        subscribe.setPresenceUsers(new ArrayList<>(peers));
+        subscribe.setGroupId(viewedGroupId);
+        return subscribe;
+    }
+}
@@ -0,0 +1,29 @@
+package client.network;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 重连退避策略
+ * 指数退避 + 全抖动：第n次等待 [0, min(上限, 基数·2^n)] 内的随机时长，
+ * 服务器重启时大量客户端的重连请求会被均匀打散，不会同时涌入
+ */
+public class ReconnectBackoff {
+    private final long baseMillis;
+    private final long maxMillis;
+
+    public ReconnectBackoff(long baseMillis, long maxMillis) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * 计算第 attempt 次（从0开始）重连前的等待时长
+     */
+    public long nextDelay(int attempt) {
+        long ceiling = baseMillis << Math.min(attempt, 20);
+        if (ceiling <= 0 || ceiling > maxMillis) {
+            ceiling = maxMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
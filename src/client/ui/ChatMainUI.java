@@ -94,6 +94,7 @@ public class ChatMainUI {
                         chatTypeBox.setSelectedItem("私聊");
                         targetBox.removeAllItems();
                         targetBox.addItem(selectedUser);
+                        chatClient.getNetworkManager().getPresence().notePeer(selectedUser);
                     }
                 }
             }
@@ -150,6 +151,10 @@ public class ChatMainUI {
                     targetBox.removeAllItems();
                     targetBox.addItem(selectedGroupName);
                     targetBox.putClientProperty("groupId", groupId);
+                    chatClient.getNetworkManager().getPresence().viewGroup(groupId);
+                    if (e.getClickCount() == 2) {
+                        chatClient.requestGroupMembers(groupId, 0); // 双击查看群成员
+                    }
                 }
             }
         });
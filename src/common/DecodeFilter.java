@@ -0,0 +1,156 @@
+package common;
+
+import java.io.ObjectInputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 反序列化过滤器
+ * 解码前为对象输入流安装检查：只允许白名单中的类，限制嵌套深度，数组大小由调用方另行计入预算（见 arrayBytes）。
+ * 程序以 Java 8 为目标，过滤器接口通过反射安装（Java 9+ 的 java.io.ObjectInputFilter，Java 8 的 sun.misc.ObjectInputFilter）
+ *
+ * 白名单之外总是允许 String、枚举基类、常见的 List 实现以及基本类型数组，这些都是 Message 字段会用到的类型
+ */
+public final class DecodeFilter {
+    public static final int MAX_DEPTH = 16;
+
+    private static final String[] JDK_TYPES = {
+            "java.lang.Object", // ArrayList 反序列化时分配的 Object[]
+            "java.lang.String",
+            "java.lang.Enum",
+            "java.util.ArrayList",
+            "java.util.Arrays$ArrayList",
+            "java.util.Collections$EmptyList",
+            "java.util.Collections$SingletonList",
+            "java.util.Collections$UnmodifiableCollection",
+            "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList"
+    };
+
+    /**
+     * 过滤检查
+     */
+    public interface Check {
+        /**
+         * @param serialClass 正在解码的类，只检查数组长度或引用时为null
+         * @param depth       当前嵌套深度
+         * @param arrayLength 数组长度，不是数组时为-1
+         * @return 允许继续解码时返回true
+         */
+        boolean admit(Class<?> serialClass, long depth, long arrayLength);
+    }
+
+    private final Set<String> allowed = new HashSet<>();
+
+    /**
+     * @param types 允许解码的应用类（含其内部枚举等需要单独列出）
+     */
+    public DecodeFilter(Class<?>... types) {
+        for (String name : JDK_TYPES) {
+            allowed.add(name);
+        }
+        for (Class<?> type : types) {
+            allowed.add(type.getName());
+        }
+    }
+
+    /**
+     * 类是否在白名单中；数组按元素类型判断，基本类型数组总是允许
+     */
+    public boolean allows(Class<?> serialClass) {
+        if (serialClass == null) {
+            return true;
+        }
+        while (serialClass.isArray()) {
+            serialClass = serialClass.getComponentType();
+        }
+        return serialClass.isPrimitive() || allowed.contains(serialClass.getName());
+    }
+
+    /**
+     * 数组将占用的字节数：过滤器回调给出的是元素个数，按元素类型换算成字节，
+     * byte[]、long[]、Object[] 等按同一口径计入预算；引用按4字节计
+     * @param arrayClass 数组类，未知时按引用数组计
+     */
+    public static long arrayBytes(Class<?> arrayClass, long length) {
+        Class<?> component = arrayClass != null ? arrayClass.getComponentType() : null;
+        if (component == byte.class || component == boolean.class) {
+            return length;
+        }
+        if (component == char.class || component == short.class) {
+            return length * 2;
+        }
+        if (component == long.class || component == double.class) {
+            return length * 8;
+        }
+        return length * 4;
+    }
+
+    /**
+     * 白名单加深度限制，不限制数组长度
+     */
+    public Check check() {
+        return (serialClass, depth, arrayLength) -> depth <= MAX_DEPTH && allows(serialClass);
+    }
+
+    /**
+     * 以白名单加深度限制安装到对象输入流
+     * @return 运行环境不支持反序列化过滤时返回false
+     */
+    public boolean install(ObjectInputStream ois) {
+        return install(ois, check());
+    }
+
+    /**
+     * 安装自定义检查
+     * @return 运行环境不支持反序列化过滤时返回false
+     */
+    public static boolean install(ObjectInputStream ois, Check check) {
+        try {
+            return install(ois, check, "java.io.ObjectInputFilter");
+        } catch (ReflectiveOperationException e) {
+            try {
+                return install(ois, check, "sun.misc.ObjectInputFilter");
+            } catch (ReflectiveOperationException ignored) {
+                return false;
+            }
+        }
+    }
+
+    private static boolean install(ObjectInputStream ois, Check check, String filterName) throws ReflectiveOperationException {
+        ClassLoader loader = ObjectInputStream.class.getClassLoader();
+        Class<?> filterType = Class.forName(filterName, false, loader);
+        Class<?> infoType = Class.forName(filterName + "$FilterInfo", false, loader);
+        Class<?> statusType = Class.forName(filterName + "$Status", false, loader);
+        Method serialClass = infoType.getMethod("serialClass");
+        Method depth = infoType.getMethod("depth");
+        Method arrayLength = infoType.getMethod("arrayLength");
+        Object undecided = statusType.getField("UNDECIDED").get(null);
+        Object rejected = statusType.getField("REJECTED").get(null);
+
+        Object filter = Proxy.newProxyInstance(loader, new Class<?>[]{filterType}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "checkInput":
+                    Class<?> type = (Class<?>) serialClass.invoke(args[0]);
+                    long d = (Long) depth.invoke(args[0]);
+                    long length = (Long) arrayLength.invoke(args[0]);
+                    return check.admit(type, d, length) ? undecided : rejected;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "DecodeFilter";
+            }
+        });
+        if (filterName.startsWith("java.io.")) {
+            ObjectInputStream.class.getMethod("setObjectInputFilter", filterType).invoke(ois, filter);
+        } else {
+            Class<?> config = Class.forName(filterName + "$Config", false, loader);
+            config.getMethod("setObjectInputFilter", ObjectInputStream.class, filterType).invoke(null, ois, filter);
+        }
+        return true;
+    }
+}
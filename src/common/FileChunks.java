@@ -0,0 +1,185 @@
+package common;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 文件切片工具：把一条文件消息切成若干 FILE_CHUNK，各切片带有原消息的收发方、文件名、会话序号等信息，
+ * 接收方收齐后还原为原消息。服务器下发大文件、客户端上传超过帧上限的文件都用它切片
+ * 文件数据可以在消息的 fileData 中，也可以留在 Source 中（服务器暂存的上传），切片时才读出对应的一段
+ *
+ * Source 按引用计数管理：把带 Source 的消息留到调用返回之后的一方（下行队列、集群出站队列、群邮箱任务）
+ * 先 retain，用完后 release，最后一个持有者释放时删除底层的临时文件
+ */
+public final class FileChunks {
+    /** 客户端上传时的切片大小，远小于帧上限 */
+    public static final int UPLOAD_SLICE_BYTES = 256 * 1024;
+
+    /**
+     * 不在内存中的文件数据
+     */
+    public interface Source {
+        long size();
+
+        /**
+         * 读取 [offset, offset + length) 的数据
+         * @throws UncheckedIOException 读取失败
+         */
+        byte[] read(long offset, int length);
+
+        /**
+         * 增加一个持有者
+         */
+        default void retain() {
+        }
+
+        /**
+         * 持有者用完，最后一个持有者释放后不能再读取
+         */
+        default void release() {
+        }
+    }
+
+    /**
+     * 文件中的一段，读取和引用计数都委托给所在的文件
+     */
+    private static final class Range implements Source {
+        private final Source file;
+        private final long offset;
+        private final int length;
+
+        Range(Source file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public long size() {
+            return length;
+        }
+
+        @Override
+        public byte[] read(long from, int count) {
+            return file.read(offset + from, count);
+        }
+
+        @Override
+        public void retain() {
+            file.retain();
+        }
+
+        @Override
+        public void release() {
+            file.release();
+        }
+    }
+
+    private FileChunks() {
+    }
+
+    /**
+     * 文件数据的长度（fileData 或 Source），没有数据时为0
+     */
+    public static long length(Message file) {
+        byte[] data = file.getFileData();
+        if (data != null) {
+            return data.length;
+        }
+        Source source = file.getFileSource();
+        return source != null ? source.size() : 0;
+    }
+
+    /**
+     * 切片总数
+     */
+    public static int count(Message file, int sliceBytes) {
+        return (int) ((length(file) + sliceBytes - 1) / sliceBytes);
+    }
+
+    /**
+     * 取第 index 个切片（切片中的文件大小取实际数据长度，接收方据此分配重组缓冲区）
+     */
+    public static Message slice(Message file, String transferId, int index, int count, int sliceBytes) {
+        byte[] data = file.getFileData();
+        long total = length(file);
+        long from = (long) index * sliceBytes;
+        int length = (int) Math.min(sliceBytes, total - from);
+        byte[] part = data != null ? Arrays.copyOfRange(data, (int) from, (int) from + length)
+                : file.getFileSource().read(from, length);
+        return chunk(file, transferId, index, count, total, part);
+    }
+
+    /**
+     * 取第 index 个切片但不读出数据：切片的数据来源是文件中的对应一段，序列化时（见 Message.writeReplace）才读取，
+     * 用于排队等待发往其他节点的切片，队列中不持有文件数据
+     */
+    public static Message sliceLater(Message file, String transferId, int index, int count, int sliceBytes) {
+        Source source = file.getFileSource();
+        if (source == null) {
+            return slice(file, transferId, index, count, sliceBytes);
+        }
+        long from = (long) index * sliceBytes;
+        int length = (int) Math.min(sliceBytes, source.size() - from);
+        Message chunk = chunk(file, transferId, index, count, source.size(), null);
+        chunk.setFileSource(new Range(source, from, length));
+        return chunk;
+    }
+
+    private static Message chunk(Message file, String transferId, int index, int count, long total, byte[] part) {
+        Message chunk = new Message(Message.Type.FILE_CHUNK, file.getSender(), file.getReceiver(),
+                file.getFileName(), total, part);
+        chunk.setContent(file.getContent());
+        chunk.setGroupId(file.getGroupId());
+        chunk.setGroupName(file.getGroupName());
+        chunk.setConversationId(file.getConversationId());
+        chunk.setSeq(file.getSeq());
+        chunk.setTransferId(transferId);
+        chunk.setChunkIndex(index);
+        chunk.setChunkCount(count);
+        chunk.setChunkOf(file.getType());
+        return chunk;
+    }
+
+    /**
+     * 消息的数据在 Source 中时增加一个持有者
+     */
+    public static void retain(Object frame) {
+        Source source = frame instanceof Message ? ((Message) frame).getFileSource() : null;
+        if (source != null) {
+            source.retain();
+        }
+    }
+
+    /**
+     * 消息的数据在 Source 中时释放一个持有者
+     */
+    public static void release(Object frame) {
+        Source source = frame instanceof Message ? ((Message) frame).getFileSource() : null;
+        if (source != null) {
+            source.release();
+        }
+    }
+
+    /**
+     * 客户端上传：文件数据超过一个切片时切成 FILE_CHUNK 依次发送，否则原样发送
+     */
+    public static List<Message> forUpload(Message message) {
+        List<Message> frames = new ArrayList<>();
+        byte[] data = message.getFileData();
+        if (data == null || data.length <= UPLOAD_SLICE_BYTES
+                || (message.getType() != Message.Type.FILE_PRIVATE && message.getType() != Message.Type.FILE_GROUP)) {
+            frames.add(message);
+            return frames;
+        }
+        String transferId = UUID.randomUUID().toString();
+        int count = count(message, UPLOAD_SLICE_BYTES);
+        for (int i = 0; i < count; i++) {
+            frames.add(slice(message, transferId, i, count, UPLOAD_SLICE_BYTES));
+        }
+        return frames;
+    }
+}
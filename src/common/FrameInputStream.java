@@ -0,0 +1,167 @@
+package common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * 分帧输入流，与对端的 FrameOutputStream 配对，服务器读取客户端消息时位于对象输入流之下
+ * 先读帧长度，超过上限立即断开；合法的帧整帧读入从 SlabPool 取得的缓冲区，对象输入流再从缓冲区解码。
+ * 帧读完即归还缓冲区，空闲的连接不占用缓冲区，每个连接同一时刻至多持有一帧
+ *
+ * 一条消息必须完整地位于一帧之内（读取线程在每次 readObject 前调用 beginMessage），
+ * 消息读到帧尾仍未结束即视为格式错误，单条消息的大小因此不超过帧上限。
+ * guard() 为对象输入流安装反序列化过滤器：只允许白名单中的类；一条消息中各数组（含集合内部的数组）按元素大小折算的字节数之和不得超过其所在帧剩余的字节数，
+ * 嵌套深度不超过 DecodeFilter.MAX_DEPTH，伪造的长度字段无法让解码分配超出帧大小的内存
+ */
+public class FrameInputStream extends InputStream {
+    private final InputStream in;
+    private final int maxFrameBytes;
+    private final SlabPool pool;
+    private final byte[] header = new byte[FrameOutputStream.HEADER_BYTES];
+    private SlabPool.Buffer frame; // 当前帧，读完后归还并置为null
+    private int pos;
+    private int limit;
+    private long messageBytes;     // 本条消息已读取的字节数
+    private long arrayBudget;      // 本条消息还可分配的数组字节数
+
+    public FrameInputStream(InputStream in, int maxFrameBytes, SlabPool pool) {
+        this.in = in;
+        this.maxFrameBytes = maxFrameBytes;
+        this.pool = pool;
+    }
+
+    /**
+     * 开始读取新的一条消息（由读取线程在 readObject 之前调用）
+     */
+    public void beginMessage() {
+        messageBytes = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        int b = frame.array[pos++] & 0xFF;
+        consumed(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(frame.array, pos, b, off, n);
+        pos += n;
+        consumed(n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return frame != null ? limit - pos : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        releaseFrame();
+        in.close();
+    }
+
+    /**
+     * 为对象输入流安装解码限制（见 DecodeFilter）：只允许 allowlist 中的类，数组的字节数计入帧预算
+     * @return 运行环境不支持反序列化过滤时返回false，此时只有帧长度限制生效
+     */
+    public boolean guard(ObjectInputStream ois, DecodeFilter allowlist) {
+        return DecodeFilter.install(ois, (serialClass, depth, arrayLength) ->
+                allowlist.allows(serialClass) && admit(serialClass, depth, arrayLength));
+    }
+
+    private boolean ensureData() throws IOException {
+        if (frame != null) {
+            return true;
+        }
+        if (messageBytes > 0) {
+            throw new StreamCorruptedException("消息跨越了帧边界");
+        }
+        return nextFrame();
+    }
+
+    private void consumed(int n) {
+        if (messageBytes == 0) {
+            arrayBudget = limit - pos + n; // 消息的第一个字节：预算为其所在帧剩余的字节数
+        }
+        messageBytes += n;
+        if (pos == limit) {
+            releaseFrame();
+        }
+    }
+
+    private boolean nextFrame() throws IOException {
+        int read = 0;
+        while (read < header.length) {
+            int n = in.read(header, read, header.length - read);
+            if (n < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("帧头不完整");
+            }
+            read += n;
+        }
+        int length = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+        if (length <= 0 || length > maxFrameBytes) {
+            throw new StreamCorruptedException("帧长度无效：" + length + "（上限 " + maxFrameBytes + "）");
+        }
+        SlabPool.Buffer buffer = pool.acquire(length);
+        int filled = 0;
+        try {
+            while (filled < length) {
+                int n = in.read(buffer.array, buffer.offset + filled, length - filled);
+                if (n < 0) {
+                    throw new EOFException("帧内容不完整");
+                }
+                filled += n;
+            }
+        } catch (IOException e) {
+            pool.release(buffer);
+            throw e;
+        }
+        frame = buffer;
+        pos = buffer.offset;
+        limit = buffer.offset + length;
+        return true;
+    }
+
+    private void releaseFrame() {
+        if (frame != null) {
+            pool.release(frame);
+            frame = null;
+        }
+    }
+
+    /**
+     * 过滤器回调：数组的字节数（见 DecodeFilter.arrayBytes）计入本条消息的预算，深度超限或预算不足时拒绝
+     */
+    private boolean admit(Class<?> serialClass, long depth, long arrayLength) {
+        if (depth > DecodeFilter.MAX_DEPTH) {
+            return false;
+        }
+        if (arrayLength >= 0) {
+            long bytes = DecodeFilter.arrayBytes(serialClass, arrayLength);
+            if (bytes > arrayBudget) {
+                return false;
+            }
+            arrayBudget -= bytes;
+        }
+        return true;
+    }
+}
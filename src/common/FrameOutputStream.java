@@ -0,0 +1,74 @@
+package common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 分帧输出流：客户端发往服务器的字节按帧写出，帧格式为 int 长度 + 内容
+ * 位于对象输出流之下，写入的字节先缓存，flush() 时作为一帧写出（长度与内容一次写入套接字）。
+ * 调用方每写完一条消息就 flush，一帧即一条消息，服务器按帧长度限制单条消息的大小（见 FrameInputStream）
+ *
+ * 超过帧上限的文件消息应先切片（FileChunks），否则服务器会断开连接
+ */
+public class FrameOutputStream extends OutputStream {
+    /** 帧上限默认值，与服务端 chat.frame.maxBytes 的默认值一致 */
+    public static final int DEFAULT_MAX_FRAME_BYTES = 1024 * 1024;
+    static final int HEADER_BYTES = 4;
+
+    private final OutputStream out;
+    private byte[] buffer = new byte[4096];
+    private int count = HEADER_BYTES; // 前4字节留给帧长度
+
+    public FrameOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * 把缓存的字节作为一帧写出；没有缓存的字节时只刷新底层流
+     */
+    @Override
+    public void flush() throws IOException {
+        int length = count - HEADER_BYTES;
+        if (length > 0) {
+            buffer[0] = (byte) (length >>> 24);
+            buffer[1] = (byte) (length >>> 16);
+            buffer[2] = (byte) (length >>> 8);
+            buffer[3] = (byte) length;
+            out.write(buffer, 0, count);
+            count = HEADER_BYTES;
+            if (buffer.length > DEFAULT_MAX_FRAME_BYTES) {
+                buffer = new byte[4096]; // 发过大文件后不长期占用大缓冲区
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+        }
+    }
+}
@@ -1,20 +1,39 @@
 package common;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * 群聊实体类：封装群ID、群名称、成员列表
+ * 成员以按名称排序的不可变数组快照发布（写时复制）：修改时生成新数组再替换引用，
+ * 扇出、序列化等读操作直接遍历当前快照，无需加锁也不会与修改冲突。
+ * 修改方法不是线程安全的，服务端只在群的邮箱中修改（单写者）
+ *
+ * 客户端收到的群列表只有摘要（群ID、群名、成员数），不带成员；成员按需经 GROUP_MEMBERS 分页获取
  */
 public class Group implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String[] EMPTY = new String[0];
+
     private String groupId;      // 唯一群ID（UUID生成）
     private String groupName;    // 群名称
-    private List<String> members; // 群成员列表
+    private volatile String[] members = EMPTY; // 群成员快照（有序、不可变）
+    private int summaryCount = -1; // 摘要中的成员数，-1 表示以成员快照为准
+
+    public static Group summary(String groupId, String groupName, int memberCount) {
+        Group group = new Group(groupId, groupName);
+        group.summaryCount = memberCount;
+        return group;
+    }
 
     public Group(String groupId, String groupName) {
         this.groupId = groupId;
         this.groupName = groupName;
-        this.members = new ArrayList<>();
     }
 
     // Getter & Setter
@@ -22,18 +41,78 @@ public class Group implements java.io.Serializable {
     public void setGroupId(String groupId) { this.groupId = groupId; }
     public String getGroupName() { return groupName; }
     public void setGroupName(String groupName) { this.groupName = groupName; }
-    public List<String> getMembers() { return members; }
-    public void setMembers(List<String> members) { this.members = members; }
+
+    /**
+     * 群成员列表（当前快照的只读视图）
+     */
+    public List<String> getMembers() { return Collections.unmodifiableList(Arrays.asList(members)); }
+    public void setMembers(List<String> members) {
+        String[] snapshot = new HashSet<>(members).toArray(EMPTY);
+        Arrays.sort(snapshot);
+        this.members = snapshot;
+    }
+
+    /**
+     * 当前成员快照，调用方只读不改，遍历期间的成员变更不影响该数组
+     */
+    public String[] memberSnapshot() { return members; }
+
+    /**
+     * 成员数；群摘要没有成员快照，返回摘要中的人数
+     */
+    public int getMemberCount() { return summaryCount >= 0 ? summaryCount : members.length; }
+
+    public boolean hasMember(String username) {
+        return Arrays.binarySearch(members, username) >= 0;
+    }
 
     // 新增：添加群成员
     public void addMember(String username) {
-        if (!members.contains(username)) {
-            members.add(username);
-        }
+        updateMembers(Collections.singleton(username), Collections.emptySet());
     }
 
     // 新增：移除群成员
     public void removeMember(String username) {
-        members.remove(username);
+        updateMembers(Collections.emptySet(), Collections.singleton(username));
+    }
+
+    /**
+     * 批量变更成员，只生成一个新快照
+     * @param joined 加入的成员
+     * @param left   离开的成员（与 joined 不应重叠）
+     */
+    public void updateMembers(Collection<String> joined, Collection<String> left) {
+        String[] current = members;
+        List<String> added = new ArrayList<>();
+        for (String username : joined) {
+            if (Arrays.binarySearch(current, username) < 0) {
+                added.add(username);
+            }
+        }
+        Set<String> removed = new HashSet<>();
+        for (String username : left) {
+            if (Arrays.binarySearch(current, username) >= 0) {
+                removed.add(username);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return; // 无变化时保留原快照
+        }
+        String[] additions = new HashSet<>(added).toArray(EMPTY);
+        Arrays.sort(additions);
+
+        // 有序归并：保留未离开的原成员，插入新成员
+        String[] next = new String[current.length - removed.size() + additions.length];
+        int i = 0, j = 0, k = 0;
+        while (i < current.length || j < additions.length) {
+            if (i < current.length && removed.contains(current[i])) {
+                i++;
+            } else if (j >= additions.length || (i < current.length && current[i].compareTo(additions[j]) < 0)) {
+                next[k++] = current[i++];
+            } else {
+                next[k++] = additions[j++];
+            }
+        }
+        members = next;
     }
 }
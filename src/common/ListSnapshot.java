@@ -0,0 +1,196 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 列表快照帧：在线用户列表（ONLINE_USERS）和群列表（GROUP_LIST）的预编码形式
+ * 列表内容在服务端按版本只编码一次，得到的字节由所有下发共用：每次下发新建一个轻量的帧对象（组播序号各自独立），
+ * 写出时直接写入缓存的字节，不再遍历列表、逐个序列化元素。接收方首次读取列表时才解码
+ *
+ * 正文编码（DataOutput）：在线用户为 int 人数 + 各用户名；
+ * 群列表为 int 群数 + 每个群的 群ID、群名、int 成员数。群列表只是摘要，不带成员，成员经 GROUP_MEMBERS 分页获取
+ * 名称写作 int 字节数 + UTF-8 字节，长度不受 writeUTF 的 64KB 限制；名称为空的条目跳过，
+ * 单个异常条目不会让整份快照编码失败（快照失败会让之后每一次列表下发都失败）
+ */
+public class ListSnapshot extends Message implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    private long version;
+    private byte[] body;
+    private transient boolean decoded;
+
+    /**
+     * 仅供反序列化使用
+     */
+    public ListSnapshot() {
+        super(null, null);
+    }
+
+    private ListSnapshot(Type type, long version, byte[] body) {
+        super(type, "服务器");
+        this.version = version;
+        this.body = body;
+    }
+
+    public static ListSnapshot ofOnlineUsers(long version, List<String> users) {
+        int count = 0;
+        for (String user : users) {
+            if (user != null) {
+                count++;
+            }
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 + users.size() * 16);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(count);
+            for (String user : users) {
+                if (user != null) {
+                    writeString(out, user);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ListSnapshot(Type.ONLINE_USERS, version, buffer.toByteArray());
+    }
+
+    public static ListSnapshot ofGroups(long version, List<Group> groups) {
+        int count = 0;
+        for (Group group : groups) {
+            if (isListable(group)) {
+                count++;
+            }
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 + groups.size() * 64);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(count);
+            for (Group group : groups) {
+                if (isListable(group)) {
+                    writeString(out, group.getGroupId());
+                    writeString(out, group.getGroupName());
+                    out.writeInt(group.getMemberCount());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ListSnapshot(Type.GROUP_LIST, version, buffer.toByteArray());
+    }
+
+    private static boolean isListable(Group group) {
+        return group != null && group.getGroupId() != null && group.getGroupName() != null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("列表快照中的名称长度无效：" + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 新建一个共用同一份编码的帧，用于一次下发
+     */
+    public ListSnapshot copy() {
+        return new ListSnapshot(getType(), version, body);
+    }
+
+    /**
+     * 列表版本，内容变化时递增
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getBodyLength() {
+        return body != null ? body.length : 0;
+    }
+
+    @Override
+    public List<String> getOnlineUsers() {
+        decode();
+        return super.getOnlineUsers();
+    }
+
+    @Override
+    public List<Group> getGroupList() {
+        decode();
+        return super.getGroupList();
+    }
+
+    private void decode() {
+        if (decoded || body == null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            int count = in.readInt();
+            if (count < 0 || count > body.length) {
+                throw new IOException("列表快照条目数无效：" + count);
+            }
+            if (getType() == Type.ONLINE_USERS) {
+                List<String> users = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    users.add(readString(in));
+                }
+                setOnlineUsers(users);
+            } else {
+                List<Group> groups = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    groups.add(Group.summary(readString(in), readString(in), in.readInt()));
+                }
+                setGroupList(groups);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        decoded = true;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(getType().ordinal());
+        out.writeLong(version);
+        out.writeLong(getMulticastEpoch());
+        out.writeLong(getMulticastSeq());
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int type = in.readUnsignedByte();
+        if (type != Type.ONLINE_USERS.ordinal() && type != Type.GROUP_LIST.ordinal()) {
+            throw new IOException("列表快照类型无效：" + type);
+        }
+        setType(Type.values()[type]);
+        setSender("服务器");
+        version = in.readLong();
+        setMulticastEpoch(in.readLong());
+        setMulticastSeq(in.readLong());
+        int length = in.readInt();
+        if (length < 0 || length > MAX_BODY_BYTES) {
+            throw new IOException("列表快照过长：" + length);
+        }
+        body = SymbolInputStream.readBytes(in, length);
+    }
+}
@@ -1,11 +1,15 @@
 package common;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 /**
  * 消息实体类，用于客户端和服务端之间的通信
  */
-public class Message implements Serializable {
+public class Message implements Serializable, Cloneable {
+    private static final long serialVersionUID = 1L;
 
     // 消息类型：登录、私聊、群聊、上线通知、下线通知、在线用户列表
     public enum Type {
@@ -14,7 +18,13 @@ public class Message implements Serializable {
         CREATE_GROUP, SEARCH_GROUP, JOIN_GROUP, GROUP_LIST,
         REGISTER, REGISTER_RESPONSE,
         FIND_PASSWORD, FIND_PASSWORD_RESPONSE,
-        RESET_PASSWORD, RESET_PASSWORD_RESPONSE
+        RESET_PASSWORD, RESET_PASSWORD_RESPONSE,
+        RESUME, LOGOUT, ACK,
+        FILE_CHUNK,
+        MCAST_SUBSCRIBE, MCAST_NACK, MCAST_HEARTBEAT, MCAST_SKIP,
+        FILE_OFFER, FILE_FALLBACK,
+        PRESENCE_SUBSCRIBE,
+        GROUP_MEMBERS
     }
 
     private Type type;        // 消息类型
@@ -27,6 +37,7 @@ public class Message implements Serializable {
     private String fileName;  // 文件名
     private long fileSize;    // 文件大小（字节）
     private byte[] fileData;  // 文件字节数组
+    private transient FileChunks.Source fileSource; // 文件数据留在服务器磁盘上时的来源（fileData 为null），不参与序列化
 
     // 新增：群聊相关字段
     private String groupId;   // 群ID
@@ -35,6 +46,41 @@ public class Message implements Serializable {
 
     private String password;  // 新增：密码字段
 
+    // 会话恢复相关字段
+    private String resumeToken; // 恢复令牌（登录/恢复成功时由服务器下发）
+    private long ackSeq;        // 客户端已收到的最大会话帧序号（随上行消息捎带的累计确认）
+
+    // 投递序号相关字段
+    private String conversationId; // 会话标识（私聊双方/群ID），由服务器填写
+    private long seq;              // 会话内单调递增的消息序号，由服务器分配
+    private long clientSeq;        // 客户端上行消息序号，服务器据此对重发的消息去重
+
+    // 文件切片相关字段（大文件下发时按切片与聊天消息交错写出）
+    private String transferId;     // 同一文件的各切片共享的传输标识
+    private int chunkIndex;        // 切片下标（从0开始）
+    private int chunkCount;        // 切片总数
+    private Type chunkOf;          // 原文件消息类型（FILE_PRIVATE/FILE_GROUP）
+
+    // 组播相关字段（广播帧经局域网组播下发，TCP兜底补发）
+    private String multicastAddress; // 组播地址（host:port），登录/恢复成功时由服务器下发
+    private long multicastEpoch;     // 组播纪元，服务端每次启动随机生成，用于区分不同服务端
+    private long multicastSeq;       // 组播序号（从1开始），0表示该帧未经组播
+    private int multicastCount;      // 补发请求的帧数
+    private byte[] multicastKey;     // 本纪元组播帧的校验密钥，随组播地址经TCP下发
+
+    // 点对点文件传输字段（服务器只转发约定信息，文件由接收方直接向发送方拉取）
+    private String peerAddress;      // 发送方的文件监听地址（host:port）
+    private String transferToken;    // 一次性拉取令牌
+
+    // 在线状态订阅字段（PRESENCE_SUBSCRIBE 携带完整的关注集合，groupId 为正在查看的群）
+    private List<String> presenceUsers; // 关注上下线的用户
+
+    // 群成员分页字段（GROUP_LIST 只带群摘要，成员经 GROUP_MEMBERS 按页获取，groupId 为所查的群）
+    private List<String> groupMembers;  // 本页成员（响应）
+    private int pageOffset;             // 本页起始位置
+    private int pageLimit;              // 请求的每页人数，0 表示服务器默认
+    private int memberTotal;            // 群成员总数（响应）
+
     // 构造函数
     public Message(Type type, String sender, String receiver, String content) {
         this.type = type;
@@ -100,6 +146,12 @@ public class Message implements Serializable {
     public void setFileData(byte[] fileData) {
         this.fileData = fileData;
     }
+    public FileChunks.Source getFileSource() {
+        return fileSource;
+    }
+    public void setFileSource(FileChunks.Source fileSource) {
+        this.fileSource = fileSource;
+    }
     public String getGroupId() {
         return groupId;
     }
@@ -124,4 +176,154 @@ public class Message implements Serializable {
     public void setPassword(String password) {
         this.password = password;
     }
-}
\ No newline at end of file
+    public String getResumeToken() {
+        return resumeToken;
+    }
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+    public long getAckSeq() {
+        return ackSeq;
+    }
+    public void setAckSeq(long ackSeq) {
+        this.ackSeq = ackSeq;
+    }
+    public String getConversationId() {
+        return conversationId;
+    }
+    public void setConversationId(String conversationId) {
+        this.conversationId = conversationId;
+    }
+    public long getSeq() {
+        return seq;
+    }
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+    public long getClientSeq() {
+        return clientSeq;
+    }
+    public void setClientSeq(long clientSeq) {
+        this.clientSeq = clientSeq;
+    }
+    public String getTransferId() {
+        return transferId;
+    }
+    public void setTransferId(String transferId) {
+        this.transferId = transferId;
+    }
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+    public void setChunkIndex(int chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+    public int getChunkCount() {
+        return chunkCount;
+    }
+    public void setChunkCount(int chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+    public Type getChunkOf() {
+        return chunkOf;
+    }
+    public void setChunkOf(Type chunkOf) {
+        this.chunkOf = chunkOf;
+    }
+    public String getMulticastAddress() {
+        return multicastAddress;
+    }
+    public void setMulticastAddress(String multicastAddress) {
+        this.multicastAddress = multicastAddress;
+    }
+    public long getMulticastEpoch() {
+        return multicastEpoch;
+    }
+    public void setMulticastEpoch(long multicastEpoch) {
+        this.multicastEpoch = multicastEpoch;
+    }
+    public long getMulticastSeq() {
+        return multicastSeq;
+    }
+    public void setMulticastSeq(long multicastSeq) {
+        this.multicastSeq = multicastSeq;
+    }
+    public int getMulticastCount() {
+        return multicastCount;
+    }
+    public void setMulticastCount(int multicastCount) {
+        this.multicastCount = multicastCount;
+    }
+    public byte[] getMulticastKey() {
+        return multicastKey;
+    }
+    public void setMulticastKey(byte[] multicastKey) {
+        this.multicastKey = multicastKey;
+    }
+    public String getPeerAddress() {
+        return peerAddress;
+    }
+    public void setPeerAddress(String peerAddress) {
+        this.peerAddress = peerAddress;
+    }
+    public String getTransferToken() {
+        return transferToken;
+    }
+    public void setTransferToken(String transferToken) {
+        this.transferToken = transferToken;
+    }
+    public List<String> getPresenceUsers() {
+        return presenceUsers;
+    }
+    public void setPresenceUsers(List<String> presenceUsers) {
+        this.presenceUsers = presenceUsers;
+    }
+    public List<String> getGroupMembers() {
+        return groupMembers;
+    }
+    public void setGroupMembers(List<String> groupMembers) {
+        this.groupMembers = groupMembers;
+    }
+    public int getPageOffset() {
+        return pageOffset;
+    }
+    public void setPageOffset(int pageOffset) {
+        this.pageOffset = pageOffset;
+    }
+    public int getPageLimit() {
+        return pageLimit;
+    }
+    public void setPageLimit(int pageLimit) {
+        this.pageLimit = pageLimit;
+    }
+    public int getMemberTotal() {
+        return memberTotal;
+    }
+    public void setMemberTotal(int memberTotal) {
+        this.memberTotal = memberTotal;
+    }
+
+    /**
+     * 数据在磁盘上的消息序列化时才把数据读入内存，序列化的是带数据的副本
+     * 只用于一个切片大小的数据（如排队转发到其他节点的切片，见 FileChunks.sliceLater）；
+     * 整个文件应先切片，下发给客户端时由下行队列切片，转发到其他节点时由集群节点切片
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        if (fileData != null || fileSource == null) {
+            return this;
+        }
+        if (fileSource.size() > FileChunks.UPLOAD_SLICE_BYTES) {
+            throw new InvalidObjectException("文件[" + fileName + "]的数据在磁盘上，应先切片再序列化");
+        }
+        try {
+            Message copy = (Message) clone();
+            copy.fileData = fileSource.read(0, (int) fileSource.size());
+            copy.fileSource = null;
+            return copy;
+        } catch (CloneNotSupportedException | UncheckedIOException e) {
+            InvalidObjectException failure = new InvalidObjectException("无法读取文件数据：" + fileName);
+            failure.initCause(e);
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package common;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * 组播帧校验
+ * 服务端每个组播纪元随机生成一个密钥，经TCP在登录/恢复响应中下发给客户端；
+ * 每个数据报为 HMAC-SHA256(密钥, 内容) + 内容，客户端校验通过后才解码，同一网段内伪造的数据报被丢弃
+ */
+public final class MulticastSeal {
+    public static final int KEY_BYTES = 32;
+    public static final int MAC_BYTES = 32;
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final Mac mac;
+
+    public MulticastSeal(byte[] key) {
+        try {
+            mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("无法初始化组播校验", e);
+        }
+    }
+
+    public static byte[] newKey() {
+        byte[] key = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    /**
+     * 在内容前加上校验码（调用方负责同步）
+     */
+    public byte[] seal(byte[] body) {
+        mac.update(body);
+        byte[] code = mac.doFinal();
+        byte[] datagram = Arrays.copyOf(code, MAC_BYTES + body.length);
+        System.arraycopy(body, 0, datagram, MAC_BYTES, body.length);
+        return datagram;
+    }
+
+    /**
+     * 校验数据报（调用方负责同步）
+     * @return 校验通过返回true，内容位于 [offset + MAC_BYTES, offset + length)
+     */
+    public boolean verify(byte[] data, int offset, int length) {
+        if (length <= MAC_BYTES) {
+            return false;
+        }
+        mac.update(data, offset + MAC_BYTES, length - MAC_BYTES);
+        byte[] expected = mac.doFinal();
+        return MessageDigest.isEqual(expected, Arrays.copyOfRange(data, offset, offset + MAC_BYTES));
+    }
+}
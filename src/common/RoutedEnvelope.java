@@ -0,0 +1,114 @@
+package common;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 路由信封：聊天消息（私聊/群聊）的紧凑编码
+ * 只有路由头（类型、收发方、会话序号等）是结构化字段，正文是发送方编码好的 UTF-8 字节（不透明载荷）。
+ * 服务器解码时只解析路由头，正文整块读出，转发时复用收到的对象、原样写出正文，
+ * 不把正文解码成字符串，也不重建消息、重新编码；接收方首次读取内容时才解码
+ *
+ * 手写 Externalizable 编码，不经过默认序列化对每个字段的反射读写。
+ * 收发方、群ID、会话ID经连接字典编码（见 SymbolOutputStream），同一连接上重复出现的名称只写编号。
+ * 信封是 Message 的子类，会话序号、分道、补发、组播、集群转发等下发路径无需区分
+ */
+public class RoutedEnvelope extends Message implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final Type[] TYPES = Type.values();
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+
+    private byte[] body;               // 正文（UTF-8）
+    private transient String decoded;  // 已解码的正文
+
+    /**
+     * 仅供反序列化使用
+     */
+    public RoutedEnvelope() {
+        super(null, null, null, null);
+    }
+
+    public RoutedEnvelope(Type type, String sender, String receiver, String content) {
+        super(type, sender, receiver, null);
+        setContent(content);
+    }
+
+    /**
+     * 是否可以用信封发送（只有按收方路由、服务器不关心正文的聊天消息）
+     */
+    public static boolean isRoutable(Type type) {
+        return type == Type.PRIVATE_CHAT || type == Type.GROUP_CHAT;
+    }
+
+    @Override
+    public String getContent() {
+        if (decoded == null && body != null) {
+            decoded = new String(body, StandardCharsets.UTF_8);
+        }
+        return decoded;
+    }
+
+    @Override
+    public void setContent(String content) {
+        this.decoded = content;
+        this.body = content != null ? content.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    public int getBodyLength() {
+        return body != null ? body.length : 0;
+    }
+
+    /**
+     * 服务器转发前整理路由头：发送方以登录身份为准，清除只在上行中有意义的字段
+     */
+    public RoutedEnvelope forwardFrom(String sender) {
+        setSender(sender);
+        setAckSeq(0);
+        setClientSeq(0);
+        return this;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(getType().ordinal());
+        SymbolOutputStream.writeName(out, getSender());
+        SymbolOutputStream.writeName(out, getReceiver());
+        SymbolOutputStream.writeName(out, getGroupId());
+        SymbolOutputStream.writeName(out, getConversationId());
+        out.writeLong(getSeq());
+        out.writeLong(getAckSeq());
+        out.writeLong(getClientSeq());
+        out.writeLong(getMulticastEpoch());
+        out.writeLong(getMulticastSeq());
+        out.writeInt(body != null ? body.length : -1);
+        if (body != null) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int type = in.readUnsignedByte();
+        if (type >= TYPES.length || !isRoutable(TYPES[type])) {
+            throw new IOException("信封类型无效：" + type);
+        }
+        setType(TYPES[type]);
+        setSender(SymbolInputStream.readName(in));
+        setReceiver(SymbolInputStream.readName(in));
+        setGroupId(SymbolInputStream.readName(in));
+        setConversationId(SymbolInputStream.readName(in));
+        setSeq(in.readLong());
+        setAckSeq(in.readLong());
+        setClientSeq(in.readLong());
+        setMulticastEpoch(in.readLong());
+        setMulticastSeq(in.readLong());
+        int length = in.readInt();
+        if (length < -1 || length > MAX_BODY_BYTES) {
+            throw new IOException("信封正文长度无效：" + length);
+        }
+        body = length >= 0 ? SymbolInputStream.readBytes(in, length) : null;
+    }
+}
@@ -0,0 +1,108 @@
+package common;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧缓冲区池（slab 分配）
+ * 缓冲区按 2 的幂分级（最小 4KB）。不超过一块 slab 的级别，每次从堆上分配一整块 slab 再切成若干等长的缓冲区，
+ * 用完归还到该级别的空闲队列，之后直接复用，不再分配；超过 slab 的级别单独分配，空闲的总字节数超过上限时归还的缓冲区直接丢弃
+ *
+ * 小级别的内存随峰值并发占用增长、不回收，总量以 slab 为单位可预估
+ */
+public class SlabPool {
+    private static final int MIN_SHIFT = 12; // 4KB
+
+    /**
+     * 从池中取得的一段缓冲区：array 中 [offset, offset + capacity) 归持有者使用
+     */
+    public static final class Buffer {
+        final byte[] array;
+        final int offset;
+        final int capacity;
+        final int level;
+
+        Buffer(byte[] array, int offset, int capacity, int level) {
+            this.array = array;
+            this.offset = offset;
+            this.capacity = capacity;
+            this.level = level;
+        }
+    }
+
+    private final int slabBytes;
+    private final long maxIdleLargeBytes;
+    private final Queue<Buffer>[] free;
+    private final AtomicLong idleLargeBytes = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * @param maxBufferBytes    可分配的最大缓冲区
+     * @param slabBytes         slab 大小（2 的幂）
+     * @param maxIdleLargeBytes 超过 slab 的级别最多保留的空闲字节数
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SlabPool(int maxBufferBytes, int slabBytes, long maxIdleLargeBytes) {
+        this.slabBytes = slabBytes;
+        this.maxIdleLargeBytes = maxIdleLargeBytes;
+        this.free = new Queue[levelOf(maxBufferBytes) + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * 取得容量不小于 size 的缓冲区
+     */
+    public Buffer acquire(int size) {
+        int level = levelOf(size);
+        if (level >= free.length) {
+            throw new IllegalArgumentException("缓冲区过大：" + size);
+        }
+        Buffer buffer = free[level].poll();
+        if (buffer != null) {
+            if (buffer.capacity > slabBytes) {
+                idleLargeBytes.addAndGet(-buffer.capacity);
+            }
+            return buffer;
+        }
+        int capacity = 1 << (level + MIN_SHIFT);
+        if (capacity > slabBytes) {
+            allocatedBytes.addAndGet(capacity);
+            return new Buffer(new byte[capacity], 0, capacity, level);
+        }
+        byte[] slab = new byte[slabBytes];
+        allocatedBytes.addAndGet(slabBytes);
+        for (int offset = capacity; offset < slabBytes; offset += capacity) {
+            free[level].offer(new Buffer(slab, offset, capacity, level));
+        }
+        return new Buffer(slab, 0, capacity, level);
+    }
+
+    /**
+     * 归还缓冲区，归还后调用方不得再使用
+     */
+    public void release(Buffer buffer) {
+        if (buffer.capacity > slabBytes) {
+            if (idleLargeBytes.addAndGet(buffer.capacity) > maxIdleLargeBytes) {
+                idleLargeBytes.addAndGet(-buffer.capacity);
+                allocatedBytes.addAndGet(-buffer.capacity);
+                return;
+            }
+        }
+        free[buffer.level].offer(buffer);
+    }
+
+    /**
+     * 池已从堆上分配（且仍持有）的字节数
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    private static int levelOf(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1); // 不小于 size 的 2 的幂
+        return Math.max(shift - MIN_SHIFT, 0);
+    }
+}
@@ -0,0 +1,106 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * 带名称字典的对象输入流，与对端的 SymbolOutputStream 配对（编码见 SymbolOutputStream）
+ * 定义数和名称长度有上限，字典占用的内存与连接数成正比且有界
+ */
+public class SymbolInputStream extends ObjectInputStream {
+    private static final int READ_CHUNK_BYTES = 64 * 1024;
+
+    private final List<String> dictionary = new ArrayList<>();
+    private final UnaryOperator<String> canonicalizer;
+
+    public SymbolInputStream(InputStream in) throws IOException {
+        this(in, UnaryOperator.identity());
+    }
+
+    /**
+     * @param canonicalizer 读到名称后换成规范实例（服务端用符号表去重，同一名称只占一份内存）
+     */
+    public SymbolInputStream(InputStream in, UnaryOperator<String> canonicalizer) throws IOException {
+        super(in);
+        this.canonicalizer = canonicalizer;
+    }
+
+    /**
+     * 读取一个名称；in 不是字典流时只接受空值和字面量
+     */
+    public static String readName(ObjectInput in) throws IOException {
+        int code = readVarint(in);
+        if (code == SymbolOutputStream.NULL) {
+            return null;
+        }
+        SymbolInputStream symbols = in instanceof SymbolInputStream ? (SymbolInputStream) in : null;
+        if (code == SymbolOutputStream.LITERAL) {
+            String name = in.readUTF();
+            return symbols != null ? symbols.canonicalizer.apply(name) : name;
+        }
+        if (symbols == null) {
+            throw new IOException("名称引用了连接字典，但输入流不带字典");
+        }
+        return code == SymbolOutputStream.DEFINE ? symbols.define(in.readUTF()) : symbols.lookup(code);
+    }
+
+    /**
+     * 读取 length 个字节：按块分配，伪造的长度最多让解码多分配实际到达数据的量，而不是一次分配 length 字节
+     */
+    public static byte[] readBytes(ObjectInput in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("长度无效：" + length);
+        }
+        if (length <= READ_CHUNK_BYTES) {
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return data;
+        }
+        byte[] data = new byte[READ_CHUNK_BYTES];
+        int filled = 0;
+        while (filled < length) {
+            if (filled == data.length) {
+                data = Arrays.copyOf(data, (int) Math.min((long) data.length * 2, length));
+            }
+            int n = Math.min(data.length, length) - filled;
+            in.readFully(data, filled, n);
+            filled += n;
+        }
+        return data;
+    }
+
+    private String define(String name) throws IOException {
+        if (dictionary.size() >= SymbolOutputStream.MAX_SYMBOLS || name.length() > SymbolOutputStream.MAX_SYMBOL_LENGTH) {
+            throw new IOException("连接字典超出上限");
+        }
+        String canonical = canonicalizer.apply(name);
+        dictionary.add(canonical);
+        return canonical;
+    }
+
+    private String lookup(int code) throws IOException {
+        int id = code - SymbolOutputStream.FIRST_ID;
+        if (id < 0 || id >= dictionary.size()) {
+            throw new IOException("未定义的名称编号：" + id);
+        }
+        return dictionary.get(id);
+    }
+
+    private static int readVarint(ObjectInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数过长");
+    }
+}
@@ -0,0 +1,80 @@
+package common;
+
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 带名称字典的对象输出流（每个连接一个）
+ * 用户名、群ID等名称在连接上第一次出现时连同名称写出（定义），对端按出现顺序编号，之后只写编号；
+ * 字典随连接存在，不受 reset() 影响，断线重连后双方都从空字典开始。
+ * 目前路由信封的收发方、群ID、会话ID经字典编码，对端须使用 SymbolInputStream 读取
+ *
+ * 名称编码为一个变长整数，其后可能跟 UTF 字符串：
+ * 0 空值；1 字面量（不登记）；2 定义新名称；3 及以上为已定义名称的编号 + 3
+ * 不经字典流写出时（组播数据报、集群总线等）一律写字面量，可由普通 ObjectInputStream 读取
+ *
+ * 通过系统属性配置：
+ * chat.symbols.perConnection  每个连接最多定义的名称数，默认 1024，超出后写字面量
+ */
+public class SymbolOutputStream extends ObjectOutputStream {
+    static final int NULL = 0;
+    static final int LITERAL = 1;
+    static final int DEFINE = 2;
+    static final int FIRST_ID = 3;
+    static final int MAX_SYMBOLS = 4096;      // 对端接受的定义数上限
+    static final int MAX_SYMBOL_LENGTH = 128; // 更长的名称总是写字面量
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final int limit = Math.min(Integer.getInteger("chat.symbols.perConnection", 1024), MAX_SYMBOLS);
+
+    public SymbolOutputStream(OutputStream out) throws IOException {
+        super(out);
+    }
+
+    /**
+     * 写出一个名称；out 是字典流时经字典编码，否则写字面量
+     */
+    public static void writeName(ObjectOutput out, String name) throws IOException {
+        if (name == null) {
+            writeVarint(out, NULL);
+        } else if (out instanceof SymbolOutputStream) {
+            ((SymbolOutputStream) out).writeSymbol(name);
+        } else {
+            writeVarint(out, LITERAL);
+            out.writeUTF(name);
+        }
+    }
+
+    private void writeSymbol(String name) throws IOException {
+        Integer id = dictionary.get(name);
+        if (id != null) {
+            writeVarint(this, FIRST_ID + id);
+        } else if (dictionary.size() < limit && name.length() <= MAX_SYMBOL_LENGTH) {
+            writeVarint(this, DEFINE);
+            writeUTF(name);
+            dictionary.put(name, dictionary.size());
+        } else {
+            writeVarint(this, LITERAL);
+            writeUTF(name);
+        }
+    }
+
+    /**
+     * 已定义的名称数
+     */
+    public int getSymbolCount() {
+        return dictionary.size();
+    }
+
+    private static void writeVarint(ObjectOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
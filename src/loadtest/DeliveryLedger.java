@@ -0,0 +1,123 @@
+package loadtest;
+
+import server.metrics.Histogram;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 投递账本
+ * 每条压测消息发出前登记应收到它的用户，收到时逐个核销并记录端到端延迟；
+ * 压测结束时仍未核销的即为丢失，重复核销或不在名单内的记为重复投递
+ */
+class DeliveryLedger {
+    /** 压测消息在正文（或文件名）中的标记：LT|消息ID|发送时刻 */
+    static final String TAG = "LT|";
+
+    enum Kind { PRIVATE, GROUP, FILE }
+
+    private static final class Pending {
+        final Kind kind;
+        final long sentNanos;
+        final Set<String> recipients;
+
+        Pending(Kind kind, long sentNanos, Collection<String> recipients) {
+            this.kind = kind;
+            this.sentNanos = sentNanos;
+            this.recipients = ConcurrentHashMap.newKeySet(recipients.size());
+            this.recipients.addAll(recipients);
+        }
+    }
+
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Kind, LongAdder> sent = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> expected = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> delivered = new EnumMap<>(Kind.class);
+    private final Map<Kind, Histogram> latency = new EnumMap<>(Kind.class);
+    private final LongAdder duplicates = new LongAdder();
+
+    DeliveryLedger() {
+        for (Kind kind : Kind.values()) {
+            sent.put(kind, new LongAdder());
+            expected.put(kind, new LongAdder());
+            delivered.put(kind, new LongAdder());
+            latency.put(kind, new Histogram());
+        }
+    }
+
+    /**
+     * 登记一条即将发出的消息
+     * @param sentNanos 计划发送时刻（按计划而非实际发出时刻计时，发送端被阻塞的时间也计入延迟）
+     * @return 写入消息的标记
+     */
+    String register(Kind kind, long sentNanos, Collection<String> recipients) {
+        long id = nextId.incrementAndGet();
+        pending.put(id, new Pending(kind, sentNanos, recipients));
+        sent.get(kind).increment();
+        expected.get(kind).add(recipients.size());
+        return TAG + id + "|" + sentNanos;
+    }
+
+    /**
+     * 登记的消息实际未能发出（连接已断开）
+     */
+    void cancel(String tag) {
+        Pending p = pending.remove(parseId(tag));
+        if (p != null) {
+            sent.get(p.kind).decrement();
+            expected.get(p.kind).add(-p.recipients.size());
+        }
+    }
+
+    /**
+     * 某用户收到一条带标记的消息
+     */
+    void onReceived(String recipient, String tag, long receivedNanos) {
+        long id = parseId(tag);
+        Pending p = pending.get(id);
+        if (p == null || !p.recipients.remove(recipient)) {
+            duplicates.increment();
+            return;
+        }
+        delivered.get(p.kind).increment();
+        latency.get(p.kind).record(receivedNanos - p.sentNanos);
+        if (p.recipients.isEmpty()) {
+            pending.remove(id);
+        }
+    }
+
+    static boolean isTagged(String text) {
+        return text != null && text.startsWith(TAG);
+    }
+
+    private static long parseId(String tag) {
+        int end = tag.indexOf('|', TAG.length());
+        return Long.parseLong(tag.substring(TAG.length(), end));
+    }
+
+    long getSent(Kind kind) { return sent.get(kind).sum(); }
+    long getExpected(Kind kind) { return expected.get(kind).sum(); }
+    long getDelivered(Kind kind) { return delivered.get(kind).sum(); }
+    Histogram getLatency(Kind kind) { return latency.get(kind); }
+    long getDuplicates() { return duplicates.sum(); }
+
+    /**
+     * 尚未送达的投递数（按类型）
+     */
+    Map<Kind, Long> getOutstanding() {
+        Map<Kind, Long> outstanding = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            outstanding.put(kind, 0L);
+        }
+        for (Pending p : pending.values()) {
+            outstanding.merge(p.kind, (long) p.recipients.size(), Long::sum);
+        }
+        return outstanding;
+    }
+}
@@ -0,0 +1,377 @@
+package loadtest;
+
+import common.Message;
+import common.RoutedEnvelope;
+import server.metrics.Histogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 无界面压测工具
+ * 用与客户端相同的 Message 协议模拟大量用户：注册、登录、建群入群，
+ * 然后按设定速率发送私聊、群聊和文件，统计端到端延迟分位数与送达情况，报告丢失的消息。
+ * 建连阶段统计每次登录的延迟（从首次发出 LOGIN 到成功，含繁忙退避），报告登录吞吐与分位数，
+ * loadtest.duration 为 0 时只测登录洪峰，不进入发送阶段
+ *
+ * 用法（参数见 LoadTestConfig）：
+ * java -Dloadtest.users=2000 -Dloadtest.servers=127.0.0.1:8888 -cp out loadtest.LoadGenerator
+ * 有消息丢失时进程以状态码1退出
+ */
+public class LoadGenerator {
+    private static final long TICK_MILLIS = 10;
+    private static final long REPLY_TIMEOUT_MILLIS = 30_000;
+    private static final int LOGIN_ATTEMPTS = 20;
+    private static final Pattern GROUP_ID = Pattern.compile("群ID：(\\S+)");
+
+    private final LoadTestConfig config;
+    private final DeliveryLedger ledger = new DeliveryLedger();
+    private final List<SimulatedUser> users = new ArrayList<>();
+    private final List<String> groupIds = new ArrayList<>();
+    private final List<String> groupNames = new ArrayList<>();
+    private final List<List<String>> groupMembers = new ArrayList<>();
+    private final AtomicInteger sendFailures = new AtomicInteger();
+    private final Histogram loginLatency = new Histogram();
+    private final AtomicInteger loginRetries = new AtomicInteger();
+
+    public LoadGenerator(LoadTestConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = new LoadTestConfig();
+        System.out.println("压测参数：" + config);
+        LoadGenerator generator = new LoadGenerator(config);
+        boolean clean = generator.run();
+        System.exit(clean ? 0 : 1);
+    }
+
+    /**
+     * @return 没有丢失消息时返回true
+     */
+    public boolean run() throws Exception {
+        long start = System.nanoTime();
+        connectAll();
+        printLoginReport(System.nanoTime() - start);
+        setupGroups();
+        System.out.println("已建立 " + groupIds.size() + " 个群");
+
+        if (config.durationSeconds <= 0) { // 只测登录
+            for (SimulatedUser user : users) {
+                user.close();
+            }
+            return true;
+        }
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
+        long phaseStart = System.nanoTime();
+        schedule(scheduler, phaseStart, config.privateRate, this::sendPrivate);
+        schedule(scheduler, phaseStart, config.groupRate, this::sendGroup);
+        schedule(scheduler, phaseStart, config.fileRate, this::sendFile);
+
+        for (int elapsed = 0; elapsed < config.durationSeconds; elapsed += config.reportSeconds) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(Math.min(config.reportSeconds, config.durationSeconds - elapsed)));
+            printProgress();
+            ackIdleUsers();
+        }
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+
+        System.out.println("停止发送，等待在途消息 " + config.drainSeconds + "s ...");
+        long drainDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.drainSeconds);
+        while (System.currentTimeMillis() < drainDeadline && totalOutstanding() > 0) {
+            Thread.sleep(200);
+        }
+        boolean clean = printReport();
+        for (SimulatedUser user : users) {
+            user.close();
+        }
+        return clean;
+    }
+
+    // ==================== 建连阶段 ====================
+
+    private void connectAll() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(config.connectConcurrency);
+        try {
+            List<Future<SimulatedUser>> futures = new ArrayList<>();
+            for (int i = 0; i < config.users; i++) {
+                String username = config.username(i);
+                String server = config.serverFor(i);
+                futures.add(pool.submit(() -> login(new SimulatedUser(username, server, ledger))));
+            }
+            for (Future<SimulatedUser> future : futures) {
+                SimulatedUser user = future.get();
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (users.isEmpty()) {
+            throw new IllegalStateException("没有用户登录成功");
+        }
+    }
+
+    /**
+     * 注册（已存在则忽略）并登录，服务器繁忙时退避重试
+     */
+    private SimulatedUser login(SimulatedUser user) throws Exception {
+        user.connect();
+        Message register = new Message(Message.Type.REGISTER, user.getUsername());
+        register.setPassword(config.password);
+        user.send(register);
+        user.awaitReply(m -> m.getType() == Message.Type.REGISTER_RESPONSE, REPLY_TIMEOUT_MILLIS);
+
+        long loginStart = System.nanoTime();
+        for (int attempt = 0; attempt < LOGIN_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                loginRetries.incrementAndGet();
+            }
+            Message login = new Message(Message.Type.LOGIN, user.getUsername());
+            login.setPassword(config.password);
+            user.send(login);
+            Message reply = user.awaitReply(m -> m.getType() == Message.Type.LOGIN, REPLY_TIMEOUT_MILLIS);
+            if (reply != null && reply.getResumeToken() != null) {
+                loginLatency.record(System.nanoTime() - loginStart);
+                return user;
+            }
+            String reason = reply == null ? "超时" : reply.getContent();
+            if (reply == null || !reason.contains("繁忙")) {
+                System.out.println(user.getUsername() + " 登录失败：" + reason);
+                user.close();
+                return null;
+            }
+            Thread.sleep(ThreadLocalRandom.current().nextLong(100, 100L << Math.min(attempt, 5)));
+        }
+        user.close();
+        return null;
+    }
+
+    /**
+     * 各群由不同用户创建（避免触发建群限流），再按顺序把用户分到各群，每个入群请求都等服务器确认后再开始发送
+     */
+    private void setupGroups() throws Exception {
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        for (int g = 0; g < config.groups; g++) {
+            SimulatedUser creator = users.get(g % users.size());
+            String name = "lt-" + runId + "-g" + g;
+            creator.send(new Message(Message.Type.CREATE_GROUP, creator.getUsername(), "", name));
+            Message reply = creator.awaitReply(m -> m.getContent() != null && m.getContent().contains(name),
+                    REPLY_TIMEOUT_MILLIS);
+            Matcher matcher = reply == null ? null : GROUP_ID.matcher(reply.getContent());
+            if (matcher == null || !matcher.find()) {
+                throw new IllegalStateException("建群失败：" + name);
+            }
+            groupIds.add(matcher.group(1));
+            groupNames.add(name);
+            List<String> members = new ArrayList<>();
+            members.add(creator.getUsername());
+            groupMembers.add(members);
+        }
+
+        int size = Math.min(config.groupSize, users.size());
+        for (int g = 0; g < groupIds.size(); g++) {
+            List<String> members = groupMembers.get(g);
+            for (int k = 0; members.size() < size && k < users.size(); k++) {
+                SimulatedUser user = users.get((g * size + k) % users.size());
+                if (members.contains(user.getUsername())) {
+                    continue;
+                }
+                user.send(new Message(Message.Type.JOIN_GROUP, user.getUsername(), groupIds.get(g), null));
+                Message reply = user.awaitReply(m -> m.getContent() != null && m.getContent().contains("加入群组"),
+                        REPLY_TIMEOUT_MILLIS);
+                if (reply != null && reply.getContent().startsWith("成功")) {
+                    members.add(user.getUsername());
+                }
+            }
+        }
+    }
+
+    // ==================== 发送阶段 ====================
+
+    /**
+     * 发送动作，参数为计划发送时刻
+     */
+    private interface SendAction {
+        void send(long intendedNanos);
+    }
+
+    /**
+     * 按固定节拍发送，每个节拍按速率累积额度，节拍的计划时刻作为消息的发送时刻
+     */
+    private void schedule(ScheduledExecutorService scheduler, long phaseStart, double ratePerSecond, SendAction action) {
+        if (ratePerSecond <= 0) {
+            return;
+        }
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+        double perTick = ratePerSecond * TICK_MILLIS / 1000.0;
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            private long tick;
+            private double credit;
+
+            @Override
+            public void run() {
+                long intended = phaseStart + tick++ * periodNanos;
+                credit += perTick;
+                while (credit >= 1) {
+                    credit -= 1;
+                    action.send(intended);
+                }
+            }
+        }, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendPrivate(long intendedNanos) {
+        if (users.size() < 2) {
+            return;
+        }
+        SimulatedUser sender = randomUser();
+        SimulatedUser receiver = randomUser();
+        while (receiver == sender) {
+            receiver = randomUser();
+        }
+        String tag = ledger.register(DeliveryLedger.Kind.PRIVATE, intendedNanos,
+                Collections.singletonList(receiver.getUsername()));
+        deliver(sender, chat(Message.Type.PRIVATE_CHAT, sender.getUsername(), receiver.getUsername(), tag), tag);
+    }
+
+    private void sendGroup(long intendedNanos) {
+        if (groupIds.isEmpty()) {
+            return;
+        }
+        int g = ThreadLocalRandom.current().nextInt(groupIds.size());
+        List<String> members = groupMembers.get(g);
+        SimulatedUser sender = userByName(members.get(ThreadLocalRandom.current().nextInt(members.size())));
+        List<String> recipients = new ArrayList<>(members);
+        recipients.remove(sender.getUsername());
+        String tag = ledger.register(DeliveryLedger.Kind.GROUP, intendedNanos, recipients);
+        deliver(sender, chat(Message.Type.GROUP_CHAT, sender.getUsername(), groupIds.get(g), tag), tag);
+    }
+
+    private void sendFile(long intendedNanos) {
+        if (users.size() < 2) {
+            return;
+        }
+        SimulatedUser sender = randomUser();
+        SimulatedUser receiver = randomUser();
+        while (receiver == sender) {
+            receiver = randomUser();
+        }
+        String tag = ledger.register(DeliveryLedger.Kind.FILE, intendedNanos,
+                Collections.singletonList(receiver.getUsername()));
+        byte[] data = new byte[config.fileSize];
+        deliver(sender, new Message(Message.Type.FILE_PRIVATE, sender.getUsername(), receiver.getUsername(),
+                tag, data.length, data), tag);
+    }
+
+    private Message chat(Message.Type type, String sender, String receiver, String tag) {
+        return config.opaque ? new RoutedEnvelope(type, sender, receiver, tag) : new Message(type, sender, receiver, tag);
+    }
+
+    private void deliver(SimulatedUser sender, Message message, String tag) {
+        try {
+            sender.send(message);
+        } catch (IOException e) {
+            ledger.cancel(tag);
+            sendFailures.incrementAndGet();
+        }
+    }
+
+    private SimulatedUser randomUser() {
+        return users.get(ThreadLocalRandom.current().nextInt(users.size()));
+    }
+
+    private SimulatedUser userByName(String username) {
+        for (SimulatedUser user : users) {
+            if (user.getUsername().equals(username)) {
+                return user;
+            }
+        }
+        throw new IllegalArgumentException(username);
+    }
+
+    private void ackIdleUsers() {
+        for (SimulatedUser user : users) {
+            try {
+                user.ackIfIdle();
+            } catch (IOException e) {
+                // 连接已断开，由统计中的丢失体现
+            }
+        }
+    }
+
+    // ==================== 报告 ====================
+
+    private long totalOutstanding() {
+        long total = 0;
+        for (long value : ledger.getOutstanding().values()) {
+            total += value;
+        }
+        return total;
+    }
+
+    private void printProgress() {
+        StringBuilder sb = new StringBuilder("[进度]");
+        for (DeliveryLedger.Kind kind : DeliveryLedger.Kind.values()) {
+            Histogram.Snapshot s = ledger.getLatency(kind).snapshot();
+            sb.append(String.format(" %s 发%d 收%d/%d p99=%.1fms", kind, ledger.getSent(kind),
+                    ledger.getDelivered(kind), ledger.getExpected(kind), s.percentile(99) / 1e6));
+        }
+        System.out.println(sb);
+    }
+
+    private void printLoginReport(long elapsedNanos) {
+        Histogram.Snapshot s = loginLatency.snapshot();
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format("已登录 %d/%d 个用户，用时 %.0fms，%.1f 次登录/秒，繁忙重试 %d 次",
+                users.size(), config.users, seconds * 1000, users.size() / seconds, loginRetries.get()));
+        System.out.println(String.format("登录延迟 p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                s.percentile(50) / 1e6, s.percentile(90) / 1e6, s.percentile(99) / 1e6, s.getMax() / 1e6));
+    }
+
+    /**
+     * @return 没有丢失消息时返回true
+     */
+    private boolean printReport() {
+        Map<DeliveryLedger.Kind, Long> outstanding = ledger.getOutstanding();
+        long lost = 0;
+        int disconnected = 0;
+        for (SimulatedUser user : users) {
+            if (!user.isConnected()) {
+                disconnected++;
+            }
+        }
+        System.out.println("==================== 压测结果 ====================");
+        System.out.println(String.format("%-8s %8s %10s %10s %8s %9s %9s %9s %9s %9s",
+                "类型", "发送", "应收", "已收", "丢失", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)"));
+        for (DeliveryLedger.Kind kind : DeliveryLedger.Kind.values()) {
+            Histogram.Snapshot s = ledger.getLatency(kind).snapshot();
+            long kindLost = outstanding.get(kind);
+            lost += kindLost;
+            System.out.println(String.format("%-8s %8d %10d %10d %8d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    kind, ledger.getSent(kind), ledger.getExpected(kind), ledger.getDelivered(kind), kindLost,
+                    s.percentile(50) / 1e6, s.percentile(90) / 1e6, s.percentile(99) / 1e6,
+                    s.percentile(99.9) / 1e6, s.getMax() / 1e6));
+        }
+        System.out.println("重复投递：" + ledger.getDuplicates() + "  发送失败：" + sendFailures.get()
+                + "  断开的连接：" + disconnected + "/" + users.size());
+        if (lost > 0) {
+            System.out.println("警告：有 " + lost + " 次投递在 " + config.drainSeconds + "s 内未送达！");
+        }
+        return lost == 0;
+    }
+}
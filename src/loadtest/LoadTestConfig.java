@@ -0,0 +1,53 @@
+package loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 压测参数，全部通过系统属性配置（前缀 loadtest.）
+ */
+public class LoadTestConfig {
+    final List<String> servers = new ArrayList<>();             // 服务端地址，多个时用户轮流分配到各节点
+    final int users = Integer.getInteger("loadtest.users", 200);
+    final String userPrefix = System.getProperty("loadtest.userPrefix", "lt");
+    final String password = System.getProperty("loadtest.password", "loadtest");
+    final int connectConcurrency = Integer.getInteger("loadtest.connectConcurrency", 32);
+    final int groups = Integer.getInteger("loadtest.groups", 5);
+    final int groupSize = Integer.getInteger("loadtest.groupSize", 50);
+    final double privateRate = doubleProperty("loadtest.privateRate", 200);  // 每秒私聊条数
+    final double groupRate = doubleProperty("loadtest.groupRate", 20);       // 每秒群聊条数
+    final double fileRate = doubleProperty("loadtest.fileRate", 1);          // 每秒私聊文件个数
+    final int fileSize = Integer.getInteger("loadtest.fileSize", 64 * 1024);
+    final int durationSeconds = Integer.getInteger("loadtest.duration", 30);
+    final int drainSeconds = Integer.getInteger("loadtest.drain", 10);       // 停止发送后等待在途消息送达的时间
+    final int reportSeconds = Integer.getInteger("loadtest.report", 5);
+    final boolean opaque = Boolean.parseBoolean(System.getProperty("loadtest.opaque", "true")); // 聊天消息以路由信封发送
+
+    LoadTestConfig() {
+        for (String server : System.getProperty("loadtest.servers", "127.0.0.1:8888").split(",")) {
+            if (!server.trim().isEmpty()) {
+                servers.add(server.trim());
+            }
+        }
+    }
+
+    String username(int index) {
+        return userPrefix + index;
+    }
+
+    String serverFor(int index) {
+        return servers.get(index % servers.size());
+    }
+
+    private static double doubleProperty(String key, double defaultValue) {
+        String value = System.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    @Override
+    public String toString() {
+        return "servers=" + servers + " users=" + users + " groups=" + groups + "x" + groupSize
+                + " rate(private/group/file)=" + privateRate + "/" + groupRate + "/" + fileRate
+                + " fileSize=" + fileSize + " duration=" + durationSeconds + "s" + (opaque ? " opaque" : "");
+    }
+}
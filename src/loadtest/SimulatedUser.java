@@ -0,0 +1,146 @@
+package loadtest;
+
+import common.FileChunks;
+import common.FrameOutputStream;
+import common.Message;
+import common.SymbolInputStream;
+import common.SymbolOutputStream;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 模拟用户：一条连接 + 一个读线程，协议与 Swing 客户端一致
+ * 带压测标记的消息交给投递账本核销，服务器的应答放入应答队列供建连阶段等待，其余推送直接丢弃
+ */
+class SimulatedUser {
+    private static final int REPLY_QUEUE_CAPACITY = 64;
+
+    private final String username;
+    private final String server;
+    private final DeliveryLedger ledger;
+    private final BlockingQueue<Message> replies = new ArrayBlockingQueue<>(REPLY_QUEUE_CAPACITY);
+    private final AtomicLong framesReceived = new AtomicLong();
+    private volatile long lastAcked;
+    private volatile boolean connected;
+
+    private Socket socket;
+    private ObjectOutputStream oos;
+
+    SimulatedUser(String username, String server, DeliveryLedger ledger) {
+        this.username = username;
+        this.server = server;
+        this.ledger = ledger;
+    }
+
+    String getUsername() { return username; }
+    boolean isConnected() { return connected; }
+
+    void connect() throws IOException {
+        int colon = server.lastIndexOf(':');
+        socket = new Socket(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+        socket.setTcpNoDelay(true);
+        oos = new SymbolOutputStream(new FrameOutputStream(socket.getOutputStream()));
+        oos.flush();
+        ObjectInputStream ois = new SymbolInputStream(socket.getInputStream());
+        connected = true;
+        Thread reader = new Thread(() -> readLoop(ois), "lt-reader-" + username);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readLoop(ObjectInputStream ois) {
+        try {
+            while (true) {
+                Message message = (Message) ois.readObject();
+                long now = System.nanoTime();
+                if (message.getType() == Message.Type.LOGIN && message.getResumeToken() != null) {
+                    framesReceived.set(0); // 会话帧序号从登录应答之后开始计
+                } else {
+                    framesReceived.incrementAndGet();
+                }
+                if (message.getType() == Message.Type.FILE_CHUNK
+                        && message.getChunkIndex() < message.getChunkCount() - 1) {
+                    continue; // 大文件切片下发，最后一片到达才算送达
+                }
+                String tag = isFile(message.getType()) ? message.getFileName() : message.getContent();
+                if (DeliveryLedger.isTagged(tag)) {
+                    ledger.onReceived(username, tag, now);
+                    continue;
+                }
+                switch (message.getType()) {
+                    case GROUP_LIST:
+                    case ONLINE_NOTIFY:
+                    case OFFLINE_NOTIFY:
+                    case ONLINE_USERS:
+                        break;
+                    default:
+                        replies.offer(message); // 应答队列满时丢弃，只影响建连阶段的等待
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            connected = false;
+        }
+    }
+
+    private static boolean isFile(Message.Type type) {
+        return type == Message.Type.FILE_PRIVATE || type == Message.Type.FILE_GROUP || type == Message.Type.FILE_CHUNK;
+    }
+
+    /**
+     * 发送一条消息，捎带累计确认
+     */
+    void send(Message message) throws IOException {
+        long received = framesReceived.get();
+        message.setAckSeq(received);
+        synchronized (this) {
+            for (Message frame : FileChunks.forUpload(message)) { // 超过一个切片的文件逐片发送
+                frame.setAckSeq(received);
+                oos.writeObject(frame);
+                oos.flush();
+                oos.reset(); // 压测消息对象不复用，避免句柄表无限增长
+            }
+        }
+        lastAcked = received;
+    }
+
+    /**
+     * 空闲时补发确认，让服务端及时清理补发缓存
+     */
+    void ackIfIdle() throws IOException {
+        if (connected && framesReceived.get() > lastAcked) {
+            send(new Message(Message.Type.ACK, username));
+        }
+    }
+
+    /**
+     * 等待满足条件的服务器应答，超时返回null
+     */
+    Message awaitReply(Predicate<Message> predicate, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            Message reply = replies.poll(remaining, TimeUnit.MILLISECONDS);
+            if (reply != null && predicate.test(reply)) {
+                return reply;
+            }
+        }
+        return null;
+    }
+
+    void close() {
+        connected = false;
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
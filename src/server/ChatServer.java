@@ -1,39 +1,94 @@
 package server;
 
+import common.SlabPool;
+import server.admin.AdminServer;
+import server.admin.StatsReport;
+import server.auth.AuthExecutor;
 import server.broadcast.BroadcastService;
+import server.broadcast.MulticastPublisher;
+import server.cluster.ClusterBus;
+import server.cluster.ClusterNode;
+import server.cluster.SingleNodeBus;
+import server.cluster.TcpClusterBus;
 import server.handlers.ClientHandler;
 import server.handlers.MessageHandler;
+import server.managers.ConversationSequencer;
 import server.managers.GroupManager;
 import server.managers.OnlineUserManager;
+import server.managers.SymbolTable;
 import server.managers.UserManager;
+import server.metrics.ServerMetrics;
+import server.ratelimit.BandwidthScheduler;
+import server.ratelimit.RateLimiter;
+import server.session.ClientSession;
+import server.session.SessionManager;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 
 /**
  * 聊天室服务端
+ *
+ * 集群模式通过系统属性配置（未配置 chat.cluster.peers 时为单节点）：
+ * chat.node.id        本节点ID，默认 node-端口号
+ * chat.cluster.port   节点总线监听端口
+ * chat.cluster.bind   节点总线监听地址，默认 127.0.0.1，跨主机部署时设为本机的内网地址
+ * chat.cluster.peers  其他节点，格式 nodeId@host:port，逗号分隔
+ * chat.cluster.secret 各节点共享的密钥（必填），用于认证总线握手
+ *
+ * chat.admin.port     管理端口（仅本机可连），默认为服务端口+2000，设为0关闭
+ * chat.multicast.*    局域网组播下发广播帧，见 MulticastPublisher
+ * chat.frame.maxBytes 客户端单帧（单条消息）上限，见 ClientHandler
  */
 public class ChatServer {
-    private static final int PORT = 8888;
+    private static final int DEFAULT_PORT = 8888;
 
+    private final int port;
     private final UserManager userManager;
+    private final AuthExecutor authExecutor;
     private final OnlineUserManager onlineUserManager;
     private final GroupManager groupManager;
     private final BroadcastService broadcastService;
+    private final ClusterNode clusterNode;
     private final MessageHandler messageHandler;
+    private final SessionManager sessionManager;
+    private final ServerMetrics metrics;
+    private final RateLimiter rateLimiter;
+    private final BandwidthScheduler bandwidth;
+    private final MulticastPublisher multicast;
+    private final SlabPool framePool = new SlabPool(ClientHandler.MAX_FRAME_BYTES, 256 * 1024, 32L * 1024 * 1024);
 
-    public ChatServer() {
+    public ChatServer(int port, ClusterBus clusterBus) {
+        this.port = port;
         this.userManager = new UserManager();
-        this.onlineUserManager = new OnlineUserManager();
-        this.groupManager = new GroupManager();
-        this.broadcastService = new BroadcastService(onlineUserManager, groupManager);
-        this.messageHandler = new MessageHandler(onlineUserManager, groupManager, broadcastService);
+        this.authExecutor = new AuthExecutor();
+        SymbolTable symbols = new SymbolTable();
+        this.onlineUserManager = new OnlineUserManager(symbols);
+        this.groupManager = new GroupManager(symbols);
+        this.multicast = new MulticastPublisher();
+        this.broadcastService = new BroadcastService(onlineUserManager, groupManager, multicast);
+        this.metrics = new ServerMetrics();
+        this.rateLimiter = new RateLimiter(metrics);
+        this.bandwidth = new BandwidthScheduler();
+        ConversationSequencer sequencer = new ConversationSequencer(clusterBus.getLocalNodeId());
+        this.clusterNode = new ClusterNode(clusterBus, userManager, onlineUserManager, groupManager,
+                broadcastService, sequencer, metrics);
+        this.messageHandler = new MessageHandler(onlineUserManager, groupManager, broadcastService,
+                sequencer, clusterNode);
+        this.sessionManager = new SessionManager(onlineUserManager, groupManager, broadcastService, clusterNode,
+                bandwidth);
+        registerGauges(clusterBus);
     }
 
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("聊天室服务端已启动，端口：" + PORT);
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            clusterNode.getBus().start(clusterNode);
+            multicast.start();
+            System.out.println("聊天室服务端已启动，端口：" + port + "，节点：" + clusterNode.getLocalNodeId());
+            startAdminServer();
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
@@ -42,10 +97,16 @@ public class ChatServer {
                 ClientHandler clientHandler = new ClientHandler(
                         clientSocket,
                         userManager,
+                        authExecutor,
                         onlineUserManager,
                         groupManager,
                         broadcastService,
-                        messageHandler
+                        messageHandler,
+                        sessionManager,
+                        clusterNode,
+                        metrics,
+                        rateLimiter,
+                        framePool
                 );
                 clientHandler.start();
             }
@@ -54,8 +115,70 @@ public class ChatServer {
         }
     }
 
+    /**
+     * 启动本机管理端口（启动失败不影响聊天服务）
+     */
+    private void startAdminServer() {
+        int adminPort = Integer.getInteger("chat.admin.port", port + 2000);
+        if (adminPort <= 0) {
+            return;
+        }
+        StatsReport report = new StatsReport(metrics, onlineUserManager, groupManager, clusterNode, bandwidth);
+        try {
+            new AdminServer(adminPort, report).start();
+        } catch (IOException e) {
+            System.out.println("管理端口启动失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 注册队列积压等瞬时指标
+     */
+    private void registerGauges(ClusterBus clusterBus) {
+        metrics.registerGauge("auth.queue", authExecutor::getQueueSize);
+        metrics.registerGauge("online.local", onlineUserManager::getOnlineUserCount);
+        metrics.registerGauge("cluster.queue", () -> {
+            long total = 0;
+            for (int depth : clusterBus.getQueueDepths().values()) {
+                total += depth;
+            }
+            return total;
+        });
+        metrics.registerGauge("multicast.seq", multicast::getLastSeq);
+        metrics.registerGauge("snapshot.encodes", broadcastService.getSnapshots()::getEncodes);
+        metrics.registerGauge("presence.subscribers", broadcastService.getPresence()::getSubscriberCount);
+        metrics.registerGauge("frame.pool.bytes", framePool::getAllocatedBytes);
+        metrics.registerGauge("outbound.queued", () -> {
+            long total = 0;
+            for (ClientSession session : onlineUserManager.getAllSessions()) {
+                total += session.getQueuedFrames();
+            }
+            return total;
+        });
+    }
+
+    /**
+     * 根据系统属性创建节点总线
+     */
+    private static ClusterBus createClusterBus(int port) {
+        String nodeId = System.getProperty("chat.node.id", "node-" + port);
+        String peers = System.getProperty("chat.cluster.peers", "");
+        if (peers.trim().isEmpty()) {
+            return new SingleNodeBus(nodeId);
+        }
+        String secret = System.getProperty("chat.cluster.secret", "");
+        if (secret.isEmpty()) {
+            throw new IllegalStateException("集群模式需要配置共享密钥 chat.cluster.secret");
+        }
+        int busPort = Integer.getInteger("chat.cluster.port", port + 1000);
+        InetSocketAddress bindAddress = new InetSocketAddress(System.getProperty("chat.cluster.bind", "127.0.0.1"), busPort);
+        return new TcpClusterBus(nodeId, bindAddress, secret.getBytes(StandardCharsets.UTF_8),
+                TcpClusterBus.parsePeers(peers));
+    }
+
     public static void main(String[] args) {
-        ChatServer server = new ChatServer();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("chat.port", DEFAULT_PORT);
+        ChatServer server = new ChatServer(port, createClusterBus(port));
         server.start();
     }
 }
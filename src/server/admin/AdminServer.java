@@ -0,0 +1,82 @@
+package server.admin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 管理端口
+ * 只监听本机回环地址，按行接收纯文本命令并返回运行状态，可直接用 nc/telnet 连接：
+ * stats 输出完整报告；overview/groups/connections/queues/latency/ratelimit/bandwidth/jvm/nodes 输出单个部分；quit 断开
+ */
+public class AdminServer {
+    private final int port;
+    private final StatsReport report;
+    private volatile ServerSocket serverSocket;
+
+    public AdminServer(int port, StatsReport report) {
+        this.port = port;
+        this.report = report;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "admin-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("管理端口已启动：127.0.0.1:" + port);
+    }
+
+    public void shutdown() {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread session = new Thread(() -> serve(socket), "admin-" + socket.getPort());
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.trim().toLowerCase();
+                if (command.isEmpty() || command.equals("stats")) {
+                    out.print(report.render());
+                } else if (command.equals("quit") || command.equals("exit")) {
+                    break;
+                } else {
+                    String section = report.render(command);
+                    out.print(section != null ? section
+                            : "未知命令：" + command + "\n可用命令：stats overview groups connections queues latency ratelimit bandwidth jvm nodes quit\n");
+                }
+                out.println();
+                out.flush();
+            }
+        } catch (IOException e) {
+            // 管理连接断开，忽略
+        }
+    }
+}
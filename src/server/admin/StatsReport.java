@@ -0,0 +1,207 @@
+package server.admin;
+
+import common.Group;
+import common.Message;
+import server.cluster.ClusterBus;
+import server.cluster.ClusterNode;
+import server.cluster.PresenceDirectory;
+import server.managers.GroupManager;
+import server.managers.OnlineUserManager;
+import server.metrics.ConnectionStats;
+import server.metrics.Histogram;
+import server.metrics.ServerMetrics;
+import server.ratelimit.BandwidthScheduler;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 运行状态报告：把各项指标整理成纯文本，供管理端口输出
+ */
+public class StatsReport {
+    private static final int TOP_N = 10;
+    private static final long MB = 1024 * 1024;
+
+    private final ServerMetrics metrics;
+    private final OnlineUserManager onlineUserManager;
+    private final GroupManager groupManager;
+    private final ClusterNode clusterNode;
+    private final BandwidthScheduler bandwidth;
+
+    public StatsReport(ServerMetrics metrics,
+                       OnlineUserManager onlineUserManager,
+                       GroupManager groupManager,
+                       ClusterNode clusterNode,
+                       BandwidthScheduler bandwidth) {
+        this.metrics = metrics;
+        this.onlineUserManager = onlineUserManager;
+        this.groupManager = groupManager;
+        this.clusterNode = clusterNode;
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * 生成完整报告
+     */
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        appendOverview(sb);
+        appendGroups(sb);
+        appendConnections(sb);
+        appendGauges(sb);
+        appendLatency(sb);
+        appendRateLimit(sb);
+        appendBandwidth(sb);
+        appendJvm(sb);
+        appendNodes(sb);
+        return sb.toString();
+    }
+
+    /**
+     * 按名称生成单个部分，未知名称返回null
+     */
+    public String render(String section) {
+        StringBuilder sb = new StringBuilder();
+        switch (section) {
+            case "overview": appendOverview(sb); break;
+            case "groups": appendGroups(sb); break;
+            case "connections": appendConnections(sb); break;
+            case "queues": appendGauges(sb); break;
+            case "latency": appendLatency(sb); break;
+            case "ratelimit": appendRateLimit(sb); break;
+            case "bandwidth": appendBandwidth(sb); break;
+            case "jvm": appendJvm(sb); break;
+            case "nodes": appendNodes(sb); break;
+            default: return null;
+        }
+        return sb.toString();
+    }
+
+    private void appendOverview(StringBuilder sb) {
+        long uptimeSeconds = (System.currentTimeMillis() - metrics.getStartedAt()) / 1000;
+        sb.append("== 概况 ==\n");
+        sb.append("节点: ").append(clusterNode.getLocalNodeId())
+                .append("  运行: ").append(uptimeSeconds).append("s\n");
+        sb.append("在线: 本节点 ").append(onlineUserManager.getOnlineUserCount())
+                .append(" / 集群 ").append(onlineUserManager.getClusterOnlineUsers().size())
+                .append("  连接数: ").append(metrics.getConnections().size()).append('\n');
+        sb.append("收: ").append(metrics.getFramesIn()).append(" 帧 / ")
+                .append(metrics.getBytesIn()).append(" 字节  发: ")
+                .append(metrics.getBytesOut()).append(" 字节\n");
+    }
+
+    private void appendGroups(StringBuilder sb) {
+        List<Group> groups = groupManager.getAllGroups();
+        groups.sort((a, b) -> Integer.compare(b.getMemberCount(), a.getMemberCount()));
+        sb.append("== 最大的群（共 ").append(groups.size()).append(" 个） ==\n");
+        for (int i = 0; i < Math.min(TOP_N, groups.size()); i++) {
+            Group group = groups.get(i);
+            sb.append(String.format("%-20s %8d 人  归属 %s%n", group.getGroupName(),
+                    group.getMemberCount(), clusterNode.ownerOf(group.getGroupId())));
+        }
+    }
+
+    private void appendConnections(StringBuilder sb) {
+        List<ConnectionStats> connections = metrics.getConnections();
+        connections.sort((a, b) -> Long.compare(b.getBytesIn() + b.getBytesOut(), a.getBytesIn() + a.getBytesOut()));
+        sb.append("== 最繁忙的连接 ==\n");
+        for (int i = 0; i < Math.min(TOP_N, connections.size()); i++) {
+            ConnectionStats stats = connections.get(i);
+            sb.append(String.format("%-16s %-24s 收 %8d 帧 %12d 字节  发 %12d 字节%n",
+                    stats.getUsername() == null ? "(未登录)" : stats.getUsername(),
+                    stats.getRemoteAddress(), stats.getFramesIn(), stats.getBytesIn(), stats.getBytesOut()));
+        }
+    }
+
+    private void appendGauges(StringBuilder sb) {
+        sb.append("== 队列 ==\n");
+        for (Map.Entry<String, Long> entry : metrics.readGauges().entrySet()) {
+            sb.append(String.format("%-20s %d%n", entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private void appendLatency(StringBuilder sb) {
+        sb.append("== 耗时（微秒） ==\n");
+        sb.append(String.format("%-20s %10s %8s %8s %8s %8s %8s%n", "", "count", "mean", "p50", "p99", "p99.9", "max"));
+        appendNanos(sb, "decode", metrics.getDecodeNanos());
+        for (Message.Type type : Message.Type.values()) {
+            Histogram histogram = metrics.getHandlerNanos(type);
+            if (histogram.getCount() > 0) {
+                appendNanos(sb, "handle." + type, histogram);
+            }
+        }
+        appendNanos(sb, "fanout.time", metrics.getFanOutNanos());
+
+        Histogram.Snapshot size = metrics.getFanOutSize().snapshot();
+        sb.append(String.format("%-20s %10d %8.1f %8d %8d %8d %8d  (人)%n", "fanout.size", size.getCount(),
+                size.getMean(), size.percentile(50), size.percentile(99), size.percentile(99.9), size.getMax()));
+    }
+
+    private static void appendNanos(StringBuilder sb, String name, Histogram histogram) {
+        Histogram.Snapshot s = histogram.snapshot();
+        sb.append(String.format("%-20s %10d %8.1f %8d %8d %8d %8d%n", name, s.getCount(), s.getMean() / 1000,
+                s.percentile(50) / 1000, s.percentile(99) / 1000, s.percentile(99.9) / 1000, s.getMax() / 1000));
+    }
+
+    private void appendRateLimit(StringBuilder sb) {
+        sb.append("== 限流（延迟放行 / 丢弃） ==\n");
+        for (Message.Type type : Message.Type.values()) {
+            long throttled = metrics.getThrottled(type);
+            long rejected = metrics.getRejected(type);
+            if (throttled > 0 || rejected > 0) {
+                sb.append(String.format("%-20s %10d %10d%n", type, throttled, rejected));
+            }
+        }
+    }
+
+    private void appendBandwidth(StringBuilder sb) {
+        sb.append("== 文件带宽 ==\n");
+        sb.append("调度: ").append(bandwidth.isShaping() ? "已启用" : "未限速")
+                .append("  排队切片: ").append(bandwidth.getWaiting())
+                .append("  排队最多: ").append(bandwidth.getBusiestSenders(TOP_N)).append('\n');
+        List<Map.Entry<String, BandwidthScheduler.Usage>> users = new ArrayList<>(bandwidth.getUsage().entrySet());
+        users.sort((a, b) -> Long.compare(b.getValue().getSent() + b.getValue().getReceived(),
+                a.getValue().getSent() + a.getValue().getReceived()));
+        for (int i = 0; i < Math.min(TOP_N, users.size()); i++) {
+            BandwidthScheduler.Usage usage = users.get(i).getValue();
+            sb.append(String.format("%-16s 发出 %12d 字节  接收 %12d 字节%n",
+                    users.get(i).getKey(), usage.getSent(), usage.getReceived()));
+        }
+    }
+
+    private void appendJvm(StringBuilder sb) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        sb.append("== JVM ==\n");
+        sb.append("堆: 已用 ").append(heap.getUsed() / MB).append("MB / 已提交 ")
+                .append(heap.getCommitted() / MB).append("MB / 上限 ")
+                .append(heap.getMax() < 0 ? "-" : heap.getMax() / MB + "MB").append('\n');
+        sb.append("线程: ").append(ManagementFactory.getThreadMXBean().getThreadCount()).append('\n');
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append("GC ").append(gc.getName()).append(": ").append(gc.getCollectionCount())
+                    .append(" 次, ").append(gc.getCollectionTime()).append("ms\n");
+        }
+    }
+
+    private void appendNodes(StringBuilder sb) {
+        ClusterBus bus = clusterNode.getBus();
+        Set<String> live = bus.getLiveNodes();
+        Map<String, Integer> depths = bus.getQueueDepths();
+        sb.append("== 集群节点 ==\n");
+        sb.append(bus.getLocalNodeId()).append("  本节点\n");
+        for (Map.Entry<String, Integer> entry : depths.entrySet()) {
+            sb.append(entry.getKey()).append(live.contains(entry.getKey()) ? "  已连接" : "  未连接")
+                    .append("  出站积压 ").append(entry.getValue()).append('\n');
+        }
+        PresenceDirectory directory = clusterNode.getDirectory();
+        sb.append("在线目录: 分片 ").append(directory.getPartitionSize())
+                .append(" 条, 缓存 ").append(directory.getCacheSize())
+                .append(" 条, 本地命中 ").append(directory.getLocalHits())
+                .append(", 缓存命中 ").append(directory.getCacheHits())
+                .append(", 远程查询 ").append(directory.getRemoteLookups()).append('\n');
+    }
+}
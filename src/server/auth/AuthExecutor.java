@@ -0,0 +1,72 @@
+package server.auth;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 认证线程池
+ * 固定线程数 + 有界队列，专门执行密码哈希等耗时的认证任务，连接线程只负责投递任务
+ */
+public class AuthExecutor {
+    private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    /**
+     * 认证任务（允许抛出IO异常，便于直接回写响应）
+     */
+    public interface AuthTask {
+        void run() throws IOException;
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    public AuthExecutor() {
+        this(Integer.getInteger("chat.auth.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("chat.auth.queue", DEFAULT_QUEUE_CAPACITY));
+    }
+
+    public AuthExecutor(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "auth-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交认证任务
+     * @return 队列已满被拒绝时返回false，调用方应回复“服务器繁忙”
+     */
+    public boolean submit(AuthTask task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 当前排队等待的认证任务数
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
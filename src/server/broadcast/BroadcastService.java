@@ -1,90 +1,158 @@
 package server.broadcast;
 
-import common.Group;
 import common.Message;
 import server.managers.GroupManager;
 import server.managers.OnlineUserManager;
+import server.session.ClientSession;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 广播服务类
  * 负责向所有在线用户广播消息
+ * 启用组播时广播帧只组播一次，TCP只下发给尚未订阅组播的会话
+ *
+ * 在线用户列表和群列表取自编码缓存（SnapshotCache），内容不变时不重新编码；
+ * 列表广播还会合并：短时间内的多次请求（如大量用户同时登录）只在合并窗口结束时按最新内容广播一次。
+ * 合并窗口通过系统属性 chat.snapshot.coalesceMillis 配置，默认 100，设为 0 时立即广播
+ *
+ * 上下线通知不再广播，只发给订阅了该用户在线状态的用户（PresenceSubscriptions）。
+ * 在线用户列表和群列表仍在上下线时发给所有人：客户端没有联系人列表，这两个列表就是选择私聊对象和群的名单
+ * （群列表带成员数），每个客户端都要保持最新。上下线只是安排一次广播，合并窗口内不论多少人上下线
+ * 都只编码、发送一次，启用组播时只发一帧，代价不随登录次数增长
  */
 public class BroadcastService {
     private final OnlineUserManager onlineUserManager;
-    private final GroupManager groupManager;
+    private final MulticastPublisher multicast;
+    private final SnapshotCache snapshots;
+    private final PresenceSubscriptions presence;
+    private final long coalesceMillis = Long.getLong("chat.snapshot.coalesceMillis", 100L);
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean onlineUsersPending = new AtomicBoolean();
+    private final AtomicBoolean groupListPending = new AtomicBoolean();
 
-    public BroadcastService(OnlineUserManager onlineUserManager, GroupManager groupManager) {
+    public BroadcastService(OnlineUserManager onlineUserManager, GroupManager groupManager,
+                            MulticastPublisher multicast) {
         this.onlineUserManager = onlineUserManager;
-        this.groupManager = groupManager;
+        this.multicast = multicast;
+        this.snapshots = new SnapshotCache(onlineUserManager, groupManager);
+        this.presence = new PresenceSubscriptions(groupManager, onlineUserManager.getSymbols());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-flush");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public MulticastPublisher getMulticast() {
+        return multicast;
+    }
+
+    public SnapshotCache getSnapshots() {
+        return snapshots;
+    }
+
+    public PresenceSubscriptions getPresence() {
+        return presence;
     }
 
     /**
-     * 广播用户上线通知
+     * 向订阅者推送用户上线通知
      */
-    public void broadcastOnlineNotify(String username) throws IOException {
+    public void broadcastOnlineNotify(String username) {
         Message notifyMsg = new Message(
                 Message.Type.ONLINE_NOTIFY,
                 "服务器",
                 "",
                 username + " 已上线！"
         );
-        broadcastToAll(notifyMsg);
+        sendToSubscribers(username, notifyMsg);
     }
 
     /**
-     * 广播用户下线通知
+     * 向订阅者推送用户下线通知
      */
-    public void broadcastOfflineNotify(String username) throws IOException {
+    public void broadcastOfflineNotify(String username) {
         Message notifyMsg = new Message(
                 Message.Type.OFFLINE_NOTIFY,
                 "服务器",
                 "",
                 username + " 已下线！"
         );
-        broadcastToAll(notifyMsg);
+        sendToSubscribers(username, notifyMsg);
+    }
+
+    /**
+     * 广播在线用户列表给所有客户端（在合并窗口结束时进行）
+     */
+    public void broadcastOnlineUsers() {
+        coalesce(onlineUsersPending, () -> broadcastToAll(snapshots.onlineUsers()));
+    }
+
+    /**
+     * 广播群列表给所有客户端（在合并窗口结束时进行）
+     */
+    public void broadcastGroupList() {
+        coalesce(groupListPending, () -> broadcastToAll(snapshots.groupList()));
+    }
+
+    /**
+     * 发送在线用户列表给指定用户（最近编码的快照，之后的变化随待进行的广播送达）
+     */
+    public void sendOnlineUsersToUser(String username) {
+        onlineUserManager.sendMessageToUser(username, snapshots.cachedOnlineUsers());
     }
 
     /**
-     * 广播在线用户列表给所有客户端
+     * 发送群列表给指定用户（最近编码的快照，之后的变化随待进行的广播送达）
      */
-    public void broadcastOnlineUsers() throws IOException {
-        List<String> onlineUsers = onlineUserManager.getOnlineUsers();
-        Message usersMsg = new Message(Message.Type.ONLINE_USERS, "服务器");
-        usersMsg.setOnlineUsers(onlineUsers);
-        broadcastToAll(usersMsg);
+    public void sendGroupListToUser(String username) {
+        onlineUserManager.sendMessageToUser(username, snapshots.cachedGroupList());
     }
 
     /**
-     * 广播群列表给所有客户端
+     * 组播补发失败（请求的帧已超出补发范围）后，重新下发完整的在线用户和群列表
      */
-    public void broadcastGroupList() throws IOException {
-        List<Group> groupList = groupManager.getAllGroups();
-        Message groupMsg = new Message(Message.Type.GROUP_LIST, "服务器");
-        groupMsg.setGroupList(groupList);
-        broadcastToAll(groupMsg);
+    public void resyncUser(String username) {
+        sendOnlineUsersToUser(username);
+        sendGroupListToUser(username);
+    }
+
+    /**
+     * 合并窗口内尚无待广播的任务时安排一次；广播开始前清除标记，广播期间的新变化会再安排一次
+     */
+    private void coalesce(AtomicBoolean pending, Runnable broadcast) {
+        if (coalesceMillis <= 0) {
+            broadcast.run();
+            return;
+        }
+        if (pending.compareAndSet(false, true)) {
+            flusher.schedule(() -> {
+                pending.set(false);
+                broadcast.run();
+            }, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
-     * 发送在线用户列表给指定用户
+     * 发给某用户在线状态的订阅者
      */
-    public void sendOnlineUsersToUser(String username) throws IOException {
-        List<String> onlineUsers = onlineUserManager.getOnlineUsers();
-        Message usersMsg = new Message(Message.Type.ONLINE_USERS, "服务器");
-        usersMsg.setOnlineUsers(onlineUsers);
-        onlineUserManager.sendMessageToUser(username, usersMsg);
+    private void sendToSubscribers(String username, Message message) {
+        presence.forEachSubscriber(username, subscriber -> onlineUserManager.sendMessageToUser(subscriber, message));
     }
 
     /**
      * 向所有在线用户广播消息
      */
-    private void broadcastToAll(Message message) throws IOException {
-        for (ObjectOutputStream oos : onlineUserManager.getAllOutputStreams()) {
-            oos.writeObject(message);
-            oos.flush();
+    private void broadcastToAll(Message message) {
+        boolean multicasted = multicast.publish(message);
+        for (ClientSession session : onlineUserManager.getAllSessions()) {
+            if (!multicasted || !session.isMulticastSubscribed()) {
+                session.send(message);
+            }
         }
     }
 }
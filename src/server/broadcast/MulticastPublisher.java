@@ -0,0 +1,222 @@
+package server.broadcast;
+
+import common.FileChunks;
+import common.Message;
+import common.MulticastSeal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 局域网组播发布
+ * 广播帧（上下线通知、在线用户/群列表、默认群消息）只序列化并发送一次，下行流量与在线人数无关；
+ * 每帧带有组播序号，最近的帧保留在环形缓冲中，客户端发现缺号后经TCP请求补发（NACK）。
+ * 定时发送心跳帧（携带最新序号），空闲时客户端也能发现末尾丢失的帧。
+ * 每个数据报带有本纪元密钥的校验码（见 MulticastSeal），密钥只经TCP下发给登录的客户端
+ *
+ * 组播是可选的，未配置组播地址时不生效，所有帧照常经TCP下发。通过系统属性配置：
+ * chat.multicast.group           组播地址，如 239.255.42.99，默认不启用
+ * chat.multicast.port            组播端口，默认 4446
+ * chat.multicast.interface       发送所用网卡名（如 lo、eth0），默认由系统选择
+ * chat.multicast.ttl             组播TTL，默认 1（不出本网段）
+ * chat.multicast.history         可补发的帧数，默认 4096
+ * chat.multicast.heartbeatMillis 心跳间隔，默认 1000
+ * 集群中各节点应使用不同的组播地址或端口，客户端按纪元过滤其他节点的帧
+ */
+public class MulticastPublisher {
+    private static final int MAX_DATAGRAM_BYTES = 60_000; // 超过的帧改经TCP下发
+
+    private final String address;   // 未启用时为null
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final byte[] key = MulticastSeal.newKey();
+    private final MulticastSeal seal = new MulticastSeal(key); // 由 this 锁保护
+    private final DatagramChannel socket;
+    private final InetSocketAddress target;
+
+    // 以下字段由 this 锁保护（发送顺序与序号顺序一致）
+    private final Message[] history;
+    private long lastSeq;
+
+    public MulticastPublisher() {
+        this(System.getProperty("chat.multicast.group"), Integer.getInteger("chat.multicast.port", 4446),
+                System.getProperty("chat.multicast.interface"), Integer.getInteger("chat.multicast.ttl", 1),
+                Integer.getInteger("chat.multicast.history", 4096));
+    }
+
+    /**
+     * @param groupAddress 组播地址，为空时不启用
+     */
+    public MulticastPublisher(String groupAddress, int port, String interfaceName, int ttl, int historySize) {
+        DatagramChannel opened = null;
+        InetAddress resolved = null;
+        if (groupAddress != null && !groupAddress.trim().isEmpty()) {
+            try {
+                resolved = InetAddress.getByName(groupAddress.trim());
+                opened = DatagramChannel.open(resolved instanceof Inet6Address
+                        ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+                if (interfaceName != null && !interfaceName.isEmpty()) {
+                    opened.setOption(StandardSocketOptions.IP_MULTICAST_IF, NetworkInterface.getByName(interfaceName));
+                }
+                opened.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+                opened.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true); // 允许本机接收，同机客户端和回环测试需要
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("组播初始化失败，广播改经TCP下发：" + e.getMessage());
+                if (opened != null) {
+                    try {
+                        opened.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                opened = null;
+            }
+        }
+        this.socket = opened;
+        this.target = opened != null ? new InetSocketAddress(resolved, port) : null;
+        this.address = opened != null ? resolved.getHostAddress() + ":" + port : null;
+        this.history = new Message[opened != null ? Math.max(historySize, 16) : 0];
+    }
+
+    /**
+     * 启动心跳
+     */
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        long interval = Long.getLong("chat.multicast.heartbeatMillis", 1000L);
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "multicast-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(this::sendHeartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        System.out.println("组播已启用：" + address + "，纪元 " + Long.toHexString(epoch));
+    }
+
+    public boolean isEnabled() {
+        return socket != null;
+    }
+
+    /**
+     * 组播地址（host:port），未启用时为null
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * 本纪元组播帧的校验密钥，随组播地址下发给客户端
+     */
+    public byte[] getKey() {
+        return key.clone();
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * 分配组播序号并发送
+     * @return 是否已经组播；未启用或帧过大时返回false，调用方应经TCP下发
+     *         （此时清除消息上的组播序号：其他节点转发来的群消息带有对方的纪元和序号，不能原样经TCP下发）
+     */
+    public boolean publish(Message message) {
+        if (!isEnabled() || FileChunks.length(message) > MAX_DATAGRAM_BYTES) {
+            message.setMulticastEpoch(0);
+            message.setMulticastSeq(0);
+            return false;
+        }
+        synchronized (this) {
+            long seq = lastSeq + 1;
+            message.setMulticastEpoch(epoch);
+            message.setMulticastSeq(seq);
+            byte[] datagram = seal(message);
+            if (datagram == null || datagram.length > MAX_DATAGRAM_BYTES) {
+                message.setMulticastEpoch(0);
+                message.setMulticastSeq(0);
+                return false;
+            }
+            lastSeq = seq;
+            history[(int) (seq % history.length)] = message;
+            send(datagram); // 发送失败等同于丢包，由客户端请求补发
+            return true;
+        }
+    }
+
+    /**
+     * 取出待补发的帧
+     * @return 按序号排列的帧；有帧已被覆盖（超出补发范围）时返回null
+     */
+    public synchronized List<Message> history(long fromSeq, int count) {
+        long toSeq = Math.min(lastSeq, fromSeq + Math.max(count, 0) - 1);
+        if (fromSeq < 1 || fromSeq <= lastSeq - history.length) {
+            return null;
+        }
+        List<Message> frames = new ArrayList<>();
+        for (long seq = fromSeq; seq <= toSeq; seq++) {
+            frames.add(history[(int) (seq % history.length)]);
+        }
+        return frames;
+    }
+
+    public void shutdown() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void sendHeartbeat() {
+        synchronized (this) {
+            Message heartbeat = new Message(Message.Type.MCAST_HEARTBEAT, "服务器");
+            heartbeat.setMulticastEpoch(epoch);
+            heartbeat.setMulticastSeq(lastSeq);
+            byte[] datagram = seal(heartbeat);
+            if (datagram != null) {
+                send(datagram);
+            }
+        }
+    }
+
+    private void send(byte[] datagram) {
+        try {
+            socket.send(ByteBuffer.wrap(datagram), target);
+        } catch (IOException e) {
+            System.out.println("组播发送失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 每个数据报独立序列化（可以单独解码）并加上校验码（持有 this 锁时调用）
+     */
+    private byte[] seal(Message message) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(message);
+        } catch (IOException e) {
+            return null;
+        }
+        return seal.seal(buffer.toByteArray());
+    }
+}
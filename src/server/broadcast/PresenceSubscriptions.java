@@ -0,0 +1,149 @@
+package server.broadcast;
+
+import common.Group;
+import server.managers.GroupManager;
+import server.managers.SymbolTable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 在线状态订阅索引
+ * 客户端用 PRESENCE_SUBSCRIBE 告知完整的关注集合（最近的会话对象、正在查看的群），服务器用它替换该用户原有的订阅。
+ * 某用户上下线时只通知关注了他的用户和正在查看他所在群的用户，每次上下线的代价与订阅者数量相当，与在线人数无关：
+ * 有人查看的群先按成员位图筛选，只向他可能所在的群的邮箱投递任务
+ *
+ * 订阅变更持 this 锁进行（频率低），查找订阅者不加锁
+ * 每个用户最多关注的用户数通过系统属性 chat.presence.maxUsers 配置，默认 256，超出部分忽略
+ */
+public class PresenceSubscriptions {
+    private final int maxUsers = Integer.getInteger("chat.presence.maxUsers", 256);
+    private final GroupManager groupManager;
+    private final SymbolTable symbols;
+    private final Map<String, Set<String>> byUser = new ConcurrentHashMap<>();   // 被关注的用户 → 订阅者
+    private final Map<String, Set<String>> byGroup = new ConcurrentHashMap<>();  // 正在查看的群 → 订阅者
+    private final Map<String, Subscription> bySubscriber = new HashMap<>();      // 由 this 锁保护
+
+    /**
+     * 一个用户当前的关注集合
+     */
+    private static final class Subscription {
+        final Set<String> users;
+        final String groupId;
+
+        Subscription(Set<String> users, String groupId) {
+            this.users = users;
+            this.groupId = groupId;
+        }
+    }
+
+    public PresenceSubscriptions(GroupManager groupManager, SymbolTable symbols) {
+        this.groupManager = groupManager;
+        this.symbols = symbols;
+    }
+
+    /**
+     * 用新的关注集合替换订阅者原有的订阅
+     * @param users   关注的用户，可为null
+     * @param groupId 正在查看的群，可为null
+     */
+    public synchronized void replace(String subscriber, Collection<String> users, String groupId) {
+        Set<String> targets = new LinkedHashSet<>();
+        if (users != null) {
+            for (String user : users) {
+                if (targets.size() >= maxUsers) {
+                    break;
+                }
+                if (user != null && !user.equals(subscriber)) {
+                    targets.add(symbols.canonical(user));
+                }
+            }
+        }
+        String group = groupId != null && groupManager.getGroupById(groupId) != null ? symbols.canonical(groupId) : null;
+
+        Subscription previous = bySubscriber.get(subscriber);
+        Set<String> oldTargets = previous != null ? previous.users : Collections.emptySet();
+        for (String target : oldTargets) {
+            if (!targets.contains(target)) {
+                unlink(byUser, target, subscriber);
+            }
+        }
+        for (String target : targets) {
+            if (!oldTargets.contains(target)) {
+                byUser.computeIfAbsent(target, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+            }
+        }
+        String oldGroup = previous != null ? previous.groupId : null;
+        if (oldGroup != null && !oldGroup.equals(group)) {
+            unlink(byGroup, oldGroup, subscriber);
+        }
+        if (group != null) {
+            byGroup.computeIfAbsent(group, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        }
+
+        if (targets.isEmpty() && group == null) {
+            bySubscriber.remove(subscriber);
+        } else {
+            bySubscriber.put(subscriber, new Subscription(targets, group));
+        }
+    }
+
+    /**
+     * 订阅者下线，清除其全部订阅
+     */
+    public synchronized void remove(String subscriber) {
+        replace(subscriber, null, null);
+    }
+
+    /**
+     * 对某用户上下线需要通知的每个订阅者执行 action
+     * 直接关注者当即处理；正在查看群的订阅者在该群的邮箱中处理，与入群/退群按投递顺序执行：
+     * 上线时先投递入群再通知、下线时先通知再退群，成员关系判断因此与这次上下线一致
+     */
+    public void forEachSubscriber(String username, Consumer<String> action) {
+        Set<String> direct = byUser.get(username);
+        Set<String> notified = direct != null ? new HashSet<>(direct) : Collections.emptySet();
+        for (String subscriber : notified) {
+            action.accept(subscriber);
+        }
+        for (Map.Entry<String, Set<String>> entry : byGroup.entrySet()) {
+            String groupId = entry.getKey();
+            Set<String> watchers = entry.getValue();
+            if (!groupManager.mayHaveMember(groupId, username)) {
+                continue;
+            }
+            groupManager.submit(groupId, () -> {
+                Group group = groupManager.getGroupById(groupId);
+                if (group == null || !group.hasMember(username)) {
+                    return;
+                }
+                for (String watcher : watchers) {
+                    if (!watcher.equals(username) && !notified.contains(watcher)) {
+                        action.accept(watcher);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 有订阅的用户数
+     */
+    public synchronized int getSubscriberCount() {
+        return bySubscriber.size();
+    }
+
+    private static void unlink(Map<String, Set<String>> index, String key, String subscriber) {
+        index.computeIfPresent(key, (k, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+}
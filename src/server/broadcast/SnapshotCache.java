@@ -0,0 +1,78 @@
+package server.broadcast;
+
+import common.ListSnapshot;
+import server.managers.GroupManager;
+import server.managers.OnlineUserManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在线用户列表和群列表的编码缓存
+ * 以名册/群列表的版本号为准，版本不变时直接返回已编码的快照，只有真正变化后的第一次请求才重新编码；
+ * 同时到达的请求在锁上等待同一次编码，不会各自重复编码
+ *
+ * 先读版本号再取列表：列表若在两者之间发生变化，缓存的内容比版本号新，下一次请求会再编码一次，不会返回过期内容
+ *
+ * 单个用户的请求（GET_ONLINE_USERS、会话接管、组播补发失败）取 cached*：直接返回最近一次编码的快照，
+ * 即使其后列表已有变化——每次变化都会安排一次广播，最新内容随之送达。大量用户同时登录时，
+ * 编码次数因此只取决于广播次数，与请求次数无关
+ */
+public class SnapshotCache {
+    private final OnlineUserManager onlineUserManager;
+    private final GroupManager groupManager;
+    private final AtomicLong encodes = new AtomicLong();
+
+    // 以下字段由 this 锁保护
+    private ListSnapshot onlineUsers;
+    private ListSnapshot groupList;
+
+    public SnapshotCache(OnlineUserManager onlineUserManager, GroupManager groupManager) {
+        this.onlineUserManager = onlineUserManager;
+        this.groupManager = groupManager;
+    }
+
+    /**
+     * 当前的在线用户列表帧（每次调用返回新帧，共用同一份编码）
+     */
+    public synchronized ListSnapshot onlineUsers() {
+        long version = onlineUserManager.getVersion();
+        if (onlineUsers == null || onlineUsers.getVersion() != version) {
+            onlineUsers = ListSnapshot.ofOnlineUsers(version, onlineUserManager.getClusterOnlineUsers());
+            encodes.incrementAndGet();
+        }
+        return onlineUsers.copy();
+    }
+
+    /**
+     * 最近编码的在线用户列表帧，尚未编码过时才编码
+     */
+    public synchronized ListSnapshot cachedOnlineUsers() {
+        return onlineUsers != null ? onlineUsers.copy() : onlineUsers();
+    }
+
+    /**
+     * 当前的群列表帧（每次调用返回新帧，共用同一份编码）
+     */
+    public synchronized ListSnapshot groupList() {
+        long version = groupManager.getListVersion();
+        if (groupList == null || groupList.getVersion() != version) {
+            groupList = ListSnapshot.ofGroups(version, groupManager.getAllGroups());
+            encodes.incrementAndGet();
+        }
+        return groupList.copy();
+    }
+
+    /**
+     * 最近编码的群列表帧，尚未编码过时才编码
+     */
+    public synchronized ListSnapshot cachedGroupList() {
+        return groupList != null ? groupList.copy() : groupList();
+    }
+
+    /**
+     * 累计编码次数
+     */
+    public long getEncodes() {
+        return encodes.get();
+    }
+}
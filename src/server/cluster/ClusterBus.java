@@ -0,0 +1,45 @@
+package server.cluster;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 节点间消息总线
+ * 多个服务端节点通过总线转发跨节点的私聊/群聊消息并同步在线状态、群组、账号等共享数据
+ * 发送方法不得阻塞调用线程，实现需自行排队
+ */
+public interface ClusterBus {
+
+    /**
+     * 本节点ID
+     */
+    String getLocalNodeId();
+
+    /**
+     * 启动总线，之后收到的消息和节点上下线事件都回调给 listener
+     */
+    void start(ClusterListener listener) throws IOException;
+
+    /**
+     * 发送消息给指定节点（节点不可达时丢弃）
+     */
+    void send(String nodeId, ClusterMessage message);
+
+    /**
+     * 发送消息给所有可达节点
+     */
+    void broadcast(ClusterMessage message);
+
+    /**
+     * 当前可达的其他节点，哈希环按它构建；实现应让两个节点对彼此是否可达的判断一致（见 TcpClusterBus）
+     */
+    Set<String> getLiveNodes();
+
+    /**
+     * 发往各节点的出站队列积压长度（用于运行状态展示）
+     */
+    Map<String, Integer> getQueueDepths();
+
+    void shutdown();
+}
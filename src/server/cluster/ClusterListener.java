@@ -0,0 +1,22 @@
+package server.cluster;
+
+/**
+ * 总线事件回调
+ */
+public interface ClusterListener {
+
+    /**
+     * 收到其他节点发来的消息（在总线的接收线程中回调）
+     */
+    void onMessage(ClusterMessage message);
+
+    /**
+     * 某节点变为可达（与 getLiveNodes 一致）
+     */
+    void onNodeUp(String nodeId);
+
+    /**
+     * 某节点变为不可达
+     */
+    void onNodeDown(String nodeId);
+}
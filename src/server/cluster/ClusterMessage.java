@@ -0,0 +1,74 @@
+package server.cluster;
+
+import common.Message;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 节点间消息
+ */
+public class ClusterMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        HELLO,              // 连接握手，携带发送方节点ID及对握手随机数的签名
+        USER_REGISTERED,    // 新账号（携带密码摘要）
+        PASSWORD_RESET,     // 密码重置（携带新摘要）
+        PRESENCE_ONLINE,    // members 中的用户在发送方节点上线（一个合并窗口内的批量通告）
+        PRESENCE_OFFLINE,   // members 中的用户在发送方节点下线
+        PRIVATE_DELIVER,    // 投递给目标节点上的某个用户
+        GROUP_DELIVER,      // 由目标节点投递给其本地的群成员
+        GROUP_CREATED,      // 新建群组
+        GROUP_JOINED,       // 用户加入群组
+        GROUP_SNAPSHOT,     // 群组及完整成员列表（节点加入时同步）
+        DIR_REGISTER,       // 向目录归属节点登记用户位置
+        DIR_UNREGISTER,     // 向目录归属节点注销用户位置
+        DIR_LOOKUP,         // 向目录归属节点查询用户位置
+        DIR_LOOKUP_REPLY,   // 目录查询结果
+        DIR_INVALIDATE,     // 用户位置已变化，清除本地缓存
+        GROUP_SUBMIT,       // 非归属节点把群消息交给群的归属节点
+        GROUP_JOIN_REQUEST  // 非归属节点把入群请求交给群的归属节点
+    }
+
+    private final Kind kind;
+    private final String originNode;
+    private String username;
+    private String groupId;
+    private String groupName;
+    private String credential;
+    private List<String> members;
+    private Message payload;
+    private String nodeId;     // 目录消息中的用户所在节点
+    private long requestId;    // 目录查询请求ID
+    private int hops;          // 转发次数，防止过期缓存导致消息在节点间循环
+    private byte[] signature;  // HELLO 的握手签名
+
+    public ClusterMessage(Kind kind, String originNode) {
+        this.kind = kind;
+        this.originNode = originNode;
+    }
+
+    public Kind getKind() { return kind; }
+    public String getOriginNode() { return originNode; }
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+    public String getGroupId() { return groupId; }
+    public void setGroupId(String groupId) { this.groupId = groupId; }
+    public String getGroupName() { return groupName; }
+    public void setGroupName(String groupName) { this.groupName = groupName; }
+    public String getCredential() { return credential; }
+    public void setCredential(String credential) { this.credential = credential; }
+    public List<String> getMembers() { return members; }
+    public void setMembers(List<String> members) { this.members = members; }
+    public Message getPayload() { return payload; }
+    public void setPayload(Message payload) { this.payload = payload; }
+    public String getNodeId() { return nodeId; }
+    public void setNodeId(String nodeId) { this.nodeId = nodeId; }
+    public long getRequestId() { return requestId; }
+    public void setRequestId(long requestId) { this.requestId = requestId; }
+    public int getHops() { return hops; }
+    public void setHops(int hops) { this.hops = hops; }
+    public byte[] getSignature() { return signature; }
+    public void setSignature(byte[] signature) { this.signature = signature; }
+}
@@ -0,0 +1,537 @@
+package server.cluster;
+
+import common.FileChunks;
+import common.Group;
+import common.Message;
+import server.broadcast.BroadcastService;
+import server.managers.ConversationSequencer;
+import server.managers.GroupManager;
+import server.managers.OnlineUserManager;
+import server.managers.SymbolTable;
+import server.managers.UserManager;
+import server.metrics.ServerMetrics;
+import server.session.ClientSession;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 集群节点
+ * 负责把本节点的状态变化发布到总线，把其他节点的变化应用到本地，并完成跨节点的消息路由：
+ * 私聊按在线目录查到目标用户所在节点后直接发送；
+ * 每个群按一致性哈希有一个归属节点，群消息和入群变更都交给它排序，
+ * 再由它向每个节点各发一次、各节点只向自己本地的群成员扇出，跨节点流量与节点数成正比而与群人数无关。
+ * 节点增减时哈希环随之重建，群成员关系在各节点都有副本，归属转移无需搬迁数据
+ *
+ * 用户上下线时只向其目录归属节点登记位置（私聊路由只依赖目录）；
+ * 在线列表和默认群需要的全集群名单按 chat.cluster.presenceMillis（默认 100ms）合并，每个窗口向其他节点各发一条批量通告，
+ * 同一用户在窗口内的多次变化只保留最后一次，登录风暴时节点间的消息数与窗口数而不是登录数成正比
+ *
+ * 数据在磁盘上的文件（服务器暂存的上传）按 FORWARD_SLICE_BYTES 切成 FILE_CHUNK 逐片转发，
+ * 出站队列中的切片不持有数据，写出时才读取对应的一段；接收节点把切片直接交给用户的会话，由客户端还原
+ */
+public class ClusterNode implements ClusterListener {
+    private static final int MAX_PRIVATE_HOPS = 2; // 投错节点 → 目录归属节点 → 正确节点
+    private static final int FORWARD_SLICE_BYTES = FileChunks.UPLOAD_SLICE_BYTES;
+
+    private final ClusterBus bus;
+    private final UserManager userManager;
+    private final OnlineUserManager onlineUserManager;
+    private final GroupManager groupManager;
+    private final BroadcastService broadcastService;
+    private final ConversationSequencer sequencer;
+    private final ServerMetrics metrics;
+    private final PresenceDirectory directory;
+    private volatile ConsistentHashRing ring;
+    private final long presenceMillis = Long.getLong("chat.cluster.presenceMillis", 100L);
+    private final Map<String, Boolean> pendingPresence = new LinkedHashMap<>(); // 用户 → 最新状态（true 为上线），由自身锁保护
+    private boolean presenceFlushScheduled;                                      // 由 pendingPresence 锁保护
+    private final ScheduledExecutorService presenceFlusher;
+    private final String transferPrefix = Long.toHexString(ThreadLocalRandom.current().nextLong()) + "-";
+    private final AtomicLong nextTransferId = new AtomicLong();
+    private final Map<String, Long> chunkSeqs = new ConcurrentHashMap<>(); // 其他节点提交的群文件切片 → 首片分配的群序号
+
+    public ClusterNode(ClusterBus bus,
+                       UserManager userManager,
+                       OnlineUserManager onlineUserManager,
+                       GroupManager groupManager,
+                       BroadcastService broadcastService,
+                       ConversationSequencer sequencer,
+                       ServerMetrics metrics) {
+        this.bus = bus;
+        this.userManager = userManager;
+        this.onlineUserManager = onlineUserManager;
+        this.groupManager = groupManager;
+        this.broadcastService = broadcastService;
+        this.sequencer = sequencer;
+        this.metrics = metrics;
+        this.ring = buildRing();
+        this.directory = new PresenceDirectory(bus, onlineUserManager, ring);
+        this.presenceFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-flush");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public String getLocalNodeId() {
+        return bus.getLocalNodeId();
+    }
+
+    public ClusterBus getBus() {
+        return bus;
+    }
+
+    public PresenceDirectory getDirectory() {
+        return directory;
+    }
+
+    // ==================== 路由 ====================
+
+    /**
+     * 投递私聊类消息：本地在线直接下发，否则经在线目录定位后转发到用户所在节点
+     * 定位可能阻塞，需要在锁内投递（分配会话序号）的调用方应先调用 locate，再用三参数的 deliverPrivate
+     * @return 用户不在集群中任何节点在线时返回false
+     */
+    public boolean deliverPrivate(String receiver, Message message) {
+        return deliverPrivate(receiver, locate(receiver), message);
+    }
+
+    /**
+     * 查找用户所在节点（本地在线时为本节点），不在线返回null
+     * 缓存未命中时向目录归属节点查询一次，阻塞调用线程至多 chat.cluster.lookupMillis（默认 500ms），超时按不在线处理
+     */
+    public String locate(String receiver) {
+        return directory.locate(receiver);
+    }
+
+    /**
+     * 按事先定位的结果投递，不阻塞：本地在线直接下发，否则转发到 nodeId
+     * @param nodeId locate 的结果
+     * @return 用户不在集群中任何节点在线时返回false
+     */
+    public boolean deliverPrivate(String receiver, String nodeId, Message message) {
+        if (onlineUserManager.sendMessageToUser(receiver, message)) {
+            return true;
+        }
+        if (nodeId == null || nodeId.equals(getLocalNodeId())) {
+            return false;
+        }
+        for (Message frame : forwardFrames(message)) {
+            ClusterMessage forward = new ClusterMessage(ClusterMessage.Kind.PRIVATE_DELIVER, getLocalNodeId());
+            forward.setUsername(receiver);
+            forward.setPayload(frame);
+            bus.send(nodeId, forward);
+        }
+        return true;
+    }
+
+    /**
+     * 收到转发的私聊但用户已不在本节点（发送方缓存过期）：
+     * 通知发送方清除缓存，并交给目录归属节点重新投递，超过跳数限制则丢弃
+     */
+    private void reroutePrivate(ClusterMessage message) {
+        String username = message.getUsername();
+        ClusterMessage invalidate = new ClusterMessage(ClusterMessage.Kind.DIR_INVALIDATE, getLocalNodeId());
+        invalidate.setUsername(username);
+        bus.send(message.getOriginNode(), invalidate);
+
+        if (message.getHops() + 1 >= MAX_PRIVATE_HOPS) {
+            return;
+        }
+        String nextHop = directory.nextHop(username);
+        if (nextHop == null || nextHop.equals(getLocalNodeId())) {
+            return;
+        }
+        ClusterMessage forward = new ClusterMessage(ClusterMessage.Kind.PRIVATE_DELIVER, getLocalNodeId());
+        forward.setUsername(username);
+        forward.setPayload(message.getPayload());
+        forward.setHops(message.getHops() + 1);
+        bus.send(nextHop, forward);
+    }
+
+    /**
+     * 群的归属节点
+     */
+    public String ownerOf(String groupId) {
+        return ring.ownerOf(groupId);
+    }
+
+    /**
+     * 发布群消息：本节点是归属节点时直接排序扇出，否则交给归属节点
+     */
+    public void publishGroup(String groupId, String sender, Message message) {
+        String owner = ownerOf(groupId);
+        if (getLocalNodeId().equals(owner)) {
+            sequenceAndFanOut(groupId, sender, message);
+            return;
+        }
+        for (Message frame : forwardFrames(message)) {
+            ClusterMessage submit = new ClusterMessage(ClusterMessage.Kind.GROUP_SUBMIT, getLocalNodeId());
+            submit.setGroupId(groupId);
+            submit.setUsername(sender);
+            submit.setPayload(frame);
+            bus.send(owner, submit);
+        }
+    }
+
+    /**
+     * 归属节点在群的邮箱中分配群序号，先扇出给本地成员，再向其他节点各转发一次
+     * 邮箱保证同一个群的消息与成员变更依次执行，序号分配与扇出无需加锁
+     * 数据在磁盘上的文件在邮箱任务执行完之前保持一个持有者，上传的处理方返回后可以放心释放
+     */
+    private void sequenceAndFanOut(String groupId, String sender, Message message) {
+        Group group = groupManager.getGroupById(groupId);
+        if (group == null) {
+            return;
+        }
+        ConversationSequencer.Counter counter = sequencer.groupConversation(groupId);
+        FileChunks.retain(message);
+        boolean submitted = groupManager.submit(groupId, () -> {
+            try {
+                if (!stamp(counter, message)) {
+                    return;
+                }
+                deliverToLocalMembers(group, sender, message);
+                for (Message frame : forwardFrames(message)) {
+                    ClusterMessage forward = new ClusterMessage(ClusterMessage.Kind.GROUP_DELIVER, getLocalNodeId());
+                    forward.setGroupId(groupId);
+                    forward.setUsername(sender);
+                    forward.setPayload(frame);
+                    bus.broadcast(forward);
+                }
+            } finally {
+                FileChunks.release(message);
+            }
+        });
+        if (!submitted) {
+            FileChunks.release(message);
+        }
+    }
+
+    /**
+     * 分配群序号；其他节点逐片提交的文件整个文件共用首片分配的序号（客户端收齐后还原为一条消息）
+     * @return 缺少首片（如传输中途归属节点发生变化）时返回false，丢弃该切片
+     */
+    private boolean stamp(ConversationSequencer.Counter counter, Message message) {
+        if (message.getType() != Message.Type.FILE_CHUNK) {
+            counter.stamp(message);
+            return true;
+        }
+        String transferId = message.getTransferId();
+        boolean last = message.getChunkIndex() + 1 >= message.getChunkCount();
+        if (message.getChunkIndex() == 0) {
+            counter.stamp(message);
+            if (!last) {
+                chunkSeqs.put(transferId, message.getSeq());
+            }
+            return true;
+        }
+        Long seq = last ? chunkSeqs.remove(transferId) : chunkSeqs.get(transferId);
+        if (seq == null) {
+            return false;
+        }
+        message.setConversationId(counter.getConversationId());
+        message.setSeq(seq);
+        return true;
+    }
+
+    /**
+     * 转发给其他节点的帧：数据在磁盘上的文件切成不持有数据的切片（总线写出时逐片读取），其余消息原样一条
+     */
+    private List<Message> forwardFrames(Message message) {
+        if (message.getFileSource() == null) {
+            return Collections.singletonList(message);
+        }
+        String transferId = transferPrefix + nextTransferId.incrementAndGet();
+        int count = FileChunks.count(message, FORWARD_SLICE_BYTES);
+        List<Message> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            frames.add(FileChunks.sliceLater(message, transferId, i, count, FORWARD_SLICE_BYTES));
+        }
+        return frames;
+    }
+
+    // ==================== 发布本地变化 ====================
+
+    public void publishRegistered(String account) {
+        publishCredential(ClusterMessage.Kind.USER_REGISTERED, account);
+    }
+
+    public void publishPasswordReset(String account) {
+        publishCredential(ClusterMessage.Kind.PASSWORD_RESET, account);
+    }
+
+    private void publishCredential(ClusterMessage.Kind kind, String account) {
+        ClusterMessage event = new ClusterMessage(kind, getLocalNodeId());
+        event.setUsername(account);
+        event.setCredential(userManager.getCredential(account));
+        bus.broadcast(event);
+    }
+
+    /**
+     * 用户在本节点上线：立即登记到目录归属节点，全集群名单的通告合并后批量发出
+     */
+    public void publishOnline(String username) {
+        directory.register(username);
+        queuePresence(username, true);
+    }
+
+    public void publishOffline(String username) {
+        directory.unregister(username);
+        queuePresence(username, false);
+    }
+
+    private void queuePresence(String username, boolean online) {
+        synchronized (pendingPresence) {
+            pendingPresence.remove(username); // 重新插入，保持最后一次变化的先后顺序
+            pendingPresence.put(username, online);
+            if (presenceFlushScheduled) {
+                return;
+            }
+            presenceFlushScheduled = true;
+        }
+        if (presenceMillis <= 0) {
+            flushPresence();
+        } else {
+            presenceFlusher.schedule(this::flushPresence, presenceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushPresence() {
+        List<String> online = new ArrayList<>();
+        List<String> offline = new ArrayList<>();
+        synchronized (pendingPresence) {
+            for (Map.Entry<String, Boolean> entry : pendingPresence.entrySet()) {
+                (entry.getValue() ? online : offline).add(entry.getKey());
+            }
+            pendingPresence.clear();
+            presenceFlushScheduled = false;
+        }
+        if (!offline.isEmpty()) {
+            bus.broadcast(presenceEvent(ClusterMessage.Kind.PRESENCE_OFFLINE, offline));
+        }
+        if (!online.isEmpty()) {
+            bus.broadcast(presenceEvent(ClusterMessage.Kind.PRESENCE_ONLINE, online));
+        }
+    }
+
+    private ClusterMessage presenceEvent(ClusterMessage.Kind kind, List<String> usernames) {
+        ClusterMessage event = new ClusterMessage(kind, getLocalNodeId());
+        event.setMembers(usernames);
+        return event;
+    }
+
+    public void publishGroupCreated(Group group, String creator) {
+        ClusterMessage event = new ClusterMessage(ClusterMessage.Kind.GROUP_CREATED, getLocalNodeId());
+        event.setGroupId(group.getGroupId());
+        event.setGroupName(group.getGroupName());
+        event.setUsername(creator);
+        bus.broadcast(event);
+    }
+
+    /**
+     * 发布入群变更：由归属节点广播，保证各节点看到的成员变更与群消息顺序一致
+     */
+    public void publishGroupJoined(String groupId, String username) {
+        String owner = ownerOf(groupId);
+        boolean isOwner = getLocalNodeId().equals(owner);
+        ClusterMessage event = new ClusterMessage(
+                isOwner ? ClusterMessage.Kind.GROUP_JOINED : ClusterMessage.Kind.GROUP_JOIN_REQUEST,
+                getLocalNodeId());
+        event.setGroupId(groupId);
+        event.setUsername(username);
+        if (isOwner) {
+            bus.broadcast(event);
+        } else {
+            bus.send(owner, event);
+        }
+    }
+
+    // ==================== 应用其他节点的变化 ====================
+
+    @Override
+    public void onMessage(ClusterMessage message) {
+        switch (message.getKind()) {
+            case USER_REGISTERED:
+            case PASSWORD_RESET:
+                userManager.putCredential(message.getUsername(), message.getCredential());
+                break;
+            case PRESENCE_ONLINE:
+                for (String username : message.getMembers()) {
+                    applyRemoteOnline(username, message.getOriginNode());
+                }
+                break;
+            case PRESENCE_OFFLINE:
+                for (String username : message.getMembers()) {
+                    applyRemoteOffline(username, message.getOriginNode());
+                }
+                break;
+            case PRIVATE_DELIVER:
+                if (!onlineUserManager.sendMessageToUser(message.getUsername(), message.getPayload())) {
+                    reroutePrivate(message);
+                }
+                break;
+            case GROUP_SUBMIT:
+                sequenceAndFanOut(message.getGroupId(), message.getUsername(), message.getPayload());
+                break;
+            case GROUP_DELIVER:
+                Group target = groupManager.getGroupById(message.getGroupId());
+                if (target != null) {
+                    groupManager.submit(target.getGroupId(),
+                            () -> deliverToLocalMembers(target, message.getUsername(), message.getPayload()));
+                }
+                break;
+            case GROUP_CREATED:
+                groupManager.createGroup(message.getGroupId(), message.getGroupName());
+                groupManager.joinGroup(message.getGroupId(), message.getUsername());
+                broadcastService.broadcastGroupList();
+                break;
+            case GROUP_JOINED:
+                if (groupManager.joinGroup(message.getGroupId(), message.getUsername())) {
+                    broadcastService.broadcastGroupList();
+                }
+                break;
+            case GROUP_JOIN_REQUEST:
+                // 直接以归属节点身份广播，不再按哈希环转发，避免环切换期间请求来回传递
+                if (groupManager.joinGroup(message.getGroupId(), message.getUsername())) {
+                    ClusterMessage joined = new ClusterMessage(ClusterMessage.Kind.GROUP_JOINED, getLocalNodeId());
+                    joined.setGroupId(message.getGroupId());
+                    joined.setUsername(message.getUsername());
+                    bus.broadcast(joined);
+                    broadcastService.broadcastGroupList();
+                }
+                break;
+            case GROUP_SNAPSHOT:
+                groupManager.createGroup(message.getGroupId(), message.getGroupName());
+                for (String member : message.getMembers()) {
+                    groupManager.joinGroup(message.getGroupId(), member); // 相邻的入群在邮箱中合并为一个快照
+                }
+                broadcastService.broadcastGroupList();
+                break;
+            case DIR_REGISTER:
+            case DIR_UNREGISTER:
+            case DIR_LOOKUP:
+            case DIR_LOOKUP_REPLY:
+            case DIR_INVALIDATE:
+                directory.handle(message);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 新节点上线：把本节点掌握的账号、群组和本地在线用户同步给它
+     */
+    @Override
+    public void onNodeUp(String nodeId) {
+        System.out.println("集群节点已连接：" + nodeId);
+        for (Map.Entry<String, String> entry : userManager.getAllCredentials().entrySet()) {
+            ClusterMessage event = new ClusterMessage(ClusterMessage.Kind.USER_REGISTERED, getLocalNodeId());
+            event.setUsername(entry.getKey());
+            event.setCredential(entry.getValue());
+            bus.send(nodeId, event);
+        }
+        for (Group group : groupManager.getAllGroups()) {
+            ClusterMessage event = new ClusterMessage(ClusterMessage.Kind.GROUP_SNAPSHOT, getLocalNodeId());
+            event.setGroupId(group.getGroupId());
+            event.setGroupName(group.getGroupName());
+            event.setMembers(new ArrayList<>(group.getMembers()));
+            bus.send(nodeId, event);
+        }
+        List<String> online = new ArrayList<>(onlineUserManager.getOnlineUsers());
+        if (!online.isEmpty()) {
+            bus.send(nodeId, presenceEvent(ClusterMessage.Kind.PRESENCE_ONLINE, online));
+        }
+        rebalance(null);
+    }
+
+    /**
+     * 节点失联：其上的用户全部视为下线，目录分片和群归属按新的哈希环重新分配
+     */
+    @Override
+    public void onNodeDown(String nodeId) {
+        System.out.println("集群节点已断开：" + nodeId);
+        for (String username : onlineUserManager.getRemoteUsersOn(nodeId)) {
+            applyRemoteOffline(username, nodeId);
+        }
+        rebalance(nodeId);
+    }
+
+    /**
+     * 按当前存活节点重建哈希环，群归属随之转移，在线目录重新分片
+     */
+    private void rebalance(String downNode) {
+        ring = buildRing();
+        directory.onMembershipChanged(ring, downNode);
+    }
+
+    private ConsistentHashRing buildRing() {
+        Set<String> nodes = new HashSet<>(bus.getLiveNodes());
+        nodes.add(getLocalNodeId());
+        return new ConsistentHashRing(nodes);
+    }
+
+    private void applyRemoteOnline(String username, String nodeId) {
+        directory.evict(username); // 之前查询未命中的记录作废
+        if (!onlineUserManager.addRemoteUser(username, nodeId)) {
+            return; // 已知的在线用户（节点同步时的重复通告）
+        }
+        groupManager.joinDefaultGroup(username);
+        broadcastService.broadcastOnlineNotify(username);
+        broadcastService.broadcastOnlineUsers();
+        broadcastService.broadcastGroupList();
+    }
+
+    private void applyRemoteOffline(String username, String nodeId) {
+        if (!onlineUserManager.removeRemoteUser(username, nodeId)) {
+            return;
+        }
+        broadcastService.broadcastOfflineNotify(username);
+        if (!onlineUserManager.isUserOnline(username)) {
+            groupManager.removeUserFromAllGroups(username);
+        }
+        broadcastService.broadcastOnlineUsers();
+        broadcastService.broadcastGroupList();
+    }
+
+    /**
+     * 向本节点在线的群成员扇出（在群的邮箱中执行）
+     * 成员位图与在线位图求交集，其他节点上的成员和离线成员成批略过
+     */
+    private void deliverToLocalMembers(Group group, String sender, Message message) {
+        long start = System.nanoTime();
+        // 默认群包含所有在线用户，启用组播时只组播一次，TCP只下发给未订阅组播的成员
+        boolean multicasted = group == groupManager.getDefaultGroup()
+                && broadcastService.getMulticast().publish(message);
+        SymbolTable symbols = onlineUserManager.getSymbols();
+        int recipients = 0;
+        for (int id : groupManager.getOnlineMemberIds(group.getGroupId(), onlineUserManager.getOnlineIds())) {
+            String member = symbols.nameOf(id);
+            if (member.equals(sender) || (multicasted && isMulticastSubscribed(member))) {
+                continue;
+            }
+            if (onlineUserManager.sendMessageToUser(member, message)) {
+                recipients++;
+            }
+        }
+        metrics.recordFanOut(recipients, System.nanoTime() - start);
+    }
+
+    private boolean isMulticastSubscribed(String username) {
+        ClientSession session = onlineUserManager.getSession(username);
+        return session != null && session.isMulticastSubscribed();
+    }
+}
@@ -0,0 +1,259 @@
+package server.cluster;
+
+import server.managers.OnlineUserManager;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分布式在线目录
+ * 用户位置（用户名 → 所在节点）按一致性哈希分片，每个节点只保存自己负责的分片；
+ * 查询时依次看本地连接、本地位置缓存（零跳），都未命中才向归属节点查询一次（一跳）。
+ * 归属节点记录哪些节点缓存了某个条目，条目变化时逐个通知其失效。
+ * 查不到的用户（不在线）在本地记住 MISS_TTL_MILLIS，期间再次查询直接返回不在线；该用户上线的通告到达时清除
+ *
+ * 远程查询会阻塞调用线程，最多 chat.cluster.lookupMillis（默认 500ms），超时按不在线处理；
+ * 调用方是发送方自己的连接线程，只有该发送方的后续消息随之等待（顺序不变），调用方应在取会话序号等锁之前完成定位
+ */
+public class PresenceDirectory {
+    private static final long LOOKUP_TIMEOUT_MILLIS = Long.getLong("chat.cluster.lookupMillis", 500L);
+    private static final long MISS_TTL_MILLIS = 1_000L;
+    private static final int MAX_MISSES = 10_000;
+
+    private final ClusterBus bus;
+    private final OnlineUserManager onlineUserManager;
+    private volatile ConsistentHashRing ring;
+
+    private final Map<String, String> partition = new ConcurrentHashMap<>();          // 本节点负责的分片：用户名 → 所在节点
+    private final Map<String, Set<String>> interestedNodes = new ConcurrentHashMap<>(); // 分片条目 → 缓存了它的节点
+    private final Map<String, String> locationCache = new ConcurrentHashMap<>();      // 其他分片的位置缓存
+    private final Map<String, Long> missCache = new ConcurrentHashMap<>();            // 查询未命中的用户 → 过期时刻
+    private final Map<Long, CompletableFuture<String>> pendingLookups = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+
+    // 统计：命中本地（零跳）与远程查询（一跳）的次数
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder remoteLookups = new LongAdder();
+
+    public PresenceDirectory(ClusterBus bus, OnlineUserManager onlineUserManager, ConsistentHashRing ring) {
+        this.bus = bus;
+        this.onlineUserManager = onlineUserManager;
+        this.ring = ring;
+    }
+
+    /**
+     * 查找用户所在节点，不在线返回null
+     * 缓存未命中时阻塞等待归属节点应答（最多一跳，最长 LOOKUP_TIMEOUT_MILLIS，超时视为不在线）
+     */
+    public String locate(String username) {
+        String self = bus.getLocalNodeId();
+        if (onlineUserManager.isUserOnline(username)) {
+            localHits.increment();
+            return self;
+        }
+        String cached = locationCache.get(username);
+        if (cached != null) {
+            cacheHits.increment();
+            return cached;
+        }
+        Long missUntil = missCache.get(username);
+        if (missUntil != null) {
+            if (System.currentTimeMillis() < missUntil) {
+                cacheHits.increment();
+                return null;
+            }
+            missCache.remove(username, missUntil);
+        }
+        String owner = ring.ownerOf(username);
+        if (self.equals(owner)) {
+            localHits.increment();
+            return partition.get(username);
+        }
+
+        remoteLookups.increment();
+        long requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        pendingLookups.put(requestId, future);
+        ClusterMessage lookup = new ClusterMessage(ClusterMessage.Kind.DIR_LOOKUP, self);
+        lookup.setUsername(username);
+        lookup.setRequestId(requestId);
+        bus.send(owner, lookup);
+        try {
+            String nodeId = future.get(LOOKUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (nodeId == null) {
+                rememberMiss(username);
+            } else if (!nodeId.equals(self)) {
+                locationCache.put(username, nodeId);
+            }
+            return nodeId;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        } finally {
+            pendingLookups.remove(requestId);
+        }
+    }
+
+    /**
+     * 不阻塞地给出下一跳：本节点负责该分片时直接给出用户所在节点，否则交给归属节点转发
+     * 用于总线线程中重新路由过期缓存投错的消息
+     */
+    public String nextHop(String username) {
+        String owner = ring.ownerOf(username);
+        if (bus.getLocalNodeId().equals(owner)) {
+            return partition.get(username);
+        }
+        return owner;
+    }
+
+    /**
+     * 登记本节点上线的用户
+     */
+    public void register(String username) {
+        sendToOwner(ClusterMessage.Kind.DIR_REGISTER, username);
+    }
+
+    /**
+     * 注销本节点下线的用户
+     */
+    public void unregister(String username) {
+        sendToOwner(ClusterMessage.Kind.DIR_UNREGISTER, username);
+    }
+
+    /**
+     * 清除某个用户的位置缓存和未命中记录（发现缓存过期、或收到该用户上线的通告时调用）
+     */
+    public void evict(String username) {
+        locationCache.remove(username);
+        missCache.remove(username);
+    }
+
+    /**
+     * 处理目录相关的节点间消息
+     */
+    public void handle(ClusterMessage message) {
+        String username = message.getUsername();
+        switch (message.getKind()) {
+            case DIR_REGISTER:
+                applyRegister(username, message.getOriginNode());
+                break;
+            case DIR_UNREGISTER:
+                applyUnregister(username, message.getOriginNode());
+                break;
+            case DIR_LOOKUP:
+                String location = partition.get(username);
+                if (location != null) {
+                    interestedNodes.computeIfAbsent(username, k -> ConcurrentHashMap.newKeySet())
+                            .add(message.getOriginNode());
+                }
+                ClusterMessage reply = new ClusterMessage(ClusterMessage.Kind.DIR_LOOKUP_REPLY, bus.getLocalNodeId());
+                reply.setUsername(username);
+                reply.setRequestId(message.getRequestId());
+                reply.setNodeId(location);
+                bus.send(message.getOriginNode(), reply);
+                break;
+            case DIR_LOOKUP_REPLY:
+                CompletableFuture<String> future = pendingLookups.get(message.getRequestId());
+                if (future != null) {
+                    future.complete(message.getNodeId());
+                }
+                break;
+            case DIR_INVALIDATE:
+                evict(username);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 集群成员变化：换用新的哈希环，丢弃不再归本节点负责的分片、失联节点上的条目和全部位置缓存，
+     * 并把本地在线用户重新登记到（可能已变化的）归属节点
+     * 失联节点上的用户由 ClusterNode 按在线名单下线（见 OnlineUserManager.getRemoteUsersOn），这里只清理目录
+     * @param downNode 失联的节点，为null表示有节点加入
+     */
+    public void onMembershipChanged(ConsistentHashRing newRing, String downNode) {
+        ring = newRing;
+        locationCache.clear();
+        missCache.clear();
+        String self = bus.getLocalNodeId();
+
+        if (downNode != null) {
+            partition.values().removeIf(downNode::equals);
+        }
+        partition.keySet().removeIf(username -> !self.equals(ring.ownerOf(username)));
+        interestedNodes.keySet().removeIf(username -> !partition.containsKey(username));
+
+        for (String username : onlineUserManager.getOnlineUsers()) {
+            register(username);
+        }
+    }
+
+    public long getLocalHits() { return localHits.sum(); }
+    public long getCacheHits() { return cacheHits.sum(); }
+    public long getRemoteLookups() { return remoteLookups.sum(); }
+    public int getPartitionSize() { return partition.size(); }
+    public int getCacheSize() { return locationCache.size(); }
+
+    private void rememberMiss(String username) {
+        if (missCache.size() >= MAX_MISSES) {
+            missCache.clear(); // 大量查询不存在的用户时不无限增长
+        }
+        missCache.put(username, System.currentTimeMillis() + MISS_TTL_MILLIS);
+    }
+
+    private void sendToOwner(ClusterMessage.Kind kind, String username) {
+        String self = bus.getLocalNodeId();
+        String owner = ring.ownerOf(username);
+        if (self.equals(owner)) {
+            if (kind == ClusterMessage.Kind.DIR_REGISTER) {
+                applyRegister(username, self);
+            } else {
+                applyUnregister(username, self);
+            }
+            return;
+        }
+        ClusterMessage message = new ClusterMessage(kind, self);
+        message.setUsername(username);
+        bus.send(owner, message);
+    }
+
+    private void applyRegister(String username, String nodeId) {
+        String previous = partition.put(username, nodeId);
+        if (previous != null && !previous.equals(nodeId)) {
+            invalidate(username);
+        }
+    }
+
+    private void applyUnregister(String username, String nodeId) {
+        if (partition.remove(username, nodeId)) {
+            invalidate(username);
+        }
+    }
+
+    /**
+     * 通知缓存过该条目的节点清除缓存
+     */
+    private void invalidate(String username) {
+        Set<String> nodes = interestedNodes.remove(username);
+        if (nodes == null) {
+            return;
+        }
+        for (String nodeId : new HashSet<>(nodes)) {
+            ClusterMessage message = new ClusterMessage(ClusterMessage.Kind.DIR_INVALIDATE, bus.getLocalNodeId());
+            message.setUsername(username);
+            bus.send(nodeId, message);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package server.cluster;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 单节点总线：未配置集群时使用，所有操作均为空操作
+ */
+public class SingleNodeBus implements ClusterBus {
+    private final String localNodeId;
+
+    public SingleNodeBus(String localNodeId) {
+        this.localNodeId = localNodeId;
+    }
+
+    @Override
+    public String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    @Override
+    public void start(ClusterListener listener) {
+    }
+
+    @Override
+    public void send(String nodeId, ClusterMessage message) {
+    }
+
+    @Override
+    public void broadcast(ClusterMessage message) {
+    }
+
+    @Override
+    public Set<String> getLiveNodes() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
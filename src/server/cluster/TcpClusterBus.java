@@ -0,0 +1,395 @@
+package server.cluster;
+
+import common.DecodeFilter;
+import common.FileChunks;
+import common.Group;
+import common.Message;
+import common.RoutedEnvelope;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于TCP的节点总线（默认实现）
+ * 每个节点监听一个总线端口，并为每个对端节点维护一条出站连接：
+ * 出站连接由独立的发送线程排队写出，断开后每秒重连；入站连接只负责读取对端发来的消息
+ *
+ * 总线端口只监听配置的地址。入站连接先下发一个随机数，对端的 HELLO 必须携带用共享密钥对“随机数 + 节点ID”的 HMAC，
+ * 且节点ID在对端配置中，否则断开；解码只允许节点消息用到的类（白名单过滤器）。
+ * 对端断开时已排队的消息保留，重连后继续发出（写出失败的一批放回队首，对端可能重复收到其中一部分）；
+ * 断开超过 HOLD_MILLIS 视为对端已退出，清空队列并停止排队
+ *
+ * 对端只有在两个方向的连接都建立后（本节点到对端的出站连接已握手，且对端到本节点的入站连接已通过认证）才算存活，
+ * 此时才回调 onNodeUp，任一方向断开即回调 onNodeDown。两端据此判断的是同一对连接，哈希环成员因而一致；
+ * 只在连接刚建立或断开的一刻，两端先后感知到变化，其间群归属可能短暂不一致（一个群的消息可能由两个节点分别排序）
+ * 负载的数据在磁盘上时（排队转发的文件切片）每个出站队列各持有一次，写出或丢弃后释放
+ *
+ * 对端配置格式：nodeId@host:port，多个用逗号分隔，例如 n2@127.0.0.1:9002,n3@127.0.0.1:9003
+ */
+public class TcpClusterBus implements ClusterBus {
+    private static final int QUEUE_CAPACITY = 100_000;
+    private static final long RECONNECT_INTERVAL_MILLIS = 1_000L;
+    private static final long HOLD_MILLIS = Long.getLong("chat.cluster.holdMillis", 60_000L);
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5_000;
+    private static final int NONCE_BYTES = 32;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final DecodeFilter FILTER = new DecodeFilter(ClusterMessage.class, ClusterMessage.Kind.class,
+            Message.class, Message.Type.class, RoutedEnvelope.class, Group.class);
+
+    private final String localNodeId;
+    private final InetSocketAddress bindAddress;
+    private final SecretKeySpec secret;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, PeerLink> links = new LinkedHashMap<>();
+    private final Object membership = new Object(); // 串行化对端存活状态的变化及其回调
+    private volatile ClusterListener listener;
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    /**
+     * @param bindAddress 总线监听地址
+     * @param secret      各节点共享的密钥，用于认证握手
+     */
+    public TcpClusterBus(String localNodeId, InetSocketAddress bindAddress, byte[] secret,
+                         Map<String, InetSocketAddress> peers) {
+        if (secret == null || secret.length == 0) {
+            throw new IllegalArgumentException("集群共享密钥不能为空");
+        }
+        this.localNodeId = localNodeId;
+        this.bindAddress = bindAddress;
+        this.secret = new SecretKeySpec(secret, MAC_ALGORITHM);
+        for (Map.Entry<String, InetSocketAddress> peer : peers.entrySet()) {
+            links.put(peer.getKey(), new PeerLink(peer.getKey(), peer.getValue()));
+        }
+    }
+
+    /**
+     * 解析对端配置
+     */
+    public static Map<String, InetSocketAddress> parsePeers(String spec) {
+        Map<String, InetSocketAddress> peers = new LinkedHashMap<>();
+        if (spec == null || spec.trim().isEmpty()) {
+            return peers;
+        }
+        for (String entry : spec.split(",")) {
+            String item = entry.trim();
+            int at = item.indexOf('@');
+            int colon = item.lastIndexOf(':');
+            if (at <= 0 || colon <= at) {
+                throw new IllegalArgumentException("无效的集群节点配置：" + item);
+            }
+            peers.put(item.substring(0, at),
+                    new InetSocketAddress(item.substring(at + 1, colon), Integer.parseInt(item.substring(colon + 1))));
+        }
+        return peers;
+    }
+
+    @Override
+    public String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    @Override
+    public void start(ClusterListener listener) throws IOException {
+        this.listener = listener;
+        this.running = true;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links.values()) {
+            link.start();
+        }
+        System.out.println("集群总线已启动，节点：" + localNodeId + "，总线地址：" + bindAddress + "，对端：" + links.keySet());
+    }
+
+    @Override
+    public void send(String nodeId, ClusterMessage message) {
+        PeerLink link = links.get(nodeId);
+        if (link != null) {
+            link.enqueue(message);
+        }
+    }
+
+    @Override
+    public void broadcast(ClusterMessage message) {
+        for (PeerLink link : links.values()) {
+            link.enqueue(message);
+        }
+    }
+
+    @Override
+    public Set<String> getLiveNodes() {
+        Set<String> live = new HashSet<>();
+        for (PeerLink link : links.values()) {
+            if (link.live) {
+                live.add(link.nodeId);
+            }
+        }
+        return live;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (PeerLink link : links.values()) {
+            depths.put(link.nodeId, link.queue.size());
+        }
+        return depths;
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (PeerLink link : links.values()) {
+            link.interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> readLoop(socket), "cluster-in-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取入站连接上的消息：先下发握手随机数，首条必须是签名正确的 HELLO
+     */
+    private void readLoop(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            byte[] nonce = new byte[NONCE_BYTES];
+            random.nextBytes(nonce);
+            OutputStream out = s.getOutputStream();
+            out.write(nonce);
+            out.flush();
+
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(s.getInputStream()));
+            if (!FILTER.install(in)) {
+                System.out.println("运行环境不支持反序列化过滤，拒绝集群连接：" + s.getRemoteSocketAddress());
+                return;
+            }
+            ClusterMessage hello = (ClusterMessage) in.readObject();
+            if (hello.getKind() != ClusterMessage.Kind.HELLO || !links.containsKey(hello.getOriginNode())
+                    || hello.getSignature() == null
+                    || !MessageDigest.isEqual(sign(nonce, hello.getOriginNode()), hello.getSignature())) {
+                System.out.println("拒绝未通过认证的集群连接：" + s.getRemoteSocketAddress());
+                return;
+            }
+            s.setSoTimeout(0);
+            PeerLink link = links.get(hello.getOriginNode());
+            link.inbound.incrementAndGet();
+            link.updateLiveness();
+            try {
+                while (running) {
+                    listener.onMessage((ClusterMessage) in.readObject());
+                }
+            } finally {
+                link.inbound.decrementAndGet();
+                link.updateLiveness();
+            }
+        } catch (InvalidClassException e) {
+            System.out.println("集群连接发送了不允许的数据，已断开：" + socket.getRemoteSocketAddress() + "，" + e.getMessage());
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // 对端断开或发送了不合规的数据，出站连接会各自感知并重连
+        }
+    }
+
+    /**
+     * 握手签名：HMAC(共享密钥, 随机数 + 节点ID)
+     */
+    private byte[] sign(byte[] nonce, String nodeId) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(nonce);
+            return mac.doFinal(nodeId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("无法计算集群握手签名", e);
+        }
+    }
+
+    /**
+     * 到某个对端节点的出站连接
+     */
+    private class PeerLink extends Thread {
+        private final String nodeId;
+        private final InetSocketAddress address;
+        private final BlockingDeque<ClusterMessage> queue = new LinkedBlockingDeque<>(QUEUE_CAPACITY);
+        private volatile boolean connected;                            // 出站连接已握手
+        private final AtomicInteger inbound = new AtomicInteger();     // 对端已通过认证的入站连接数
+        private volatile boolean live;                                 // 两个方向都已连接，由 membership 锁保护更新
+        private volatile long downSince = System.currentTimeMillis(); // 断开（或启动）的时刻，连接期间为0
+        private long dropped;                                          // 本次断开后丢弃的消息数，由 this 锁保护
+
+        PeerLink(String nodeId, InetSocketAddress address) {
+            super("cluster-out-" + nodeId);
+            this.nodeId = nodeId;
+            this.address = address;
+            setDaemon(true);
+        }
+
+        /**
+         * 对端断开不超过 HOLD_MILLIS 时照常排队，重连后发出；超过后直接丢弃，由节点上下线事件负责状态修正
+         */
+        void enqueue(ClusterMessage message) {
+            FileChunks.retain(message.getPayload());
+            if (isExpired() || !queue.offer(message)) {
+                FileChunks.release(message.getPayload());
+                synchronized (this) {
+                    if (dropped++ == 0) {
+                        System.out.println("集群节点 " + nodeId + (isExpired() ? " 不可达" : " 出站队列已满")
+                                + "，开始丢弃消息：" + message.getKind());
+                    }
+                }
+            }
+        }
+
+        /**
+         * 任一方向的连接变化后重新判断存活状态，变化时回调 onNodeUp / onNodeDown
+         */
+        void updateLiveness() {
+            synchronized (membership) {
+                boolean now = connected && inbound.get() > 0;
+                if (now == live) {
+                    return;
+                }
+                live = now;
+                if (now) {
+                    listener.onNodeUp(nodeId);
+                } else {
+                    listener.onNodeDown(nodeId);
+                }
+            }
+        }
+
+        private boolean isExpired() {
+            long since = downSince;
+            return since != 0 && System.currentTimeMillis() - since > HOLD_MILLIS;
+        }
+
+        /**
+         * 对端断开过久：清空积压的消息
+         */
+        private void expire() {
+            if (isExpired() && !queue.isEmpty()) {
+                List<ClusterMessage> discarded = new ArrayList<>();
+                queue.drainTo(discarded);
+                for (ClusterMessage message : discarded) {
+                    FileChunks.release(message.getPayload());
+                }
+                System.out.println("集群节点 " + nodeId + " 断开超过 " + HOLD_MILLIS + "ms，丢弃积压的 " + discarded.size() + " 条消息");
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(address, HANDSHAKE_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                    byte[] nonce = new byte[NONCE_BYTES];
+                    new DataInputStream(socket.getInputStream()).readFully(nonce);
+                    ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    ClusterMessage hello = new ClusterMessage(ClusterMessage.Kind.HELLO, localNodeId);
+                    hello.setSignature(sign(nonce, localNodeId));
+                    out.writeObject(hello);
+                    out.flush();
+                    connected = true;
+                    downSince = 0;
+                    synchronized (this) {
+                        if (dropped > 0) {
+                            System.out.println("集群节点 " + nodeId + " 已重连，期间丢弃 " + dropped + " 条消息");
+                            dropped = 0;
+                        }
+                    }
+                    updateLiveness();
+                    pump(out);
+                } catch (IOException e) {
+                    // 连接失败或断开，稍后重连
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    if (connected) {
+                        connected = false;
+                        downSince = System.currentTimeMillis();
+                        updateLiveness();
+                    }
+                }
+                expire();
+                try {
+                    Thread.sleep(RECONNECT_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 批量取出排队的消息写出；每批写完后重置流，避免对象句柄表无限增长
+         * 写出失败时整批放回队首，重连后重发；写出成功后释放负载持有的暂存文件
+         */
+        private void pump(ObjectOutputStream out) throws IOException, InterruptedException {
+            List<ClusterMessage> batch = new ArrayList<>();
+            while (running) {
+                batch.add(queue.take());
+                queue.drainTo(batch, 255);
+                try {
+                    for (ClusterMessage message : batch) {
+                        out.writeObject(message);
+                    }
+                    out.reset();
+                    out.flush();
+                } catch (IOException e) {
+                    for (int i = batch.size() - 1; i >= 0; i--) {
+                        queue.offerFirst(batch.get(i));
+                    }
+                    throw e;
+                }
+                for (ClusterMessage message : batch) {
+                    FileChunks.release(message.getPayload());
+                }
+                batch.clear();
+            }
+        }
+    }
+}
@@ -1,164 +1,428 @@
 package server.handlers;
 
-import common.Group;
+import common.DecodeFilter;
+import common.FrameInputStream;
+import common.FrameOutputStream;
 import common.Message;
+import common.RoutedEnvelope;
+import common.SlabPool;
+import common.SymbolInputStream;
+import common.SymbolOutputStream;
+import server.auth.AuthExecutor;
 import server.broadcast.BroadcastService;
+import server.broadcast.MulticastPublisher;
+import server.cluster.ClusterNode;
 import server.managers.GroupManager;
 import server.managers.OnlineUserManager;
 import server.managers.UserManager;
+import server.metrics.ConnectionStats;
+import server.metrics.CountingInputStream;
+import server.metrics.CountingOutputStream;
+import server.metrics.ServerMetrics;
+import server.ratelimit.RateLimiter;
+import server.session.ClientSession;
+import server.session.SessionManager;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 客户端处理线程
  * 负责处理单个客户端的所有请求
+ *
+ * 客户端消息按帧读取（FrameInputStream）：帧长度超过 chat.frame.maxBytes（默认 1MB）、消息跨帧、解码时数组长度超出帧大小
+ * 或出现 CLIENT_TYPES 以外的类（如只由服务器下发的 ListSnapshot）的连接直接断开，
+ * 帧缓冲区取自共享的 SlabPool，每个连接的解码内存不超过一帧
  */
 public class ClientHandler extends Thread {
+    public static final int MAX_FRAME_BYTES = Integer.getInteger("chat.frame.maxBytes", FrameOutputStream.DEFAULT_MAX_FRAME_BYTES);
+    private static final int MAX_REPAIR_FRAMES = 256; // 单次补发的组播帧数上限，剩余部分由客户端再次请求
+    private static final DecodeFilter CLIENT_TYPES = new DecodeFilter(Message.class, Message.Type.class, RoutedEnvelope.class); // 客户端可以发送的类
     private final Socket socket;
     private ObjectInputStream ois;
     private ObjectOutputStream oos;
-    private String username;
+    private volatile ClientSession session; // 登录在认证线程中完成，需保证可见性
 
     private final UserManager userManager;
+    private final AuthExecutor authExecutor;
     private final OnlineUserManager onlineUserManager;
     private final GroupManager groupManager;
     private final BroadcastService broadcastService;
     private final MessageHandler messageHandler;
+    private final SessionManager sessionManager;
+    private final ClusterNode clusterNode;
+    private final ServerMetrics metrics;
+    private final RateLimiter rateLimiter;
+    private final SlabPool framePool;
+    private final ConnectionStats connectionStats;
 
     public ClientHandler(Socket socket,
                       UserManager userManager,
+                      AuthExecutor authExecutor,
                       OnlineUserManager onlineUserManager,
                       GroupManager groupManager,
                       BroadcastService broadcastService,
-                      MessageHandler messageHandler) {
+                      MessageHandler messageHandler,
+                      SessionManager sessionManager,
+                      ClusterNode clusterNode,
+                      ServerMetrics metrics,
+                      RateLimiter rateLimiter,
+                      SlabPool framePool) {
         this.socket = socket;
         this.userManager = userManager;
+        this.authExecutor = authExecutor;
         this.onlineUserManager = onlineUserManager;
         this.groupManager = groupManager;
         this.broadcastService = broadcastService;
         this.messageHandler = messageHandler;
+        this.sessionManager = sessionManager;
+        this.clusterNode = clusterNode;
+        this.metrics = metrics;
+        this.rateLimiter = rateLimiter;
+        this.framePool = framePool;
+        this.connectionStats = metrics.openConnection(String.valueOf(socket.getRemoteSocketAddress()));
     }
 
     @Override
     public void run() {
         try {
-            oos = new ObjectOutputStream(socket.getOutputStream());
-            ois = new ObjectInputStream(socket.getInputStream());
+            CountingInputStream in = new CountingInputStream(socket.getInputStream(), metrics, connectionStats);
+            oos = new SymbolOutputStream(new CountingOutputStream(socket.getOutputStream(), metrics, connectionStats));
+            FrameInputStream frames = new FrameInputStream(in, MAX_FRAME_BYTES, framePool);
+            ois = new SymbolInputStream(frames, onlineUserManager.getSymbols()::canonical);
+            frames.guard(ois, CLIENT_TYPES);
 
             Message message;
+            in.beginFrame();
+            frames.beginMessage();
             while ((message = (Message) ois.readObject()) != null) {
-                switch (message.getType()) {
-                    case REGISTER:
-                        userManager.handleRegister(message, oos);
-                        break;
-                    case LOGIN:
-                        handleLoginWithAuth(message);
-                        break;
-                    case FIND_PASSWORD:
-                        userManager.handleFindPassword(message, oos);
-                        break;
-                    case RESET_PASSWORD:
-                        userManager.handleResetPassword(message, oos);
-                        break;
-                    case PRIVATE_CHAT:
-                        messageHandler.handlePrivateChat(message, oos, username);
-                        break;
-                    case GROUP_CHAT:
-                        messageHandler.handleGroupChat(message, oos, username);
-                        break;
-                    case GET_ONLINE_USERS:
-                        broadcastService.sendOnlineUsersToUser(username);
-                        break;
-                    case FILE_PRIVATE:
-                        messageHandler.handlePrivateFile(message, oos, username);
-                        break;
-                    case FILE_GROUP:
-                        messageHandler.handleGroupFile(message, oos, username);
-                        break;
-                    case SHAKE:
-                        messageHandler.handleShake(message, username);
-                        break;
-                    case CREATE_GROUP:
-                        messageHandler.handleCreateGroup(message, oos, username);
-                        break;
-                    case SEARCH_GROUP:
-                        messageHandler.handleSearchGroup(message, oos);
-                        break;
-                    case JOIN_GROUP:
-                        messageHandler.handleJoinGroup(message, oos, username);
-                        break;
-                    default:
-                        System.out.println("未知消息类型：" + message.getType());
-                }
+                long decoded = System.nanoTime();
+                metrics.recordDecode(connectionStats, decoded - in.getFrameStartNanos());
+                dispatch(message);
+                metrics.recordHandler(message.getType(), System.nanoTime() - decoded);
+                in.beginFrame();
+                frames.beginMessage();
             }
+        } catch (ObjectStreamException e) {
+            System.out.println("客户端 " + socket.getRemoteSocketAddress() + " 发送的消息不合规，断开连接：" + e.getMessage());
+            handleDisconnect();
         } catch (IOException | ClassNotFoundException e) {
             handleDisconnect();
         }
     }
 
     /**
-     * 处理用户登录
+     * 按消息类型分发请求
+     */
+    private void dispatch(Message message) throws IOException {
+        switch (message.getType()) {
+            case REGISTER:
+                submitAuthTask(message, Message.Type.REGISTER_RESPONSE, () -> writeDirect(
+                        userManager.handleRegister(message, () -> clusterNode.publishRegistered(message.getSender()))));
+                return;
+            case LOGIN:
+                submitAuthTask(message, Message.Type.LOGIN, () -> handleLoginWithAuth(message));
+                return;
+            case RESUME:
+                handleResume(message);
+                return;
+            case FIND_PASSWORD:
+                writeDirect(userManager.handleFindPassword(message));
+                return;
+            case RESET_PASSWORD:
+                submitAuthTask(message, Message.Type.RESET_PASSWORD_RESPONSE, () -> writeDirect(
+                        userManager.handleResetPassword(message, () -> clusterNode.publishPasswordReset(message.getSender()))));
+                return;
+            default:
+                break;
+        }
+
+        // 以下请求都需要先登录
+        ClientSession current = session;
+        if (current == null) {
+            System.out.println("未登录连接发送了消息：" + message.getType());
+            return;
+        }
+        current.acknowledge(message.getAckSeq());
+        if (!current.acceptClientSeq(message.getClientSeq())) {
+            return; // 重连后重发的重复消息
+        }
+        // 上传切片的首片按所属文件类型限流，其余各片按切片限流
+        Message.Type limited = message.getType() == Message.Type.FILE_CHUNK && message.getChunkIndex() == 0
+                && message.getChunkOf() != null ? message.getChunkOf() : message.getType();
+        if (!admit(limited, current)) {
+            return;
+        }
+        switch (message.getType()) {
+            case ACK:
+                current.confirmClientSeq(); // 下行确认已在上面处理，这里回应上行确认
+                break;
+            case PRIVATE_CHAT:
+                messageHandler.handlePrivateChat(message, current);
+                break;
+            case GROUP_CHAT:
+                messageHandler.handleGroupChat(message, current);
+                break;
+            case GET_ONLINE_USERS:
+                broadcastService.sendOnlineUsersToUser(current.getUsername());
+                break;
+            case FILE_PRIVATE:
+                messageHandler.handlePrivateFile(message, current);
+                break;
+            case FILE_GROUP:
+                messageHandler.handleGroupFile(message, current);
+                break;
+            case FILE_CHUNK:
+                messageHandler.handleFileChunk(message, current);
+                break;
+            case FILE_OFFER:
+                messageHandler.handleFileOffer(message, current);
+                break;
+            case FILE_FALLBACK:
+                messageHandler.handleFileFallback(message, current);
+                break;
+            case SHAKE:
+                messageHandler.handleShake(message, current);
+                break;
+            case CREATE_GROUP:
+                messageHandler.handleCreateGroup(message, current);
+                break;
+            case SEARCH_GROUP:
+                messageHandler.handleSearchGroup(message, current);
+                break;
+            case JOIN_GROUP:
+                messageHandler.handleJoinGroup(message, current);
+                break;
+            case GROUP_MEMBERS:
+                messageHandler.handleGroupMembers(message, current);
+                break;
+            case MCAST_SUBSCRIBE:
+                handleMulticastSubscribe(message, current);
+                break;
+            case MCAST_NACK:
+                handleMulticastNack(message, current);
+                break;
+            case PRESENCE_SUBSCRIBE:
+                broadcastService.getPresence().replace(current.getUsername(),
+                        message.getPresenceUsers(), message.getGroupId());
+                break;
+            case LOGOUT:
+                session = null;
+                sessionManager.endSession(current);
+                break;
+            default:
+                System.out.println("未知消息类型：" + message.getType());
+        }
+    }
+
+    /**
+     * 限流检查：略微超速时在本连接线程中等待（只拖慢该用户自己），超限则丢弃并提示
+     */
+    private boolean admit(Message.Type type, ClientSession current) {
+        long wait = rateLimiter.acquire(current.getRateBuckets(), type);
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        } else if (wait < 0) {
+            if (rateLimiter.shouldNotify(current.getRateBuckets())) {
+                current.send(new Message(Message.Type.PRIVATE_CHAT, "服务器", current.getUsername(),
+                        "操作过于频繁，部分消息已被丢弃，请稍后再试！"));
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 将涉及密码哈希的请求投递到认证线程池，连接线程不等待结果继续读取
+     * 线程池已满时直接回复繁忙，避免登录洪峰拖垮服务器
+     */
+    private void submitAuthTask(Message message, Message.Type responseType, AuthExecutor.AuthTask task) throws IOException {
+        if (!authExecutor.submit(task)) {
+            writeDirect(new Message(responseType, "服务器", message.getSender(), "服务器繁忙，请稍后再试！"));
+        }
+    }
+
+    /**
+     * 处理用户登录（在认证线程池中执行）
+     * 同一账号的会话若处于游离状态（旧连接已断开），新登录直接接管，不再广播上下线
      */
     private void handleLoginWithAuth(Message message) throws IOException {
         String account = message.getSender();
         String password = message.getPassword();
 
+        if (session != null) {
+            writeDirect(new Message(Message.Type.LOGIN, "服务器", account, "当前连接已登录！"));
+            return;
+        }
+
         if (!userManager.accountExists(account)) {
-            Message response = new Message(Message.Type.LOGIN, "服务器", account, "账号未注册，请先注册！");
-            oos.writeObject(response);
-            oos.flush();
+            writeDirect(new Message(Message.Type.LOGIN, "服务器", account, "账号未注册，请先注册！"));
             return;
         }
 
         if (!userManager.verifyPassword(account, password)) {
-            Message response = new Message(Message.Type.LOGIN, "服务器", account, "密码错误，请重新输入！");
-            oos.writeObject(response);
-            oos.flush();
+            writeDirect(new Message(Message.Type.LOGIN, "服务器", account, "密码错误，请重新输入！"));
             return;
         }
 
-        if (onlineUserManager.isUserOnline(account)) {
-            Message response = new Message(Message.Type.LOGIN, "服务器", account, "账号已登录，请勿重复登录！");
-            oos.writeObject(response);
-            oos.flush();
+        if (onlineUserManager.isRemoteUser(account)) {
+            writeDirect(new Message(Message.Type.LOGIN, "服务器", account, "账号已在其他服务器节点登录！"));
             return;
         }
 
-        username = account;
-        onlineUserManager.addUser(username, oos);
+        account = onlineUserManager.getSymbols().intern(account); // 会话、在线表、群成员共用规范实例
 
-        Group defaultGroup = groupManager.getDefaultGroup();
-        if (defaultGroup != null) {
-            defaultGroup.addMember(username);
+        ClientSession newSession = sessionManager.createSession(account);
+        boolean takeover = false;
+        long acceptedClientSeq = 0; // 接管时告知客户端原会话已接受的上行序号，其余的由客户端重发
+        if (!onlineUserManager.addUserIfAbsent(account, newSession)) {
+            ClientSession existing = onlineUserManager.getSession(account);
+            if (existing == null || !existing.isDetached()
+                    || !onlineUserManager.replaceSession(account, existing, newSession)) {
+                sessionManager.discard(newSession);
+                writeDirect(new Message(Message.Type.LOGIN, "服务器", account, "账号已登录，请勿重复登录！"));
+                return;
+            }
+            sessionManager.discard(existing);
+            takeover = true;
+            acceptedClientSeq = existing.getLastClientSeq();
+        }
+
+        Message response = new Message(Message.Type.LOGIN, "服务器", account, "登录成功！");
+        response.setResumeToken(newSession.getResumeToken());
+        response.setAckSeq(acceptedClientSeq);
+        describeMulticast(response);
+        synchronized (oos) {
+            newSession.attach(oos, socket, response, 0);
+        }
+        session = newSession;
+        connectionStats.setUsername(account);
+        if (socket.isClosed()) {
+            // 认证期间连接已断开，会话直接进入游离状态
+            handleDisconnect();
+        }
+
+        if (takeover) {
+            broadcastService.sendGroupListToUser(account);
+            System.out.println(account + " 重新登录，接管原会话");
+            return;
         }
 
-        oos.writeObject(new Message(Message.Type.LOGIN, "服务器", username, "登录成功！"));
-        oos.flush();
+        groupManager.joinDefaultGroup(account);
 
-        broadcastService.broadcastOnlineNotify(username);
+        broadcastService.broadcastOnlineNotify(account);
+        // 名单是所有客户端的选择列表，仍发给所有人；合并窗口内只广播一次，见 BroadcastService
         broadcastService.broadcastOnlineUsers();
         broadcastService.broadcastGroupList();
+        clusterNode.publishOnline(account);
 
-        System.out.println(username + " 登录成功，当前在线人数：" + onlineUserManager.getOnlineUserCount());
+        System.out.println(account + " 登录成功，当前在线人数：" + onlineUserManager.getOnlineUserCount());
+    }
+
+    /**
+     * 处理会话恢复：凭恢复令牌直接接管会话，只补发客户端缺失的帧，不触发任何广播
+     */
+    private void handleResume(Message message) throws IOException {
+        String account = message.getSender();
+        ClientSession resumed = sessionManager.findByToken(message.getResumeToken());
+        if (session != null || resumed == null || !resumed.getUsername().equals(account)
+                || onlineUserManager.getSession(account) != resumed) {
+            writeDirect(new Message(Message.Type.RESUME, "服务器", account, "会话已失效，请重新登录"));
+            return;
+        }
+
+        Message response = new Message(Message.Type.RESUME, "服务器", account, "会话恢复成功");
+        response.setResumeToken(sessionManager.rotateToken(resumed));
+        response.setAckSeq(resumed.getLastClientSeq());
+        describeMulticast(response);
+        boolean attached;
+        synchronized (oos) {
+            attached = resumed.attach(oos, socket, response, message.getAckSeq());
+        }
+        if (!attached) {
+            writeDirect(new Message(Message.Type.RESUME, "服务器", account, "断线期间消息过多，请重新登录"));
+            return;
+        }
+        session = resumed;
+        connectionStats.setUsername(account);
+        System.out.println(account + " 恢复会话，补发至序号 " + resumed.getDeliveredSeq());
+    }
+
+    /**
+     * 在登录/恢复响应中告知组播地址，客户端加入组播组后自行订阅
+     */
+    private void describeMulticast(Message response) {
+        MulticastPublisher multicast = broadcastService.getMulticast();
+        if (multicast.isEnabled()) {
+            response.setMulticastAddress(multicast.getAddress());
+            response.setMulticastEpoch(multicast.getEpoch());
+            response.setMulticastKey(multicast.getKey());
+        }
+    }
+
+    /**
+     * 客户端已收到组播：此后广播帧不再经TCP下发给该会话
+     */
+    private void handleMulticastSubscribe(Message message, ClientSession current) {
+        MulticastPublisher multicast = broadcastService.getMulticast();
+        if (multicast.isEnabled() && message.getMulticastEpoch() == multicast.getEpoch()) {
+            current.setMulticastSubscribed(true);
+        }
+    }
+
+    /**
+     * 经TCP补发客户端缺失的组播帧；缺失的帧已超出补发范围时让客户端跳过缺口，并重新下发完整列表
+     */
+    private void handleMulticastNack(Message message, ClientSession current) {
+        MulticastPublisher multicast = broadcastService.getMulticast();
+        if (!multicast.isEnabled() || message.getMulticastEpoch() != multicast.getEpoch()) {
+            return;
+        }
+        List<Message> frames = multicast.history(message.getMulticastSeq(),
+                Math.min(message.getMulticastCount(), MAX_REPAIR_FRAMES));
+        if (frames != null) {
+            for (Message frame : frames) {
+                current.send(frame);
+            }
+            return;
+        }
+        Message skip = new Message(Message.Type.MCAST_SKIP, "服务器", current.getUsername(), "");
+        skip.setMulticastEpoch(multicast.getEpoch());
+        skip.setMulticastSeq(message.getMulticastSeq() + message.getMulticastCount()); // 客户端从该序号继续
+        current.send(skip);
+        broadcastService.resyncUser(current.getUsername());
+    }
+
+    /**
+     * 登录前的直接回复（登录后的下发统一经过会话）
+     */
+    private void writeDirect(Message message) throws IOException {
+        synchronized (oos) {
+            oos.writeObject(message);
+            oos.flush();
+        }
     }
 
     /**
      * 处理客户端断开连接
+     * 已登录的会话只转入游离状态，恢复有效期过后才真正下线
      */
     private void handleDisconnect() {
+        metrics.closeConnection(connectionStats);
         try {
-            if (username != null && onlineUserManager.isUserOnline(username)) {
-                onlineUserManager.removeUser(username);
-                groupManager.removeUserFromAllGroups(username);
-
-                broadcastService.broadcastOfflineNotify(username);
-                broadcastService.broadcastOnlineUsers();
-                broadcastService.broadcastGroupList();
-
-                System.out.println(username + " 已下线，当前在线人数：" + onlineUserManager.getOnlineUserCount());
+            ClientSession current = session;
+            if (current != null) {
+                sessionManager.detach(current, socket);
             }
 
             if (ois != null) ois.close();
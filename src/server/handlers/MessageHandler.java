@@ -1,171 +1,277 @@
 package server.handlers;
 
+import common.FileChunks;
 import common.Group;
 import common.Message;
+import common.RoutedEnvelope;
 import server.broadcast.BroadcastService;
+import server.cluster.ClusterNode;
+import server.managers.ConversationSequencer;
 import server.managers.GroupManager;
 import server.managers.OnlineUserManager;
+import server.session.ClientSession;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * 消息处理器类
  * 负责处理各种类型的消息（私聊、群聊、文件、抖动等）
+ * 所有下发都经过会话，保证帧序号连续、断线期间的消息可补发
+ * 聊天类消息在会话锁内分配会话序号并投递，同一会话的消息对每个接收方都按序号有序到达
+ * 不在本节点的用户经由集群节点转发；群消息交给群的归属节点统一排序和扇出
+ *
+ * 群成员按页下发，每页最多人数通过系统属性 chat.groupMembers.pageSize 配置，默认 100
  */
 public class MessageHandler {
     private final OnlineUserManager onlineUserManager;
     private final GroupManager groupManager;
     private final BroadcastService broadcastService;
+    private final ConversationSequencer sequencer;
+    private final ClusterNode clusterNode;
+    private final int memberPageSize = Integer.getInteger("chat.groupMembers.pageSize", 100);
 
     public MessageHandler(OnlineUserManager onlineUserManager,
                        GroupManager groupManager,
-                       BroadcastService broadcastService) {
+                       BroadcastService broadcastService,
+                       ConversationSequencer sequencer,
+                       ClusterNode clusterNode) {
         this.onlineUserManager = onlineUserManager;
         this.groupManager = groupManager;
         this.broadcastService = broadcastService;
+        this.sequencer = sequencer;
+        this.clusterNode = clusterNode;
     }
 
     /**
      * 处理私聊消息
      */
-    public void handlePrivateChat(Message message, ObjectOutputStream senderOos, String sender) throws IOException {
+    public void handlePrivateChat(Message message, ClientSession senderSession) {
+        String sender = senderSession.getUsername();
         String receiver = message.getReceiver();
-        String content = message.getContent();
 
-        ObjectOutputStream receiverOos = onlineUserManager.getUserOutputStream(receiver);
-        if (receiverOos != null) {
-            receiverOos.writeObject(new Message(
-                    Message.Type.PRIVATE_CHAT,
-                    message.getSender(),
-                    receiver,
-                    content
-            ));
-            receiverOos.flush();
-        } else {
-            senderOos.writeObject(new Message(
+        Message chatMsg = message instanceof RoutedEnvelope
+                ? ((RoutedEnvelope) message).forwardFrom(sender) // 信封原样转发，不解码正文
+                : new Message(Message.Type.PRIVATE_CHAT, sender, receiver, message.getContent());
+        String node = clusterNode.locate(receiver); // 可能远程查询，在取会话序号之前完成
+        ConversationSequencer.Counter counter = sequencer.privateConversation(sender, receiver);
+        boolean delivered;
+        synchronized (counter) {
+            counter.stamp(chatMsg);
+            delivered = clusterNode.deliverPrivate(receiver, node, chatMsg);
+        }
+        if (!delivered) {
+            senderSession.send(new Message(
                     Message.Type.PRIVATE_CHAT,
                     "服务器",
                     sender,
                     "用户 " + receiver + " 不在线！"
             ));
-            senderOos.flush();
         }
     }
 
     /**
      * 处理群聊消息
      */
-    public void handleGroupChat(Message message, ObjectOutputStream senderOos, String sender) throws IOException {
+    public void handleGroupChat(Message message, ClientSession senderSession) {
+        String sender = senderSession.getUsername();
         String groupId = message.getReceiver();
-        String content = message.getContent();
 
         Group group = groupManager.getGroupById(groupId);
         if (group == null) {
-            senderOos.writeObject(new Message(
+            senderSession.send(new Message(
                     Message.Type.GROUP_CHAT,
                     "服务器",
                     sender,
                     "群组 " + groupId + " 不存在！"
             ));
-            senderOos.flush();
             return;
         }
 
-        for (String member : group.getMembers()) {
-            if (!member.equals(sender)) {
-                ObjectOutputStream memberOos = onlineUserManager.getUserOutputStream(member);
-                if (memberOos != null) {
-                    memberOos.writeObject(new Message(
-                            Message.Type.GROUP_CHAT,
-                            message.getSender(),
-                            groupId,
-                            content
-                    ));
-                    memberOos.flush();
-                }
-            }
-        }
+        Message groupMsg = message instanceof RoutedEnvelope
+                ? ((RoutedEnvelope) message).forwardFrom(sender)
+                : new Message(Message.Type.GROUP_CHAT, sender, groupId, message.getContent());
+        clusterNode.publishGroup(groupId, sender, groupMsg);
     }
 
     /**
      * 处理私聊文件
      */
-    public void handlePrivateFile(Message message, ObjectOutputStream senderOos, String sender) throws IOException {
+    public void handlePrivateFile(Message message, ClientSession senderSession) {
+        String sender = senderSession.getUsername();
         String receiver = message.getReceiver();
-        ObjectOutputStream receiverOos = onlineUserManager.getUserOutputStream(receiver);
+        Message file = fileFrom(message, sender);
 
-        if (receiverOos != null) {
-            receiverOos.writeObject(message);
-            receiverOos.flush();
-            System.out.println(sender + " 发送文件[" + message.getFileName() + "]给" + receiver);
+        String node = clusterNode.locate(receiver); // 可能远程查询，在取会话序号之前完成
+        ConversationSequencer.Counter counter = sequencer.privateConversation(sender, receiver);
+        boolean delivered;
+        synchronized (counter) {
+            counter.stamp(file);
+            delivered = clusterNode.deliverPrivate(receiver, node, file);
+        }
+        if (delivered) {
+            System.out.println(sender + " 发送文件[" + file.getFileName() + "]给" + receiver);
         } else {
-            senderOos.writeObject(new Message(
+            senderSession.send(new Message(
                     Message.Type.PRIVATE_CHAT,
                     "服务器",
                     sender,
                     "用户 " + receiver + " 不在线，文件发送失败！"
             ));
-            senderOos.flush();
+        }
+    }
+
+    /**
+     * 处理私聊文件直连约定：只转发发送方的监听地址和一次性令牌，文件数据不经过服务器
+     * 与私聊消息共用会话序号，保证与前后的聊天消息顺序一致
+     * 监听地址只取客户端声明的端口，主机为服务器观察到的发送方IP，客户端无法借此让接收方连接任意主机
+     */
+    public void handleFileOffer(Message message, ClientSession senderSession) {
+        String sender = senderSession.getUsername();
+        String receiver = message.getReceiver();
+
+        Message offer = new Message(Message.Type.FILE_OFFER, sender, receiver,
+                message.getFileName(), message.getFileSize(), null);
+        offer.setPeerAddress(observedPeerAddress(message.getPeerAddress(), senderSession));
+        offer.setTransferToken(message.getTransferToken());
+        String node = clusterNode.locate(receiver); // 可能远程查询，在取会话序号之前完成
+        ConversationSequencer.Counter counter = sequencer.privateConversation(sender, receiver);
+        boolean delivered;
+        synchronized (counter) {
+            counter.stamp(offer);
+            delivered = clusterNode.deliverPrivate(receiver, node, offer);
+        }
+        if (!delivered) {
+            senderSession.send(new Message(
+                    Message.Type.PRIVATE_CHAT,
+                    "服务器",
+                    sender,
+                    "用户 " + receiver + " 不在线，文件发送失败！"
+            ));
+        }
+    }
+
+    /**
+     * 发送方IP + 客户端声明的端口；端口无效或连接已断开时返回null，接收方直连失败后回退为经服务器转发
+     */
+    private static String observedPeerAddress(String declared, ClientSession senderSession) {
+        InetAddress host = senderSession.getRemoteAddress();
+        int colon = declared != null ? declared.lastIndexOf(':') : -1;
+        if (host == null || colon < 0) {
+            return null;
+        }
+        int port;
+        try {
+            port = Integer.parseInt(declared.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (port <= 0 || port > 65535) {
+            return null;
+        }
+        String hostAddress = host instanceof Inet6Address ? "[" + host.getHostAddress() + "]" : host.getHostAddress();
+        return hostAddress + ":" + port;
+    }
+
+    /**
+     * 接收方无法直连发送方：通知发送方改为经服务器转发
+     */
+    public void handleFileFallback(Message message, ClientSession senderSession) {
+        Message fallback = new Message(Message.Type.FILE_FALLBACK, senderSession.getUsername(), message.getReceiver(),
+                message.getFileName(), message.getFileSize(), null);
+        fallback.setTransferToken(message.getTransferToken());
+        clusterNode.deliverPrivate(message.getReceiver(), fallback);
+    }
+
+    /**
+     * 处理文件上传切片：切片暂存到临时文件，收齐后按原类型走私聊/群聊文件流程
+     */
+    public void handleFileChunk(Message chunk, ClientSession senderSession) {
+        Message file;
+        try {
+            file = senderSession.getUploads().accept(chunk);
+        } catch (IOException e) {
+            senderSession.send(new Message(
+                    Message.Type.PRIVATE_CHAT,
+                    "服务器",
+                    senderSession.getUsername(),
+                    "文件[" + chunk.getFileName() + "]上传失败：" + e.getMessage()
+            ));
+            return;
+        }
+        if (file == null) {
+            return; // 尚未收齐
+        }
+        try {
+            if (file.getType() == Message.Type.FILE_PRIVATE) {
+                handlePrivateFile(file, senderSession);
+            } else {
+                handleGroupFile(file, senderSession);
+            }
+        } finally {
+            FileChunks.release(file); // 需要继续持有暂存文件的下行队列、集群出站队列已各自登记
         }
     }
 
     /**
      * 处理群聊文件
      */
-    public void handleGroupFile(Message message, ObjectOutputStream senderOos, String sender) throws IOException {
+    public void handleGroupFile(Message message, ClientSession senderSession) {
+        String sender = senderSession.getUsername();
         String groupName = message.getReceiver();
         Group group = groupManager.getGroupByName(groupName);
 
         if (group == null) {
-            senderOos.writeObject(new Message(
+            senderSession.send(new Message(
                     Message.Type.GROUP_CHAT,
                     "服务器",
                     sender,
                     "群组 " + groupName + " 不存在，文件发送失败！"
             ));
-            senderOos.flush();
             return;
         }
 
-        for (String member : group.getMembers()) {
-            if (!member.equals(sender)) {
-                ObjectOutputStream memberOos = onlineUserManager.getUserOutputStream(member);
-                if (memberOos != null) {
-                    memberOos.writeObject(message);
-                    memberOos.flush();
-                }
-            }
-        }
+        clusterNode.publishGroup(group.getGroupId(), sender, fileFrom(message, sender));
         System.out.println(sender + " 向群[" + groupName + "]发送文件[" + message.getFileName() + "]");
     }
 
+    /**
+     * 以会话用户为发送方重建下发的文件消息，客户端的确认号、客户端序号等字段不再转发；
+     * 数据留在服务器磁盘上的文件（fileData 为null）沿用原消息的数据来源
+     */
+    private static Message fileFrom(Message message, String sender) {
+        Message file = new Message(message.getType(), sender, message.getReceiver(),
+                message.getFileName(), message.getFileSize(), message.getFileData());
+        file.setFileSource(message.getFileSource());
+        file.setContent(message.getContent());
+        file.setGroupId(message.getGroupId());
+        file.setGroupName(message.getGroupName());
+        return file;
+    }
+
     /**
      * 处理窗口抖动
      */
-    public void handleShake(Message message, String sender) throws IOException {
+    public void handleShake(Message message, ClientSession senderSession) {
+        String sender = senderSession.getUsername();
         String target = message.getReceiver();
+        Message shake = new Message(Message.Type.SHAKE, sender, target);
 
-        if (onlineUserManager.isUserOnline(target)) {
-            ObjectOutputStream targetOos = onlineUserManager.getUserOutputStream(target);
-            if (targetOos != null) {
-                targetOos.writeObject(message);
-                targetOos.flush();
-                System.out.println(sender + " 向" + target + "发送窗口抖动");
+        if (onlineUserManager.isUserOnlineInCluster(target)) {
+            String node = clusterNode.locate(target);
+            ConversationSequencer.Counter counter = sequencer.privateConversation(sender, target);
+            synchronized (counter) {
+                counter.stamp(shake);
+                clusterNode.deliverPrivate(target, node, shake);
             }
+            System.out.println(sender + " 向" + target + "发送窗口抖动");
         } else {
             Group group = groupManager.getGroupByName(target);
             if (group != null) {
-                for (String member : group.getMembers()) {
-                    if (!member.equals(sender)) {
-                        ObjectOutputStream memberOos = onlineUserManager.getUserOutputStream(member);
-                        if (memberOos != null) {
-                            memberOos.writeObject(message);
-                            memberOos.flush();
-                        }
-                    }
-                }
+                clusterNode.publishGroup(group.getGroupId(), sender, shake);
                 System.out.println(sender + " 向群[" + target + "]发送窗口抖动");
             }
         }
@@ -174,18 +280,28 @@ public class MessageHandler {
     /**
      * 处理创建群聊
      */
-    public void handleCreateGroup(Message message, ObjectOutputStream oos, String sender) throws IOException {
+    public void handleCreateGroup(Message message, ClientSession senderSession) {
+        String sender = senderSession.getUsername();
         String groupName = message.getContent();
+        if (groupName == null || groupName.trim().isEmpty() || groupName.length() > GroupManager.MAX_GROUP_NAME_LENGTH) {
+            senderSession.send(new Message(
+                    Message.Type.GROUP_CHAT,
+                    "服务器",
+                    sender,
+                    "创建群组失败：群名不能为空，且不超过" + GroupManager.MAX_GROUP_NAME_LENGTH + "个字符"
+            ));
+            return;
+        }
         Group group = groupManager.createGroup(groupName);
-        group.addMember(sender);
+        groupManager.joinGroup(group.getGroupId(), sender);
+        clusterNode.publishGroupCreated(group, sender);
 
-        oos.writeObject(new Message(
+        senderSession.send(new Message(
                 Message.Type.GROUP_CHAT,
                 "服务器",
                 sender,
                 "创建群组[" + groupName + "]成功！群ID：" + group.getGroupId()
         ));
-        oos.flush();
 
         broadcastService.broadcastGroupList();
         System.out.println(sender + " 创建群组[" + groupName + "]");
@@ -194,7 +310,7 @@ public class MessageHandler {
     /**
      * 处理查找群聊
      */
-    public void handleSearchGroup(Message message, ObjectOutputStream oos) throws IOException {
+    public void handleSearchGroup(Message message, ClientSession senderSession) {
         String keyword = message.getContent();
         List<Group> groups = groupManager.searchGroups(keyword);
 
@@ -209,39 +325,68 @@ public class MessageHandler {
             }
         }
 
-        oos.writeObject(new Message(
+        senderSession.send(new Message(
                 Message.Type.GROUP_CHAT,
                 "服务器",
                 "",
                 result.toString()
         ));
-        oos.flush();
     }
 
     /**
      * 处理加入群聊
      */
-    public void handleJoinGroup(Message message, ObjectOutputStream oos, String sender) throws IOException {
+    public void handleJoinGroup(Message message, ClientSession senderSession) {
+        String sender = senderSession.getUsername();
         String groupId = message.getReceiver();
 
         if (groupManager.joinGroup(groupId, sender)) {
+            clusterNode.publishGroupJoined(groupId, sender);
             Group group = groupManager.getGroupById(groupId);
-            oos.writeObject(new Message(
+            senderSession.send(new Message(
                     Message.Type.GROUP_CHAT,
                     "服务器",
                     sender,
                     "成功加入群组[" + group.getGroupName() + "]！"
             ));
-            oos.flush();
+            broadcastService.broadcastGroupList(); // 群列表带成员数，合并窗口内的入群只广播一次
             System.out.println(sender + " 加入群组[" + group.getGroupName() + "]");
         } else {
-            oos.writeObject(new Message(
+            senderSession.send(new Message(
                     Message.Type.GROUP_CHAT,
                     "服务器",
                     sender,
                     "加入群组失败，群组不存在！"
             ));
-            oos.flush();
         }
     }
+
+    /**
+     * 处理群成员分页查询：从成员快照（按名称有序）中截取一页，连同总人数返回
+     */
+    public void handleGroupMembers(Message message, ClientSession senderSession) {
+        String groupId = message.getGroupId();
+        Group group = groupId != null ? groupManager.getGroupById(groupId) : null;
+        if (group == null) {
+            senderSession.send(new Message(
+                    Message.Type.GROUP_CHAT,
+                    "服务器",
+                    senderSession.getUsername(),
+                    "查询群成员失败，群组不存在！"
+            ));
+            return;
+        }
+        String[] members = group.memberSnapshot();
+        int limit = message.getPageLimit() > 0 ? Math.min(message.getPageLimit(), memberPageSize) : memberPageSize;
+        int from = Math.min(Math.max(message.getPageOffset(), 0), members.length);
+        int to = Math.min(from + limit, members.length);
+
+        Message page = new Message(Message.Type.GROUP_MEMBERS, "服务器", senderSession.getUsername(), "");
+        page.setGroupId(groupId);
+        page.setGroupName(group.getGroupName());
+        page.setGroupMembers(Arrays.asList(Arrays.copyOfRange(members, from, to)));
+        page.setPageOffset(from);
+        page.setMemberTotal(members.length);
+        senderSession.send(page);
+    }
 }
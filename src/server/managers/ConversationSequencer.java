@@ -0,0 +1,74 @@
+package server.managers;
+
+import common.Message;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 会话序号分配器
+ * 为每个会话（私聊双方或群组）维护单调递增的消息序号
+ * 分配序号与投递需在同一把会话锁内完成，保证接收方看到的序号有序，客户端可据此去重
+ * 会话标识带上本节点ID：集群中各节点独立计数，客户端按“会话@节点”分别去重；
+ * 群会话只由群的归属节点计数，归属节点变化后标识随之变化，客户端重新开始去重
+ *
+ * 计数器只在内存中，进程重启后从1重新开始；节点ID通常不变（默认按端口生成），
+ * 因此标识中还带有每次启动随机生成的纪元，重启后的会话标识与之前不同，客户端不会把新消息当作重复丢弃
+ */
+public class ConversationSequencer {
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final String suffix; // "@节点ID.纪元"
+
+    public ConversationSequencer(String nodeId) {
+        this(nodeId, Integer.toHexString(new SecureRandom().nextInt()));
+    }
+
+    /**
+     * @param epoch 本次启动的纪元，同一节点的两次启动必须不同
+     */
+    public ConversationSequencer(String nodeId, String epoch) {
+        this.suffix = "@" + nodeId + "." + epoch;
+    }
+
+    /**
+     * 会话计数器，调用方需持有该对象的锁再调用 next()（群会话计数器只在该群的邮箱中使用，无需加锁）
+     */
+    public static final class Counter {
+        private final String conversationId;
+        private long lastSeq;
+
+        private Counter(String conversationId) {
+            this.conversationId = conversationId;
+        }
+
+        public String getConversationId() { return conversationId; }
+
+        public long next() {
+            return ++lastSeq;
+        }
+
+        /**
+         * 为消息填写会话标识和下一个会话序号
+         */
+        public void stamp(Message message) {
+            message.setConversationId(conversationId);
+            message.setSeq(next());
+        }
+    }
+
+    /**
+     * 获取私聊会话的计数器（双方共享同一个会话）
+     */
+    public Counter privateConversation(String userA, String userB) {
+        String id = userA.compareTo(userB) <= 0 ? "p:" + userA + "|" + userB : "p:" + userB + "|" + userA;
+        return counters.computeIfAbsent(id + suffix, Counter::new);
+    }
+
+    /**
+     * 获取群聊会话的计数器
+     */
+    public Counter groupConversation(String groupId) {
+        return counters.computeIfAbsent("g:" + groupId + suffix, Counter::new);
+    }
+}
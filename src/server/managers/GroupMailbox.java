@@ -0,0 +1,150 @@
+package server.managers;
+
+import common.Group;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 群组邮箱（单写者 actor）
+ * 一个群的成员变更和群消息排序扇出都作为任务投递到该群的邮箱，由共享线程池按投递顺序逐个执行：
+ * 同一时刻至多一个线程在处理某个群，群内的所有操作天然全序且无需加锁；
+ * 不同的群在线程池中并行，活跃群越多吞吐越高。空闲的邮箱不占用线程
+ *
+ * 邮箱中连续排列的入群/退群合并为一批，只生成一个新的成员快照；
+ * 合并只发生在相邻的变更之间，不会越过其间的群消息，顺序语义不变
+ *
+ * 邮箱同时维护成员编号位图（与成员快照在同一任务中更新），扇出时与在线位图求交集
+ */
+final class GroupMailbox implements Runnable {
+    private static final int BATCH = 64; // 每次调度最多处理的任务数，避免繁忙的群长期占住线程
+    private static final int MAX_MEMBER_BATCH = 4096;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor executor;
+    private final Group group;
+    private final SymbolTable symbols;
+    private final AtomicLong listVersion; // 群列表版本，成员变化后递增
+    private volatile IdBitmap memberIds = IdBitmap.EMPTY; // 只在邮箱任务中替换
+
+    GroupMailbox(Group group, Executor executor, SymbolTable symbols, AtomicLong listVersion) {
+        this.group = group;
+        this.executor = executor;
+        this.symbols = symbols;
+        this.listVersion = listVersion;
+    }
+
+    /**
+     * 成员编号位图（当前快照）
+     */
+    IdBitmap getMemberIds() {
+        return memberIds;
+    }
+
+    /**
+     * 此刻投递的任务执行时该用户是否可能是成员：邮箱空闲时按成员位图判断（不可能是成员时返回false），
+     * 有任务排队或正在执行时成员关系可能即将变化，返回true
+     * 先读调度标记：任务执行完毕后才清除标记，读到清除后的标记时一定能看到该任务更新的位图
+     */
+    boolean mayHaveMember(int id) {
+        return scheduled.get() || !tasks.isEmpty() || memberIds.contains(id);
+    }
+
+    /**
+     * 一次成员变更，执行时连同紧随其后的变更一并应用
+     */
+    private final class MemberChange implements Runnable {
+        final String username;
+        final boolean join;
+
+        MemberChange(String username, boolean join) {
+            this.username = username;
+            this.join = join;
+        }
+
+        @Override
+        public void run() {
+            applyMemberChanges(this);
+        }
+    }
+
+    void join(String username) {
+        tell(new MemberChange(username, true));
+    }
+
+    void leave(String username) {
+        tell(new MemberChange(username, false));
+    }
+
+    /**
+     * 投递任务，未在执行中时提交到线程池
+     */
+    void tell(Runnable task) {
+        tasks.offer(task);
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.out.println("群[" + group.getGroupId() + "]任务执行失败：" + e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // 释放标记后再检查一次，防止与 tell() 交错时漏掉刚投递的任务
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+    }
+
+    /**
+     * 取出紧随其后的成员变更一并应用，只生成一个新快照；同一用户以最后一次变更为准
+     */
+    private void applyMemberChanges(MemberChange first) {
+        Map<String, Boolean> latest = new LinkedHashMap<>();
+        latest.put(first.username, first.join);
+        while (latest.size() < MAX_MEMBER_BATCH && tasks.peek() instanceof MemberChange) {
+            MemberChange change = (MemberChange) tasks.poll(); // 只有当前线程在消费，peek 与 poll 之间不会被取走
+            latest.put(change.username, change.join);
+        }
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (Map.Entry<String, Boolean> entry : latest.entrySet()) {
+            (entry.getValue() ? joined : left).add(entry.getKey());
+        }
+        String[] before = group.memberSnapshot();
+        group.updateMembers(joined, left);
+        if (group.memberSnapshot() != before) { // 无实际变化时保留原快照
+            memberIds = memberIds.update(idsOf(joined), idsOf(left));
+            listVersion.incrementAndGet();
+        }
+    }
+
+    private int[] idsOf(List<String> usernames) {
+        int[] ids = new int[usernames.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = symbols.idOf(usernames.get(i));
+        }
+        return ids;
+    }
+}
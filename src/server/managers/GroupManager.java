@@ -2,20 +2,55 @@ package server.managers;
 
 import common.Group;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 群组管理类
  * 负责群组的创建、查找、成员管理等功能
+ * 每个群有一个邮箱（单写者 actor）：成员变更和群消息扇出都投递到邮箱中按顺序执行，
+ * 群成员只在该群的邮箱任务中修改；入群/退群因此是异步的，但对同一个群而言，
+ * 先投递的变更一定先于后投递的消息生效。成员以不可变快照发布，任何线程都可直接读取
+ * 群ID和成员用户名登记到符号表，快照中保存的是规范实例；另以成员编号位图回答“群里哪些成员在线”
+ * 建群和成员变化都会递增群列表版本号，群列表的编码缓存据此判断是否需要重新编码
  */
 public class GroupManager {
+    public static final int MAX_GROUP_NAME_LENGTH = 64; // 群名最多字符数，建群时检查
+    private static final String DEFAULT_GROUP_NAME = "默认群";
+    // 默认群ID由群名派生，集群中各节点的默认群ID一致
+    private static final String DEFAULT_GROUP_ID =
+            UUID.nameUUIDFromBytes(DEFAULT_GROUP_NAME.getBytes(StandardCharsets.UTF_8)).toString();
+
     private final Map<String, Group> groupMap;
+    private final Map<String, GroupMailbox> mailboxes = new ConcurrentHashMap<>();
+    private final ExecutorService mailboxPool;
+    private final SymbolTable symbols;
+    private final AtomicLong listVersion = new AtomicLong();
 
     public GroupManager() {
+        this(new SymbolTable());
+    }
+
+    public GroupManager(SymbolTable symbols) {
+        this(Integer.getInteger("chat.group.threads", Runtime.getRuntime().availableProcessors()), symbols);
+    }
+
+    public GroupManager(int threads, SymbolTable symbols) {
+        this.symbols = symbols;
+        AtomicInteger counter = new AtomicInteger();
+        this.mailboxPool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "group-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
         this.groupMap = new ConcurrentHashMap<>();
         initializeDefaultGroup();
     }
@@ -24,19 +59,61 @@ public class GroupManager {
      * 初始化默认群组
      */
     private void initializeDefaultGroup() {
-        Group defaultGroup = new Group(UUID.randomUUID().toString(), "默认群");
-        groupMap.put(defaultGroup.getGroupId(), defaultGroup);
+        register(new Group(symbols.intern(DEFAULT_GROUP_ID), DEFAULT_GROUP_NAME));
     }
 
     /**
      * 创建新群组
      */
     public Group createGroup(String groupName) {
-        Group group = new Group(UUID.randomUUID().toString(), groupName);
-        groupMap.put(group.getGroupId(), group);
+        Group group = new Group(symbols.intern(UUID.randomUUID().toString()), groupName);
+        register(group);
         return group;
     }
 
+    /**
+     * 按指定ID创建群组（同步其他节点创建的群组），已存在时返回已有群组
+     */
+    public Group createGroup(String groupId, String groupName) {
+        Group existing = groupMap.get(groupId);
+        if (existing != null) {
+            return existing;
+        }
+        Group group = groupMap.computeIfAbsent(symbols.intern(groupId), id -> {
+            Group created = new Group(id, groupName);
+            mailboxes.put(id, new GroupMailbox(created, mailboxPool, symbols, listVersion));
+            return created;
+        });
+        listVersion.incrementAndGet(); // 群已可见后再递增，编码缓存不会把旧列表记成新版本
+        return group;
+    }
+
+    private void register(Group group) {
+        mailboxes.put(group.getGroupId(), new GroupMailbox(group, mailboxPool, symbols, listVersion));
+        groupMap.put(group.getGroupId(), group);
+        listVersion.incrementAndGet();
+    }
+
+    /**
+     * 把任务投递到群的邮箱，与该群的其他变更和消息按投递顺序依次执行
+     * @return 群不存在时返回false
+     */
+    public boolean submit(String groupId, Runnable task) {
+        GroupMailbox mailbox = mailboxes.get(groupId);
+        if (mailbox == null) {
+            return false;
+        }
+        mailbox.tell(task);
+        return true;
+    }
+
+    /**
+     * 群列表的版本号（建群或任一群成员变化时递增）
+     */
+    public long getListVersion() {
+        return listVersion.get();
+    }
+
     /**
      * 根据群ID获取群组
      */
@@ -75,24 +152,32 @@ public class GroupManager {
     }
 
     /**
-     * 用户加入群组
+     * 用户加入群组（在群的邮箱中生效）
+     * @return 群组不存在时返回false
      */
     public boolean joinGroup(String groupId, String username) {
-        Group group = groupMap.get(groupId);
-        if (group != null) {
-            group.addMember(username);
-            return true;
+        GroupMailbox mailbox = mailboxes.get(groupId);
+        if (mailbox == null) {
+            return false;
         }
-        return false;
+        mailbox.join(symbols.intern(username));
+        return true;
     }
 
     /**
-     * 用户离开群组
+     * 用户加入默认群组
+     */
+    public void joinDefaultGroup(String username) {
+        joinGroup(DEFAULT_GROUP_ID, username);
+    }
+
+    /**
+     * 用户离开群组（在群的邮箱中生效）
      */
     public void leaveGroup(String groupId, String username) {
-        Group group = groupMap.get(groupId);
-        if (group != null) {
-            group.removeMember(username);
+        GroupMailbox mailbox = mailboxes.get(groupId);
+        if (mailbox != null) {
+            mailbox.leave(username);
         }
     }
 
@@ -100,26 +185,41 @@ public class GroupManager {
      * 从所有群组中移除用户
      */
     public void removeUserFromAllGroups(String username) {
-        for (Group group : groupMap.values()) {
-            group.removeMember(username);
+        for (GroupMailbox mailbox : mailboxes.values()) {
+            mailbox.leave(username);
         }
     }
 
     /**
-     * 获取群组的所有成员
+     * 获取群组的所有成员（当前快照）
      */
     public List<String> getGroupMembers(String groupId) {
         Group group = groupMap.get(groupId);
         return group != null ? group.getMembers() : new ArrayList<>();
     }
 
+    /**
+     * 群成员中在线的用户（成员位图与在线位图求交集，不逐个查询在线表）
+     * @param online 在线用户的编号位图
+     * @return 在线成员的用户编号（经符号表换回用户名），群不存在时为空
+     */
+    public int[] getOnlineMemberIds(String groupId, IdBitmap online) {
+        GroupMailbox mailbox = mailboxes.get(groupId);
+        return mailbox != null ? mailbox.getMemberIds().intersect(online) : new int[0];
+    }
+
+    /**
+     * 此刻投递到该群邮箱的任务执行时，用户是否可能是成员（邮箱空闲时直接按成员位图判断，不投递任务）
+     */
+    public boolean mayHaveMember(String groupId, String username) {
+        GroupMailbox mailbox = mailboxes.get(groupId);
+        return mailbox != null && mailbox.mayHaveMember(symbols.idOf(username));
+    }
+
     /**
      * 获取默认群组
      */
     public Group getDefaultGroup() {
-        return groupMap.values().stream()
-                .filter(g -> g.getGroupName().equals("默认群"))
-                .findFirst()
-                .orElse(null);
+        return groupMap.get(DEFAULT_GROUP_ID);
     }
 }
@@ -0,0 +1,331 @@
+package server.managers;
+
+import java.util.Arrays;
+
+/**
+ * 用户编号的压缩位图（Roaring 风格，不可变）
+ * 编号按高 16 位分块，每块按密度选择容器：元素不超过 4096 个时用有序 char 数组，否则用 1024 个 long 的位图。
+ * 修改返回新位图，未改动的块与原位图共用，可作为快照直接发布给任意线程读取。
+ *
+ * 求交集时只比较两边都有的块：位图块按 64 位字做与运算、全零的字直接跳过，
+ * 数组块按序归并（规模悬殊时二分查找）或逐个探测位图，离线成员成批略过，代价与较小一方的规模相当
+ */
+public final class IdBitmap {
+    public static final IdBitmap EMPTY = new IdBitmap(new char[0], new Container[0], 0);
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+    private static final int SKEW = 16; // 数组块规模相差超过此倍数时改用二分查找
+    private static final int[] NONE = new int[0];
+
+    private final char[] keys;             // 各块编号的高 16 位，升序
+    private final Container[] containers;  // 与 keys 一一对应，不含空块
+    private final int cardinality;
+
+    private IdBitmap(char[] keys, Container[] containers, int cardinality) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinality = cardinality;
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean contains(int id) {
+        int index = Arrays.binarySearch(keys, (char) (id >>> 16));
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    public IdBitmap with(int id) {
+        return contains(id) ? this : update(new int[]{id}, NONE);
+    }
+
+    public IdBitmap without(int id) {
+        return contains(id) ? update(NONE, new int[]{id}) : this;
+    }
+
+    /**
+     * 批量加入和移除（两者重叠时以移除为准），只复制受影响的块
+     */
+    public IdBitmap update(int[] added, int[] removed) {
+        int[] add = sortedUnique(added);
+        int[] remove = sortedUnique(removed);
+        if (add.length == 0 && remove.length == 0) {
+            return this;
+        }
+        char[] nextKeys = new char[keys.length + add.length];
+        Container[] nextContainers = new Container[nextKeys.length];
+        int count = 0;
+        int total = 0;
+        int k = 0, a = 0, r = 0;
+        while (k < keys.length || a < add.length || r < remove.length) {
+            int key = Math.min(k < keys.length ? keys[k] : Integer.MAX_VALUE,
+                    Math.min(a < add.length ? add[a] >>> 16 : Integer.MAX_VALUE,
+                            r < remove.length ? remove[r] >>> 16 : Integer.MAX_VALUE));
+            int aEnd = blockEnd(add, a, key);
+            int rEnd = blockEnd(remove, r, key);
+            Container current = k < keys.length && keys[k] == key ? containers[k++] : null;
+            Container next = current;
+            if (aEnd > a || (rEnd > r && current != null)) {
+                next = (current != null ? current : ArrayContainer.EMPTY).apply(add, a, aEnd, remove, r, rEnd);
+            }
+            a = aEnd;
+            r = rEnd;
+            if (next != null) {
+                nextKeys[count] = (char) key;
+                nextContainers[count++] = next;
+                total += next.size();
+            }
+        }
+        return new IdBitmap(Arrays.copyOf(nextKeys, count), Arrays.copyOf(nextContainers, count), total);
+    }
+
+    /**
+     * 两个位图的交集
+     * @return 同时出现在两边的编号，升序
+     */
+    public int[] intersect(IdBitmap other) {
+        int[] out = new int[Math.min(cardinality, other.cardinality)];
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                count = containers[i].intersect(other.containers[j], keys[i] << 16, out, count);
+                i++;
+                j++;
+            }
+        }
+        return count == out.length ? out : Arrays.copyOf(out, count);
+    }
+
+    private static int blockEnd(int[] ids, int from, int key) {
+        int end = from;
+        while (end < ids.length && ids[end] >>> 16 == key) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int[] sortedUnique(int[] ids) {
+        if (ids.length <= 1) {
+            return ids;
+        }
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int n = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[n - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+
+    /**
+     * 一块（低 16 位）的容器，不可变
+     */
+    private interface Container {
+        int size();
+
+        boolean contains(char low);
+
+        /**
+         * 应用 add[a0, a1) 与 remove[r0, r1) 中的变更（只取低 16 位），结果为空时返回null
+         */
+        Container apply(int[] add, int a0, int a1, int[] remove, int r0, int r1);
+
+        /**
+         * 与另一个容器求交集，结果加上 high 后写入 out
+         * @return 写入后的 out 长度
+         */
+        int intersect(Container other, int high, int[] out, int pos);
+    }
+
+    private static final class ArrayContainer implements Container {
+        static final ArrayContainer EMPTY = new ArrayContainer(new char[0]);
+
+        final char[] values; // 升序
+
+        ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, low) >= 0;
+        }
+
+        @Override
+        public Container apply(int[] add, int a0, int a1, int[] remove, int r0, int r1) {
+            char[] merged = new char[values.length + (a1 - a0)];
+            int n = 0, i = 0, a = a0, r = r0;
+            while (i < values.length || a < a1) {
+                int next;
+                if (a >= a1 || (i < values.length && values[i] <= (char) add[a])) {
+                    next = values[i++];
+                    if (a < a1 && (char) add[a] == next) {
+                        a++;
+                    }
+                } else {
+                    next = (char) add[a++];
+                }
+                while (r < r1 && (char) remove[r] < next) {
+                    r++;
+                }
+                if (r < r1 && (char) remove[r] == next) {
+                    continue;
+                }
+                merged[n++] = (char) next;
+            }
+            if (n == 0) {
+                return null;
+            }
+            return n > ARRAY_MAX ? BitmapContainer.of(merged, n) : new ArrayContainer(Arrays.copyOf(merged, n));
+        }
+
+        @Override
+        public int intersect(Container other, int high, int[] out, int pos) {
+            if (other instanceof BitmapContainer) {
+                long[] words = ((BitmapContainer) other).words;
+                for (char low : values) {
+                    if ((words[low >>> 6] & (1L << low)) != 0) {
+                        out[pos++] = high | low;
+                    }
+                }
+                return pos;
+            }
+            char[] theirs = ((ArrayContainer) other).values;
+            if (theirs.length > values.length * SKEW || values.length > theirs.length * SKEW) {
+                return intersectSkewed(values, theirs, high, out, pos);
+            }
+            int i = 0, j = 0;
+            while (i < values.length && j < theirs.length) {
+                if (values[i] < theirs[j]) {
+                    i++;
+                } else if (values[i] > theirs[j]) {
+                    j++;
+                } else {
+                    out[pos++] = high | values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return pos;
+        }
+
+        /**
+         * 两边规模悬殊时遍历较小的一方，在较大的一方中二分查找
+         */
+        private static int intersectSkewed(char[] a, char[] b, int high, int[] out, int pos) {
+            char[] small = a.length <= b.length ? a : b;
+            char[] large = small == a ? b : a;
+            int from = 0;
+            for (char low : small) {
+                int index = Arrays.binarySearch(large, from, large.length, low);
+                if (index >= 0) {
+                    out[pos++] = high | low;
+                    from = index + 1;
+                } else {
+                    from = -index - 1;
+                }
+                if (from >= large.length) {
+                    break;
+                }
+            }
+            return pos;
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+        final long[] words;
+        final int size;
+
+        BitmapContainer(long[] words, int size) {
+            this.words = words;
+            this.size = size;
+        }
+
+        static BitmapContainer of(char[] values, int n) {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < n; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return new BitmapContainer(words, n);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public Container apply(int[] add, int a0, int a1, int[] remove, int r0, int r1) {
+            long[] next = words.clone();
+            int n = size;
+            for (int a = a0; a < a1; a++) {
+                char low = (char) add[a];
+                long bit = 1L << low;
+                if ((next[low >>> 6] & bit) == 0) {
+                    next[low >>> 6] |= bit;
+                    n++;
+                }
+            }
+            for (int r = r0; r < r1; r++) {
+                char low = (char) remove[r];
+                long bit = 1L << low;
+                if ((next[low >>> 6] & bit) != 0) {
+                    next[low >>> 6] &= ~bit;
+                    n--;
+                }
+            }
+            if (n == 0) {
+                return null;
+            }
+            return n > ARRAY_MAX ? new BitmapContainer(next, n) : new ArrayContainer(toArray(next, n));
+        }
+
+        @Override
+        public int intersect(Container other, int high, int[] out, int pos) {
+            if (other instanceof ArrayContainer) {
+                return other.intersect(this, high, out, pos);
+            }
+            long[] theirs = ((BitmapContainer) other).words;
+            for (int w = 0; w < WORDS; w++) {
+                long both = words[w] & theirs[w];
+                while (both != 0) { // 全零的字（整段离线）不进入循环
+                    out[pos++] = high | (w << 6) | Long.numberOfTrailingZeros(both);
+                    both &= both - 1;
+                }
+            }
+            return pos;
+        }
+
+        private static char[] toArray(long[] words, int n) {
+            char[] values = new char[n];
+            int i = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[i++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return values;
+        }
+    }
+}
@@ -1,35 +1,79 @@
 package server.managers;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
+import server.session.ClientSession;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 在线用户管理类
- * 负责管理在线用户及其输出流
+ * 负责管理在线用户及其会话（会话在连接短暂断开期间仍视为在线）
+ * 集群模式下另外记录连接在其他节点上的用户及其所在节点
+ * 用户名以符号表中的规范实例为键，与群成员快照、转发中的消息共用同一个 String；
+ * 本节点在线用户另以编号位图发布，群扇出时与成员位图求交集
+ * 集群在线名册每次变化都递增版本号，在线列表的编码缓存据此判断是否需要重新编码
  */
 public class OnlineUserManager {
-    private final Map<String, ObjectOutputStream> userMap;
+    private final Map<String, ClientSession> userMap;
+    private final Map<String, String> remoteUsers; // 其他节点的在线名册：用户名 → 所在节点ID（仅用于在线列表和节点失联清理，路由走在线目录）
+    private final SymbolTable symbols;
+    private volatile IdBitmap onlineIds = IdBitmap.EMPTY; // 本节点在线用户的编号，持 this 锁替换
+    private final AtomicLong version = new AtomicLong();  // 在名册变更之后递增
 
     public OnlineUserManager() {
+        this(new SymbolTable());
+    }
+
+    public OnlineUserManager(SymbolTable symbols) {
         this.userMap = new ConcurrentHashMap<>();
+        this.remoteUsers = new ConcurrentHashMap<>();
+        this.symbols = symbols;
     }
 
     /**
-     * 添加在线用户
+     * 用户名、群ID的符号表
      */
-    public void addUser(String username, ObjectOutputStream oos) {
-        userMap.put(username, oos);
+    public SymbolTable getSymbols() {
+        return symbols;
     }
 
     /**
-     * 移除在线用户
+     * 原子地添加在线用户，账号已在线时返回false（防止并发登录同一账号）
      */
-    public void removeUser(String username) {
-        userMap.remove(username);
+    public boolean addUserIfAbsent(String username, ClientSession session) {
+        int id = symbols.idOf(username);
+        synchronized (this) {
+            if (userMap.putIfAbsent(symbols.nameOf(id), session) != null) {
+                return false;
+            }
+            onlineIds = onlineIds.with(id);
+            version.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * 用新会话替换指定的旧会话（接管游离会话），旧会话已被替换时返回false
+     */
+    public boolean replaceSession(String username, ClientSession oldSession, ClientSession newSession) {
+        return userMap.replace(username, oldSession, newSession);
+    }
+
+    /**
+     * 移除在线用户（仅当当前会话仍是指定会话时）
+     */
+    public boolean removeUser(String username, ClientSession session) {
+        synchronized (this) {
+            if (!userMap.remove(username, session)) {
+                return false;
+            }
+            onlineIds = onlineIds.without(symbols.idOf(username));
+            version.incrementAndGet();
+            return true;
+        }
     }
 
     /**
@@ -40,9 +84,23 @@ public class OnlineUserManager {
     }
 
     /**
-     * 获取用户的输出流
+     * 集群在线名册的版本号
      */
-    public ObjectOutputStream getUserOutputStream(String username) {
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 本节点在线用户的编号位图（当前快照）
+     */
+    public IdBitmap getOnlineIds() {
+        return onlineIds;
+    }
+
+    /**
+     * 获取用户会话
+     */
+    public ClientSession getSession(String username) {
         return userMap.get(username);
     }
 
@@ -54,9 +112,9 @@ public class OnlineUserManager {
     }
 
     /**
-     * 获取所有在线用户的输出流
+     * 获取所有在线用户的会话
      */
-    public List<ObjectOutputStream> getAllOutputStreams() {
+    public List<ClientSession> getAllSessions() {
         return new ArrayList<>(userMap.values());
     }
 
@@ -67,14 +125,79 @@ public class OnlineUserManager {
         return userMap.size();
     }
 
+    /**
+     * 记录在其他节点上线的用户
+     * @return 此前未记录该用户时返回true
+     */
+    public boolean addRemoteUser(String username, String nodeId) {
+        if (remoteUsers.put(symbols.intern(username), nodeId) != null) {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 移除在其他节点上线的用户（仅当记录的节点一致时）
+     */
+    public boolean removeRemoteUser(String username, String nodeId) {
+        if (!remoteUsers.remove(username, nodeId)) {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 用户是否已在其他节点在线
+     */
+    public boolean isRemoteUser(String username) {
+        return remoteUsers.containsKey(username);
+    }
+
+    /**
+     * 获取某节点上的全部用户
+     */
+    public List<String> getRemoteUsersOn(String nodeId) {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, String> entry : remoteUsers.entrySet()) {
+            if (entry.getValue().equals(nodeId)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用户是否在集群中任一节点在线
+     */
+    public boolean isUserOnlineInCluster(String username) {
+        return userMap.containsKey(username) || remoteUsers.containsKey(username);
+    }
+
+    /**
+     * 获取集群内全部在线用户名
+     */
+    public List<String> getClusterOnlineUsers() {
+        List<String> users = new ArrayList<>(userMap.keySet());
+        for (String username : remoteUsers.keySet()) {
+            if (!userMap.containsKey(username)) {
+                users.add(username);
+            }
+        }
+        return users;
+    }
+
     /**
      * 发送消息给指定用户
+     * @return 用户不在线时返回false
      */
-    public void sendMessageToUser(String username, Object message) throws IOException {
-        ObjectOutputStream oos = userMap.get(username);
-        if (oos != null) {
-            oos.writeObject(message);
-            oos.flush();
+    public boolean sendMessageToUser(String username, Object message) {
+        ClientSession session = userMap.get(username);
+        if (session == null) {
+            return false;
         }
+        session.send(message);
+        return true;
     }
 }
@@ -0,0 +1,65 @@
+package server.managers;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 符号表：用户名、群ID的规范化实例与紧凑整数编号
+ * 同一个名称在服务端只保留一个 String 实例（在线表、群成员快照、转发中的消息共用），
+ * 并分配一个从 0 开始连续递增的编号。编号一经分配不再回收，只登记已认证的用户名和已创建的群ID，
+ * 客户端发来的任意字符串只做查找（canonical），不会撑大符号表
+ */
+public class SymbolTable {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[256]; // 编号 → 名称，只在持锁时扩容和追加
+    private int size;                                  // 由 this 锁保护
+
+    /**
+     * 取名称的编号，首次出现时登记
+     */
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+            }
+            names[size] = name;
+            ids.put(name, size); // 先写数组再发布编号，经 ids 取得编号的线程一定能看到名称
+            return size++;
+        }
+    }
+
+    /**
+     * 编号对应的名称（编号须由 idOf 取得）
+     */
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * 登记名称并返回规范实例
+     */
+    public String intern(String name) {
+        return name != null ? nameOf(idOf(name)) : null;
+    }
+
+    /**
+     * 已登记时返回规范实例，否则原样返回（不登记）
+     */
+    public String canonical(String name) {
+        Integer id = name != null ? ids.get(name) : null;
+        return id != null ? nameOf(id) : name;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
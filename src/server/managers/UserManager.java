@@ -1,21 +1,29 @@
 package server.managers;
 
 import common.Message;
+import server.auth.PasswordHasher;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 用户认证管理类
  * 负责用户注册、登录验证、密码重置等功能
+ * 只保存加盐哈希后的密码；哈希与校验较耗时，由 ClientHandler 投递到认证线程池执行
  */
 public class UserManager {
-    private final Map<String, String> userAuthMap;
+    public static final int MAX_ACCOUNT_LENGTH = 32; // 账号最多字符数，注册时检查
+    private final Map<String, String> userAuthMap; // 账号 → 密码摘要
+    private final PasswordHasher passwordHasher;
 
     public UserManager() {
+        this(new PasswordHasher());
+    }
+
+    public UserManager(PasswordHasher passwordHasher) {
         this.userAuthMap = new ConcurrentHashMap<>();
+        this.passwordHasher = passwordHasher;
     }
 
     /**
@@ -29,8 +37,8 @@ public class UserManager {
      * 验证密码是否正确
      */
     public boolean verifyPassword(String account, String password) {
-        String storedPassword = userAuthMap.get(account);
-        return storedPassword != null && storedPassword.equals(password);
+        String storedHash = userAuthMap.get(account);
+        return storedHash != null && passwordHasher.verify(password, storedHash);
     }
 
     /**
@@ -40,8 +48,7 @@ public class UserManager {
         if (accountExists(account)) {
             return false;
         }
-        userAuthMap.put(account, password);
-        return true;
+        return userAuthMap.putIfAbsent(account, passwordHasher.hash(password)) == null;
     }
 
     /**
@@ -51,83 +58,96 @@ public class UserManager {
         if (!accountExists(account)) {
             return false;
         }
-        userAuthMap.put(account, newPassword);
+        userAuthMap.put(account, passwordHasher.hash(newPassword));
         return true;
     }
 
+    /**
+     * 获取账号的密码摘要（用于集群内同步）
+     */
+    public String getCredential(String account) {
+        return userAuthMap.get(account);
+    }
+
+    /**
+     * 写入其他节点同步过来的密码摘要
+     */
+    public void putCredential(String account, String credential) {
+        if (account != null && credential != null) {
+            userAuthMap.put(account, credential);
+        }
+    }
+
+    /**
+     * 获取全部账号及密码摘要（新节点加入集群时同步）
+     */
+    public Map<String, String> getAllCredentials() {
+        return new HashMap<>(userAuthMap);
+    }
+
     /**
      * 处理注册请求
+     * @param onRegistered 注册成功时执行（如向集群同步新账号），可为null
+     * @return 回复给客户端的消息，由调用方写出
      */
-    public void handleRegister(Message message, ObjectOutputStream oos) throws IOException {
+    public Message handleRegister(Message message, Runnable onRegistered) {
         String account = message.getSender();
         String password = message.getPassword();
 
         if (account == null || account.isEmpty() || password == null || password.isEmpty()) {
-            Message response = new Message(Message.Type.REGISTER_RESPONSE, "服务器", account, "账号或密码不能为空！");
-            oos.writeObject(response);
-            oos.flush();
-            return;
+            return new Message(Message.Type.REGISTER_RESPONSE, "服务器", account, "账号或密码不能为空！");
+        }
+        if (account.trim().isEmpty() || account.length() > MAX_ACCOUNT_LENGTH) {
+            return new Message(Message.Type.REGISTER_RESPONSE, "服务器", account, "账号不能全为空白，且不超过" + MAX_ACCOUNT_LENGTH + "个字符！");
         }
 
         if (registerUser(account, password)) {
-            Message response = new Message(Message.Type.REGISTER_RESPONSE, "服务器", account, "注册成功！请返回登录");
-            oos.writeObject(response);
-            oos.flush();
             System.out.println("用户 " + account + " 注册成功");
-        } else {
-            Message response = new Message(Message.Type.REGISTER_RESPONSE, "服务器", account, "账号已存在，请更换！");
-            oos.writeObject(response);
-            oos.flush();
+            if (onRegistered != null) {
+                onRegistered.run();
+            }
+            return new Message(Message.Type.REGISTER_RESPONSE, "服务器", account, "注册成功！请返回登录");
         }
+        return new Message(Message.Type.REGISTER_RESPONSE, "服务器", account, "账号已存在，请更换！");
     }
 
     /**
      * 处理找回密码请求
+     * @return 回复给客户端的消息，由调用方写出
      */
-    public void handleFindPassword(Message message, ObjectOutputStream oos) throws IOException {
+    public Message handleFindPassword(Message message) {
         String account = message.getSender();
 
         if (account == null || account.isEmpty()) {
-            Message response = new Message(Message.Type.FIND_PASSWORD_RESPONSE, "服务器", account, "账号不能为空！");
-            oos.writeObject(response);
-            oos.flush();
-            return;
+            return new Message(Message.Type.FIND_PASSWORD_RESPONSE, "服务器", account, "账号不能为空！");
         }
 
         if (accountExists(account)) {
-            Message response = new Message(Message.Type.FIND_PASSWORD_RESPONSE, "服务器", account, "账号验证通过！请输入新密码");
-            oos.writeObject(response);
-            oos.flush();
-        } else {
-            Message response = new Message(Message.Type.FIND_PASSWORD_RESPONSE, "服务器", account, "账号不存在，请检查！");
-            oos.writeObject(response);
-            oos.flush();
+            return new Message(Message.Type.FIND_PASSWORD_RESPONSE, "服务器", account, "账号验证通过！请输入新密码");
         }
+        return new Message(Message.Type.FIND_PASSWORD_RESPONSE, "服务器", account, "账号不存在，请检查！");
     }
 
     /**
      * 处理重置密码请求
+     * @param onReset 重置成功时执行（如向集群同步新密码），可为null
+     * @return 回复给客户端的消息，由调用方写出
      */
-    public void handleResetPassword(Message message, ObjectOutputStream oos) throws IOException {
+    public Message handleResetPassword(Message message, Runnable onReset) {
         String account = message.getSender();
         String newPassword = message.getPassword();
 
         if (account == null || account.isEmpty() || newPassword == null || newPassword.isEmpty()) {
-            Message response = new Message(Message.Type.RESET_PASSWORD_RESPONSE, "服务器", account, "账号或新密码不能为空！");
-            oos.writeObject(response);
-            oos.flush();
-            return;
+            return new Message(Message.Type.RESET_PASSWORD_RESPONSE, "服务器", account, "账号或新密码不能为空！");
         }
 
         if (resetPassword(account, newPassword)) {
-            Message response = new Message(Message.Type.RESET_PASSWORD_RESPONSE, "服务器", account, "密码重置成功！请使用新密码登录");
-            oos.writeObject(response);
-            oos.flush();
             System.out.println("用户 " + account + " 密码重置成功");
-        } else {
-            Message response = new Message(Message.Type.RESET_PASSWORD_RESPONSE, "服务器", account, "账号不存在，重置失败！");
-            oos.writeObject(response);
-            oos.flush();
+            if (onReset != null) {
+                onReset.run();
+            }
+            return new Message(Message.Type.RESET_PASSWORD_RESPONSE, "服务器", account, "密码重置成功！请使用新密码登录");
         }
+        return new Message(Message.Type.RESET_PASSWORD_RESPONSE, "服务器", account, "账号不存在，重置失败！");
     }
 }
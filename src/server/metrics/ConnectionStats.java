@@ -0,0 +1,28 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个客户端连接的流量统计
+ */
+public class ConnectionStats {
+    private final String remoteAddress;
+    private final long connectedAt;
+    private volatile String username; // 登录后填写
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder framesIn = new LongAdder();
+
+    ConnectionStats(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+        this.connectedAt = System.currentTimeMillis();
+    }
+
+    public String getRemoteAddress() { return remoteAddress; }
+    public long getConnectedAt() { return connectedAt; }
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+    public long getBytesIn() { return bytesIn.sum(); }
+    public long getBytesOut() { return bytesOut.sum(); }
+    public long getFramesIn() { return framesIn.sum(); }
+}
@@ -0,0 +1,61 @@
+package server.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 统计读取字节数的输入流
+ * 同时记录每帧首字节到达的时刻，用于计算解码耗时（不含等待下一条消息的空闲时间）
+ */
+public class CountingInputStream extends FilterInputStream {
+    private final ServerMetrics metrics;
+    private final ConnectionStats stats;
+    private long frameStartNanos;
+
+    public CountingInputStream(InputStream in, ServerMetrics metrics, ConnectionStats stats) {
+        super(in);
+        this.metrics = metrics;
+        this.stats = stats;
+    }
+
+    /**
+     * 开始读取新的一帧（由读取线程在 readObject 之前调用）
+     */
+    public void beginFrame() {
+        frameStartNanos = 0;
+    }
+
+    /**
+     * 本帧首字节到达的时刻，尚未读到数据时为0
+     */
+    public long getFrameStartNanos() {
+        return frameStartNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            count(n);
+        }
+        return n;
+    }
+
+    private void count(int n) {
+        if (frameStartNanos == 0) {
+            frameStartNanos = System.nanoTime();
+        }
+        metrics.bytesIn.add(n);
+        stats.bytesIn.add(n);
+    }
+}
@@ -0,0 +1,33 @@
+package server.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 统计写出字节数的输出流
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private final ServerMetrics metrics;
+    private final ConnectionStats stats;
+
+    public CountingOutputStream(OutputStream out, ServerMetrics metrics, ConnectionStats stats) {
+        super(out);
+        this.metrics = metrics;
+        this.stats = stats;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        metrics.bytesOut.increment();
+        stats.bytesOut.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len); // FilterOutputStream 默认逐字节写，这里直接整块转发
+        metrics.bytesOut.add(len);
+        stats.bytesOut.add(len);
+    }
+}
@@ -0,0 +1,127 @@
+package server.metrics;
+
+import common.Message;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 服务端运行指标
+ * 热路径上只有 LongAdder 累加和直方图记录，不加锁、不分配对象；
+ * 汇总、排序等开销都留给读取方（管理端口）
+ */
+public class ServerMetrics {
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    private final LongAdder framesIn = new LongAdder();
+    private final Histogram decodeNanos = new Histogram();
+    private final Map<Message.Type, Histogram> handlerNanos = new EnumMap<>(Message.Type.class); // 构造后只读
+    private final Map<Message.Type, LongAdder> throttled = new EnumMap<>(Message.Type.class);   // 构造后只读
+    private final Map<Message.Type, LongAdder> rejected = new EnumMap<>(Message.Type.class);    // 构造后只读
+    private final Histogram fanOutSize = new Histogram();
+    private final Histogram fanOutNanos = new Histogram();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final Set<ConnectionStats> connections = ConcurrentHashMap.newKeySet();
+    private final long startedAt = System.currentTimeMillis();
+
+    public ServerMetrics() {
+        for (Message.Type type : Message.Type.values()) {
+            handlerNanos.put(type, new Histogram());
+            throttled.put(type, new LongAdder());
+            rejected.put(type, new LongAdder());
+        }
+    }
+
+    // ==================== 记录 ====================
+
+    public ConnectionStats openConnection(String remoteAddress) {
+        ConnectionStats stats = new ConnectionStats(remoteAddress);
+        connections.add(stats);
+        return stats;
+    }
+
+    public void closeConnection(ConnectionStats stats) {
+        connections.remove(stats);
+    }
+
+    /**
+     * 记录一帧的解码耗时
+     */
+    public void recordDecode(ConnectionStats stats, long nanos) {
+        framesIn.increment();
+        stats.framesIn.increment();
+        decodeNanos.record(nanos);
+    }
+
+    /**
+     * 记录某类消息的处理耗时
+     */
+    public void recordHandler(Message.Type type, long nanos) {
+        handlerNanos.get(type).record(nanos);
+    }
+
+    /**
+     * 记录一次群扇出的本地接收人数和耗时
+     */
+    public void recordFanOut(int recipients, long nanos) {
+        fanOutSize.record(recipients);
+        fanOutNanos.record(nanos);
+    }
+
+    /**
+     * 记录一次限流延迟（请求被推迟后放行）
+     */
+    public void recordThrottled(Message.Type type) {
+        throttled.get(type).increment();
+    }
+
+    /**
+     * 记录一次限流丢弃
+     */
+    public void recordRejected(Message.Type type) {
+        rejected.get(type).increment();
+    }
+
+    /**
+     * 注册一个按需读取的瞬时值，如队列积压长度
+     */
+    public void registerGauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    // ==================== 读取 ====================
+
+    public long getStartedAt() { return startedAt; }
+    public long getBytesIn() { return bytesIn.sum(); }
+    public long getBytesOut() { return bytesOut.sum(); }
+    public long getFramesIn() { return framesIn.sum(); }
+    public Histogram getDecodeNanos() { return decodeNanos; }
+    public Histogram getHandlerNanos(Message.Type type) { return handlerNanos.get(type); }
+    public long getThrottled(Message.Type type) { return throttled.get(type).sum(); }
+    public long getRejected(Message.Type type) { return rejected.get(type).sum(); }
+    public Histogram getFanOutSize() { return fanOutSize; }
+    public Histogram getFanOutNanos() { return fanOutNanos; }
+
+    /**
+     * 读取全部瞬时值（按名称排序）
+     */
+    public Map<String, Long> readGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    public List<ConnectionStats> getConnections() {
+        return new ArrayList<>(connections);
+    }
+}
@@ -0,0 +1,348 @@
+package server.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文件下行带宽调度（加权公平队列）
+ * 以文件发送者为流：同一个人发出的所有文件（包括群文件向各成员的扇出）同属一条流，
+ * 每个待写出的文件切片按 max(虚拟时间, 该流上一片的完成标签) + 字节数/权重 得到完成标签，
+ * 完成标签最小且未超出其发送者限额的切片先写出（自计时公平队列：虚拟时间取最近一次放行的完成标签）。
+ * 一个人的大文件与其他人的文件按权重轮流占用带宽，谁先开始发送都不能独占出口。
+ * 不是队首的切片不轮询：其写线程等待到被唤醒（或自身限额恢复），切片放行或放弃排队后只唤醒新的队首切片的写线程。
+ * 唤醒在调度器自己的线程上进行：调用方通常持有自己会话的锁，直接唤醒另一个会话会形成交叉加锁。
+ * 每条流只有最早的切片参与选队首；超出限额的流整体移入按恢复时间排序的堆，恢复前不再检查，
+ * 因此找队首是对数时间，与排队切片数无关
+ *
+ * 未配置任何限额时调度不生效，只统计用量。通过系统属性配置：
+ * chat.bandwidth.egressKBps       全局下行文件带宽上限（KB/s），默认 0 不限
+ * chat.bandwidth.userKBps         单个发送者的文件带宽上限（KB/s），默认 0 不限
+ * chat.bandwidth.weight.用户名    该用户的权重，默认 1
+ */
+public class BandwidthScheduler {
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // 等待唤醒的兜底超时
+    private static final int MIN_BURST_BYTES = 256 * 1024;
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(10); // 清理空闲限额桶的间隔
+    private static final Comparator<Ticket> BY_FINISH = (a, b) -> a.finish != b.finish
+            ? Double.compare(a.finish, b.finish) : Long.compare(a.id, b.id);
+
+    /**
+     * 一个等待放行的切片
+     */
+    public static final class Ticket {
+        private final Flow flow;   // 调度不生效时为null
+        private final String sender;
+        private final String receiver;
+        private final int bytes;
+        private final long id;
+        private final double start;
+        private final double finish;
+        private final Runnable waker;
+
+        private Ticket(Flow flow, String sender, String receiver, int bytes, long id, double start, double finish,
+                       Runnable waker) {
+            this.flow = flow;
+            this.sender = sender;
+            this.receiver = receiver;
+            this.bytes = bytes;
+            this.id = id;
+            this.start = start;
+            this.finish = finish;
+            this.waker = waker;
+        }
+    }
+
+    /**
+     * 单个发送者的流
+     */
+    private static final class Flow {
+        final String sender;
+        final double weight;
+        final TokenBucket cap; // 未配置单用户限额时为null
+        final TreeSet<Ticket> queue = new TreeSet<>(BY_FINISH);
+        double lastFinish;
+        boolean throttled; // 已超出限额，在 throttled 堆中等待恢复
+        long resumeAt;
+
+        Flow(String sender, double weight, TokenBucket cap) {
+            this.sender = sender;
+            this.weight = weight;
+            this.cap = cap;
+        }
+    }
+
+    /**
+     * 单个用户的文件流量
+     */
+    public static final class Usage {
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder received = new LongAdder();
+
+        public long getSent() { return sent.sum(); }
+        public long getReceived() { return received.sum(); }
+    }
+
+    private final TokenBucket egress;        // 未配置全局限额时为null
+    private final long userBytesPerSecond;
+    private final boolean shaping;
+    private final int egressBurst;
+    private final int userBurst;
+
+    // 以下字段由 this 锁保护
+    private final Map<String, Flow> flows = new HashMap<>();       // 有排队切片或未用完份额的流
+    private final Map<String, TokenBucket> caps = new HashMap<>(); // 单用户限额，流空闲后保留到额度回满
+    private final TreeSet<Ticket> ready = new TreeSet<>(BY_FINISH);  // 未超出限额的各流最早的切片
+    private final PriorityQueue<Flow> throttled = new PriorityQueue<>((a, b) -> Long.signum(a.resumeAt - b.resumeAt));
+    private double virtualTime;
+    private long nextTicketId;
+    private int waiting;
+    private long lastSweep = System.nanoTime();
+
+    private final Map<String, Usage> usage = new ConcurrentHashMap<>();
+    private final ExecutorService waker; // 调度不生效时为null
+
+    public BandwidthScheduler() {
+        this(Long.getLong("chat.bandwidth.egressKBps", 0L) * 1024,
+                Long.getLong("chat.bandwidth.userKBps", 0L) * 1024);
+    }
+
+    /**
+     * @param egressBytesPerSecond 全局上限，0 表示不限
+     * @param userBytesPerSecond   单个发送者上限，0 表示不限
+     */
+    public BandwidthScheduler(long egressBytesPerSecond, long userBytesPerSecond) {
+        this.egressBurst = burstOf(egressBytesPerSecond);
+        this.userBurst = burstOf(userBytesPerSecond);
+        this.egress = egressBytesPerSecond > 0 ? new TokenBucket(egressBytesPerSecond, egressBurst) : null;
+        this.userBytesPerSecond = userBytesPerSecond;
+        this.shaping = egressBytesPerSecond > 0 || userBytesPerSecond > 0;
+        this.waker = shaping ? Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "bandwidth-wake");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    /**
+     * 突发量取 100ms 的流量，至少能放下几个切片
+     */
+    private static int burstOf(long bytesPerSecond) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_BURST_BYTES, bytesPerSecond / 10));
+    }
+
+    /**
+     * 为即将写出的文件切片排队
+     * @param waker 切片成为队首时在调度器的唤醒线程上调用，唤醒等待放行的写线程
+     */
+    public Ticket request(String sender, String receiver, int bytes, Runnable waker) {
+        if (!shaping) {
+            return new Ticket(null, sender, receiver, bytes, 0, 0, 0, waker);
+        }
+        synchronized (this) {
+            Flow flow = flows.get(sender);
+            if (flow == null) {
+                flow = new Flow(sender, weightOf(sender), userBytesPerSecond > 0
+                        ? caps.computeIfAbsent(sender, k -> new TokenBucket(userBytesPerSecond, userBurst)) : null);
+                flows.put(sender, flow);
+            }
+            double start = Math.max(virtualTime, flow.lastFinish);
+            double finish = start + bytes / flow.weight;
+            flow.lastFinish = finish;
+            Ticket ticket = new Ticket(flow, sender, receiver, bytes, ++nextTicketId, start, finish, waker);
+            Ticket first = flow.queue.isEmpty() ? null : flow.queue.first();
+            flow.queue.add(ticket);
+            waiting++;
+            if (!flow.throttled && flow.queue.first() == ticket) {
+                if (first != null) {
+                    ready.remove(first);
+                }
+                ready.add(ticket);
+            }
+            return ticket;
+        }
+    }
+
+    /**
+     * 尝试放行：该切片是当前可放行的切片中完成标签最小的（队首），且全局额度足够时放行
+     * @return 0 表示已放行，可以写出；否则为最长等待的纳秒数，期间成为队首时经 waker 唤醒，之后再次调用
+     */
+    public long tryGrant(Ticket ticket, long nowNanos) {
+        if (ticket.flow == null) {
+            record(ticket);
+            return 0;
+        }
+        Ticket next;
+        synchronized (this) {
+            if (head(nowNanos) != ticket) {
+                long capWait = capWait(ticket, nowNanos);
+                return capWait > 0 ? capWait : PARK_NANOS; // 自身限额未恢复时按限额等待，否则等队首放行后被唤醒
+            }
+            if (egress != null) {
+                long permits = Math.min(ticket.bytes, egressBurst);
+                long wait = egress.waitNanos(nowNanos, permits);
+                if (wait > 0) {
+                    return wait;
+                }
+                egress.take(nowNanos, permits);
+            }
+            if (ticket.flow.cap != null) {
+                ticket.flow.cap.take(nowNanos, Math.min(ticket.bytes, userBurst));
+            }
+            virtualTime = ticket.finish;
+            remove(ticket);
+            if (nowNanos - lastSweep > SWEEP_NANOS) {
+                sweep(nowNanos);
+            }
+            next = head(nowNanos);
+        }
+        record(ticket);
+        wake(next);
+        return 0;
+    }
+
+    /**
+     * 放弃排队（写线程转去写高优先级消息或连接已断开）
+     * 若是该流最后排队的切片则退回其完成标签，下次排队不吃亏
+     */
+    public void cancel(Ticket ticket) {
+        if (ticket.flow == null) {
+            return;
+        }
+        Ticket next;
+        synchronized (this) {
+            if (!ticket.flow.queue.contains(ticket)) {
+                return;
+            }
+            boolean wasHead = head(System.nanoTime()) == ticket;
+            if (ticket.flow.lastFinish == ticket.finish) {
+                ticket.flow.lastFinish = ticket.start;
+            }
+            remove(ticket);
+            next = wasHead ? head(System.nanoTime()) : null;
+        }
+        wake(next);
+    }
+
+    public boolean isShaping() {
+        return shaping;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * 保留中的单用户限额桶数
+     */
+    synchronized int getTrackedCaps() {
+        return caps.size();
+    }
+
+    /**
+     * 各用户的文件流量（快照）
+     */
+    public Map<String, Usage> getUsage() {
+        return new HashMap<>(usage);
+    }
+
+    /**
+     * 当前排队切片数最多的发送者
+     */
+    public synchronized List<String> getBusiestSenders(int limit) {
+        List<Flow> active = new ArrayList<>(flows.values());
+        active.sort((a, b) -> Integer.compare(b.queue.size(), a.queue.size()));
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, active.size()) && !active.get(i).queue.isEmpty(); i++) {
+            result.add(active.get(i).sender + "(" + active.get(i).queue.size() + ")");
+        }
+        return result;
+    }
+
+    /**
+     * 队首：完成标签最小且未超出发送者限额的切片，都超出限额时为null（持有 this 锁时调用）
+     */
+    private Ticket head(long nowNanos) {
+        while (!throttled.isEmpty() && throttled.peek().resumeAt - nowNanos <= 0) {
+            Flow flow = throttled.poll();
+            flow.throttled = false;
+            if (!flow.queue.isEmpty()) {
+                ready.add(flow.queue.first());
+            }
+        }
+        while (!ready.isEmpty()) {
+            Ticket candidate = ready.first();
+            long wait = capWait(candidate, nowNanos);
+            if (wait == 0) {
+                return candidate;
+            }
+            ready.pollFirst(); // 限额恢复之前这条流的切片都不可能成为队首
+            candidate.flow.throttled = true;
+            candidate.flow.resumeAt = nowNanos + wait;
+            throttled.add(candidate.flow);
+        }
+        return null;
+    }
+
+    private void wake(Ticket ticket) {
+        if (ticket != null && ticket.waker != null) {
+            waker.execute(ticket.waker);
+        }
+    }
+
+    private long capWait(Ticket ticket, long nowNanos) {
+        TokenBucket cap = ticket.flow.cap;
+        return cap == null ? 0 : cap.waitNanos(nowNanos, Math.min(ticket.bytes, userBurst));
+    }
+
+    private void remove(Ticket ticket) {
+        Flow flow = ticket.flow;
+        boolean first = flow.queue.first() == ticket;
+        flow.queue.remove(ticket);
+        waiting--;
+        if (first) {
+            ready.remove(ticket);
+            if (!flow.throttled && !flow.queue.isEmpty()) {
+                ready.add(flow.queue.first());
+            }
+        }
+        if (flow.queue.isEmpty() && flow.lastFinish <= virtualTime) {
+            flows.remove(flow.sender); // 没有排队也没有未用完的份额，下次从当前虚拟时间重新开始
+        }
+    }
+
+    /**
+     * 丢弃空闲且额度已回满的限额桶：满桶与新建的桶等价，丢弃不改变限额效果
+     */
+    private void sweep(long nowNanos) {
+        lastSweep = nowNanos;
+        caps.entrySet().removeIf(e -> !flows.containsKey(e.getKey()) && e.getValue().waitNanos(nowNanos, userBurst) == 0);
+    }
+
+    private void record(Ticket ticket) {
+        usage.computeIfAbsent(ticket.sender, k -> new Usage()).sent.add(ticket.bytes);
+        usage.computeIfAbsent(ticket.receiver, k -> new Usage()).received.add(ticket.bytes);
+    }
+
+    private static double weightOf(String sender) {
+        String value = System.getProperty("chat.bandwidth.weight." + sender);
+        if (value == null) {
+            return 1;
+        }
+        try {
+            double weight = Double.parseDouble(value);
+            return weight > 0 ? weight : 1;
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
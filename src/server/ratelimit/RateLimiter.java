@@ -0,0 +1,140 @@
+package server.ratelimit;
+
+import common.Message;
+import server.metrics.ServerMetrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 按用户、按消息类型限流
+ * 每个会话对每种消息类型各有一个令牌桶，未单独配置的类型共用该会话的默认桶；
+ * 略微超速的请求在本连接线程中短暂等待（只拖慢该用户自己），超过最长等待则丢弃并提示
+ *
+ * 通过系统属性配置，格式为“每秒速率:突发量”，off 表示不限：
+ * chat.ratelimit.enabled         是否启用，默认 true
+ * chat.ratelimit.maxDelayMillis  超速时最长等待，默认 200
+ * chat.ratelimit.default         未单独配置的类型
+ * chat.ratelimit.类型名          如 chat.ratelimit.SHAKE=0.5:2
+ */
+public class RateLimiter {
+    private static final long NOTICE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int DEFAULT_SLOT = Message.Type.values().length;
+
+    /** 不参与限流的类型 */
+    private static final Limit UNLIMITED = new Limit(0, 0);
+
+    private static final class Limit {
+        final double rate;
+        final int burst;
+
+        Limit(double rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * 单个会话的令牌桶，随会话创建，按需填充
+     */
+    public static final class UserBuckets {
+        private final AtomicReferenceArray<TokenBucket> buckets = new AtomicReferenceArray<>(DEFAULT_SLOT + 1);
+        private final AtomicLong lastNoticeAt = new AtomicLong(System.nanoTime() - NOTICE_INTERVAL_NANOS);
+    }
+
+    private final boolean enabled;
+    private final long maxDelayNanos;
+    private final Limit defaultLimit;
+    private final Map<Message.Type, Limit> limits = new EnumMap<>(Message.Type.class); // 构造后只读
+    private final ServerMetrics metrics;
+
+    public RateLimiter(ServerMetrics metrics) {
+        this.metrics = metrics;
+        this.enabled = Boolean.parseBoolean(System.getProperty("chat.ratelimit.enabled", "true"));
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.ratelimit.maxDelayMillis", 200L));
+        this.defaultLimit = parse(System.getProperty("chat.ratelimit.default", "30:60"));
+
+        limits.put(Message.Type.ACK, UNLIMITED);
+        limits.put(Message.Type.LOGOUT, UNLIMITED);
+        configure(Message.Type.PRIVATE_CHAT, "20:40");
+        configure(Message.Type.GROUP_CHAT, "10:20");
+        configure(Message.Type.SHAKE, "0.5:2");
+        configure(Message.Type.FILE_PRIVATE, "1:3");
+        configure(Message.Type.FILE_GROUP, "0.5:2");
+        configure(Message.Type.FILE_OFFER, "1:3");
+        configure(Message.Type.FILE_FALLBACK, "1:3");
+        configure(Message.Type.CREATE_GROUP, "0.2:3");
+        configure(Message.Type.SEARCH_GROUP, "2:5");
+        configure(Message.Type.JOIN_GROUP, "2:10");
+        configure(Message.Type.GET_ONLINE_USERS, "1:3");
+        configure(Message.Type.MCAST_SUBSCRIBE, "1:5");
+        configure(Message.Type.MCAST_NACK, "20:50");
+        configure(Message.Type.PRESENCE_SUBSCRIBE, "2:10");
+        configure(Message.Type.GROUP_MEMBERS, "5:20");
+        configure(Message.Type.FILE_CHUNK, "40:80"); // 上传切片的第二片起，首片按所属文件类型计
+        for (Message.Type type : Message.Type.values()) {
+            String value = System.getProperty("chat.ratelimit." + type.name());
+            if (value != null) {
+                limits.put(type, parse(value));
+            }
+        }
+    }
+
+    /**
+     * 为一条已登录用户的请求取令牌
+     * @return 0 表示直接放行；正数表示需要等待的纳秒数（等待后放行）；-1 表示超限，应丢弃
+     */
+    public long acquire(UserBuckets userBuckets, Message.Type type) {
+        if (!enabled) {
+            return 0;
+        }
+        Limit limit = limits.get(type);
+        int slot = type.ordinal();
+        if (limit == null) {
+            limit = defaultLimit;
+            slot = DEFAULT_SLOT;
+        }
+        if (limit == UNLIMITED) {
+            return 0;
+        }
+
+        TokenBucket bucket = userBuckets.buckets.get(slot);
+        if (bucket == null) {
+            userBuckets.buckets.compareAndSet(slot, null, new TokenBucket(limit.rate, limit.burst));
+            bucket = userBuckets.buckets.get(slot);
+        }
+        long wait = bucket.acquire(System.nanoTime(), maxDelayNanos);
+        if (wait > 0) {
+            metrics.recordThrottled(type);
+        } else if (wait < 0) {
+            metrics.recordRejected(type);
+        }
+        return wait;
+    }
+
+    /**
+     * 被丢弃时是否需要提示用户（每个会话每秒最多提示一次，避免提示本身造成放大）
+     */
+    public boolean shouldNotify(UserBuckets userBuckets) {
+        long now = System.nanoTime();
+        long last = userBuckets.lastNoticeAt.get();
+        return now - last >= NOTICE_INTERVAL_NANOS && userBuckets.lastNoticeAt.compareAndSet(last, now);
+    }
+
+    private void configure(Message.Type type, String defaultValue) {
+        limits.put(type, parse(defaultValue));
+    }
+
+    private static Limit parse(String value) {
+        if ("off".equalsIgnoreCase(value.trim())) {
+            return UNLIMITED;
+        }
+        String[] parts = value.split(":");
+        double rate = Double.parseDouble(parts[0].trim());
+        int burst = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : Math.max(1, (int) Math.ceil(rate));
+        return new Limit(rate, burst);
+    }
+}
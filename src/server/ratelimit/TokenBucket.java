@@ -0,0 +1,70 @@
+package server.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ * 采用 GCRA（通用信元速率算法）表示：只保存“理论到达时间”一个值，
+ * 每取一个令牌就把它向后推一个发放间隔，超出当前时间太多（超过突发容忍量）即为超限。
+ * 与常规令牌桶等价，但状态只有一个 long，一次 CAS 即可完成，不需要加锁
+ */
+public class TokenBucket {
+    private final long intervalNanos;   // 发放一个令牌的间隔
+    private final long toleranceNanos;  // 突发容忍量：(突发量 - 1) 个间隔
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param permitsPerSecond 持续速率
+     * @param burst            允许的突发量（桶容量），至少为1
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("速率必须大于0，突发量至少为1");
+        }
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime()); // 初始为满桶
+    }
+
+    /**
+     * 取一个令牌；令牌不足时允许预约，最多等待 maxWaitNanos
+     * @return 0 表示立即取得；正数表示已预约，调用方需等待的纳秒数；-1 表示超过最长等待，未取令牌
+     */
+    public long acquire(long nowNanos, long maxWaitNanos) {
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long start = tat - nowNanos > 0 ? tat : nowNanos; // 用差值比较，nanoTime 溢出时仍然正确
+            long wait = start - nowNanos - toleranceNanos;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (theoreticalArrival.compareAndSet(tat, start + intervalNanos)) {
+                return wait > 0 ? wait : 0;
+            }
+        }
+    }
+
+    /**
+     * 取 permits 个令牌需要等待的纳秒数（只查询，不取令牌）
+     * permits 不应超过突发量，否则永远无法立即取得
+     */
+    public long waitNanos(long nowNanos, long permits) {
+        long tat = theoreticalArrival.get();
+        long start = tat - nowNanos > 0 ? tat : nowNanos;
+        long wait = start + (permits - 1) * intervalNanos - nowNanos - toleranceNanos;
+        return wait > 0 ? wait : 0;
+    }
+
+    /**
+     * 取 permits 个令牌，不做检查（调用方已通过 waitNanos 确认可取）
+     */
+    public void take(long nowNanos, long permits) {
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long start = tat - nowNanos > 0 ? tat : nowNanos;
+            if (theoreticalArrival.compareAndSet(tat, start + permits * intervalNanos)) {
+                return;
+            }
+        }
+    }
+}
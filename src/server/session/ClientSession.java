@@ -0,0 +1,391 @@
+package server.session;
+
+import common.FileChunks;
+import common.Message;
+import server.ratelimit.BandwidthScheduler;
+import server.ratelimit.RateLimiter;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端会话
+ * 会话独立于TCP连接存在：连接断开后会话进入“游离”状态并继续缓存下发的消息，
+ * 客户端凭恢复令牌重连后接管会话，只补发其未收到的消息
+ *
+ * 每个下发给客户端的帧都有一个会话内递增的序号（从1开始），客户端按收到的帧计数即可与服务端对齐
+ * 客户端随上行消息捎带累计确认（ackSeq），已确认的帧从补发缓存中移除，缓存中只保留未确认的帧；
+ * 反方向上，客户端定时发来的 ACK 会换回一条携带已接受的最大上行序号的 ACK 帧（只在该序号前进时发送），
+ * 客户端据此清理其已发送缓存
+ *
+ * send() 只把帧放入分道队列，由每个连接专属的写线程按“控制 > 交互 > 文件切片”的优先级写出，
+ * 发送方（包括群消息扇出）不会被慢连接或大文件阻塞；帧序号在真正写出时分配，与客户端的计数一致
+ * 文件切片写出前须经带宽调度放行，各发送者的文件按权重公平分享下行带宽
+ * 排队帧数超过上限的慢连接直接断开，会话随即过期，客户端需重新登录
+ */
+public class ClientSession {
+    private static final int DEFAULT_REPLAY_CAPACITY = 1024;
+    private static final int MAX_REPLAY_FILE_BYTES = 1024 * 1024;
+    private static final int MAX_QUEUED_FRAMES = Integer.getInteger("chat.session.maxQueuedFrames", 8192);
+    // ObjectOutputStream 会持有写出过的每个对象，定期 reset 释放句柄表（文件切片尤其需要）
+    private static final int RESET_INTERVAL_FRAMES = 256;
+    private static final long RESET_INTERVAL_BYTES = 1024 * 1024;
+
+    private final String username;
+    private final int replayCapacity;
+    private volatile String resumeToken;
+    private final RateLimiter.UserBuckets rateBuckets = new RateLimiter.UserBuckets(); // 随会话保留，重连不重置
+    private final UploadSpool uploads = new UploadSpool();      // 进行中的切片上传，随会话保留
+    private final BandwidthScheduler bandwidth;
+    private volatile boolean multicastSubscribed; // 客户端已收到组播，广播帧不再经TCP下发
+
+    // 以下字段由 this 锁保护
+    private ObjectOutputStream oos;          // 当前连接的输出流，游离时为null
+    private Socket socket;                   // 当前连接
+    private long deliveredSeq;               // 已下发的最大帧序号
+    private final ArrayDeque<Object> replayBuffer = new ArrayDeque<>(); // 未确认的帧，用于断线补发
+    private long detachedAt;                 // 进入游离状态的时间，0表示未游离
+    private long lastClientSeq;              // 已接受的最大客户端上行序号
+    private long confirmedClientSeq;         // 已用 ACK 帧告知客户端的上行序号
+    private final OutboundLanes outbound = new OutboundLanes(); // 待写出的帧，重连后继续写出
+    private boolean overflowed;              // 排队帧数超限，会话已作废
+
+    public ClientSession(String username, String resumeToken, BandwidthScheduler bandwidth) {
+        this(username, resumeToken, Integer.getInteger("chat.session.replayCapacity", DEFAULT_REPLAY_CAPACITY), bandwidth);
+    }
+
+    public ClientSession(String username, String resumeToken, int replayCapacity, BandwidthScheduler bandwidth) {
+        this.username = username;
+        this.resumeToken = resumeToken;
+        this.replayCapacity = replayCapacity;
+        this.bandwidth = bandwidth;
+    }
+
+    public String getUsername() { return username; }
+    public String getResumeToken() { return resumeToken; }
+    public RateLimiter.UserBuckets getRateBuckets() { return rateBuckets; }
+    public UploadSpool getUploads() { return uploads; }
+    void setResumeToken(String resumeToken) { this.resumeToken = resumeToken; }
+    public boolean isMulticastSubscribed() { return multicastSubscribed; }
+    public void setMulticastSubscribed(boolean multicastSubscribed) { this.multicastSubscribed = multicastSubscribed; }
+
+    /**
+     * 当前连接的对端IP（服务器观察到的地址），游离状态下为null
+     */
+    public synchronized InetAddress getRemoteAddress() {
+        return socket != null ? socket.getInetAddress() : null;
+    }
+
+    /**
+     * 向会话下发一帧：只入队不写出，游离状态下排队等待重连
+     */
+    public synchronized void send(Object frame) {
+        if (overflowed) {
+            return;
+        }
+        if (outbound.size() >= MAX_QUEUED_FRAMES) {
+            overflow();
+            return;
+        }
+        outbound.add(oos == null ? toReplayable(frame) : frame); // 游离期间大文件只排队一条提示
+        notifyAll();
+    }
+
+    /**
+     * 排队中等待写出的帧数
+     */
+    public synchronized int getQueuedFrames() {
+        return outbound.size();
+    }
+
+    /**
+     * 将会话绑定到新连接：先写出握手响应，再补发 lastSeenSeq 之后的帧
+     * 若旧连接仍然存在则将其关闭（漫游/重连接管），之后由新连接的写线程继续写出排队中的帧
+     * @return 缓存不足以补齐缺口或会话已作废时返回false，会话保持原状
+     */
+    public synchronized boolean attach(ObjectOutputStream newOos, Socket newSocket,
+                                       Message response, long lastSeenSeq) throws IOException {
+        long firstBufferedSeq = deliveredSeq - replayBuffer.size() + 1;
+        if (overflowed || lastSeenSeq > deliveredSeq || lastSeenSeq + 1 < firstBufferedSeq) {
+            return false;
+        }
+        if (socket != null && socket != newSocket) {
+            closeQuietly(socket);
+        }
+        oos = newOos;
+        socket = newSocket;
+        detachedAt = 0;
+
+        newOos.writeObject(response);
+        long seq = firstBufferedSeq;
+        for (Iterator<Object> it = replayBuffer.iterator(); it.hasNext(); seq++) {
+            Object frame = it.next();
+            if (seq > lastSeenSeq) {
+                newOos.writeObject(frame);
+            }
+        }
+        newOos.flush();
+        trimAcknowledged(lastSeenSeq);
+        startWriter(newOos);
+        return true;
+    }
+
+    /**
+     * 已接受的最大客户端上行序号（会话恢复时告知客户端，便于其重发丢失的上行消息）
+     */
+    public synchronized long getLastClientSeq() {
+        return lastClientSeq;
+    }
+
+    /**
+     * 处理客户端的累计确认，丢弃已确认的帧
+     */
+    public synchronized void acknowledge(long ackSeq) {
+        if (ackSeq > 0) {
+            trimAcknowledged(Math.min(ackSeq, deliveredSeq));
+        }
+    }
+
+    /**
+     * 回应客户端的 ACK：已接受的上行序号比上次告知的更大时，下发一条携带该序号的 ACK 帧
+     */
+    public synchronized void confirmClientSeq() {
+        if (lastClientSeq > confirmedClientSeq) {
+            confirmedClientSeq = lastClientSeq;
+            Message ack = new Message(Message.Type.ACK, "服务器", username);
+            ack.setAckSeq(lastClientSeq);
+            send(ack);
+        }
+    }
+
+    /**
+     * 上行消息去重：客户端重连后会重发未确认的消息，序号不大于已接受序号的视为重复
+     * @return 首次收到返回true，重复返回false
+     */
+    public synchronized boolean acceptClientSeq(long clientSeq) {
+        if (clientSeq <= 0) {
+            return true;
+        }
+        if (clientSeq <= lastClientSeq) {
+            return false;
+        }
+        lastClientSeq = clientSeq;
+        return true;
+    }
+
+    /**
+     * 连接断开时调用，仅当该连接仍是会话的当前连接时才转入游离状态
+     * @return 是否由此次调用转入游离状态
+     */
+    public synchronized boolean detach(Socket closedSocket) {
+        if (socket != closedSocket) {
+            return false;
+        }
+        oos = null;
+        socket = null;
+        detachedAt = System.currentTimeMillis();
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * 游离超过指定时长则视为过期
+     */
+    public synchronized boolean isExpired(long now, long ttlMillis) {
+        return overflowed || detachedAt > 0 && now - detachedAt >= ttlMillis;
+    }
+
+    /**
+     * 是否处于游离状态（连接已断开，等待恢复）
+     */
+    public synchronized boolean isDetached() {
+        return detachedAt > 0;
+    }
+
+    /**
+     * 已下发的最大帧序号
+     */
+    public synchronized long getDeliveredSeq() {
+        return deliveredSeq;
+    }
+
+    /**
+     * 关闭当前连接（会话结束时调用）
+     */
+    public synchronized void close() {
+        if (socket != null) {
+            closeQuietly(socket);
+        }
+        oos = null;
+        socket = null;
+        outbound.clear();
+        uploads.discardAll();
+        notifyAll();
+    }
+
+    private void trimAcknowledged(long ackSeq) {
+        long firstBufferedSeq = deliveredSeq - replayBuffer.size() + 1;
+        while (!replayBuffer.isEmpty() && firstBufferedSeq <= ackSeq) {
+            replayBuffer.removeFirst();
+            firstBufferedSeq++;
+        }
+    }
+
+    private void markBroken() {
+        closeQuietly(socket);
+        oos = null;
+        socket = null;
+        detachedAt = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    /**
+     * 客户端长期不读取导致积压：丢弃排队的帧并断开连接，会话在下一次清理时过期
+     */
+    private void overflow() {
+        overflowed = true;
+        outbound.clear();
+        replayBuffer.clear();
+        if (detachedAt == 0) {
+            markBroken();
+        }
+        System.out.println(username + " 的下行积压超过 " + MAX_QUEUED_FRAMES + " 帧，断开连接");
+    }
+
+    private void startWriter(ObjectOutputStream out) {
+        Thread writer = new Thread(() -> writeLoop(out), "session-writer-" + username);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 写线程：连接切换或断开后（oos 不再是本线程的流）退出
+     * 取帧和分配序号在会话锁内完成，写出在锁外进行，与登录前的直接回复共用输出流的锁
+     * 等待带宽放行期间若有高优先级消息到达，放弃排队先写高优先级消息
+     */
+    private void writeLoop(ObjectOutputStream out) {
+        int framesSinceReset = 0;
+        long bytesSinceReset = 0;
+        BandwidthScheduler.Ticket ticket = null;
+        try {
+            while (true) {
+                Object frame;
+                boolean flush;
+                synchronized (this) {
+                    while (true) {
+                        if (oos != out) {
+                            return;
+                        }
+                        if (outbound.hasUrgent()) {
+                            if (ticket != null) {
+                                bandwidth.cancel(ticket);
+                                ticket = null;
+                            }
+                            break;
+                        }
+                        Message file = outbound.peekBulk();
+                        if (file == null) {
+                            wait();
+                            continue;
+                        }
+                        if (ticket == null) {
+                            ticket = bandwidth.request(file.getSender(), username, outbound.nextBulkBytes(), this::wakeWriter);
+                        }
+                        long delay = bandwidth.tryGrant(ticket, System.nanoTime());
+                        if (delay == 0) {
+                            ticket = null;
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, delay);
+                    }
+                    frame = outbound.poll();
+                    deliveredSeq++;
+                    replayBuffer.addLast(toReplayable(frame));
+                    if (replayBuffer.size() > replayCapacity) {
+                        replayBuffer.removeFirst();
+                    }
+                    flush = !outbound.hasUrgent();
+                }
+                framesSinceReset++;
+                bytesSinceReset += fileBytes(frame);
+                synchronized (out) {
+                    out.writeObject(frame);
+                    if (framesSinceReset >= RESET_INTERVAL_FRAMES || bytesSinceReset >= RESET_INTERVAL_BYTES) {
+                        out.reset();
+                        framesSinceReset = 0;
+                        bytesSinceReset = 0;
+                    }
+                    if (flush) {
+                        out.flush();
+                    }
+                }
+            }
+        } catch (IOException | UncheckedIOException e) { // 写出失败，或读取暂存的文件切片失败
+            synchronized (this) {
+                if (oos == out) {
+                    markBroken();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (ticket != null) {
+                bandwidth.cancel(ticket);
+            }
+        }
+    }
+
+    /**
+     * 带宽调度器在本会话的切片成为队首时调用（在调度器的唤醒线程上）
+     */
+    private synchronized void wakeWriter() {
+        notifyAll();
+    }
+
+    private static long fileBytes(Object frame) {
+        return frame instanceof Message ? FileChunks.length((Message) frame) : 0;
+    }
+
+    /**
+     * 大文件不进入补发缓存，以一条提示代替，避免游离会话占用过多内存
+     * 大文件的切片只保留不含数据的占位，帧序号保持连续，客户端收到后提示对方重发
+     */
+    private Object toReplayable(Object frame) {
+        if (frame instanceof Message) {
+            Message message = (Message) frame;
+            if (message.getType() == Message.Type.FILE_CHUNK) {
+                return message.getFileSize() > MAX_REPLAY_FILE_BYTES ? withoutData(message) : message;
+            }
+            if (FileChunks.length(message) > MAX_REPLAY_FILE_BYTES) {
+                return new Message(Message.Type.PRIVATE_CHAT, "服务器", username,
+                        message.getSender() + " 发送的文件[" + message.getFileName() + "]在断线期间未能送达，请让对方重新发送");
+            }
+        }
+        return frame;
+    }
+
+    private static Message withoutData(Message chunk) {
+        Message placeholder = new Message(Message.Type.FILE_CHUNK, chunk.getSender(), chunk.getReceiver(),
+                chunk.getFileName(), chunk.getFileSize(), null);
+        placeholder.setConversationId(chunk.getConversationId());
+        placeholder.setSeq(chunk.getSeq());
+        placeholder.setTransferId(chunk.getTransferId());
+        placeholder.setChunkIndex(chunk.getChunkIndex());
+        placeholder.setChunkCount(chunk.getChunkCount());
+        placeholder.setChunkOf(chunk.getChunkOf());
+        return placeholder;
+    }
+
+    private static void closeQuietly(Socket s) {
+        try {
+            if (s != null) s.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package server.session;
+
+import common.FileChunks;
+import common.Message;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 会话的下行分道队列（非线程安全，由所属会话的锁保护）
+ * 控制/在线状态类消息最先写出，其次是聊天、抖动等交互消息，文件数据最后；
+ * 大文件按固定大小切片（FILE_CHUNK）逐片取出，每写完一片都会重新检查高优先级分道，
+ * 聊天消息最多只需等待一个切片的写出时间
+ * 数据在磁盘上的文件（见 SpooledFile）入队时增加一个持有者，最后一个切片取出或队列清空时释放；
+ * 这类文件总是切片写出，不会整条进入补发缓存
+ */
+final class OutboundLanes {
+    static final int SLICE_BYTES = Integer.getInteger("chat.session.sliceBytes", 64 * 1024);
+
+    private final ArrayDeque<Object> control = new ArrayDeque<>();
+    private final ArrayDeque<Object> interactive = new ArrayDeque<>();
+    private final ArrayDeque<Object> bulk = new ArrayDeque<>();
+    private final String transferPrefix = Long.toHexString(ThreadLocalRandom.current().nextLong()) + "-";
+    private long nextTransferId;
+    private Slicer slicing; // 正在切片写出的文件
+
+    void add(Object frame) {
+        FileChunks.retain(frame);
+        laneOf(frame).addLast(frame);
+    }
+
+    /**
+     * 取出下一帧：控制 > 交互 > 文件切片
+     */
+    Object poll() {
+        if (!control.isEmpty()) {
+            return control.pollFirst();
+        }
+        if (!interactive.isEmpty()) {
+            return interactive.pollFirst();
+        }
+        if (slicing == null) {
+            Object next = bulk.pollFirst();
+            if (!needsSlicing(next)) {
+                return next;
+            }
+            slicing = new Slicer((Message) next, transferPrefix + (++nextTransferId));
+        }
+        Message chunk = slicing.next();
+        if (slicing.isDone()) {
+            FileChunks.release(slicing.file);
+            slicing = null;
+        }
+        return chunk;
+    }
+
+    /**
+     * 下一个要写出的文件（正在切片的文件或文件分道队首），没有则返回null
+     */
+    Message peekBulk() {
+        return slicing != null ? slicing.file : (Message) bulk.peekFirst();
+    }
+
+    /**
+     * 下一次从文件分道取出的字节数（一个切片或整个小文件）
+     */
+    int nextBulkBytes() {
+        if (slicing != null) {
+            return slicing.nextBytes();
+        }
+        Message next = (Message) bulk.peekFirst();
+        if (next == null) {
+            return 0;
+        }
+        return needsSlicing(next) ? SLICE_BYTES : (int) FileChunks.length(next);
+    }
+
+    /**
+     * 是否还有控制或交互消息等待写出（没有时写出方应立即 flush）
+     */
+    boolean hasUrgent() {
+        return !control.isEmpty() || !interactive.isEmpty();
+    }
+
+    boolean isEmpty() {
+        return !hasUrgent() && bulk.isEmpty() && slicing == null;
+    }
+
+    /**
+     * 排队中的帧数（切片中的文件计为一帧）
+     */
+    int size() {
+        return control.size() + interactive.size() + bulk.size() + (slicing != null ? 1 : 0);
+    }
+
+    void clear() {
+        control.clear();
+        interactive.clear();
+        for (Object frame : bulk) {
+            FileChunks.release(frame);
+        }
+        bulk.clear();
+        if (slicing != null) {
+            FileChunks.release(slicing.file);
+        }
+        slicing = null;
+    }
+
+    private ArrayDeque<Object> laneOf(Object frame) {
+        if (!(frame instanceof Message)) {
+            return control;
+        }
+        switch (((Message) frame).getType()) {
+            case FILE_PRIVATE:
+            case FILE_GROUP:
+            case FILE_CHUNK: // 其他节点转发来的切片
+                return bulk;
+            case PRIVATE_CHAT:
+            case GROUP_CHAT:
+            case SHAKE:
+            case FILE_OFFER:
+            case FILE_FALLBACK:
+                return interactive;
+            default:
+                return control;
+        }
+    }
+
+    private static boolean needsSlicing(Object frame) {
+        if (!(frame instanceof Message) || ((Message) frame).getType() == Message.Type.FILE_CHUNK) {
+            return false;
+        }
+        Message message = (Message) frame;
+        return message.getFileSource() != null || FileChunks.length(message) > SLICE_BYTES;
+    }
+
+    /**
+     * 单个文件的切片游标；各切片带上原消息的会话序号等信息，客户端收齐后还原为原消息
+     * 切片中的文件大小取实际数据长度，客户端据此分配重组缓冲区
+     */
+    private static final class Slicer {
+        private final Message file;
+        private final String transferId;
+        private final int chunkCount;
+        private int nextIndex;
+
+        Slicer(Message file, String transferId) {
+            this.file = file;
+            this.transferId = transferId;
+            this.chunkCount = FileChunks.count(file, SLICE_BYTES);
+        }
+
+        Message next() {
+            return FileChunks.slice(file, transferId, nextIndex++, chunkCount, SLICE_BYTES);
+        }
+
+        int nextBytes() {
+            return (int) Math.min(SLICE_BYTES, FileChunks.length(file) - (long) nextIndex * SLICE_BYTES);
+        }
+
+        boolean isDone() {
+            return nextIndex >= chunkCount;
+        }
+    }
+}
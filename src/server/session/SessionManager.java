@@ -0,0 +1,142 @@
+package server.session;
+
+import server.broadcast.BroadcastService;
+import server.cluster.ClusterNode;
+import server.managers.GroupManager;
+import server.managers.OnlineUserManager;
+import server.ratelimit.BandwidthScheduler;
+
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话管理类
+ * 负责签发/轮换恢复令牌，并在游离会话超时后执行真正的下线流程
+ */
+public class SessionManager {
+    private static final long DEFAULT_RESUME_TTL_MILLIS = 30_000L;
+    private static final long REAP_INTERVAL_MILLIS = 1_000L;
+
+    private final Map<String, ClientSession> tokenIndex = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long resumeTtlMillis;
+    private final ScheduledExecutorService reaper;
+
+    private final OnlineUserManager onlineUserManager;
+    private final GroupManager groupManager;
+    private final BroadcastService broadcastService;
+    private final ClusterNode clusterNode;
+    private final BandwidthScheduler bandwidth;
+
+    public SessionManager(OnlineUserManager onlineUserManager,
+                          GroupManager groupManager,
+                          BroadcastService broadcastService,
+                          ClusterNode clusterNode,
+                          BandwidthScheduler bandwidth) {
+        this.onlineUserManager = onlineUserManager;
+        this.groupManager = groupManager;
+        this.broadcastService = broadcastService;
+        this.clusterNode = clusterNode;
+        this.bandwidth = bandwidth;
+        this.resumeTtlMillis = Long.getLong("chat.session.resumeTtlMillis", DEFAULT_RESUME_TTL_MILLIS);
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleWithFixedDelay(this::expireDetachedSessions,
+                REAP_INTERVAL_MILLIS, REAP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 为登录成功的用户创建会话并签发恢复令牌
+     */
+    public ClientSession createSession(String username) {
+        ClientSession session = new ClientSession(username, newToken(), bandwidth);
+        tokenIndex.put(session.getResumeToken(), session);
+        return session;
+    }
+
+    /**
+     * 根据恢复令牌查找会话（令牌不存在或会话已结束返回null）
+     */
+    public ClientSession findByToken(String token) {
+        return token == null ? null : tokenIndex.get(token);
+    }
+
+    /**
+     * 轮换恢复令牌，旧令牌立即失效（每次恢复成功后调用，防止令牌被重放）
+     */
+    public String rotateToken(ClientSession session) {
+        String newToken = newToken();
+        tokenIndex.remove(session.getResumeToken());
+        session.setResumeToken(newToken);
+        tokenIndex.put(newToken, session);
+        return newToken;
+    }
+
+    /**
+     * 连接断开：会话进入游离状态，在有效期内可被恢复，期间不广播下线
+     */
+    public void detach(ClientSession session, Socket socket) {
+        session.detach(socket);
+    }
+
+    /**
+     * 丢弃会话但不执行下线流程（同一账号重新登录接管游离会话时使用）
+     */
+    public void discard(ClientSession session) {
+        tokenIndex.remove(session.getResumeToken());
+        session.close();
+    }
+
+    /**
+     * 结束会话并执行下线流程：移出在线列表和群组，通知订阅者下线
+     */
+    public void endSession(ClientSession session) {
+        tokenIndex.remove(session.getResumeToken());
+        session.close();
+
+        String username = session.getUsername();
+        if (!onlineUserManager.removeUser(username, session)) {
+            return;
+        }
+        // 先通知再退群：正在查看其所在群的订阅者按群成员关系找到
+        broadcastService.broadcastOfflineNotify(username);
+        broadcastService.getPresence().remove(username);
+        groupManager.removeUserFromAllGroups(username);
+        // 名单是所有客户端的选择列表，仍发给所有人；合并窗口内只广播一次，见 BroadcastService
+        broadcastService.broadcastOnlineUsers();
+        broadcastService.broadcastGroupList();
+        clusterNode.publishOffline(username);
+        System.out.println(username + " 已下线，当前在线人数：" + onlineUserManager.getOnlineUserCount());
+    }
+
+    /**
+     * 清理超过恢复有效期的游离会话
+     */
+    private void expireDetachedSessions() {
+        long now = System.currentTimeMillis();
+        for (ClientSession session : onlineUserManager.getAllSessions()) {
+            if (session.isExpired(now, resumeTtlMillis)) {
+                endSession(session);
+            }
+        }
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public void shutdown() {
+        reaper.shutdown();
+    }
+}
@@ -0,0 +1,75 @@
+package server.session;
+
+import common.FileChunks;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 收齐的上传文件：数据留在临时文件中，下发时按切片读取，不整体读入内存
+ * 同一个文件可能同时被多个接收方的下行队列、集群出站队列引用，按引用计数管理（见 FileChunks.Source）：
+ * 创建时的引用属于上传的处理方，处理方交给各持有者后释放，最后一个持有者释放时立即删除临时文件
+ */
+final class SpooledFile implements FileChunks.Source {
+    private final Path path;
+    private final long size;
+    private final AtomicInteger holders = new AtomicInteger(1);
+
+    SpooledFile(Path path, long size) {
+        this.path = path;
+        this.size = size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public byte[] read(long offset, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("暂存文件不完整：" + path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return data;
+    }
+
+    /**
+     * @throws IllegalStateException 文件已经删除（持有者在释放之后又使用，属于程序错误）
+     */
+    @Override
+    public void retain() {
+        int current;
+        do {
+            current = holders.get();
+            if (current <= 0) {
+                throw new IllegalStateException("暂存文件已删除：" + path);
+            }
+        } while (!holders.compareAndSet(current, current + 1));
+    }
+
+    @Override
+    public void release() {
+        if (holders.decrementAndGet() == 0) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.out.println("删除上传暂存文件失败：" + e.getMessage());
+            }
+        }
+    }
+}
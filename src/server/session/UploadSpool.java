@@ -0,0 +1,155 @@
+package server.session;
+
+import common.Message;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 上传切片暂存（每个会话一个）
+ * 超过一个切片的文件由客户端切成 FILE_CHUNK 上传，服务器按顺序把切片追加到临时文件，内存中只有正在处理的一片；
+ * 收齐后还原为一条数据留在临时文件中的文件消息（见 SpooledFile），交给原有的私聊/群聊文件流程，下发时逐片读取
+ *
+ * 单个文件的大小通过系统属性 chat.upload.maxBytes 配置，默认 64MB；每个会话同时进行的上传不超过 MAX_UPLOADS 个。
+ * 切片乱序、大小不符或超出上限时丢弃该上传，会话结束时丢弃全部未完成的上传
+ */
+public class UploadSpool {
+    private static final int MAX_UPLOADS = 4;
+    private static final int MAX_TRANSFER_ID_LENGTH = 64;
+
+    private final long maxBytes = Long.getLong("chat.upload.maxBytes", 64L * 1024 * 1024);
+    private final Map<String, Upload> uploads = new HashMap<>(); // 由 this 锁保护
+
+    /**
+     * 一个进行中的上传
+     */
+    private static final class Upload {
+        final Message first;
+        final Path path;
+        final OutputStream out;
+        long written;
+        int nextIndex;
+
+        Upload(Message first, Path path) throws IOException {
+            this.first = first;
+            this.path = path;
+            this.out = new BufferedOutputStream(Files.newOutputStream(path));
+        }
+
+        void discard() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 处理一个上传切片
+     * @return 最后一片到达时返回还原后的文件消息（数据留在临时文件中），其余切片返回null
+     * @throws IOException 切片无效或写入失败，该上传已丢弃
+     */
+    public synchronized Message accept(Message chunk) throws IOException {
+        String transferId = chunk.getTransferId();
+        byte[] data = chunk.getFileData();
+        if (transferId == null || transferId.length() > MAX_TRANSFER_ID_LENGTH || data == null) {
+            throw new IOException("切片格式无效");
+        }
+        Upload upload = uploads.get(transferId);
+        if (chunk.getChunkIndex() == 0) {
+            if (upload != null) {
+                uploads.remove(transferId).discard(); // 客户端重新开始上传
+            }
+            upload = start(chunk);
+        } else if (upload == null || chunk.getChunkIndex() != upload.nextIndex) {
+            discard(transferId);
+            throw new IOException("切片缺失或乱序");
+        }
+
+        if (upload.written + data.length > upload.first.getFileSize()) {
+            discard(transferId);
+            throw new IOException("切片超出文件大小");
+        }
+        try {
+            upload.out.write(data);
+        } catch (IOException e) {
+            discard(transferId);
+            throw e;
+        }
+        upload.written += data.length;
+        upload.nextIndex++;
+        chunk.setFileData(null); // 首片作为上传的头部信息保留，不再持有数据
+        if (upload.nextIndex < upload.first.getChunkCount()) {
+            return null;
+        }
+
+        uploads.remove(transferId);
+        try {
+            upload.out.close();
+        } catch (IOException e) {
+            upload.discard();
+            throw e;
+        }
+        if (upload.written != upload.first.getFileSize()) {
+            upload.discard();
+            throw new IOException("文件不完整");
+        }
+        return restore(upload.first, new SpooledFile(upload.path, upload.written));
+    }
+
+    /**
+     * 会话结束：丢弃全部未完成的上传
+     */
+    public synchronized void discardAll() {
+        for (Upload upload : uploads.values()) {
+            upload.discard();
+        }
+        uploads.clear();
+    }
+
+    private Upload start(Message chunk) throws IOException {
+        Message.Type type = chunk.getChunkOf();
+        if (type != Message.Type.FILE_PRIVATE && type != Message.Type.FILE_GROUP) {
+            throw new IOException("切片类型无效");
+        }
+        long size = chunk.getFileSize();
+        if (size <= 0 || size > maxBytes) {
+            throw new IOException("文件超过上传上限 " + (maxBytes / 1024 / 1024) + "MB");
+        }
+        if (chunk.getChunkCount() <= 0 || chunk.getChunkCount() > size) {
+            throw new IOException("切片数无效");
+        }
+        if (uploads.size() >= MAX_UPLOADS) {
+            throw new IOException("同时上传的文件过多");
+        }
+        Upload upload = new Upload(chunk, Files.createTempFile("chat-upload-", ".part"));
+        uploads.put(chunk.getTransferId(), upload);
+        return upload;
+    }
+
+    private static Message restore(Message first, SpooledFile data) {
+        Message file = new Message(first.getChunkOf(), first.getSender(), first.getReceiver(),
+                first.getFileName(), data.size(), null);
+        file.setFileSource(data);
+        file.setContent(first.getContent());
+        file.setGroupId(first.getGroupId());
+        file.setGroupName(first.getGroupName());
+        return file;
+    }
+
+    private void discard(String transferId) {
+        Upload upload = uploads.remove(transferId);
+        if (upload != null) {
+            upload.discard();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package client.managers;
+
+import common.Message;
+import org.junit.Test;
+import server.managers.ConversationSequencer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryTrackerTest {
+    private final DeliveryTracker tracker = new DeliveryTracker();
+
+    @Test
+    public void dropsDuplicates() {
+        assertTrue(tracker.accept(message("c", 1)));
+        assertTrue(tracker.accept(message("c", 2)));
+        assertFalse(tracker.accept(message("c", 2)));
+        assertFalse(tracker.accept(message("c", 1)));
+    }
+
+    @Test
+    public void acceptsOutOfOrderSeqsOnce() {
+        assertTrue(tracker.accept(message("c", 5)));
+        assertTrue(tracker.accept(message("c", 3))); // 文件分道晚到
+        assertTrue(tracker.accept(message("c", 4)));
+        assertFalse(tracker.accept(message("c", 3)));
+        assertFalse(tracker.accept(message("c", 4)));
+        assertTrue(tracker.accept(message("c", 1)));
+        assertTrue(tracker.accept(message("c", 2)));
+    }
+
+    @Test
+    public void shiftsTheWindowAcrossWordBoundaries() {
+        assertTrue(tracker.accept(message("c", 1)));
+        assertTrue(tracker.accept(message("c", 70)));   // 移动不足一个字
+        assertTrue(tracker.accept(message("c", 200)));  // 跨越多个字
+        assertFalse(tracker.accept(message("c", 1)));
+        assertFalse(tracker.accept(message("c", 70)));
+        assertTrue(tracker.accept(message("c", 69)));
+        assertTrue(tracker.accept(message("c", 199)));
+        assertFalse(tracker.accept(message("c", 200)));
+    }
+
+    @Test
+    public void seqsOlderThanTheWindowAreDuplicates() {
+        assertTrue(tracker.accept(message("c", 2000)));
+        assertTrue(tracker.accept(message("c", 2000 - 1023)));
+        assertFalse(tracker.accept(message("c", 2000 - 1024)));
+        // 一次移动超过整个窗口后旧记录全部清空，窗口内的新序号仍可接受
+        assertTrue(tracker.accept(message("c", 5000)));
+        assertTrue(tracker.accept(message("c", 4000)));
+        assertFalse(tracker.accept(message("c", 2000)));
+    }
+
+    @Test
+    public void conversationsAreTrackedSeparately() {
+        assertTrue(tracker.accept(message("a", 1)));
+        assertTrue(tracker.accept(message("b", 1)));
+        assertFalse(tracker.accept(message("a", 1)));
+    }
+
+    @Test
+    public void unsequencedMessagesAreAlwaysAccepted() {
+        assertTrue(tracker.accept(message(null, 1)));
+        assertTrue(tracker.accept(message(null, 1)));
+        assertTrue(tracker.accept(message("c", 0)));
+        assertTrue(tracker.accept(message("c", 0)));
+    }
+
+    @Test
+    public void restartedServerCountersAreNotTakenForDuplicates() {
+        Message before = new Message(Message.Type.PRIVATE_CHAT, "alice", "bob", "重启前");
+        ConversationSequencer.Counter counter = new ConversationSequencer("node-8888").privateConversation("alice", "bob");
+        for (int i = 0; i < 50; i++) {
+            counter.stamp(before);
+            assertTrue(tracker.accept(before));
+        }
+
+        // 同一节点重启：计数器从1开始，但会话标识不同
+        Message after = new Message(Message.Type.PRIVATE_CHAT, "alice", "bob", "重启后");
+        new ConversationSequencer("node-8888").privateConversation("alice", "bob").stamp(after);
+        assertNotEquals(before.getConversationId(), after.getConversationId());
+        assertTrue(tracker.accept(after));
+    }
+
+    private static Message message(String conversationId, long seq) {
+        Message message = new Message(Message.Type.PRIVATE_CHAT, "alice", "bob", "hi");
+        message.setConversationId(conversationId);
+        message.setSeq(seq);
+        return message;
+    }
+}
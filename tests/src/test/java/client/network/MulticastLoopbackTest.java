@@ -0,0 +1,230 @@
+package client.network;
+
+import common.Message;
+import common.MulticastSeal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.broadcast.MulticastPublisher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 在本机回环网卡上收发组播：发布端与接收端经真实的组播数据报通信，上行（订阅、补发请求）由替身连接记录
+ */
+public class MulticastLoopbackTest {
+    private static final String GROUP = "239.255.42.77";
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final BlockingQueue<Message> delivered = new LinkedBlockingQueue<>();
+    private final List<MulticastPublisher> publishers = new ArrayList<>();
+    private UplinkRecorder uplink;
+    private MulticastReceiver receiver;
+    private String previousInterface;
+    private int port;
+
+    /**
+     * 记录接收器经TCP发出的订阅和补发请求
+     */
+    private static final class UplinkRecorder extends NetworkManager {
+        final BlockingQueue<Message> sent = new LinkedBlockingQueue<>();
+
+        UplinkRecorder() {
+            super(null, "127.0.0.1");
+        }
+
+        @Override
+        public void sendMessage(Message message) {
+            sent.add(message);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        Message next(Message.Type type) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (true) {
+                Message message = sent.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (message == null || message.getType() == type) {
+                    return message;
+                }
+            }
+        }
+    }
+
+    @Before
+    public void joinLoopback() throws IOException {
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        assumeTrue("没有可用的回环网卡", loopback != null && isUp(loopback)); // Linux 的 lo 没有 MULTICAST 标志，但本机组播可用
+        previousInterface = System.getProperty("chat.multicast.interface");
+        System.setProperty("chat.multicast.interface", loopback.getName());
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort(); // 借用一个空闲端口号作为组播端口
+        }
+        uplink = new UplinkRecorder();
+    }
+
+    @After
+    public void close() {
+        if (receiver != null) {
+            receiver.close();
+        }
+        for (MulticastPublisher publisher : publishers) {
+            publisher.shutdown();
+        }
+        if (previousInterface == null) {
+            System.clearProperty("chat.multicast.interface");
+        } else {
+            System.setProperty("chat.multicast.interface", previousInterface);
+        }
+    }
+
+    @Test
+    public void dropsDatagramsSealedWithAnotherKey() throws Exception {
+        MulticastPublisher publisher = publisher();
+        open(publisher);
+
+        // 纪元正确但密钥不对：校验失败，不解码也不触发订阅
+        send(new MulticastSeal(MulticastSeal.newKey()), frame(publisher.getEpoch(), 1, "伪造"));
+        publisher.publish(chat("真的"));
+
+        assertEquals("真的", next().getContent());
+        Message subscribe = uplink.next(Message.Type.MCAST_SUBSCRIBE);
+        assertNotNull(subscribe);
+        assertEquals(1, subscribe.getMulticastSeq());
+        assertNull(delivered.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void requestsMissingFramesOverTcpAndDeliversInOrder() throws Exception {
+        MulticastPublisher publisher = publisher();
+        open(publisher);
+        MulticastSeal seal = new MulticastSeal(publisher.getKey());
+        long epoch = publisher.getEpoch();
+
+        // 以发布端的密钥发出 1、3、4，模拟 2 在网络上丢失
+        send(seal, frame(epoch, 1, "消息 1"));
+        assertEquals("消息 1", next().getContent());
+        send(seal, frame(epoch, 3, "消息 3"));
+        send(seal, frame(epoch, 4, "消息 4"));
+
+        Message nack = uplink.next(Message.Type.MCAST_NACK);
+        assertNotNull("缺号持续后应经TCP请求补发", nack);
+        assertEquals(epoch, nack.getMulticastEpoch());
+        assertEquals(2, nack.getMulticastSeq());
+        assertEquals(1, nack.getMulticastCount());
+        assertNull("缺口补齐之前后面的帧不交付", delivered.poll(100, TimeUnit.MILLISECONDS));
+
+        receiver.onUnicast(frame(epoch, 2, "消息 2")); // 服务器从补发缓存经TCP下发
+        assertEquals("消息 2", next().getContent());
+        assertEquals("消息 3", next().getContent());
+        assertEquals("消息 4", next().getContent());
+
+        send(seal, frame(epoch, 3, "消息 3")); // 重复的帧丢弃
+        assertNull(delivered.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void followsTheNewEpochAfterReset() throws Exception {
+        MulticastPublisher old = publisher();
+        open(old);
+        old.publish(chat("旧纪元 1"));
+        assertEquals("旧纪元 1", next().getContent());
+        assertEquals(old.getEpoch(), uplink.next(Message.Type.MCAST_SUBSCRIBE).getMulticastEpoch());
+
+        // 服务端重启：同一组播地址上出现新纪元的发布端，重新登录之前其帧无法通过校验
+        MulticastPublisher restarted = publisher();
+        restarted.publish(chat("新纪元 1"));
+        assertNull(delivered.poll(300, TimeUnit.MILLISECONDS));
+
+        receiver.reset(restarted.getEpoch(), restarted.getKey());
+        old.publish(chat("旧纪元 2"));
+        restarted.publish(chat("新纪元 2"));
+        assertEquals("新纪元 2", next().getContent());
+        Message subscribe = uplink.next(Message.Type.MCAST_SUBSCRIBE);
+        assertEquals(restarted.getEpoch(), subscribe.getMulticastEpoch());
+        assertEquals(2, subscribe.getMulticastSeq());
+        assertNull(delivered.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private MulticastPublisher publisher() {
+        MulticastPublisher publisher = new MulticastPublisher(GROUP, port,
+                System.getProperty("chat.multicast.interface"), 1, 64);
+        assumeTrue("无法打开组播发送端", publisher.isEnabled());
+        publishers.add(publisher);
+        return publisher;
+    }
+
+    private void open(MulticastPublisher publisher) {
+        receiver = MulticastReceiver.open(GROUP + ":" + port, publisher.getEpoch(), publisher.getKey(), uplink,
+                "bob", delivered::add);
+        assumeTrue("无法加入组播组", receiver != null);
+    }
+
+    private Message next() throws InterruptedException {
+        Message message = delivered.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull("未按时收到组播帧", message);
+        return message;
+    }
+
+    private static Message chat(String content) {
+        return new Message(Message.Type.GROUP_CHAT, "alice", "默认群", content);
+    }
+
+    private static Message frame(long epoch, long seq, String content) {
+        Message message = chat(content);
+        message.setMulticastEpoch(epoch);
+        message.setMulticastSeq(seq);
+        return message;
+    }
+
+    /**
+     * 与 MulticastPublisher 相同的编码：单独序列化后加上校验码
+     */
+    private void send(MulticastSeal seal, Message message) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(message);
+        }
+        try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF,
+                    NetworkInterface.getByName(System.getProperty("chat.multicast.interface")));
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            channel.send(ByteBuffer.wrap(seal.seal(buffer.toByteArray())),
+                    new InetSocketAddress(InetAddress.getByName(GROUP), port));
+        }
+    }
+
+    private static boolean isUp(NetworkInterface nif) {
+        try {
+            return nif.isUp();
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package client.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PeerFileTransferTest {
+    private final List<File> files = new ArrayList<>();
+    private PeerFileTransfer transfer;
+
+    @Before
+    public void limitOffersAndServes() {
+        System.setProperty("chat.p2p.maxOffers", "2");
+        System.setProperty("chat.p2p.maxServes", "1");
+        transfer = PeerFileTransfer.start("127.0.0.1");
+        assertNotNull(transfer);
+    }
+
+    @After
+    public void close() {
+        transfer.close();
+        System.clearProperty("chat.p2p.maxOffers");
+        System.clearProperty("chat.p2p.maxServes");
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void servesTheFileFromDiskOnce() throws IOException {
+        byte[] data = bytes(300 * 1024);
+        File file = write(data);
+        String token = transfer.offer("bob", file);
+
+        assertArrayEquals(data, PeerFileTransfer.download(transfer.getAddress(), token, data.length));
+        assertNull("令牌只能使用一次", PeerFileTransfer.download(transfer.getAddress(), token, data.length));
+    }
+
+    @Test
+    public void fallsBackOnceTheOfferCapIsReached() throws IOException {
+        File file = write(bytes(16));
+        assertNotNull(transfer.offer("bob", file));
+        String second = transfer.offer("carol", file);
+        assertNotNull(second);
+        assertNull("待拉取的文件已达上限", transfer.offer("dave", file));
+
+        PeerFileTransfer.Offer taken = transfer.take(second);
+        assertEquals("carol", taken.getReceiver());
+        assertArrayEquals(bytes(16), taken.readData());
+        assertNotNull("取走后空出名额", transfer.offer("dave", file));
+    }
+
+    @Test
+    public void refusesPullsWhileEveryServerIsBusy() throws IOException {
+        byte[] big = bytes(16 * 1024 * 1024);
+        String slowToken = transfer.offer("bob", write(big));
+        byte[] small = bytes(1024);
+        String token = transfer.offer("carol", write(small));
+
+        // 拉取方读到状态后不再读取，唯一的写出线程阻塞在写文件上
+        String address = transfer.getAddress();
+        int colon = address.lastIndexOf(':');
+        try (Socket slow = new Socket()) {
+            slow.connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+            DataOutputStream out = new DataOutputStream(slow.getOutputStream());
+            out.writeUTF(slowToken);
+            out.flush();
+            assertEquals(1, new DataInputStream(slow.getInputStream()).readInt());
+
+            assertNull("写出线程都忙时立即拒绝", PeerFileTransfer.download(address, token, small.length));
+        }
+        assertArrayEquals(small, pullEventually(address, token, small.length));
+    }
+
+    /**
+     * 前一个连接断开后写出线程才空闲
+     */
+    private static byte[] pullEventually(String address, String token, int size) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        byte[] data;
+        while ((data = PeerFileTransfer.download(address, token, size)) == null
+                && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        return data;
+    }
+
+    private File write(byte[] data) throws IOException {
+        File file = Files.createTempFile("chat-p2p-test-", ".bin").toFile();
+        files.add(file);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,231 @@
+package common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameInputStreamTest {
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+    private static final DecodeFilter CLIENT_TYPES = new DecodeFilter(Message.class, Message.Type.class, RoutedEnvelope.class);
+
+    private final SlabPool pool = new SlabPool(MAX_FRAME_BYTES, 16 * 1024, 0);
+
+    /** 不在白名单中的类 */
+    static final class Foreign implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    @Test
+    public void readsOneMessagePerFrameAndReturnsBuffers() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SymbolOutputStream out = new SymbolOutputStream(new FrameOutputStream(bytes))) {
+            for (int i = 0; i < 10; i++) {
+                out.writeObject(new RoutedEnvelope(Message.Type.PRIVATE_CHAT, "alice", "bob", "消息 " + i));
+                out.flush();
+            }
+        }
+
+        FrameInputStream frames = new FrameInputStream(new ByteArrayInputStream(bytes.toByteArray()), MAX_FRAME_BYTES, pool);
+        ObjectInputStream in = new SymbolInputStream(frames);
+        assertTrue(frames.guard(in, CLIENT_TYPES));
+        for (int i = 0; i < 10; i++) {
+            frames.beginMessage();
+            Message message = (Message) in.readObject();
+            assertEquals("消息 " + i, message.getContent());
+            assertEquals(0, frames.available()); // 帧读完即归还
+        }
+        assertEquals(16 * 1024, pool.getAllocatedBytes()); // 始终复用同一块 slab 中的缓冲区
+        frames.beginMessage();
+        try {
+            in.readObject();
+            fail("流已结束");
+        } catch (EOFException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void rejectsOversizedFramesBeforeAllocating() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SymbolOutputStream out = new SymbolOutputStream(new FrameOutputStream(bytes))) {
+            out.writeObject(new Message(Message.Type.FILE_PRIVATE, "alice", "bob", "a.bin", MAX_FRAME_BYTES, new byte[MAX_FRAME_BYTES]));
+        }
+        FrameInputStream frames = new FrameInputStream(new ByteArrayInputStream(bytes.toByteArray()), MAX_FRAME_BYTES, pool);
+        try {
+            new SymbolInputStream(frames);
+            fail("超过上限的帧应被拒绝");
+        } catch (StreamCorruptedException expected) {
+            assertTrue(expected.getMessage().contains("帧长度无效"));
+        }
+        assertEquals(0, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void rejectsEmptyAndNegativeFrameLengths() throws IOException {
+        for (byte[] header : new byte[][]{{0, 0, 0, 0}, {(byte) 0x80, 0, 0, 0}, {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}}) {
+            FrameInputStream frames = new FrameInputStream(new ByteArrayInputStream(header), MAX_FRAME_BYTES, pool);
+            try {
+                frames.read();
+                fail("帧长度 " + Arrays.toString(header) + " 应被拒绝");
+            } catch (StreamCorruptedException expected) {
+                // 预期
+            }
+        }
+        assertEquals(0, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void truncatedFramesFailAndReleaseTheBuffer() throws IOException {
+        byte[] truncated = {0, 0, 0, 10, 1, 2, 3};
+        FrameInputStream frames = new FrameInputStream(new ByteArrayInputStream(truncated), MAX_FRAME_BYTES, pool);
+        try {
+            frames.read();
+            fail("帧内容不完整");
+        } catch (EOFException expected) {
+            // 预期
+        }
+        FrameInputStream header = new FrameInputStream(new ByteArrayInputStream(new byte[]{0, 0}), MAX_FRAME_BYTES, pool);
+        try {
+            header.read();
+            fail("帧头不完整");
+        } catch (EOFException expected) {
+            // 预期
+        }
+        // 归还的缓冲区可以再次取得，不需要新的 slab
+        long allocated = pool.getAllocatedBytes();
+        pool.release(pool.acquire(10));
+        assertEquals(allocated, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void rejectsMessagesThatCrossAFrameBoundary() throws Exception {
+        byte[] encoded = encode(new Message(Message.Type.PRIVATE_CHAT, "alice", "bob", "跨帧的消息"));
+        int split = 4 + (encoded.length - 4) / 2; // 流头之后，消息中间
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        writeFrame(wire, Arrays.copyOfRange(encoded, 0, split));
+        writeFrame(wire, Arrays.copyOfRange(encoded, split, encoded.length));
+
+        FrameInputStream frames = new FrameInputStream(new ByteArrayInputStream(wire.toByteArray()), MAX_FRAME_BYTES, pool);
+        ObjectInputStream in = new SymbolInputStream(frames);
+        frames.guard(in, CLIENT_TYPES);
+        frames.beginMessage();
+        try {
+            in.readObject();
+            fail("消息不应跨越帧边界");
+        } catch (StreamCorruptedException expected) {
+            assertTrue(expected.getMessage().contains("帧边界"));
+        }
+    }
+
+    @Test
+    public void rejectsArrayLengthsBeyondTheFrame() throws Exception {
+        byte[] data = new byte[32];
+        Arrays.fill(data, (byte) 0x5A);
+        byte[] encoded = encode(new Message(Message.Type.FILE_PRIVATE, "alice", "bob", "a.bin", data.length, data));
+        assertArrayEquals(data, ((Message) decode(encoded)).getFileData()); // 未篡改时正常解码
+
+        // 把数组长度改成远超帧大小的值：过滤器在分配之前拒绝
+        int at = indexOf(encoded, data) - 4;
+        assertEquals(data.length, ((encoded[at + 2] & 0xFF) << 8) | (encoded[at + 3] & 0xFF));
+        encoded[at] = 0x7F;
+        try {
+            decode(encoded);
+            fail("伪造的数组长度应被拒绝");
+        } catch (InvalidClassException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void countsArrayBytesByElementSize() throws Exception {
+        String[] names = new String[8];
+        Arrays.fill(names, "a");
+        byte[] encoded = encode(names);
+        assertArrayEquals(names, (String[]) decode(encoded));
+
+        // 元素个数不超过帧剩余的字节数，但按引用4字节折算后超出：与同样字节数的 byte[] 一样拒绝
+        int at = indexOf(encoded, new byte[]{0, 0, 0, 8, 0x74, 0, 1, 'a'});
+        int length = encoded.length / 2;
+        assertTrue(DecodeFilter.arrayBytes(String[].class, length) > encoded.length);
+        encoded[at + 3] = (byte) length;
+        try {
+            decode(encoded);
+            fail("引用数组按字节计入预算");
+        } catch (InvalidClassException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void arrayBytesFollowTheElementType() {
+        assertEquals(10, DecodeFilter.arrayBytes(byte[].class, 10));
+        assertEquals(20, DecodeFilter.arrayBytes(char[].class, 10));
+        assertEquals(40, DecodeFilter.arrayBytes(int[].class, 10));
+        assertEquals(80, DecodeFilter.arrayBytes(long[].class, 10));
+        assertEquals(40, DecodeFilter.arrayBytes(Object[].class, 10));
+    }
+
+    @Test
+    public void rejectsClassesOutsideTheAllowlist() throws Exception {
+        try {
+            decode(encode(new Foreign()));
+            fail("白名单之外的类应被拒绝");
+        } catch (InvalidClassException expected) {
+            // 预期
+        }
+    }
+
+    private Object decode(byte[] encoded) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        writeFrame(wire, encoded);
+        FrameInputStream frames = new FrameInputStream(new ByteArrayInputStream(wire.toByteArray()), MAX_FRAME_BYTES, pool);
+        ObjectInputStream in = new SymbolInputStream(frames);
+        frames.guard(in, CLIENT_TYPES);
+        frames.beginMessage();
+        return in.readObject();
+    }
+
+    private static byte[] encode(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeFrame(ByteArrayOutputStream wire, byte[] content) {
+        int length = content.length;
+        wire.write(length >>> 24);
+        wire.write(length >>> 16);
+        wire.write(length >>> 8);
+        wire.write(length);
+        wire.write(content, 0, length);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("未找到数组内容");
+    }
+}
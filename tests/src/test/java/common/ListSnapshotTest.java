@@ -0,0 +1,70 @@
+package common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ListSnapshotTest {
+    @Test
+    public void groupListRoundTrips() throws Exception {
+        ListSnapshot snapshot = ListSnapshot.ofGroups(3, Arrays.asList(
+                Group.summary("g1", "默认群", 5), Group.summary("g2", "课程设计", 2)));
+        ListSnapshot received = roundTrip(snapshot.copy());
+        assertEquals(Message.Type.GROUP_LIST, received.getType());
+        assertEquals(3, received.getVersion());
+        List<Group> groups = received.getGroupList();
+        assertEquals(2, groups.size());
+        assertEquals("g2", groups.get(1).getGroupId());
+        assertEquals("课程设计", groups.get(1).getGroupName());
+        assertEquals(5, groups.get(0).getMemberCount());
+    }
+
+    @Test
+    public void namesLongerThanWriteUtfAllowsStillEncode() throws Exception {
+        String longName = repeat('群', 40000); // UTF-8 编码 120000 字节，超过 writeUTF 的 65535
+        ListSnapshot snapshot = ListSnapshot.ofGroups(1, Arrays.asList(
+                Group.summary("g1", longName, 1), Group.summary("g2", "正常", 1)));
+        List<Group> groups = roundTrip(snapshot).getGroupList();
+        assertEquals(longName, groups.get(0).getGroupName());
+        assertEquals("正常", groups.get(1).getGroupName());
+
+        List<String> users = roundTrip(ListSnapshot.ofOnlineUsers(1, Arrays.asList(longName, "bob"))).getOnlineUsers();
+        assertEquals(Arrays.asList(longName, "bob"), users);
+    }
+
+    @Test
+    public void entriesWithoutNamesAreSkipped() throws Exception {
+        ListSnapshot groups = ListSnapshot.ofGroups(1, Arrays.asList(
+                Group.summary("g1", null, 1), null, Group.summary("g2", "正常", 1)));
+        List<Group> decoded = roundTrip(groups).getGroupList();
+        assertEquals(1, decoded.size());
+        assertEquals("g2", decoded.get(0).getGroupId());
+
+        List<String> users = roundTrip(ListSnapshot.ofOnlineUsers(1, Arrays.asList("alice", null, "bob"))).getOnlineUsers();
+        assertEquals(Arrays.asList("alice", "bob"), users);
+    }
+
+    private static ListSnapshot roundTrip(ListSnapshot snapshot) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(snapshot);
+        }
+        return (ListSnapshot) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,229 @@
+package common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SymbolStreamTest {
+    @Test
+    public void namesRoundTripAndRepeatsAreWrittenAsIds() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SymbolOutputStream out = new SymbolOutputStream(bytes);
+        SymbolOutputStream.writeName(out, "alice");
+        out.flush();
+        int first = bytes.size();
+        SymbolOutputStream.writeName(out, "alice");
+        out.flush();
+        assertEquals(2 + 1, bytes.size() - first); // 数据块头 2 字节，编号 1 字节
+        SymbolOutputStream.writeName(out, null);
+        SymbolOutputStream.writeName(out, "bob");
+        SymbolOutputStream.writeName(out, "alice");
+        out.close();
+        assertEquals(2, out.getSymbolCount());
+
+        SymbolInputStream in = new SymbolInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("alice", SymbolInputStream.readName(in));
+        assertEquals("alice", SymbolInputStream.readName(in));
+        assertNull(SymbolInputStream.readName(in));
+        assertEquals("bob", SymbolInputStream.readName(in));
+        assertEquals("alice", SymbolInputStream.readName(in));
+    }
+
+    @Test
+    public void longNamesAreWrittenAsLiterals() throws IOException {
+        String longName = repeat('x', SymbolOutputStream.MAX_SYMBOL_LENGTH + 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SymbolOutputStream out = new SymbolOutputStream(bytes);
+        SymbolOutputStream.writeName(out, longName);
+        SymbolOutputStream.writeName(out, longName);
+        out.close();
+        assertEquals(0, out.getSymbolCount());
+
+        SymbolInputStream in = new SymbolInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(longName, SymbolInputStream.readName(in));
+        assertEquals(longName, SymbolInputStream.readName(in));
+    }
+
+    @Test
+    public void dictionaryIsBoundedPerConnection() throws IOException {
+        System.setProperty("chat.symbols.perConnection", "2");
+        SymbolOutputStream out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            out = new SymbolOutputStream(bytes);
+        } finally {
+            System.clearProperty("chat.symbols.perConnection");
+        }
+        for (String name : new String[]{"a", "b", "c", "c", "a"}) {
+            SymbolOutputStream.writeName(out, name);
+        }
+        out.close();
+        assertEquals(2, out.getSymbolCount());
+
+        SymbolInputStream in = new SymbolInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (String name : new String[]{"a", "b", "c", "c", "a"}) {
+            assertEquals(name, SymbolInputStream.readName(in));
+        }
+    }
+
+    @Test
+    public void dictionarySurvivesReset() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SymbolOutputStream out = new SymbolOutputStream(bytes);
+        out.writeObject(envelope("alice", "bob", "hi"));
+        out.reset();
+        out.writeObject(envelope("alice", "bob", "again"));
+        out.close();
+        assertEquals(2, out.getSymbolCount());
+
+        SymbolInputStream in = new SymbolInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        RoutedEnvelope first = (RoutedEnvelope) in.readObject();
+        RoutedEnvelope second = (RoutedEnvelope) in.readObject();
+        assertEquals("hi", first.getContent());
+        assertEquals("again", second.getContent());
+        assertEquals("alice", second.getSender());
+        assertEquals("bob", second.getReceiver());
+    }
+
+    @Test
+    public void envelopeRoundTripsAllRoutingFields() throws IOException, ClassNotFoundException {
+        RoutedEnvelope sent = envelope("alice", null, "群消息 ✓");
+        sent.setType(Message.Type.GROUP_CHAT);
+        sent.setGroupId("g1");
+        sent.setConversationId("group:g1");
+        sent.setSeq(7);
+        sent.setAckSeq(6);
+        sent.setClientSeq(5);
+        sent.setMulticastEpoch(4);
+        sent.setMulticastSeq(3);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SymbolOutputStream out = new SymbolOutputStream(bytes)) {
+            out.writeObject(sent);
+        }
+        RoutedEnvelope received = (RoutedEnvelope) new SymbolInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(Message.Type.GROUP_CHAT, received.getType());
+        assertEquals("alice", received.getSender());
+        assertNull(received.getReceiver());
+        assertEquals("g1", received.getGroupId());
+        assertEquals("group:g1", received.getConversationId());
+        assertEquals(7, received.getSeq());
+        assertEquals(6, received.getAckSeq());
+        assertEquals(5, received.getClientSeq());
+        assertEquals(4, received.getMulticastEpoch());
+        assertEquals(3, received.getMulticastSeq());
+        assertEquals("群消息 ✓", received.getContent());
+        assertEquals(sent.getBodyLength(), received.getBodyLength());
+    }
+
+    @Test
+    public void plainStreamsUseLiterals() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(envelope("alice", "bob", "hi"));
+        }
+        RoutedEnvelope received = (RoutedEnvelope) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals("alice", received.getSender());
+        assertEquals("bob", received.getReceiver());
+        assertEquals("hi", received.getContent());
+    }
+
+    @Test
+    public void plainStreamRejectsDictionaryReferences() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SymbolOutputStream out = new SymbolOutputStream(bytes);
+        SymbolOutputStream.writeName(out, "alice");
+        out.close();
+        try {
+            SymbolInputStream.readName(new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("普通输入流不应接受字典定义");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void rejectsUndefinedIds() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeByte(SymbolOutputStream.FIRST_ID);
+        }
+        try {
+            SymbolInputStream.readName(new SymbolInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("未定义的编号应被拒绝");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("未定义"));
+        }
+    }
+
+    @Test
+    public void canonicalizerDeduplicatesNames() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            SymbolOutputStream.writeName(out, "alice");
+            SymbolOutputStream.writeName(out, "alice");
+        }
+        Map<String, String> table = new HashMap<>();
+        SymbolInputStream in = new SymbolInputStream(new ByteArrayInputStream(bytes.toByteArray()),
+                name -> table.computeIfAbsent(name, n -> n));
+        assertSame(SymbolInputStream.readName(in), SymbolInputStream.readName(in));
+    }
+
+    @Test
+    public void readBytesHandlesLargeAndTruncatedPayloads() throws IOException {
+        byte[] data = new byte[200 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.write(data);
+        }
+        byte[] encoded = bytes.toByteArray();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(encoded));
+        assertArrayEquals(data, SymbolInputStream.readBytes(in, data.length));
+
+        // 声明的长度远大于实际数据：读到流尾失败，而不是先分配声明的长度
+        ObjectInputStream truncated = new ObjectInputStream(new ByteArrayInputStream(encoded));
+        try {
+            SymbolInputStream.readBytes(truncated, Integer.MAX_VALUE);
+            fail("数据不足时应失败");
+        } catch (EOFException expected) {
+            // 预期
+        }
+        try {
+            SymbolInputStream.readBytes(truncated, -1);
+            fail("负长度应被拒绝");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    private static RoutedEnvelope envelope(String sender, String receiver, String content) {
+        return new RoutedEnvelope(Message.Type.PRIVATE_CHAT, sender, receiver, content);
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package server.auth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PasswordHasherTest {
+    private final PasswordHasher hasher = new PasswordHasher(1000);
+
+    @Test
+    public void verifiesTheOriginalPassword() {
+        String stored = hasher.hash("secret");
+        assertTrue(hasher.verify("secret", stored));
+        assertFalse(hasher.verify("Secret", stored));
+        assertFalse(hasher.verify("", stored));
+    }
+
+    @Test
+    public void saltsEveryHash() {
+        assertNotEquals(hasher.hash("secret"), hasher.hash("secret"));
+    }
+
+    @Test
+    public void storesAlgorithmAndIterations() {
+        String[] parts = hasher.hash("secret").split("\\$");
+        assertEquals(4, parts.length);
+        assertEquals("pbkdf2_sha256", parts[0]);
+        assertEquals("1000", parts[1]);
+    }
+
+    @Test
+    public void verifiesWithTheIterationsRecordedInTheHash() {
+        String stored = new PasswordHasher(2000).hash("secret");
+        assertTrue(hasher.verify("secret", stored));
+    }
+
+    @Test
+    public void rejectsMalformedOrMissingInput() {
+        assertFalse(hasher.verify(null, hasher.hash("secret")));
+        assertFalse(hasher.verify("secret", null));
+        assertFalse(hasher.verify("secret", "plaintext"));
+        assertFalse(hasher.verify("secret", "md5$1000$c2FsdA==$aGFzaA=="));
+        assertFalse(hasher.verify("secret", "pbkdf2_sha256$abc$c2FsdA==$aGFzaA=="));
+        assertFalse(hasher.verify("secret", "pbkdf2_sha256$1000$not base64$aGFzaA=="));
+    }
+}
@@ -0,0 +1,127 @@
+package server.broadcast;
+
+import common.Group;
+import org.junit.After;
+import org.junit.Test;
+import server.managers.GroupManager;
+import server.managers.SymbolTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PresenceSubscriptionsTest {
+    private final SymbolTable symbols = new SymbolTable();
+    private final GroupManager groups = new GroupManager(2, symbols);
+    private final PresenceSubscriptions presence = new PresenceSubscriptions(groups, symbols);
+
+    @After
+    public void clearLimit() {
+        System.clearProperty("chat.presence.maxUsers");
+    }
+
+    @Test
+    public void notifiesDirectFollowersOnly() throws Exception {
+        presence.replace("alice", Arrays.asList("bob", "carol"), null);
+        presence.replace("dave", Collections.singletonList("carol"), null);
+
+        assertEquals(Collections.singletonList("alice"), notified("bob"));
+        assertEquals(Arrays.asList("alice", "dave"), notified("carol"));
+        assertEquals(Collections.emptyList(), notified("erin"));
+    }
+
+    @Test
+    public void replacingDropsThePreviousInterests() throws Exception {
+        String groupId = groups.createGroup("项目组").getGroupId();
+        groups.joinGroup(groupId, "carol");
+        presence.replace("alice", Collections.singletonList("bob"), groupId);
+        presence.replace("alice", Collections.singletonList("dave"), null);
+
+        assertEquals(Collections.emptyList(), notified("bob"));
+        assertEquals(Collections.emptyList(), notified("carol"));
+        assertEquals(Collections.singletonList("alice"), notified("dave"));
+
+        presence.remove("alice");
+        assertEquals(Collections.emptyList(), notified("dave"));
+        assertEquals(0, presence.getSubscriberCount());
+    }
+
+    @Test
+    public void notifiesViewersOfGroupsTheUserBelongsTo() throws Exception {
+        String shared = groups.createGroup("共同的群").getGroupId();
+        String other = groups.createGroup("别的群").getGroupId();
+        groups.joinGroup(shared, "bob");
+        groups.joinGroup(other, "carol");
+        presence.replace("alice", null, shared);
+        presence.replace("carol", null, other);
+        presence.replace("dave", Collections.singletonList("bob"), shared); // 既关注又在查看，只通知一次
+        presence.replace("bob", null, shared);                             // 自己上下线不通知自己
+
+        assertEquals(Arrays.asList("alice", "dave"), notified("bob"));
+    }
+
+    @Test
+    public void offlineNoticesReachViewersBeforeTheUserLeavesTheGroup() throws Exception {
+        String groupId = groups.createGroup("项目组").getGroupId();
+        groups.joinGroup(groupId, "bob");
+        presence.replace("alice", null, groupId);
+
+        // 与 SessionManager.endSession 相同：先通知再退群，通知在群邮箱中排在退群之前
+        Queue<String> received = new ConcurrentLinkedQueue<>();
+        presence.forEachSubscriber("bob", received::add);
+        groups.removeUserFromAllGroups("bob");
+        drain(groupId);
+        assertEquals(Collections.singletonList("alice"), new ArrayList<>(received));
+
+        // 已退群后的通知不再发给查看该群的人
+        assertEquals(Collections.emptyList(), notified("bob"));
+    }
+
+    @Test
+    public void ignoresSelfUnknownGroupsAndInterestsBeyondTheLimit() throws Exception {
+        System.setProperty("chat.presence.maxUsers", "2");
+        PresenceSubscriptions limited = new PresenceSubscriptions(groups, symbols);
+        limited.replace("alice", Arrays.asList("alice", "bob", "carol", "dave"), null);
+        limited.replace("erin", Collections.singletonList("erin"), "没有这个群");
+
+        assertEquals(1, limited.getSubscriberCount());
+        assertEquals(Collections.singletonList("alice"), notified(limited, "bob"));
+        assertEquals(Collections.singletonList("alice"), notified(limited, "carol"));
+        assertEquals(Collections.emptyList(), notified(limited, "dave"));
+    }
+
+    private List<String> notified(String username) throws InterruptedException {
+        return notified(presence, username);
+    }
+
+    /**
+     * 收集某用户上下线时被通知的订阅者（包括在群邮箱中通知的），按用户名排序
+     */
+    private List<String> notified(PresenceSubscriptions subscriptions, String username) throws InterruptedException {
+        Queue<String> received = new ConcurrentLinkedQueue<>();
+        subscriptions.forEachSubscriber(username, received::add);
+        for (Group group : groups.getAllGroups()) {
+            drain(group.getGroupId());
+        }
+        List<String> result = new ArrayList<>(received);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * 等待此前投递到该群邮箱的任务执行完
+     */
+    private void drain(String groupId) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(groups.submit(groupId, done::countDown));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
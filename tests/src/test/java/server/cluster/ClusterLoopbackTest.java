@@ -0,0 +1,295 @@
+package server.cluster;
+
+import common.Message;
+import org.junit.After;
+import org.junit.Test;
+import server.broadcast.BroadcastService;
+import server.broadcast.MulticastPublisher;
+import server.managers.ConversationSequencer;
+import server.managers.GroupManager;
+import server.managers.OnlineUserManager;
+import server.managers.SymbolTable;
+import server.managers.UserManager;
+import server.metrics.ServerMetrics;
+import server.ratelimit.BandwidthScheduler;
+import server.session.ClientSession;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 在本机回环地址上启动多个节点，经真实的 TcpClusterBus 互联
+ */
+public class ClusterLoopbackTest {
+    private static final long TIMEOUT_MILLIS = 10_000;
+    private static final byte[] SECRET = "loopback-secret".getBytes(StandardCharsets.UTF_8);
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Socket> sockets = new ArrayList<>();
+
+    /**
+     * 一个节点：总线 + 集群节点 + 本地在线用户
+     */
+    private static final class Node {
+        final String id;
+        final InetSocketAddress address;
+        final Map<String, InetSocketAddress> peers = new LinkedHashMap<>();
+        final OnlineUserManager online = new OnlineUserManager(new SymbolTable());
+        final GroupManager groups = new GroupManager(online.getSymbols());
+        TcpClusterBus bus;
+        ClusterNode cluster;
+
+        Node(String id, int port) {
+            this.id = id;
+            this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        }
+
+        void start() throws IOException {
+            bus = new TcpClusterBus(id, address, SECRET, peers);
+            cluster = new ClusterNode(bus, new UserManager(), online, groups,
+                    new BroadcastService(online, groups, new MulticastPublisher()), new ConversationSequencer(id),
+                    new ServerMetrics());
+            bus.start(cluster);
+        }
+    }
+
+    @After
+    public void shutdown() throws IOException {
+        for (Node node : nodes) {
+            if (node.bus != null) {
+                node.bus.shutdown();
+            }
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void rejectsHellosSignedWithAnotherSecret() throws Exception {
+        List<Node> cluster = startCluster(2);
+        Node n1 = cluster.get(0);
+        awaitMesh(cluster);
+
+        try (Socket impostor = new Socket()) {
+            impostor.connect(n1.address, 1000);
+            impostor.setSoTimeout(5000);
+            byte[] nonce = new byte[32];
+            new DataInputStream(impostor.getInputStream()).readFully(nonce);
+            ClusterMessage hello = new ClusterMessage(ClusterMessage.Kind.HELLO, "n2");
+            hello.setSignature(hmac("wrong-secret".getBytes(StandardCharsets.UTF_8), nonce, "n2"));
+            ClusterMessage forged = new ClusterMessage(ClusterMessage.Kind.PRESENCE_ONLINE, "n2");
+            forged.setMembers(Collections.singletonList("mallory"));
+            try {
+                ObjectOutputStream out = new ObjectOutputStream(impostor.getOutputStream());
+                out.writeObject(hello);
+                out.writeObject(forged);
+                out.flush();
+            } catch (SocketException e) {
+                // 对方校验握手后已断开，后续写入可能失败
+            }
+
+            try {
+                assertEquals("签名错误的连接应被断开", -1, impostor.getInputStream().read());
+            } catch (SocketException e) {
+                // 连接被重置同样说明已断开
+            }
+        }
+        Thread.sleep(300);
+        assertFalse(n1.online.isUserOnlineInCluster("mallory"));
+    }
+
+    @Test
+    public void peersReachableInOneDirectionOnlyAreNotLive() throws Exception {
+        Node n1 = new Node("n1", freePort());
+        Node n2 = new Node("n2", freePort());
+        n1.peers.put("n2", n2.address); // n2 不认识 n1：n1 的出站连接能建立，但 n2 拒绝其握手，也不会连回来
+        nodes.add(n1);
+        nodes.add(n2);
+        n2.start();
+        n1.start();
+
+        Thread.sleep(2500); // 超过一次重连间隔
+        assertTrue(n1.bus.getLiveNodes().isEmpty());
+        assertEquals("n1", n1.cluster.ownerOf("any-group"));
+    }
+
+    @Test
+    public void deliversPrivateMessagesAcrossNodes() throws Exception {
+        List<Node> cluster = startCluster(3);
+        awaitMesh(cluster);
+        Reader bob = login(cluster.get(1), "bob");
+        login(cluster.get(0), "alice");
+        awaitOnlineEverywhere(cluster, "alice", "bob");
+
+        Node n1 = cluster.get(0);
+        await(() -> "n2".equals(n1.cluster.locate("bob")));
+        for (int i = 1; i <= 3; i++) {
+            Message chat = new Message(Message.Type.PRIVATE_CHAT, "alice", "bob", "消息 " + i);
+            assertTrue(n1.cluster.deliverPrivate("bob", chat));
+        }
+        for (int i = 1; i <= 3; i++) {
+            assertEquals("消息 " + i, bob.next(Message.Type.PRIVATE_CHAT).getContent());
+        }
+    }
+
+    @Test
+    public void fansGroupMessagesOutToEveryNode() throws Exception {
+        List<Node> cluster = startCluster(3);
+        awaitMesh(cluster);
+        login(cluster.get(0), "alice");
+        Reader bob = login(cluster.get(1), "bob");
+        Reader carol = login(cluster.get(2), "carol");
+        awaitOnlineEverywhere(cluster, "alice", "bob", "carol");
+
+        String groupId = cluster.get(0).groups.getDefaultGroup().getGroupId();
+        for (Node node : cluster) {
+            assertEquals("各节点对群归属的判断一致", cluster.get(0).cluster.ownerOf(groupId), node.cluster.ownerOf(groupId));
+        }
+        for (int i = 1; i <= 3; i++) {
+            Message chat = new Message(Message.Type.GROUP_CHAT, "alice", groupId, "群消息 " + i);
+            chat.setGroupId(groupId);
+            cluster.get(0).cluster.publishGroup(groupId, "alice", chat);
+        }
+        for (Reader member : new Reader[]{bob, carol}) {
+            long lastSeq = 0;
+            for (int i = 1; i <= 3; i++) {
+                Message received = member.next(Message.Type.GROUP_CHAT);
+                assertEquals("群消息 " + i, received.getContent());
+                assertTrue("群序号由归属节点统一分配", received.getSeq() > lastSeq);
+                lastSeq = received.getSeq();
+            }
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private List<Node> startCluster(int size) throws IOException {
+        List<Node> cluster = new ArrayList<>();
+        for (int i = 1; i <= size; i++) {
+            cluster.add(new Node("n" + i, freePort()));
+        }
+        for (Node node : cluster) {
+            for (Node peer : cluster) {
+                if (peer != node) {
+                    node.peers.put(peer.id, peer.address);
+                }
+            }
+        }
+        nodes.addAll(cluster);
+        for (Node node : cluster) {
+            node.start();
+        }
+        return cluster;
+    }
+
+    private void awaitMesh(List<Node> cluster) throws InterruptedException {
+        for (Node node : cluster) {
+            await(() -> node.bus.getLiveNodes().size() == cluster.size() - 1);
+        }
+    }
+
+    private void awaitOnlineEverywhere(List<Node> cluster, String... usernames) throws InterruptedException {
+        for (Node node : cluster) {
+            for (String username : usernames) {
+                await(() -> node.online.isUserOnlineInCluster(username));
+            }
+        }
+    }
+
+    /**
+     * 与 ClientHandler 登录成功后的步骤相同：登记会话、加入默认群、发布上线
+     * 会话绑定到一条本机连接，返回连接另一端的读取器
+     */
+    private Reader login(Node node, String username) throws IOException {
+        ClientSession session = new ClientSession(username, "token", 64, new BandwidthScheduler(0, 0));
+        Socket server;
+        Socket client;
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+            server = listener.accept();
+        }
+        sockets.add(server);
+        sockets.add(client);
+        session.attach(new ObjectOutputStream(server.getOutputStream()), server,
+                new Message(Message.Type.RESUME, "服务器", username, "登录成功"), 0);
+        assertTrue(node.online.addUserIfAbsent(username, session));
+        node.groups.joinDefaultGroup(username);
+        node.cluster.publishOnline(username);
+        return new Reader(client);
+    }
+
+    /**
+     * 读取会话下发的帧，跳过在线列表等其他帧
+     */
+    private static final class Reader {
+        private final Socket socket;
+        private ObjectInputStream in;
+
+        Reader(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setSoTimeout((int) TIMEOUT_MILLIS);
+        }
+
+        Message next(Message.Type type) throws Exception {
+            if (in == null) {
+                in = new ObjectInputStream(socket.getInputStream());
+            }
+            try {
+                while (true) {
+                    Object frame = in.readObject();
+                    if (frame instanceof Message && ((Message) frame).getType() == type) {
+                        return (Message) frame;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                throw new AssertionError("未按时收到 " + type);
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("等待超时");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static byte[] hmac(byte[] key, byte[] nonce, String nodeId) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        mac.update(nonce);
+        return mac.doFinal(nodeId.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,137 @@
+package server.handlers;
+
+import common.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.managers.GroupManager;
+import server.managers.OnlineUserManager;
+import server.managers.SymbolTable;
+import server.ratelimit.BandwidthScheduler;
+import server.session.ClientSession;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 群成员分页查询的边界
+ */
+public class MessageHandlerTest {
+    private static final int PAGE_SIZE = 3; // 服务器的每页上限
+    private static final int MEMBERS = 7;
+
+    private final SymbolTable symbols = new SymbolTable();
+    private final GroupManager groups = new GroupManager(1, symbols);
+    private final Recorder session = new Recorder();
+    private MessageHandler handler;
+    private String groupId;
+    private String[] members;
+
+    /**
+     * 记录下发给该会话的帧
+     */
+    private static final class Recorder extends ClientSession {
+        Message last;
+
+        Recorder() {
+            super("alice", "token", new BandwidthScheduler(0, 0));
+        }
+
+        @Override
+        public synchronized void send(Object frame) {
+            last = (Message) frame;
+        }
+    }
+
+    @Before
+    public void createGroup() throws InterruptedException {
+        System.setProperty("chat.groupMembers.pageSize", String.valueOf(PAGE_SIZE));
+        handler = new MessageHandler(new OnlineUserManager(symbols), groups, null, null, null);
+        groupId = groups.createGroup("分页").getGroupId();
+        for (int i = 1; i <= MEMBERS; i++) {
+            groups.joinGroup(groupId, "user" + i);
+        }
+        CountDownLatch joined = new CountDownLatch(1);
+        groups.submit(groupId, joined::countDown);
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        members = groups.getGroupById(groupId).memberSnapshot();
+        assertEquals(MEMBERS, members.length);
+    }
+
+    @After
+    public void clearPageSize() {
+        System.clearProperty("chat.groupMembers.pageSize");
+    }
+
+    @Test
+    public void pagesThroughTheMembers() {
+        Message page = query(0, 2);
+        assertEquals(slice(0, 2), page.getGroupMembers());
+        assertEquals(0, page.getPageOffset());
+        assertEquals(MEMBERS, page.getMemberTotal());
+
+        page = query(6, 2); // 最后一页不满
+        assertEquals(slice(6, 7), page.getGroupMembers());
+        assertEquals(6, page.getPageOffset());
+    }
+
+    @Test
+    public void offsetsPastTheEndReturnAnEmptyPage() {
+        Message page = query(MEMBERS + 10, 2);
+        assertEquals(Collections.emptyList(), page.getGroupMembers());
+        assertEquals(MEMBERS, page.getPageOffset()); // 偏移收到末尾，客户端据此知道已到头
+        assertEquals(MEMBERS, page.getMemberTotal());
+
+        page = query(MEMBERS, 2);
+        assertEquals(Collections.emptyList(), page.getGroupMembers());
+    }
+
+    @Test
+    public void negativeOffsetsStartFromTheFirstMember() {
+        Message page = query(-5, 2);
+        assertEquals(slice(0, 2), page.getGroupMembers());
+        assertEquals(0, page.getPageOffset());
+    }
+
+    @Test
+    public void zeroOrNegativeLimitsUseTheServerPageSize() {
+        assertEquals(slice(0, PAGE_SIZE), query(0, 0).getGroupMembers());
+        assertEquals(slice(0, PAGE_SIZE), query(0, -1).getGroupMembers());
+    }
+
+    @Test
+    public void limitsAboveTheServerMaximumAreCapped() {
+        Message page = query(1, 1000);
+        assertEquals(slice(1, 1 + PAGE_SIZE), page.getGroupMembers());
+        assertEquals(1, page.getPageOffset());
+    }
+
+    @Test
+    public void unknownGroupsGetAnError() {
+        Message request = new Message(Message.Type.GROUP_MEMBERS, "alice", "", "");
+        request.setGroupId("没有这个群");
+        handler.handleGroupMembers(request, session);
+        assertEquals(Message.Type.GROUP_CHAT, session.last.getType());
+        assertTrue(session.last.getContent().contains("不存在"));
+    }
+
+    private Message query(int offset, int limit) {
+        Message request = new Message(Message.Type.GROUP_MEMBERS, "alice", "", "");
+        request.setGroupId(groupId);
+        request.setPageOffset(offset);
+        request.setPageLimit(limit);
+        handler.handleGroupMembers(request, session);
+        assertEquals(Message.Type.GROUP_MEMBERS, session.last.getType());
+        return session.last;
+    }
+
+    private List<String> slice(int from, int to) {
+        return Arrays.asList(Arrays.copyOfRange(members, from, to));
+    }
+}
@@ -0,0 +1,45 @@
+package server.managers;
+
+import common.Message;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class ConversationSequencerTest {
+    private final ConversationSequencer sequencer = new ConversationSequencer("node-1", "e1");
+
+    @Test
+    public void privateConversationIsSharedByBothParties() {
+        ConversationSequencer.Counter ab = sequencer.privateConversation("alice", "bob");
+        assertSame(ab, sequencer.privateConversation("bob", "alice"));
+        assertEquals("p:alice|bob@node-1.e1", ab.getConversationId());
+        assertEquals("g:g1@node-1.e1", sequencer.groupConversation("g1").getConversationId());
+    }
+
+    @Test
+    public void countersIncreaseFromOnePerConversation() {
+        ConversationSequencer.Counter group = sequencer.groupConversation("g1");
+        Message first = new Message(Message.Type.GROUP_CHAT, "alice", null, "1");
+        Message second = new Message(Message.Type.GROUP_CHAT, "alice", null, "2");
+        group.stamp(first);
+        group.stamp(second);
+        assertEquals(1, first.getSeq());
+        assertEquals(2, second.getSeq());
+        assertEquals(group.getConversationId(), second.getConversationId());
+        assertEquals(1, sequencer.groupConversation("g2").next());
+        assertEquals(1, sequencer.privateConversation("alice", "bob").next());
+    }
+
+    @Test
+    public void restartsUseANewConversationId() {
+        ConversationSequencer restarted = new ConversationSequencer("node-1", "e2");
+        assertEquals(1, restarted.groupConversation("g1").next());
+        assertNotEquals(sequencer.groupConversation("g1").getConversationId(),
+                restarted.groupConversation("g1").getConversationId());
+        // 未指定纪元时每次创建随机生成
+        assertNotEquals(new ConversationSequencer("node-1").groupConversation("g1").getConversationId(),
+                new ConversationSequencer("node-1").groupConversation("g1").getConversationId());
+    }
+}
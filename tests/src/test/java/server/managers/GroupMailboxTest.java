@@ -0,0 +1,165 @@
+package server.managers;
+
+import common.Group;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroupMailboxTest {
+    private static final int USERS = 8;
+    private static final int ROUNDS = 300;
+
+    private final SymbolTable symbols = new SymbolTable();
+    private final GroupManager groups = new GroupManager(4, symbols);
+
+    @Test
+    public void publishesSeeTheMembershipOfTheirPositionInTheMailbox() throws Exception {
+        String groupId = groups.createGroup("并发").getGroupId();
+        IdBitmap everyone = IdBitmap.EMPTY;
+        for (int u = 0; u < USERS; u++) {
+            everyone = everyone.with(symbols.idOf(symbols.intern("user" + u)));
+        }
+        IdBitmap online = everyone;
+        Queue<String> violations = new ConcurrentLinkedQueue<>();
+        AtomicInteger running = new AtomicInteger();
+        int[] lastRound = new int[USERS]; // 只在邮箱任务中读写
+
+        // 每个线程按 入群、发言、退群、发言 的顺序投递；同一群的任务串行执行，发言时看到的成员关系与投递位置一致
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int u = 0; u < USERS; u++) {
+            String user = "user" + u;
+            int index = u;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int round = 1; round <= ROUNDS; round++) {
+                    int current = round;
+                    groups.joinGroup(groupId, user);
+                    groups.submit(groupId, () -> {
+                        if (running.incrementAndGet() != 1) {
+                            violations.add("同一群的任务并发执行");
+                        }
+                        if (lastRound[index] != current - 1) {
+                            violations.add(user + " 的第 " + current + " 条发言乱序");
+                        }
+                        lastRound[index] = current;
+                        check(groupId, online, user, true, violations);
+                        running.decrementAndGet();
+                    });
+                    groups.leaveGroup(groupId, user);
+                    groups.submit(groupId, () -> check(groupId, online, user, false, violations));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        drain(groupId);
+
+        assertTrue(violations.toString(), violations.isEmpty());
+        for (int u = 0; u < USERS; u++) {
+            assertEquals(ROUNDS, lastRound[u]);
+        }
+        assertTrue(groups.getGroupMembers(groupId).isEmpty());
+        assertEquals(0, groups.getOnlineMemberIds(groupId, everyone).length);
+        assertNotMemberOnceIdle(groupId, "user0");
+    }
+
+    @Test
+    public void removeUserFromAllGroupsLeavesEveryGroup() throws Exception {
+        List<String> groupIds = new ArrayList<>();
+        groupIds.add(groups.getDefaultGroup().getGroupId());
+        groupIds.add(groups.createGroup("一").getGroupId());
+        groupIds.add(groups.createGroup("二").getGroupId());
+        for (String groupId : groupIds) {
+            groups.joinGroup(groupId, "alice");
+            groups.joinGroup(groupId, "bob");
+        }
+
+        // 移除之前投递的任务仍看到 alice，之后的看不到
+        Queue<String> before = new ConcurrentLinkedQueue<>();
+        Queue<String> after = new ConcurrentLinkedQueue<>();
+        for (String groupId : groupIds) {
+            Group group = groups.getGroupById(groupId);
+            groups.submit(groupId, () -> before.addAll(group.getMembers()));
+        }
+        groups.removeUserFromAllGroups("alice");
+        for (String groupId : groupIds) {
+            Group group = groups.getGroupById(groupId);
+            groups.submit(groupId, () -> after.addAll(group.getMembers()));
+        }
+        for (String groupId : groupIds) {
+            drain(groupId);
+        }
+
+        assertEquals(3, before.stream().filter("alice"::equals).count());
+        assertEquals(0, after.stream().filter("alice"::equals).count());
+        assertEquals(3, after.stream().filter("bob"::equals).count());
+        for (String groupId : groupIds) {
+            assertEquals(Arrays.asList("bob"), groups.getGroupMembers(groupId));
+            assertNotMemberOnceIdle(groupId, "alice");
+            assertTrue(groups.mayHaveMember(groupId, "bob"));
+        }
+    }
+
+    @Test
+    public void unknownGroupsRejectTasks() {
+        assertFalse(groups.submit("没有这个群", () -> { }));
+        assertFalse(groups.joinGroup("没有这个群", "alice"));
+    }
+
+    /**
+     * 在邮箱任务中核对成员快照与成员位图
+     */
+    private void check(String groupId, IdBitmap online, String user, boolean member, Queue<String> violations) {
+        List<String> members = groups.getGroupMembers(groupId);
+        if (members.contains(user) != member) {
+            violations.add(user + (member ? " 发言时不在群中" : " 退群后仍在群中"));
+        }
+        int[] ids = groups.getOnlineMemberIds(groupId, online);
+        int[] expected = members.stream().mapToInt(symbols::idOf).sorted().toArray();
+        int[] actual = Arrays.copyOf(ids, ids.length);
+        Arrays.sort(actual);
+        if (!Arrays.equals(expected, actual)) {
+            violations.add("成员位图与成员快照不一致：" + members);
+        }
+    }
+
+    /**
+     * 邮箱执行任务期间 mayHaveMember 保守地返回true，空闲后按成员位图判断
+     */
+    private void assertNotMemberOnceIdle(String groupId, String user) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (groups.mayHaveMember(groupId, user)) {
+            assertTrue(user + " 退群后邮箱空闲时不应再被视为成员", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * 等待此前投递到该群的任务全部执行完
+     */
+    private void drain(String groupId) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(groups.submit(groupId, done::countDown));
+        assertTrue("群任务未按时执行完", done.await(10, TimeUnit.SECONDS));
+    }
+}
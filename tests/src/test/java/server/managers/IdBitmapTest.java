@@ -0,0 +1,143 @@
+package server.managers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IdBitmapTest {
+    @Test
+    public void addsAndRemovesSingleIds() {
+        IdBitmap bitmap = IdBitmap.EMPTY.with(3).with(70000).with(3);
+        assertEquals(2, bitmap.cardinality());
+        assertTrue(bitmap.contains(3));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(4));
+        assertFalse(bitmap.contains(70000 - 65536));
+
+        IdBitmap removed = bitmap.without(3);
+        assertEquals(1, removed.cardinality());
+        assertFalse(removed.contains(3));
+        assertTrue(bitmap.contains(3)); // 原位图不变
+    }
+
+    @Test
+    public void unchangedUpdatesReturnTheSameInstance() {
+        IdBitmap bitmap = IdBitmap.EMPTY.with(5);
+        assertSame(bitmap, bitmap.with(5));
+        assertSame(bitmap, bitmap.without(6));
+        assertSame(bitmap, bitmap.update(new int[0], new int[0]));
+    }
+
+    @Test
+    public void removalWinsWhenAnIdIsBothAddedAndRemoved() {
+        IdBitmap bitmap = IdBitmap.EMPTY.update(new int[]{1, 2, 2, 3}, new int[]{2});
+        assertEquals(2, bitmap.cardinality());
+        assertArrayEquals(new int[]{1, 3}, bitmap.intersect(bitmap));
+    }
+
+    @Test
+    public void convertsBetweenArrayAndBitmapBlocks() {
+        int[] dense = range(0, 5000);
+        IdBitmap bitmap = IdBitmap.EMPTY.update(dense, new int[0]);
+        assertEquals(5000, bitmap.cardinality());
+        assertArrayEquals(dense, bitmap.intersect(bitmap));
+
+        // 删到 4096 个以下后回到数组块，内容保持不变
+        IdBitmap sparse = bitmap.update(new int[0], range(0, 2000));
+        assertEquals(3000, sparse.cardinality());
+        assertArrayEquals(range(2000, 5000), sparse.intersect(sparse));
+        assertArrayEquals(range(2000, 5000), sparse.intersect(bitmap));
+        assertArrayEquals(range(2000, 5000), bitmap.intersect(sparse));
+    }
+
+    @Test
+    public void intersectsSkewedArrayBlocks() {
+        IdBitmap small = IdBitmap.EMPTY.update(new int[]{10, 500, 3999, 4001}, new int[0]);
+        IdBitmap large = IdBitmap.EMPTY.update(range(0, 4000), new int[0]);
+        assertArrayEquals(new int[]{10, 500, 3999}, small.intersect(large));
+        assertArrayEquals(new int[]{10, 500, 3999}, large.intersect(small));
+    }
+
+    @Test
+    public void emptyBlocksAreDropped() {
+        IdBitmap bitmap = IdBitmap.EMPTY.update(new int[]{1, 65537}, new int[0]).update(new int[0], new int[]{1, 65537});
+        assertEquals(0, bitmap.cardinality());
+        assertEquals(0, bitmap.intersect(IdBitmap.EMPTY.with(1)).length);
+    }
+
+    @Test
+    public void matchesAReferenceSetUnderRandomUpdates() {
+        Random random = new Random(42);
+        TreeSet<Integer> left = new TreeSet<>();
+        TreeSet<Integer> right = new TreeSet<>();
+        IdBitmap a = IdBitmap.EMPTY;
+        IdBitmap b = IdBitmap.EMPTY;
+        for (int round = 0; round < 200; round++) {
+            // 三个块：0 号块较密（会在数组与位图之间切换），1、2 号块较稀
+            int block = random.nextInt(3);
+            int span = block == 0 ? 8192 : 65536;
+            int[] added = randomIds(random, block, span, random.nextInt(800));
+            int[] removed = randomIds(random, block, span, random.nextInt(600));
+            if (round % 2 == 0) {
+                a = a.update(added, removed);
+                apply(left, added, removed);
+            } else {
+                b = b.update(added, removed);
+                apply(right, added, removed);
+            }
+            assertEquals(left.size(), a.cardinality());
+            assertEquals(right.size(), b.cardinality());
+
+            TreeSet<Integer> both = new TreeSet<>(left);
+            both.retainAll(right);
+            assertArrayEquals(toArray(both), a.intersect(b));
+            assertArrayEquals(toArray(both), b.intersect(a));
+        }
+        for (int id = 0; id < 3 * 65536; id += 7) {
+            assertEquals(left.contains(id), a.contains(id));
+        }
+    }
+
+    private static int[] randomIds(Random random, int block, int span, int n) {
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = (block << 16) | random.nextInt(span);
+        }
+        return ids;
+    }
+
+    private static void apply(TreeSet<Integer> set, int[] added, int[] removed) {
+        for (int id : added) {
+            set.add(id);
+        }
+        for (int id : removed) {
+            set.remove(id);
+        }
+    }
+
+    private static int[] toArray(TreeSet<Integer> set) {
+        List<Integer> list = new ArrayList<>(set);
+        int[] ids = new int[list.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = list.get(i);
+        }
+        return ids;
+    }
+
+    private static int[] range(int from, int to) {
+        int[] ids = new int[to - from];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = from + i;
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,40 @@
+package server.managers;
+
+import common.Message;
+import org.junit.Test;
+import server.auth.PasswordHasher;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UserManagerTest {
+    private final UserManager userManager = new UserManager(new PasswordHasher(1000));
+
+    @Test
+    public void registersValidAccounts() {
+        Message reply = userManager.handleRegister(register("alice"), null);
+        assertTrue(reply.getContent().contains("注册成功"));
+        assertTrue(userManager.verifyPassword("alice", "secret"));
+    }
+
+    @Test
+    public void rejectsBlankAndOversizedAccounts() {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i <= UserManager.MAX_ACCOUNT_LENGTH; i++) {
+            longName.append('a');
+        }
+        for (String account : new String[]{null, "", "   ", longName.toString()}) {
+            boolean[] published = {false};
+            Message reply = userManager.handleRegister(register(account), () -> published[0] = true);
+            assertFalse(reply.getContent().contains("注册成功"));
+            assertFalse(published[0]);
+        }
+        assertFalse(userManager.accountExists(longName.toString()));
+    }
+
+    private static Message register(String account) {
+        Message message = new Message(Message.Type.REGISTER, account);
+        message.setPassword("secret");
+        return message;
+    }
+}
@@ -0,0 +1,103 @@
+package server.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void emptySnapshotReportsZero() {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.percentile(99), 0);
+        assertEquals(0, snapshot.getMean(), 0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int v = 0; v < 16; v++) {
+            histogram.record(v);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(16, snapshot.getCount());
+        assertEquals(7, snapshot.percentile(50));
+        assertEquals(15, snapshot.percentile(100));
+        assertEquals(7.5, snapshot.getMean(), 1e-9);
+    }
+
+    @Test
+    public void bucketsCoverEveryValueWithinOneSixteenth() {
+        int previous = -1;
+        for (long v = 0; v < 1L << 40; v = v < 1000 ? v + 1 : v + v / 7) {
+            int index = Histogram.bucketIndex(v);
+            assertTrue("索引应随值单调不减：" + v, index >= previous);
+            long upper = Histogram.bucketUpperBound(index);
+            assertTrue("上界不应小于值：" + v, upper >= v);
+            assertTrue("相对误差超过1/16：" + v, upper - v <= v / 16);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void bucketBoundariesAreContiguous() {
+        int last = Histogram.bucketIndex((1L << 40) - 1);
+        for (int i = 0; i < last; i++) {
+            long upper = Histogram.bucketUpperBound(i);
+            assertEquals(i, Histogram.bucketIndex(upper));
+            assertEquals(i + 1, Histogram.bucketIndex(upper + 1));
+        }
+    }
+
+    @Test
+    public void percentilesStayWithinTheBucketError() {
+        Histogram histogram = new Histogram();
+        for (int v = 1; v <= 10000; v++) {
+            histogram.record(v);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertWithin(5000, snapshot.percentile(50));
+        assertWithin(9900, snapshot.percentile(99));
+        assertWithin(9990, snapshot.percentile(99.9));
+        assertEquals(10000, snapshot.percentile(100));
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(5000.5, snapshot.getMean(), 1e-9);
+    }
+
+    @Test
+    public void clampsOutOfRangeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.percentile(50));
+        assertEquals((1L << 40) - 1, snapshot.getMax());
+        assertEquals((1L << 40) - 1, snapshot.percentile(100));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    histogram.record(j);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, histogram.getCount());
+        assertEquals(80000, histogram.snapshot().getCount());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("期望约 " + expected + "，实际 " + actual, actual >= expected && actual - expected <= expected / 16);
+    }
+}
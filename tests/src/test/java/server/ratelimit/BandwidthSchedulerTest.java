@@ -0,0 +1,156 @@
+package server.ratelimit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthSchedulerTest {
+    private static final long UNLIMITED = 1L << 40; // 全局限额足够大：调度生效但出口从不等待
+    private static final int SLICE = 64 * 1024;
+
+    @After
+    public void clearWeights() {
+        System.clearProperty("chat.bandwidth.weight.heavy");
+    }
+
+    @Test
+    public void grantsInFinishTagOrderByWeight() {
+        System.setProperty("chat.bandwidth.weight.heavy", "2");
+        BandwidthScheduler scheduler = new BandwidthScheduler(UNLIMITED, 0);
+        Pending pending = new Pending(scheduler);
+        pending.request("light", 6);
+        pending.request("heavy", 6);
+
+        // light 的完成标签为 1、2、3…片，heavy 权重为 2，为 0.5、1、1.5…片；标签相同时先排队的先放行
+        List<String> order = new ArrayList<>();
+        long now = System.nanoTime();
+        for (int i = 0; i < 9; i++) {
+            order.add(pending.grantNext(now));
+        }
+        assertEquals(Arrays.asList("heavy", "light", "heavy", "heavy", "light", "heavy", "heavy", "light", "heavy"),
+                order);
+        assertEquals(3, scheduler.getWaiting());
+        assertEquals(Collections.singletonList("light(3)"), scheduler.getBusiestSenders(2));
+    }
+
+    @Test
+    public void latecomersStartAtTheCurrentVirtualTime() {
+        Pending pending = new Pending(new BandwidthScheduler(UNLIMITED, 0));
+        pending.request("alice", 5);
+        long now = System.nanoTime();
+        pending.grantNext(now);
+        pending.grantNext(now);
+
+        // carol 不排在 alice 积压的切片之后，只与 alice 的下一片竞争
+        pending.request("carol", 1);
+        assertEquals("alice", pending.grantNext(now));
+        assertEquals("carol", pending.grantNext(now));
+        assertEquals("alice", pending.grantNext(now));
+    }
+
+    @Test
+    public void cappedSendersYieldToOthers() {
+        BandwidthScheduler scheduler = new BandwidthScheduler(0, 256 * 1024); // 突发量 256KB，即 4 片
+        Pending pending = new Pending(scheduler);
+        BandwidthScheduler.Ticket fifth = pending.request("alice", 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            assertEquals("alice", pending.grantNext(now));
+        }
+
+        // alice 第 5 片的完成标签与 carol 相同且排队更早，但额度已用完，carol 先放行
+        BandwidthScheduler.Ticket carol = pending.request("carol", 1);
+        long wait = scheduler.tryGrant(fifth, now);
+        assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(300));
+        assertEquals(0, scheduler.tryGrant(carol, now));
+        assertTrue(scheduler.tryGrant(fifth, now) > 0);
+
+        assertEquals("额度恢复后放行", 0, scheduler.tryGrant(fifth, now + wait));
+        assertEquals(0, scheduler.getWaiting());
+    }
+
+    @Test
+    public void throttledSendersResumeWhenTheirCapRefills() {
+        BandwidthScheduler scheduler = new BandwidthScheduler(0, 256 * 1024);
+        Pending pending = new Pending(scheduler);
+        pending.request("alice", 8);
+        pending.request("carol", 1);
+        long now = System.nanoTime();
+
+        // 每个发送者每秒 4 片：alice 放行 4 片后被限额挡住，不影响 carol
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            order.add(pending.grantNext(now));
+        }
+        assertEquals(Arrays.asList("alice", "carol", "alice", "alice", "alice"), order);
+        assertNull(pending.grantNext(now));
+
+        long later = now + TimeUnit.SECONDS.toNanos(1);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("alice", pending.grantNext(later));
+        }
+        assertNull(pending.grantNext(later));
+    }
+
+    @Test
+    public void evictsIdleCapsOnceRefilled() {
+        BandwidthScheduler scheduler = new BandwidthScheduler(0, 1024 * 1024);
+        Pending pending = new Pending(scheduler);
+        pending.request("alice", 1);
+        pending.request("bob", 1);
+        long now = System.nanoTime();
+        pending.grantNext(now);
+        pending.grantNext(now);
+        assertEquals(2, scheduler.getTrackedCaps());
+
+        // 空闲到额度回满的桶被清理，刚用过的 carol 的桶保留
+        pending.request("carol", 1);
+        assertEquals("carol", pending.grantNext(now + TimeUnit.SECONDS.toNanos(11)));
+        assertEquals(1, scheduler.getTrackedCaps());
+    }
+
+    /**
+     * 排队的切片及其发送者
+     */
+    private static final class Pending {
+        final BandwidthScheduler scheduler;
+        final Map<BandwidthScheduler.Ticket, String> tickets = new LinkedHashMap<>();
+
+        Pending(BandwidthScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        BandwidthScheduler.Ticket request(String sender, int count) {
+            BandwidthScheduler.Ticket ticket = null;
+            for (int i = 0; i < count; i++) {
+                ticket = scheduler.request(sender, "dave", SLICE, null);
+                tickets.put(ticket, sender);
+            }
+            return ticket;
+        }
+
+        /**
+         * 放行当前队首，返回其发送者；没有可放行的切片时返回null
+         */
+        String grantNext(long nowNanos) {
+            for (Map.Entry<BandwidthScheduler.Ticket, String> entry : tickets.entrySet()) {
+                if (scheduler.tryGrant(entry.getKey(), nowNanos) == 0) {
+                    tickets.remove(entry.getKey());
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package server.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100); // 每秒10个
+
+    @Test
+    public void startsFullAndAllowsTheBurst() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.acquire(now, 0));
+        assertEquals(0, bucket.acquire(now, 0));
+        assertEquals(0, bucket.acquire(now, 0));
+        assertEquals(-1, bucket.acquire(now, 0));
+    }
+
+    @Test
+    public void reservesWithinTheMaximumWait() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.acquire(now, 0));
+        assertEquals(-1, bucket.acquire(now, INTERVAL - 1));
+        assertEquals(INTERVAL, bucket.acquire(now, INTERVAL));
+        // 预约已推迟理论到达时间，下一个要再等一个间隔
+        assertEquals(2 * INTERVAL, bucket.acquire(now, 2 * INTERVAL));
+    }
+
+    @Test
+    public void refillsOneTokenPerInterval() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long now = System.nanoTime();
+        bucket.acquire(now, 0);
+        bucket.acquire(now, 0);
+        assertEquals(-1, bucket.acquire(now + INTERVAL - 1, 0));
+        assertEquals(0, bucket.acquire(now + INTERVAL, 0));
+        assertEquals(-1, bucket.acquire(now + INTERVAL, 0));
+        // 空闲很久也只攒满突发量
+        long later = now + 100 * INTERVAL;
+        assertEquals(0, bucket.acquire(later, 0));
+        assertEquals(0, bucket.acquire(later, 0));
+        assertEquals(-1, bucket.acquire(later, 0));
+    }
+
+    @Test
+    public void waitNanosDoesNotTakeTokens() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.waitNanos(now, 3));
+        assertEquals(INTERVAL, bucket.waitNanos(now, 4));
+        assertEquals(0, bucket.waitNanos(now, 3));
+    }
+
+    @Test
+    public void takeConsumesSeveralPermits() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+        bucket.take(now, 2);
+        assertEquals(0, bucket.waitNanos(now, 1));
+        assertEquals(INTERVAL, bucket.waitNanos(now, 2));
+        bucket.take(now, 1);
+        assertEquals(INTERVAL, bucket.waitNanos(now, 1));
+        assertEquals(0, bucket.waitNanos(now + INTERVAL, 1));
+    }
+
+    @Test
+    public void concurrentAcquiresNeverExceedTheBurst() throws InterruptedException {
+        int burst = 50;
+        TokenBucket bucket = new TokenBucket(1, burst);
+        long now = System.nanoTime();
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 100; j++) {
+                    if (bucket.acquire(now, 0) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(burst, granted.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveRate() {
+        new TokenBucket(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBurst() {
+        new TokenBucket(1, 0);
+    }
+}
@@ -0,0 +1,202 @@
+package server.session;
+
+import common.Message;
+import org.junit.After;
+import org.junit.Test;
+import server.ratelimit.BandwidthScheduler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClientSessionReplayTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final ClientSession session = new ClientSession("bob", "token", 4, new BandwidthScheduler(0, 0));
+
+    @After
+    public void closeSession() {
+        session.close();
+    }
+
+    @Test
+    public void acknowledgedFramesAreNotReplayed() throws Exception {
+        Socket first = new Socket();
+        deliver(first, 1, 3);
+        session.acknowledge(2);
+        assertTrue(session.detach(first));
+
+        // 2 已确认并移除，无法再从 2 之后补发
+        assertFalse(session.attach(new ObjectOutputStream(new ByteArrayOutputStream()), new Socket(), response(), 1));
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        assertTrue(session.attach(new ObjectOutputStream(sink), new Socket(), response(), 2));
+        List<Object> frames = read(sink, 2);
+        assertEquals(Message.Type.RESUME, ((Message) frames.get(0)).getType());
+        assertEquals("消息 3", ((Message) frames.get(1)).getContent());
+    }
+
+    @Test
+    public void acksBeyondTheDeliveredSeqAreClamped() throws Exception {
+        Socket first = new Socket();
+        deliver(first, 1, 2);
+        session.acknowledge(100); // 只移除已下发的帧
+        assertEquals(2, session.getDeliveredSeq());
+
+        session.send(chat(3));
+        awaitDelivered(3);
+        assertTrue(session.detach(first));
+
+        assertFalse(session.attach(new ObjectOutputStream(new ByteArrayOutputStream()), new Socket(), response(), 4));
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        assertTrue(session.attach(new ObjectOutputStream(sink), new Socket(), response(), 2));
+        assertEquals("消息 3", ((Message) read(sink, 2).get(1)).getContent());
+    }
+
+    @Test
+    public void replayBufferKeepsOnlyTheNewestFrames() throws Exception {
+        Socket first = new Socket();
+        deliver(first, 1, 10);
+        assertTrue(session.detach(first));
+
+        // 容量为 4：只剩 7..10
+        assertFalse(session.attach(new ObjectOutputStream(new ByteArrayOutputStream()), new Socket(), response(), 5));
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        assertTrue(session.attach(new ObjectOutputStream(sink), new Socket(), response(), 6));
+        List<Object> frames = read(sink, 5);
+        for (int i = 1; i <= 4; i++) {
+            assertEquals("消息 " + (6 + i), ((Message) frames.get(i)).getContent());
+        }
+    }
+
+    @Test
+    public void attachTrimsTheFramesTheClientHasSeen() throws Exception {
+        Socket first = new Socket();
+        deliver(first, 1, 3);
+        assertTrue(session.detach(first));
+
+        Socket second = new Socket();
+        assertTrue(session.attach(new ObjectOutputStream(new ByteArrayOutputStream()), second, response(), 2));
+        assertTrue(session.detach(second));
+        // 重连时已告知看到了 2，之前的帧不再保留
+        assertFalse(session.attach(new ObjectOutputStream(new ByteArrayOutputStream()), new Socket(), response(), 1));
+        assertTrue(session.attach(new ObjectOutputStream(new ByteArrayOutputStream()), new Socket(), response(), 2));
+    }
+
+    @Test
+    public void largeFilesSentWhileDetachedAreReplacedByANotice() throws Exception {
+        Socket first = new Socket();
+        assertTrue(session.attach(new ObjectOutputStream(new ByteArrayOutputStream()), first, response(), 0));
+        assertTrue(session.detach(first));
+        session.send(new Message(Message.Type.FILE_PRIVATE, "alice", "bob", "big.bin", 2 * 1024 * 1024, new byte[2 * 1024 * 1024]));
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        assertTrue(session.attach(new ObjectOutputStream(sink), new Socket(), response(), 0));
+        Message notice = (Message) readWhenWritten(sink, 2).get(1);
+        assertEquals(Message.Type.PRIVATE_CHAT, notice.getType());
+        assertTrue(notice.getContent().contains("big.bin"));
+        assertEquals(1, session.getDeliveredSeq());
+    }
+
+    @Test
+    public void duplicateClientSeqsAreDropped() {
+        assertTrue(session.acceptClientSeq(1));
+        assertTrue(session.acceptClientSeq(2));
+        assertFalse(session.acceptClientSeq(2));
+        assertFalse(session.acceptClientSeq(1));
+        assertTrue(session.acceptClientSeq(0)); // 未编号的消息不去重
+        assertEquals(2, session.getLastClientSeq());
+    }
+
+    @Test
+    public void confirmsClientSeqsOnlyWhenTheyAdvance() throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        assertTrue(session.attach(new ObjectOutputStream(sink), new Socket(), response(), 0));
+        session.confirmClientSeq(); // 尚未接受任何上行消息
+        session.acceptClientSeq(1);
+        session.acceptClientSeq(2);
+        session.confirmClientSeq();
+        session.confirmClientSeq(); // 没有前进，不再下发
+        awaitDelivered(1);
+        session.acceptClientSeq(3);
+        session.confirmClientSeq();
+        awaitDelivered(2);
+
+        List<Object> frames = readWhenWritten(sink, 3);
+        assertEquals(Message.Type.ACK, ((Message) frames.get(1)).getType());
+        assertEquals(2, ((Message) frames.get(1)).getAckSeq());
+        assertEquals(3, ((Message) frames.get(2)).getAckSeq());
+        assertEquals(2, session.getDeliveredSeq());
+    }
+
+    /**
+     * 绑定连接并下发 from..to 号消息，等待写线程全部写出
+     */
+    private void deliver(Socket socket, int from, int to) throws Exception {
+        assertTrue(session.attach(new ObjectOutputStream(new ByteArrayOutputStream()), socket, response(), 0));
+        for (int i = from; i <= to; i++) {
+            session.send(chat(i));
+        }
+        awaitDelivered(to);
+    }
+
+    private void awaitDelivered(long seq) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (session.getDeliveredSeq() < seq) {
+            assertTrue("写线程未能按时写出", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * 从连接写出的字节中解码前 count 帧
+     */
+    private static List<Object> read(ByteArrayOutputStream sink, int count) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(sink.toByteArray()));
+        List<Object> frames = new ArrayList<>();
+        try {
+            while (true) {
+                frames.add(in.readObject());
+            }
+        } catch (EOFException end) {
+            // 读完
+        }
+        assertEquals(count, frames.size());
+        return frames;
+    }
+
+    /**
+     * 写线程在分配序号之后才写出，等到 count 帧都能解码为止
+     */
+    private static List<Object> readWhenWritten(ByteArrayOutputStream sink, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return read(sink, count);
+            } catch (AssertionError e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    throw e;
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private static Message response() {
+        return new Message(Message.Type.RESUME, "服务器", "bob", "会话恢复成功");
+    }
+
+    private static Message chat(int i) {
+        return new Message(Message.Type.PRIVATE_CHAT, "alice", "bob", "消息 " + i);
+    }
+}
@@ -0,0 +1,131 @@
+package server.session;
+
+import common.FileChunks;
+import common.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpooledFileTest {
+    private static final int SIZE = FileChunks.UPLOAD_SLICE_BYTES + OutboundLanes.SLICE_BYTES + 100;
+
+    private Path path;
+    private byte[] data;
+
+    @Before
+    public void writeFile() throws IOException {
+        data = new byte[SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        path = Files.createTempFile("chat-upload-test-", ".part");
+        Files.write(path, data);
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void deletedWhenTheLastHolderReleases() {
+        SpooledFile file = new SpooledFile(path, SIZE);
+        file.retain();
+        file.release();
+        assertTrue(Files.exists(path));
+        file.release();
+        assertFalse(Files.exists(path));
+        try {
+            file.retain();
+            fail("释放后不能再登记持有者");
+        } catch (IllegalStateException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void lanesHoldTheFileUntilTheLastSlice() {
+        Message upload = spooled(new SpooledFile(path, SIZE));
+        OutboundLanes lanes = new OutboundLanes();
+        lanes.add(upload);
+        FileChunks.release(upload); // 上传的处理方交出后释放
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        while (!lanes.isEmpty()) {
+            assertTrue(Files.exists(path));
+            Message chunk = (Message) lanes.poll();
+            assertEquals(Message.Type.FILE_CHUNK, chunk.getType());
+            received.write(chunk.getFileData(), 0, chunk.getFileData().length);
+        }
+        assertArrayEquals(data, received.toByteArray());
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void clearingTheLanesReleasesQueuedFiles() {
+        Message upload = spooled(new SpooledFile(path, SIZE));
+        OutboundLanes lanes = new OutboundLanes();
+        lanes.add(upload);
+        lanes.add(upload);
+        FileChunks.release(upload);
+        lanes.poll(); // 第一个文件切片中，第二个仍在排队
+        lanes.clear();
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void deferredSlicesReadOnlyTheirRangeWhenSerialized() throws Exception {
+        SpooledFile file = new SpooledFile(path, SIZE);
+        Message upload = spooled(file);
+        int sliceBytes = FileChunks.UPLOAD_SLICE_BYTES / 4;
+        int count = FileChunks.count(upload, sliceBytes);
+        Message last = FileChunks.sliceLater(upload, "t", count - 1, count, sliceBytes);
+        assertNull(last.getFileData());
+        assertEquals(SIZE, last.getFileSize());
+
+        Message copy = (Message) roundTrip(last);
+        assertArrayEquals(Arrays.copyOfRange(data, (count - 1) * sliceBytes, SIZE), copy.getFileData());
+        assertEquals(count - 1, copy.getChunkIndex());
+
+        try {
+            roundTrip(upload);
+            fail("整个文件应先切片再序列化");
+        } catch (InvalidObjectException expected) {
+            // 预期
+        }
+        file.release();
+    }
+
+    private Message spooled(SpooledFile file) {
+        Message upload = new Message(Message.Type.FILE_PRIVATE, "alice", "bob", "a.bin", SIZE, null);
+        upload.setFileSource(file);
+        return upload;
+    }
+
+    private static Object roundTrip(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+}